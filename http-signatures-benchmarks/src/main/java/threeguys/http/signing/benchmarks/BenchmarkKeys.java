@@ -0,0 +1,74 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.benchmarks;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+
+public class BenchmarkKeys {
+
+    public static final int DEFAULT_RSA_BITS = 2048;
+
+    public static int defaultKeySize(String algorithm) {
+        switch (algorithm) {
+            case "ecdsa-sha256":
+                return 256;
+            case "ecdsa-sha384":
+                return 384;
+            case "ecdsa-sha512":
+                return 521;
+            case "ed25519":
+                return 255;
+            default:
+                return DEFAULT_RSA_BITS;
+        }
+    }
+
+    // "default" is what defaultKeySize picks, "strong" is the biggest key people actually use
+    public static int keySize(String algorithm, String strength) {
+        if ("strong".equals(strength)) {
+            switch (keyType(algorithm)) {
+                case "EC":
+                    return 521;
+                case "Ed25519":
+                    // Only comes in one size
+                    return 255;
+                default:
+                    return 4096;
+            }
+        }
+        return defaultKeySize(algorithm);
+    }
+
+    public static String keyType(String algorithm) {
+        if (algorithm.startsWith("ecdsa")) {
+            return "EC";
+        }
+        return "ed25519".equals(algorithm) ? "Ed25519" : "RSA";
+    }
+
+    public static KeyPair newKeyPair(String algorithm, int keySize) throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance(keyType(algorithm));
+        generator.initialize(keySize);
+        return generator.generateKeyPair();
+    }
+
+    public static KeyPair newKeyPair(String algorithm) throws GeneralSecurityException {
+        return newKeyPair(algorithm, defaultKeySize(algorithm));
+    }
+
+}
@@ -0,0 +1,62 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.benchmarks;
+
+import threeguys.http.signing.providers.HeaderProvider;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static threeguys.http.signing.Signatures.HEADER_CREATED;
+import static threeguys.http.signing.Signatures.HEADER_EXPIRES;
+import static threeguys.http.signing.Signatures.HEADER_REQUEST_TARGET;
+
+// A POST with a JSON body and some number of extra headers, all of them signed
+public class BenchmarkRequests {
+
+    public static final String METHOD = "POST";
+    public static final String URL = "/foo?param=value&pet=dog";
+
+    public static List<String> headersToInclude(int headerCount) {
+        List<String> headers = new ArrayList<>();
+        headers.add(HEADER_REQUEST_TARGET);
+        headers.add(HEADER_CREATED);
+        headers.add(HEADER_EXPIRES);
+        headers.add("content-type");
+        headers.add("digest");
+        for (int i=0; i<headerCount; i++) {
+            headers.add("x-header-" + i);
+        }
+        return headers;
+    }
+
+    public static Map<String, String[]> headers(int headerCount) {
+        Map<String, String[]> headers = new HashMap<>();
+        headers.put("content-type", new String[] { "application/json" });
+        headers.put("digest", new String[] { "SHA-256=X48E9qOokqqrvdts8nOJRJN3OWDUoyWxBf7kbu9DBPE=" });
+        for (int i=0; i<headerCount; i++) {
+            headers.put("x-header-" + i, new String[] { "value number " + i });
+        }
+        return headers;
+    }
+
+    public static HeaderProvider provider(Map<String, String[]> headers) {
+        return headers::get;
+    }
+
+}
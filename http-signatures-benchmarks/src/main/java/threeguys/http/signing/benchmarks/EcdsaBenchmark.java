@@ -0,0 +1,102 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import threeguys.http.signing.algorithms.SigningAlgorithm;
+import threeguys.http.signing.algorithms.SigningAlgorithms;
+import threeguys.http.signing.bouncycastle.BouncyCastleAlgorithms;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.Signature;
+import java.util.concurrent.TimeUnit;
+
+// JCA SHA*withECDSA (what SigningAlgorithms uses) against BouncyCastle's lightweight ECDSASigner
+// with the per key tables from PrecomputedEcKeys. verify is a fresh initVerify every time, the
+// way the verifier works without a KeyBoundSignatureCache; verifyInitialized reuses a Signature
+// already set up for the key, the way it works with one.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EcdsaBenchmark {
+
+    @Param({ "jca", "bc" })
+    public String provider;
+
+    @Param({ "ecdsa-sha256", "ecdsa-sha384", "ecdsa-sha512" })
+    public String algorithm;
+
+    private SigningAlgorithm signing;
+    private KeyPair pair;
+    private byte [] payload;
+    private byte [] signature;
+    private Signature initialized;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        signing = ("bc".equals(provider) ? BouncyCastleAlgorithms.ecdsaAlgorithms()
+                : SigningAlgorithms.defaultAlgorithms()).get(algorithm);
+        pair = BenchmarkKeys.newKeyPair(algorithm);
+        payload = "(request-target): post /foo?param=value&pet=dog\n(created): 1402170695"
+                .getBytes(StandardCharsets.UTF_8);
+
+        Signature signer = signing.create();
+        signer.initSign(pair.getPrivate());
+        signer.update(payload);
+        signature = signer.sign();
+
+        initialized = signing.create();
+        initialized.initVerify(pair.getPublic());
+    }
+
+    @Benchmark
+    public boolean verify() throws GeneralSecurityException {
+        Signature s = signing.create();
+        s.initVerify(pair.getPublic());
+        s.update(payload);
+        return s.verify(signature);
+    }
+
+    @Benchmark
+    public boolean verifyInitialized() throws GeneralSecurityException {
+        initialized.update(payload);
+        return initialized.verify(signature);
+    }
+
+    @Benchmark
+    public byte [] sign() throws GeneralSecurityException {
+        Signature s = signing.create();
+        s.initSign(pair.getPrivate());
+        s.update(payload);
+        return s.sign();
+    }
+
+}
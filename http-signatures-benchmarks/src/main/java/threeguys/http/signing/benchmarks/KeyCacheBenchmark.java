@@ -0,0 +1,125 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import threeguys.http.signing.exceptions.KeyNotFoundException;
+import threeguys.http.signing.providers.KeyProvider;
+import threeguys.http.signing.providers.cache.CacheEntry;
+import threeguys.http.signing.providers.cache.ConcurrentInMemoryLruKeyCache;
+import threeguys.http.signing.providers.cache.ConcurrentKeyCache;
+import threeguys.http.signing.providers.cache.KeyCache;
+import threeguys.http.signing.providers.cache.OffHeapKeyStore;
+import threeguys.http.signing.providers.cache.TieredKeyCache;
+
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.time.Clock;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Compares the read/write-locked LRU cache against ConcurrentKeyCache. The interesting
+// numbers are with several threads (e.g. -t 8 and -t 64), where the LRU cache serializes.
+// tiered puts maxEntries decoded keys in front of an off heap tier holding all of them, so
+// with more keyIds than that the misses become decodes rather than loads.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeyCacheBenchmark {
+
+    @Param({ "lru", "concurrent", "tiered" })
+    public String cacheType;
+
+    @Param({ "1000" })
+    public int maxEntries;
+
+    // Number of distinct key ids requested, more than maxEntries forces evictions
+    @Param({ "500", "2000" })
+    public int keyIds;
+
+    private KeyCache<PublicKey> cache;
+    private KeyProvider<PublicKey> provider;
+    private String [] ids;
+    private PublicKey key;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        if ("lru".equals(cacheType)) {
+            ConcurrentInMemoryLruKeyCache<PublicKey> lru = new ConcurrentInMemoryLruKeyCache<>(maxEntries);
+            cache = lru;
+            provider = lru;
+        } else if ("tiered".equals(cacheType)) {
+            TieredKeyCache tiered = new TieredKeyCache(Clock.systemUTC(), maxEntries,
+                    new OffHeapKeyStore(64L * 1024 * 1024, keyIds));
+            cache = tiered;
+            provider = tiered;
+        } else {
+            ConcurrentKeyCache<PublicKey> concurrent = new ConcurrentKeyCache<>(maxEntries);
+            cache = concurrent;
+            provider = concurrent;
+        }
+
+        key = BenchmarkKeys.newKeyPair("rsa-sha256").getPublic();
+        ids = new String[keyIds];
+        for (int i=0; i<keyIds; i++) {
+            ids[i] = "key-" + i;
+            cache.putEntry(newEntry(ids[i]));
+        }
+    }
+
+    private CacheEntry<PublicKey> newEntry(String id) {
+        return new CacheEntry<>(id, key, System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+    }
+
+    // Read through the provider the way a verifier would, loading on a miss
+    private PublicKey lookup(String id) throws KeyNotFoundException {
+        PublicKey found = provider.get(id);
+        if (found == null) {
+            cache.putEntry(newEntry(id));
+            return key;
+        }
+        return found;
+    }
+
+    @Benchmark
+    public PublicKey read() throws KeyNotFoundException {
+        return lookup(ids[ThreadLocalRandom.current().nextInt(ids.length)]);
+    }
+
+    @Benchmark
+    public Object readMostly() throws KeyNotFoundException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String id = ids[random.nextInt(ids.length)];
+        if (random.nextInt(100) < 5) {
+            return cache.putEntry(newEntry(id));
+        }
+        return lookup(id);
+    }
+
+}
@@ -0,0 +1,113 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import threeguys.http.signing.HttpSignerImpl;
+import threeguys.http.signing.Payload;
+import threeguys.http.signing.PayloadBuffer;
+import threeguys.http.signing.SignatureFields;
+import threeguys.http.signing.SignatureParser;
+import threeguys.http.signing.Signatures;
+import threeguys.http.signing.algorithms.SigningAlgorithms;
+import threeguys.http.signing.exceptions.SignatureException;
+import threeguys.http.signing.providers.HeaderProvider;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+
+import static threeguys.http.signing.Signatures.FIELD_HEADERS;
+import static threeguys.http.signing.Signatures.defaultFields;
+import static threeguys.http.signing.benchmarks.BenchmarkRequests.METHOD;
+import static threeguys.http.signing.benchmarks.BenchmarkRequests.URL;
+
+// The non crypto parts of signing and verifying on their own: parsing the Signature header
+// and putting the canonical payload together
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParsingBenchmark {
+
+    @Param({ "0", "4", "16" })
+    public int headerCount;
+
+    private static final long CREATED = 1402170695L;
+    private static final long EXPIRES = CREATED + 300;
+
+    private Signatures signing;
+    private SignatureParser parser;
+    private HeaderProvider provider;
+    private String signatureHeader;
+    private SignatureFields fields;
+
+    @Setup
+    public void setup() throws GeneralSecurityException, SignatureException {
+        signing = new Signatures("rsa-sha256", SigningAlgorithms.defaultAlgorithms(), defaultFields(),
+                BenchmarkRequests.headersToInclude(headerCount));
+        parser = new SignatureParser(signing);
+        provider = BenchmarkRequests.provider(BenchmarkRequests.headers(headerCount));
+
+        KeyPair pair = BenchmarkKeys.newKeyPair("rsa-sha256");
+        HttpSignerImpl signer = new HttpSignerImpl(Clock.systemUTC(), "rsa-sha256", "benchmark-key",
+                (n) -> pair.getPrivate(), signing, 300);
+        signatureHeader = signer.sign(METHOD, URL, provider);
+        fields = parser.parse(signatureHeader);
+    }
+
+    @Benchmark
+    public SignatureFields parse() throws SignatureException {
+        return parser.parse(signatureHeader);
+    }
+
+    // The old String based path, still used by anything calling assemblePayload
+    @Benchmark
+    public Payload assemblePayload() throws SignatureException {
+        return signing.assemblePayload(METHOD, URL, provider, CREATED, EXPIRES);
+    }
+
+    // What HttpSignerImpl does now
+    @Benchmark
+    public PayloadBuffer writePayload() throws SignatureException {
+        PayloadBuffer payload = signing.payloadBuffer();
+        signing.writePayload(METHOD, URL, provider, CREATED, EXPIRES, payload, new StringBuilder());
+        return payload;
+    }
+
+    // What HttpVerifierImpl does now, driven by the parsed headers field
+    @Benchmark
+    public PayloadBuffer writeVerifierPayload() throws SignatureException {
+        PayloadBuffer payload = signing.payloadBuffer();
+        signing.writePayload(METHOD, URL, provider, CREATED, EXPIRES,
+                fields.getHeader(), fields.start(FIELD_HEADERS), fields.end(FIELD_HEADERS), payload);
+        return payload;
+    }
+
+}
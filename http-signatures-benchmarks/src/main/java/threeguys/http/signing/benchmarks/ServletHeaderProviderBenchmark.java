@@ -0,0 +1,177 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import threeguys.http.signing.PayloadBuffer;
+import threeguys.http.signing.Signatures;
+import threeguys.http.signing.algorithms.SigningAlgorithms;
+import threeguys.http.signing.providers.HeaderProvider;
+import threeguys.http.signing.servlet.HttpServletRequestHeaderProvider;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static threeguys.http.signing.Signatures.defaultFields;
+import static threeguys.http.signing.benchmarks.BenchmarkRequests.METHOD;
+import static threeguys.http.signing.benchmarks.BenchmarkRequests.URL;
+
+// Header lookups a verifier does against an HttpServletRequest carrying many more headers
+// than are signed. Run with the gc profiler (BenchmarkRunner adds it) and compare
+// gc.alloc.rate.norm for legacy and lazy to see the per request allocation.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServletHeaderProviderBenchmark {
+
+    // Unsigned headers on the request on top of the signed ones
+    @Param({ "8", "40" })
+    public int headerCount;
+
+    private static final long CREATED = 1402170695L;
+    private static final long EXPIRES = CREATED + 300;
+
+    // Headers held case insensitively, the way containers do
+    static class BenchmarkServletRequest extends HttpServletRequestWrapper {
+
+        private static final HttpServletRequest UNSUPPORTED = (HttpServletRequest) Proxy.newProxyInstance(
+                BenchmarkServletRequest.class.getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class },
+                (proxy, method, args) -> { throw new UnsupportedOperationException(method.getName()); });
+
+        private final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        BenchmarkServletRequest(Map<String, String[]> headers) {
+            super(UNSUPPORTED);
+            for (Map.Entry<String, String[]> e : headers.entrySet()) {
+                this.headers.put(e.getKey(), Arrays.asList(e.getValue()));
+            }
+        }
+
+        @Override
+        public String getMethod() {
+            return METHOD;
+        }
+
+        @Override
+        public int getContentLength() {
+            return 18;
+        }
+
+        @Override
+        public Enumeration<String> getHeaderNames() {
+            return Collections.enumeration(headers.keySet());
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            List<String> values = headers.get(name);
+            return (values == null) ? Collections.emptyEnumeration() : Collections.enumeration(values);
+        }
+
+    }
+
+    // HttpServletRequestHeaderProvider as it was before the name index became lazy
+    static class LegacyServletHeaderProvider implements HeaderProvider {
+
+        private final HttpServletRequest request;
+        private final Map<String, String> nameMappings;
+
+        LegacyServletHeaderProvider(HttpServletRequest request) {
+            this.request = request;
+            this.nameMappings = Collections.unmodifiableMap(Collections.list(this.request.getHeaderNames()).stream()
+                    .collect(Collectors.toMap(Signatures::canonicalizeName, (n) -> n)));
+        }
+
+        @Override
+        public String[] get(String name) {
+            String canonicalName = Signatures.canonicalizeName(name);
+            String mappedName = nameMappings.get(canonicalName);
+
+            if (mappedName == null) {
+                if (HttpServletRequestHeaderProvider.NAME_CONTENT_LENGTH.equals(canonicalName)) {
+                    return HttpServletRequestHeaderProvider.isContentMethod(request.getMethod())
+                            ? new String[] { Integer.toString(request.getContentLength()) }
+                            : null;
+                }
+                return null;
+            }
+
+            List<String> headers = Collections.list(request.getHeaders(name));
+            return (headers.size() == 0) ? null : headers.toArray(new String[] {});
+        }
+
+    }
+
+    private Signatures signing;
+    private HttpServletRequest request;
+
+    @Setup
+    public void setup() {
+        signing = new Signatures("rsa-sha256", SigningAlgorithms.defaultAlgorithms(), defaultFields(),
+                BenchmarkRequests.headersToInclude(0));
+
+        Map<String, String[]> headers = new TreeMap<>();
+        headers.put("Content-Type", new String[] { "application/json" });
+        headers.put("Digest", new String[] { "SHA-256=X48E9qOokqqrvdts8nOJRJN3OWDUoyWxBf7kbu9DBPE=" });
+        headers.put(Signatures.HEADER, new String[] { "keyId=\"benchmark-key\", created=1402170695" });
+        for (int i=0; i<headerCount; i++) {
+            headers.put("X-Unsigned-" + i, new String[] { "value number " + i });
+        }
+        request = new BenchmarkServletRequest(headers);
+    }
+
+    // A provider per request, the Signature header, then the signed headers
+    private PayloadBuffer verifierLookups(HeaderProvider provider) throws Exception {
+        provider.get(Signatures.HEADER);
+        PayloadBuffer payload = signing.payloadBuffer();
+        signing.writePayload(METHOD, URL, provider, CREATED, EXPIRES, payload, new StringBuilder());
+        return payload;
+    }
+
+    @Benchmark
+    public PayloadBuffer legacy() throws Exception {
+        return verifierLookups(new LegacyServletHeaderProvider(request));
+    }
+
+    @Benchmark
+    public PayloadBuffer lazy() throws Exception {
+        return verifierLookups(new HttpServletRequestHeaderProvider(request));
+    }
+
+}
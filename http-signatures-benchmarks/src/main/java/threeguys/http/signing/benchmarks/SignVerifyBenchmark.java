@@ -0,0 +1,102 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import threeguys.http.signing.HttpSignerImpl;
+import threeguys.http.signing.HttpVerifierImpl;
+import threeguys.http.signing.Signatures;
+import threeguys.http.signing.VerificationResult;
+import threeguys.http.signing.algorithms.SigningAlgorithms;
+import threeguys.http.signing.exceptions.SignatureException;
+import threeguys.http.signing.providers.HeaderProvider;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.time.Clock;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static threeguys.http.signing.Signatures.HEADER;
+import static threeguys.http.signing.Signatures.defaultFields;
+import static threeguys.http.signing.benchmarks.BenchmarkRequests.METHOD;
+import static threeguys.http.signing.benchmarks.BenchmarkRequests.URL;
+
+// End to end HttpSignerImpl.sign and HttpVerifierImpl.verify for every default algorithm
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignVerifyBenchmark {
+
+    @Param({ "rsa-sha256", "rsa-sha384", "rsa-sha512", "ecdsa-sha256", "ecdsa-sha384", "ecdsa-sha512",
+             "rsapss-sha256", "rsapss-sha512", "rsapss-sha512-224", "rsapss-sha512-256", "ed25519" })
+    public String algorithm;
+
+    @Param({ "default", "strong" })
+    public String keyStrength;
+
+    @Param({ "0", "4", "16" })
+    public int headerCount;
+
+    private HttpSignerImpl signer;
+    private HttpVerifierImpl verifier;
+    private HeaderProvider unsigned;
+    private HeaderProvider signed;
+
+    @Setup
+    public void setup() throws GeneralSecurityException, SignatureException {
+        KeyPair pair = BenchmarkKeys.newKeyPair(algorithm, BenchmarkKeys.keySize(algorithm, keyStrength));
+        Signatures signing = new Signatures(algorithm, SigningAlgorithms.defaultAlgorithms(), defaultFields(),
+                BenchmarkRequests.headersToInclude(headerCount));
+
+        // Long enough that nothing expires during a run
+        int expirationSec = (int) TimeUnit.HOURS.toSeconds(1);
+        signer = new HttpSignerImpl(Clock.systemUTC(), algorithm, "benchmark-key", (n) -> pair.getPrivate(), signing, expirationSec);
+        verifier = new HttpVerifierImpl(Clock.systemUTC(), signing, (n) -> pair.getPublic(), expirationSec);
+
+        Map<String, String[]> headers = BenchmarkRequests.headers(headerCount);
+        unsigned = BenchmarkRequests.provider(headers);
+
+        Map<String, String[]> withSignature = new HashMap<>(headers);
+        withSignature.put(HEADER, new String[] { signer.sign(METHOD, URL, unsigned) });
+        signed = BenchmarkRequests.provider(withSignature);
+    }
+
+    @Benchmark
+    public String sign() throws SignatureException {
+        return signer.sign(METHOD, URL, unsigned);
+    }
+
+    @Benchmark
+    public VerificationResult verify() throws SignatureException {
+        return verifier.verify(METHOD, URL, signed);
+    }
+
+}
@@ -0,0 +1,96 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import threeguys.http.signing.Signatures;
+import threeguys.http.signing.algorithms.SigningAlgorithms;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.Signature;
+import java.util.concurrent.TimeUnit;
+
+import static threeguys.http.signing.Signatures.DEFAULT_ALGORITHM;
+import static threeguys.http.signing.Signatures.defaultFields;
+import static threeguys.http.signing.Signatures.defaultHeadersToInclude;
+
+// Compares creating a Signature per request against the Signatures pool. The provider
+// lookup only really hurts under contention, so run with -t (e.g. -t 64) as well as -t 1.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignaturePoolBenchmark {
+
+    @Param({ "rsa-sha256", "rsa-sha512", "rsapss-sha256", "rsapss-sha512", "ecdsa-sha256", "ecdsa-sha384", "ecdsa-sha512" })
+    public String algorithm;
+
+    @Param({ "0", "64" })
+    public int poolSize;
+
+    private Signatures signing;
+    private KeyPair pair;
+    private byte [] payload;
+    private byte [] signature;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        signing = new Signatures(DEFAULT_ALGORITHM, SigningAlgorithms.defaultAlgorithms(),
+                defaultFields(), defaultHeadersToInclude(), poolSize);
+        pair = BenchmarkKeys.newKeyPair(algorithm);
+        payload = "(request-target): post /foo?param=value&pet=dog\n(created): 1402170695"
+                .getBytes(StandardCharsets.UTF_8);
+
+        Signature signer = signing.getSignature(algorithm);
+        signer.initSign(pair.getPrivate());
+        signer.update(payload);
+        signature = signer.sign();
+    }
+
+    @Benchmark
+    public Signature acquireRelease() throws GeneralSecurityException {
+        Signature s = signing.acquireSignature(algorithm);
+        signing.releaseSignature(algorithm, s);
+        return s;
+    }
+
+    @Benchmark
+    public boolean verify() throws GeneralSecurityException {
+        Signature s = signing.acquireSignature(algorithm);
+        try {
+            s.initVerify(pair.getPublic());
+            s.update(payload);
+            return s.verify(signature);
+        } finally {
+            signing.releaseSignature(algorithm, s);
+        }
+    }
+
+}
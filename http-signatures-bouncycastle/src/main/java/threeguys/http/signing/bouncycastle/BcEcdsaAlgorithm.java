@@ -0,0 +1,50 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.bouncycastle;
+
+import org.bouncycastle.crypto.Digest;
+import threeguys.http.signing.algorithms.SigningAlgorithm;
+
+import java.security.Signature;
+import java.util.function.Supplier;
+
+// Drop in replacement for the JCA ecdsa-sha* algorithms, same identifiers and signatures that
+// verify either way, backed by BcEcdsaSignature and a PrecomputedEcKeys table
+public class BcEcdsaAlgorithm extends SigningAlgorithm {
+
+    private final Supplier<Digest> digests;
+    private final PrecomputedEcKeys keys;
+
+    public BcEcdsaAlgorithm(String identifier, String algorithm, Supplier<Digest> digests) {
+        this(identifier, algorithm, digests, PrecomputedEcKeys.shared());
+    }
+
+    public BcEcdsaAlgorithm(String identifier, String algorithm, Supplier<Digest> digests, PrecomputedEcKeys keys) {
+        super(identifier, algorithm);
+        this.digests = digests;
+        this.keys = keys;
+    }
+
+    public PrecomputedEcKeys getKeys() {
+        return keys;
+    }
+
+    @Override
+    public Signature create() {
+        return new BcEcdsaSignature(getAlgorithm(), digests, keys);
+    }
+
+}
@@ -0,0 +1,126 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.bouncycastle;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.params.ECDomainParameters;
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.crypto.signers.ECDSASigner;
+import org.bouncycastle.crypto.signers.HMacDSAKCalculator;
+import org.bouncycastle.crypto.signers.StandardDSAEncoding;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.InvalidKeyException;
+import java.security.InvalidParameterException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.function.Supplier;
+
+// java.security.Signature over BouncyCastle's lightweight ECDSASigner, so the rest of the library
+// (pools, key-bound caches, PayloadBuffer) uses it like any other. Signatures are DER encoded,
+// the same as SHA*withECDSA, and signing uses deterministic k (RFC 6979).
+class BcEcdsaSignature extends Signature {
+
+    private final Supplier<Digest> digests;
+    private final Digest digest;
+    private final PrecomputedEcKeys keys;
+    private final byte [] hash;
+
+    private ECDSASigner signer;
+    private ECDomainParameters domain;
+
+    BcEcdsaSignature(String algorithm, Supplier<Digest> digests, PrecomputedEcKeys keys) {
+        super(algorithm);
+        this.digests = digests;
+        this.digest = digests.get();
+        this.keys = keys;
+        this.hash = new byte[digest.getDigestSize()];
+    }
+
+    @Override
+    protected void engineInitVerify(PublicKey publicKey) throws InvalidKeyException {
+        ECPublicKeyParameters params = keys.get(publicKey);
+        ECDSASigner verifier = new ECDSASigner();
+        verifier.init(false, params);
+
+        signer = verifier;
+        domain = params.getParameters();
+        digest.reset();
+    }
+
+    @Override
+    protected void engineInitSign(PrivateKey privateKey) throws InvalidKeyException {
+        ECPrivateKeyParameters params = PrecomputedEcKeys.toParameters(privateKey);
+        ECDSASigner deterministic = new ECDSASigner(new HMacDSAKCalculator(digests.get()));
+        deterministic.init(true, params);
+
+        signer = deterministic;
+        domain = params.getParameters();
+        digest.reset();
+    }
+
+    @Override
+    protected void engineUpdate(byte b) {
+        digest.update(b);
+    }
+
+    @Override
+    protected void engineUpdate(byte [] b, int off, int len) {
+        digest.update(b, off, len);
+    }
+
+    @Override
+    protected byte [] engineSign() throws SignatureException {
+        digest.doFinal(hash, 0);
+        BigInteger [] rs = signer.generateSignature(hash);
+        try {
+            return StandardDSAEncoding.INSTANCE.encode(domain.getN(), rs[0], rs[1]);
+        } catch (IOException e) {
+            throw new SignatureException("Could not encode signature", e);
+        }
+    }
+
+    @Override
+    protected boolean engineVerify(byte [] sigBytes) throws SignatureException {
+        // doFinal resets the digest, the signer keeps its key for the next one
+        digest.doFinal(hash, 0);
+
+        BigInteger [] rs;
+        try {
+            rs = StandardDSAEncoding.INSTANCE.decode(domain.getN(), sigBytes);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new SignatureException("Could not decode signature", e);
+        }
+        return signer.verifySignature(hash, rs[0], rs[1]);
+    }
+
+    @Override
+    @Deprecated
+    protected void engineSetParameter(String param, Object value) {
+        throw new InvalidParameterException("No parameters supported");
+    }
+
+    @Override
+    @Deprecated
+    protected Object engineGetParameter(String param) {
+        throw new InvalidParameterException("No parameters supported");
+    }
+
+}
@@ -0,0 +1,50 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.bouncycastle;
+
+import threeguys.http.signing.algorithms.SigningAlgorithm;
+import threeguys.http.signing.algorithms.SigningAlgorithms;
+
+import java.security.GeneralSecurityException;
+import java.security.Signature;
+
+// ed25519 on any JVM through BcEd25519Signature. The JDK's own EdDSA (SigningAlgorithms.ED25519,
+// Java 15 and up) is there with useNative, but its field arithmetic is BigInteger based and it
+// verifies several times slower than BouncyCastle (see Ed25519Benchmark). The signatures are
+// plain RFC 8032 Ed25519 either way, so the two sides don't need to match.
+public class BcEd25519Algorithm extends SigningAlgorithm {
+
+    private final boolean useNative;
+
+    public BcEd25519Algorithm() {
+        this(false);
+    }
+
+    public BcEd25519Algorithm(boolean useNative) {
+        super(SigningAlgorithms.ED25519.getIdentifier(), SigningAlgorithms.ED25519.getAlgorithm());
+        this.useNative = useNative;
+    }
+
+    public boolean isNative() {
+        return useNative;
+    }
+
+    @Override
+    public Signature create() throws GeneralSecurityException {
+        return useNative ? super.create() : new BcEd25519Signature();
+    }
+
+}
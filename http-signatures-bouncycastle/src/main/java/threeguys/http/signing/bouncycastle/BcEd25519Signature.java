@@ -0,0 +1,121 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.bouncycastle;
+
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.edec.EdECObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.crypto.params.Ed25519PrivateKeyParameters;
+import org.bouncycastle.crypto.params.Ed25519PublicKeyParameters;
+import org.bouncycastle.crypto.signers.Ed25519Signer;
+
+import java.security.InvalidKeyException;
+import java.security.InvalidParameterException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+
+// java.security.Signature over BouncyCastle's Ed25519Signer for JVMs without EdDSA (before 15).
+// Keys come in through their standard encodings, so keys from the JDK, the BouncyCastle provider
+// or a KeyProvider that loads them some other way all work.
+class BcEd25519Signature extends Signature {
+
+    private final Ed25519Signer signer;
+
+    BcEd25519Signature() {
+        super("Ed25519");
+        this.signer = new Ed25519Signer();
+    }
+
+    @Override
+    protected void engineInitVerify(PublicKey publicKey) throws InvalidKeyException {
+        signer.init(false, toParameters(publicKey));
+    }
+
+    @Override
+    protected void engineInitSign(PrivateKey privateKey) throws InvalidKeyException {
+        signer.init(true, toParameters(privateKey));
+    }
+
+    @Override
+    protected void engineUpdate(byte b) {
+        signer.update(b);
+    }
+
+    @Override
+    protected void engineUpdate(byte [] b, int off, int len) {
+        signer.update(b, off, len);
+    }
+
+    @Override
+    protected byte [] engineSign() {
+        return signer.generateSignature();
+    }
+
+    @Override
+    protected boolean engineVerify(byte [] sigBytes) {
+        // A signature of the wrong length is just a bad one, same as the JDK
+        return signer.verifySignature(sigBytes);
+    }
+
+    @Override
+    @Deprecated
+    protected void engineSetParameter(String param, Object value) {
+        throw new InvalidParameterException("No parameters supported");
+    }
+
+    @Override
+    @Deprecated
+    protected Object engineGetParameter(String param) {
+        throw new InvalidParameterException("No parameters supported");
+    }
+
+    static Ed25519PublicKeyParameters toParameters(PublicKey key) throws InvalidKeyException {
+        try {
+            SubjectPublicKeyInfo info = SubjectPublicKeyInfo.getInstance(key.getEncoded());
+            checkAlgorithm(info.getAlgorithm());
+            return new Ed25519PublicKeyParameters(info.getPublicKeyData().getOctets(), 0);
+
+        } catch (InvalidKeyException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw new InvalidKeyException("Could not decode Ed25519 public key", e);
+        }
+    }
+
+    static Ed25519PrivateKeyParameters toParameters(PrivateKey key) throws InvalidKeyException {
+        try {
+            PrivateKeyInfo info = PrivateKeyInfo.getInstance(key.getEncoded());
+            checkAlgorithm(info.getPrivateKeyAlgorithm());
+            byte [] seed = ASN1OctetString.getInstance(info.parsePrivateKey()).getOctets();
+            return new Ed25519PrivateKeyParameters(seed, 0);
+
+        } catch (InvalidKeyException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new InvalidKeyException("Could not decode Ed25519 private key", e);
+        }
+    }
+
+    private static void checkAlgorithm(AlgorithmIdentifier algorithm) throws InvalidKeyException {
+        if (!EdECObjectIdentifiers.id_Ed25519.equals(algorithm.getAlgorithm())) {
+            throw new InvalidKeyException("Not an Ed25519 key: " + algorithm.getAlgorithm());
+        }
+    }
+
+}
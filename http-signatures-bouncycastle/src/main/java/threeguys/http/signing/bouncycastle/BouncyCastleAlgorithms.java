@@ -0,0 +1,52 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.bouncycastle;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.digests.SHA384Digest;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+import threeguys.http.signing.algorithms.SigningAlgorithm;
+import threeguys.http.signing.algorithms.SigningAlgorithms;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class BouncyCastleAlgorithms {
+
+    public static final SigningAlgorithm ECDSA_SHA256 = new BcEcdsaAlgorithm("ecdsa-sha256", "SHA256withECDSA", SHA256Digest::new);
+    public static final SigningAlgorithm ECDSA_SHA384 = new BcEcdsaAlgorithm("ecdsa-sha384", "SHA384withECDSA", SHA384Digest::new);
+    public static final SigningAlgorithm ECDSA_SHA512 = new BcEcdsaAlgorithm("ecdsa-sha512", "SHA512withECDSA", SHA512Digest::new);
+    public static final SigningAlgorithm ED25519 = new BcEd25519Algorithm();
+
+    public static Map<String, SigningAlgorithm> ecdsaAlgorithms() {
+        Map<String, SigningAlgorithm> algos = new HashMap<>();
+        algos.put("ecdsa-sha256", ECDSA_SHA256);
+        algos.put("ecdsa-sha384", ECDSA_SHA384);
+        algos.put("ecdsa-sha512", ECDSA_SHA512);
+        return Collections.unmodifiableMap(algos);
+    }
+
+    // SigningAlgorithms.defaultAlgorithms() with the ECDSA ones swapped for the lightweight versions,
+    // and ed25519 through BouncyCastle whatever the JDK has
+    public static Map<String, SigningAlgorithm> defaultAlgorithms() {
+        Map<String, SigningAlgorithm> algos = new HashMap<>(SigningAlgorithms.defaultAlgorithms());
+        algos.putAll(ecdsaAlgorithms());
+        algos.put("ed25519", ED25519);
+        return Collections.unmodifiableMap(algos);
+    }
+
+}
@@ -0,0 +1,182 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.bouncycastle;
+
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.asn1.x9.ECNamedCurveTable;
+import org.bouncycastle.asn1.x9.X962Parameters;
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.asn1.x9.X9ObjectIdentifiers;
+import org.bouncycastle.crypto.ec.CustomNamedCurves;
+import org.bouncycastle.crypto.params.ECDomainParameters;
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.math.ec.ECAlgorithms;
+import org.bouncycastle.math.ec.ECPoint;
+
+import java.math.BigInteger;
+import java.security.InvalidKeyException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// BouncyCastle keeps the WNAF tables for a point on the ECPoint instance itself, so the trick is
+// to hand ECDSASigner the same ECPoint every time a key comes back. This maps each PublicKey to
+// lightweight parameters on the optimized named curves whose tables have already been built,
+// so verifying with a known key is only the multiplications, no decoding and no table setup.
+// The generator of each curve is shared the same way.
+public class PrecomputedEcKeys {
+
+    public static final int DEFAULT_MAX_KEYS = 10000;
+
+    private static final PrecomputedEcKeys SHARED = new PrecomputedEcKeys(DEFAULT_MAX_KEYS);
+
+    private static final ConcurrentHashMap<ASN1ObjectIdentifier, ECDomainParameters> CURVES = new ConcurrentHashMap<>();
+
+    private final int maxKeys;
+    private final ConcurrentHashMap<PublicKey, ECPublicKeyParameters> keys;
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    public PrecomputedEcKeys(int maxKeys) {
+        this.maxKeys = (maxKeys > 0) ? maxKeys : DEFAULT_MAX_KEYS;
+        this.keys = new ConcurrentHashMap<>();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+    }
+
+    public static PrecomputedEcKeys shared() {
+        return SHARED;
+    }
+
+    public int getMaxKeys() {
+        return maxKeys;
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public void clear() {
+        keys.clear();
+    }
+
+    public ECPublicKeyParameters get(PublicKey key) throws InvalidKeyException {
+        ECPublicKeyParameters params = keys.get(key);
+        if (params != null) {
+            hits.increment();
+            return params;
+        }
+
+        misses.increment();
+        params = precompute(toParameters(key));
+        if (keys.size() >= maxKeys) {
+            // Rarely hit with a sane maxKeys, anything will do
+            Iterator<PublicKey> it = keys.keySet().iterator();
+            while (keys.size() >= maxKeys && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+
+        ECPublicKeyParameters existing = keys.putIfAbsent(key, params);
+        return (existing == null) ? params : existing;
+    }
+
+    // One multiplication the way ECDSASigner.verifySignature does it, with full length scalars,
+    // leaves the tables for both G and Q on the points
+    static ECPublicKeyParameters precompute(ECPublicKeyParameters params) {
+        ECDomainParameters domain = params.getParameters();
+        BigInteger scalar = domain.getN().subtract(BigInteger.ONE);
+        ECAlgorithms.sumOfTwoMultiplies(domain.getG(), scalar, params.getQ(), scalar);
+        return params;
+    }
+
+    static ECPublicKeyParameters toParameters(PublicKey key) throws InvalidKeyException {
+        try {
+            SubjectPublicKeyInfo info = SubjectPublicKeyInfo.getInstance(key.getEncoded());
+            ECDomainParameters domain = domain(info.getAlgorithm());
+            ECPoint q = domain.getCurve().decodePoint(info.getPublicKeyData().getBytes());
+            return new ECPublicKeyParameters(q, domain);
+
+        } catch (InvalidKeyException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw new InvalidKeyException("Could not decode EC public key", e);
+        }
+    }
+
+    static ECPrivateKeyParameters toParameters(PrivateKey key) throws InvalidKeyException {
+        try {
+            PrivateKeyInfo info = PrivateKeyInfo.getInstance(key.getEncoded());
+            ECDomainParameters domain = domain(info.getPrivateKeyAlgorithm());
+            BigInteger d = org.bouncycastle.asn1.sec.ECPrivateKey.getInstance(info.parsePrivateKey()).getKey();
+            return new ECPrivateKeyParameters(d, domain);
+
+        } catch (InvalidKeyException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new InvalidKeyException("Could not decode EC private key", e);
+        }
+    }
+
+    private static ECDomainParameters domain(AlgorithmIdentifier algorithm) throws InvalidKeyException {
+        if (!X9ObjectIdentifiers.id_ecPublicKey.equals(algorithm.getAlgorithm())) {
+            throw new InvalidKeyException("Not an EC key: " + algorithm.getAlgorithm());
+        }
+
+        X962Parameters params = X962Parameters.getInstance(algorithm.getParameters());
+        if (params.isNamedCurve()) {
+            ASN1ObjectIdentifier oid = (ASN1ObjectIdentifier) params.getParameters();
+            ECDomainParameters domain = CURVES.get(oid);
+            if (domain == null) {
+                domain = CURVES.computeIfAbsent(oid, PrecomputedEcKeys::namedCurve);
+            }
+            if (domain == null) {
+                throw new InvalidKeyException("Unknown curve: " + oid);
+            }
+            return domain;
+
+        } else if (params.isImplicitlyCA()) {
+            throw new InvalidKeyException("Implicitly CA parameters are not supported");
+        }
+
+        return new ECDomainParameters(X9ECParameters.getInstance(params.getParameters()));
+    }
+
+    private static ECDomainParameters namedCurve(ASN1ObjectIdentifier oid) {
+        // The custom curves have the fast field arithmetic, the table only the generic one
+        X9ECParameters x9 = CustomNamedCurves.getByOID(oid);
+        if (x9 == null) {
+            x9 = ECNamedCurveTable.getByOID(oid);
+        }
+        return (x9 == null) ? null : new ECDomainParameters(x9);
+    }
+
+}
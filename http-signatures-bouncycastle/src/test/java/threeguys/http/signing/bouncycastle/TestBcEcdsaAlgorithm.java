@@ -0,0 +1,175 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.bouncycastle;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import threeguys.http.signing.HttpSignerImpl;
+import threeguys.http.signing.HttpVerifier;
+import threeguys.http.signing.HttpVerifierBuilder;
+import threeguys.http.signing.Signatures;
+import threeguys.http.signing.algorithms.SigningAlgorithm;
+import threeguys.http.signing.algorithms.SigningAlgorithms;
+import threeguys.http.signing.providers.HeaderProvider;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static threeguys.http.signing.Signatures.DEFAULT_ALGORITHM;
+import static threeguys.http.signing.Signatures.HEADER;
+
+public class TestBcEcdsaAlgorithm {
+
+    private static final byte [] DATA = "(request-target): post /something".getBytes(StandardCharsets.UTF_8);
+
+    private static KeyPair newKeyPair(String type, int bits) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance(type);
+        generator.initialize(bits);
+        return generator.generateKeyPair();
+    }
+
+    private static byte [] sign(Signature signer, KeyPair keys) throws Exception {
+        signer.initSign(keys.getPrivate());
+        signer.update(DATA);
+        return signer.sign();
+    }
+
+    private static boolean verify(Signature verifier, byte [] signature) throws Exception {
+        verifier.update(DATA);
+        return verifier.verify(signature);
+    }
+
+    public static Stream<Arguments> curves() {
+        return Stream.of(
+                Arguments.of("ecdsa-sha256", 256),
+                Arguments.of("ecdsa-sha384", 384),
+                Arguments.of("ecdsa-sha512", 521),
+                Arguments.of("ecdsa-sha256", 521));
+    }
+
+    @ParameterizedTest
+    @MethodSource("curves")
+    public void interoperatesWithJca(String identifier, int bits) throws Exception {
+        KeyPair keys = newKeyPair("EC", bits);
+        SigningAlgorithm bc = BouncyCastleAlgorithms.ecdsaAlgorithms().get(identifier);
+        SigningAlgorithm jca = SigningAlgorithms.defaultAlgorithms().get(identifier);
+
+        Signature bcVerifier = bc.create();
+        bcVerifier.initVerify(keys.getPublic());
+        assertTrue(verify(bcVerifier, sign(jca.create(), keys)));
+
+        Signature jcaVerifier = jca.create();
+        jcaVerifier.initVerify(keys.getPublic());
+        assertTrue(verify(jcaVerifier, sign(bc.create(), keys)));
+
+        // Deterministic k, same input same signature
+        assertArrayEquals(sign(bc.create(), keys), sign(bc.create(), keys));
+    }
+
+    @Test
+    public void reusedAfterVerify() throws Exception {
+        KeyPair keys = newKeyPair("EC", 256);
+        KeyPair other = newKeyPair("EC", 256);
+        byte [] good = sign(BouncyCastleAlgorithms.ECDSA_SHA256.create(), keys);
+        byte [] bad = sign(BouncyCastleAlgorithms.ECDSA_SHA256.create(), other);
+
+        Signature verifier = BouncyCastleAlgorithms.ECDSA_SHA256.create();
+        verifier.initVerify(keys.getPublic());
+        assertTrue(verify(verifier, good));
+        assertFalse(verify(verifier, bad));
+        assertTrue(verify(verifier, good));
+
+        verifier.update(new byte[]{ 1 });
+        assertFalse(verifier.verify(good));
+        assertTrue(verify(verifier, good));
+
+        assertThrows(SignatureException.class, () -> verify(verifier, new byte[]{ 1, 2, 3 }));
+    }
+
+    @Test
+    public void precomputedOncePerKey() throws Exception {
+        PrecomputedEcKeys table = new PrecomputedEcKeys(2);
+        SigningAlgorithm algorithm = new BcEcdsaAlgorithm("ecdsa-sha256", "SHA256withECDSA", SHA256Digest::new, table);
+        KeyPair keys = newKeyPair("EC", 256);
+        byte [] signature = sign(algorithm.create(), keys);
+
+        for (int i=0; i<3; i++) {
+            Signature verifier = algorithm.create();
+            verifier.initVerify(keys.getPublic());
+            assertTrue(verify(verifier, signature));
+        }
+        assertEquals(1, table.getMisses());
+        assertEquals(2, table.getHits());
+
+        // Never holds more than maxKeys
+        for (int i=0; i<4; i++) {
+            algorithm.create().initVerify(newKeyPair("EC", 256).getPublic());
+        }
+        assertTrue(table.size() <= 2);
+    }
+
+    @Test
+    public void rejectsOtherKeys() throws Exception {
+        KeyPair rsa = newKeyPair("RSA", 1024);
+        assertThrows(InvalidKeyException.class, () -> BouncyCastleAlgorithms.ECDSA_SHA256.create().initVerify(rsa.getPublic()));
+        assertThrows(InvalidKeyException.class, () -> BouncyCastleAlgorithms.ECDSA_SHA256.create().initSign(rsa.getPrivate()));
+    }
+
+    @Test
+    public void signerAndVerifier() throws Exception {
+        KeyPair keys = newKeyPair("EC", 384);
+        Clock clock = Clock.fixed(Instant.ofEpochSecond(1600000000), ZoneId.of("UTC"));
+        Signatures signatures = new Signatures(DEFAULT_ALGORITHM, BouncyCastleAlgorithms.defaultAlgorithms(),
+                Signatures.defaultFields(), Signatures.defaultHeadersToInclude());
+
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        headers.put("Content-Type", "application/json");
+        HeaderProvider provider = (name) -> headers.containsKey(name) ? new String[]{ headers.get(name) } : null;
+
+        HttpSignerImpl signer = new HttpSignerImpl(clock, "ecdsa-sha384", "unit-test", (n) -> keys.getPrivate(), signatures, 100);
+        headers.put(HEADER, signer.sign("POST", "/something", provider));
+
+        HttpVerifier verifier = new HttpVerifierBuilder()
+                .withClock(clock)
+                .withAlgorithms(BouncyCastleAlgorithms.defaultAlgorithms())
+                .withKeyProvider((n) -> keys.getPublic())
+                .withSignatureCacheSize(10)
+                .build();
+
+        assertEquals("unit-test", verifier.verify("POST", "/something", provider).getKeyId());
+        assertTrue(verifier.tryVerify("POST", "/something", provider).isVerified());
+        assertFalse(verifier.tryVerify("POST", "/other", provider).isVerified());
+    }
+
+}
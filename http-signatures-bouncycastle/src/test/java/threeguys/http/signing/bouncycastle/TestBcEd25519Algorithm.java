@@ -0,0 +1,169 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.bouncycastle;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.Test;
+import threeguys.http.signing.HttpSignerImpl;
+import threeguys.http.signing.HttpVerifier;
+import threeguys.http.signing.HttpVerifierBuilder;
+import threeguys.http.signing.Signatures;
+import threeguys.http.signing.algorithms.SigningAlgorithm;
+import threeguys.http.signing.algorithms.SigningAlgorithms;
+import threeguys.http.signing.providers.HeaderProvider;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static threeguys.http.signing.Signatures.DEFAULT_ALGORITHM;
+import static threeguys.http.signing.Signatures.HEADER;
+
+public class TestBcEd25519Algorithm {
+
+    private static final byte [] DATA = "(request-target): post /something".getBytes(StandardCharsets.UTF_8);
+
+    private static final SigningAlgorithm JDK = new BcEd25519Algorithm(true);
+    private static final SigningAlgorithm BC = new BcEd25519Algorithm(false);
+
+    // Keys from BouncyCastle work on any JVM, the JDK only makes them on 15 and up
+    private static KeyPairGenerator bcKeys() throws Exception {
+        return KeyPairGenerator.getInstance("Ed25519", new BouncyCastleProvider());
+    }
+
+    private static byte [] sign(SigningAlgorithm algorithm, KeyPair keys) throws Exception {
+        Signature signer = algorithm.create();
+        signer.initSign(keys.getPrivate());
+        signer.update(DATA);
+        return signer.sign();
+    }
+
+    private static boolean verify(Signature verifier, byte [] signature) throws Exception {
+        verifier.update(DATA);
+        return verifier.verify(signature);
+    }
+
+    private static boolean verify(SigningAlgorithm algorithm, KeyPair keys, byte [] signature) throws Exception {
+        Signature verifier = algorithm.create();
+        verifier.initVerify(keys.getPublic());
+        return verify(verifier, signature);
+    }
+
+    @Test
+    public void picksImplementation() throws Exception {
+        assertEquals("ed25519", BouncyCastleAlgorithms.ED25519.getIdentifier());
+        assertTrue(BouncyCastleAlgorithms.ED25519.create() instanceof BcEd25519Signature);
+        assertTrue(BC.create() instanceof BcEd25519Signature);
+        assertEquals(BouncyCastleAlgorithms.ED25519, BouncyCastleAlgorithms.defaultAlgorithms().get("ed25519"));
+        if (SigningAlgorithms.isNativeEd25519()) {
+            assertFalse(JDK.create() instanceof BcEd25519Signature);
+            assertEquals(SigningAlgorithms.ED25519.getAlgorithm(), JDK.create().getAlgorithm());
+        }
+    }
+
+    @Test
+    public void interoperatesWithJdk() throws Exception {
+        assumeTrue(SigningAlgorithms.isNativeEd25519());
+        KeyPair keys = KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+
+        byte [] jdk = sign(JDK, keys);
+        byte [] bc = sign(BC, keys);
+
+        // Ed25519 is deterministic, both have to come up with exactly the same thing
+        assertArrayEquals(jdk, bc);
+        assertTrue(verify(BC, keys, jdk));
+        assertTrue(verify(JDK, keys, bc));
+    }
+
+    @Test
+    public void bouncyCastleProviderKeys() throws Exception {
+        KeyPair keys = bcKeys().generateKeyPair();
+        // Only through BcEd25519Signature, the JDK can't read keys from this BouncyCastle version
+        assertTrue(verify(BC, keys, sign(BC, keys)));
+    }
+
+    @Test
+    public void reusedAfterVerify() throws Exception {
+        KeyPairGenerator generator = bcKeys();
+        KeyPair keys = generator.generateKeyPair();
+        byte [] good = sign(BC, keys);
+        byte [] bad = sign(BC, generator.generateKeyPair());
+
+        Signature verifier = BC.create();
+        verifier.initVerify(keys.getPublic());
+        assertTrue(verify(verifier, good));
+        assertFalse(verify(verifier, bad));
+        assertTrue(verify(verifier, good));
+
+        verifier.update(new byte[]{ 1 });
+        assertFalse(verifier.verify(good));
+        assertTrue(verify(verifier, good));
+
+        assertFalse(verify(verifier, new byte[]{ 1, 2, 3 }));
+    }
+
+    @Test
+    public void rejectsOtherKeys() throws Exception {
+        KeyPair ec = KeyPairGenerator.getInstance("EC").generateKeyPair();
+        assertThrows(InvalidKeyException.class, () -> BC.create().initVerify(ec.getPublic()));
+        assertThrows(InvalidKeyException.class, () -> BC.create().initSign(ec.getPrivate()));
+    }
+
+    @Test
+    public void signerAndVerifier() throws Exception {
+        KeyPair keys = bcKeys().generateKeyPair();
+        Clock clock = Clock.fixed(Instant.ofEpochSecond(1600000000), ZoneId.of("UTC"));
+
+        Map<String, SigningAlgorithm> algorithms = new HashMap<>(BouncyCastleAlgorithms.defaultAlgorithms());
+        algorithms.put("ed25519", BC);
+        Signatures signatures = new Signatures(DEFAULT_ALGORITHM, algorithms, Signatures.defaultFields(),
+                Signatures.defaultHeadersToInclude(), 2);
+
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        headers.put("Content-Type", "application/json");
+        HeaderProvider provider = (name) -> headers.containsKey(name) ? new String[]{ headers.get(name) } : null;
+
+        HttpSignerImpl signer = new HttpSignerImpl(clock, "ed25519", "unit-test", (n) -> keys.getPrivate(), signatures, 100);
+        headers.put(HEADER, signer.sign("POST", "/something", provider));
+
+        HttpVerifier verifier = new HttpVerifierBuilder()
+                .withClock(clock)
+                .withAlgorithms(algorithms)
+                .withKeyProvider((n) -> keys.getPublic())
+                .withSignatureCacheSize(10)
+                .build();
+
+        for (int i=0; i<3; i++) {
+            assertEquals("ed25519", verifier.verify("POST", "/something", provider).getAlgorithm());
+        }
+        assertFalse(verifier.tryVerify("POST", "/other", provider).isVerified());
+    }
+
+}
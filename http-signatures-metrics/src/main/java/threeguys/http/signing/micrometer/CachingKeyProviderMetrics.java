@@ -0,0 +1,84 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.micrometer;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import threeguys.http.signing.providers.cache.CacheStats;
+import threeguys.http.signing.providers.cache.CachingKeyProvider;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+// Exposes a CachingKeyProvider's CacheStats, plus its cache's size and evictions. The hit
+// rate is rate(http.signatures.keys.gets{result="hit"}) over the rate of all gets.
+public class CachingKeyProviderMetrics implements MeterBinder {
+
+    public static final String GETS = "http.signatures.keys.gets";
+    public static final String NEGATIVE_HITS = "http.signatures.keys.negative.hits";
+    public static final String STALE_HITS = "http.signatures.keys.stale.hits";
+    public static final String REFRESHES = "http.signatures.keys.refreshes";
+    public static final String LOADS = "http.signatures.keys.loads";
+    public static final String LOAD_TIME = "http.signatures.keys.load.time";
+
+    private final CachingKeyProvider<?> provider;
+    private final String name;
+    private final Tags tags;
+
+    public CachingKeyProviderMetrics(CachingKeyProvider<?> provider, String name) {
+        this(provider, name, Tags.empty());
+    }
+
+    public CachingKeyProviderMetrics(CachingKeyProvider<?> provider, String name, Iterable<Tag> tags) {
+        this.provider = provider;
+        this.name = name;
+        this.tags = Tags.of(tags);
+    }
+
+    private void counter(MeterRegistry registry, String meter, String description, Tags extra,
+                         ToDoubleFunction<CacheStats> count) {
+        FunctionCounter.builder(meter, provider.getStats(), count)
+                .description(description)
+                .tags(tags)
+                .tag("cache", name)
+                .tags(extra)
+                .register(registry);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        counter(registry, GETS, "Key lookups answered from the cache", Tags.of("result", "hit"), CacheStats::getHits);
+        counter(registry, GETS, "Key lookups that missed the cache", Tags.of("result", "miss"), CacheStats::getMisses);
+        counter(registry, NEGATIVE_HITS, "Misses turned away by the negative cache", Tags.empty(), CacheStats::getNegativeHits);
+        counter(registry, STALE_HITS, "Misses answered with an expired key because the load failed", Tags.empty(), CacheStats::getStaleHits);
+        counter(registry, REFRESHES, "Background reloads of keys past their refresh time", Tags.empty(), CacheStats::getRefreshes);
+        counter(registry, LOADS, "Loads that found the key", Tags.of("result", "success"), CacheStats::getLoadSuccesses);
+        counter(registry, LOADS, "Loads that failed", Tags.of("result", "failure"), CacheStats::getLoadFailures);
+
+        FunctionTimer.builder(LOAD_TIME, provider.getStats(), CacheStats::getLoads, CacheStats::getTotalLoadNanos, TimeUnit.NANOSECONDS)
+                .description("Time spent in the key loader")
+                .tags(tags)
+                .tag("cache", name)
+                .register(registry);
+
+        new KeyCacheMetrics(provider.getCache(), name, tags).bindTo(registry);
+    }
+
+}
@@ -0,0 +1,61 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.micrometer;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import threeguys.http.signing.providers.cache.KeyCache;
+
+// Size and evictions of a KeyCache, for the caches that keep track of them
+public class KeyCacheMetrics implements MeterBinder {
+
+    public static final String SIZE = "http.signatures.keys.size";
+    public static final String EVICTIONS = "http.signatures.keys.evictions";
+
+    private final KeyCache<?> cache;
+    private final Tags tags;
+
+    public KeyCacheMetrics(KeyCache<?> cache, String name) {
+        this(cache, name, Tags.empty());
+    }
+
+    public KeyCacheMetrics(KeyCache<?> cache, String name, Iterable<Tag> tags) {
+        this.cache = cache;
+        this.tags = Tags.of(tags).and("cache", name);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (cache.size() >= 0) {
+            Gauge.builder(SIZE, cache, KeyCache::size)
+                    .description("Keys held in the cache")
+                    .tags(tags)
+                    .register(registry);
+        }
+
+        if (cache.getEvictions() >= 0) {
+            FunctionCounter.builder(EVICTIONS, cache, KeyCache::getEvictions)
+                    .description("Keys pushed out of the cache to make room for others")
+                    .tags(tags)
+                    .register(registry);
+        }
+    }
+
+}
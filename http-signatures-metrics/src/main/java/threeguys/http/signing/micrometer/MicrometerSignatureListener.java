@@ -0,0 +1,161 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.micrometer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import threeguys.http.signing.FailureReason;
+import threeguys.http.signing.SigningListener;
+import threeguys.http.signing.VerificationListener;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Turns the signer and verifier listener callbacks into Micrometer meters. Meters are looked
+// up once and kept, so a request is a map lookup and a few Timer.record calls. keyId is never
+// used as a tag, and neither is an algorithm the verifier hadn't checked yet: both come
+// straight from the request and would let anybody mint new time series.
+public class MicrometerSignatureListener implements VerificationListener, SigningListener {
+
+    public static final String VERIFY = "http.signatures.verify";
+    public static final String VERIFY_PHASE = "http.signatures.verify.phase";
+    public static final String VERIFY_FAILURES = "http.signatures.verify.failures";
+    public static final String SIGN = "http.signatures.sign";
+    public static final String SIGN_PHASE = "http.signatures.sign.phase";
+
+    static final String UNKNOWN = "unknown";
+
+    private final MeterRegistry registry;
+    private final Tags tags;
+
+    private final ConcurrentHashMap<String, Timer> verified = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Timer> rejected = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Timer> signed = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Timer> signingFailed = new ConcurrentHashMap<>();
+    private final Counter [] failures;
+
+    private final Timer parse;
+    private final Timer verifyKey;
+    private final Timer verifyPayload;
+    private final Timer verifyCrypto;
+
+    private final Timer signKey;
+    private final Timer signPayload;
+    private final Timer signCrypto;
+    private final Timer signFormat;
+
+    public MicrometerSignatureListener(MeterRegistry registry) {
+        this(registry, Tags.empty());
+    }
+
+    public MicrometerSignatureListener(MeterRegistry registry, Iterable<Tag> tags) {
+        this.registry = registry;
+        this.tags = Tags.of(tags);
+
+        FailureReason [] reasons = FailureReason.values();
+        this.failures = new Counter[reasons.length];
+        for (FailureReason reason : reasons) {
+            failures[reason.ordinal()] = Counter.builder(VERIFY_FAILURES)
+                    .description("Requests whose signature was rejected, by reason")
+                    .tags(this.tags)
+                    .tag("reason", reason.name().toLowerCase(Locale.ROOT))
+                    .register(registry);
+        }
+
+        this.parse = phase(VERIFY_PHASE, "parse");
+        this.verifyKey = phase(VERIFY_PHASE, "key");
+        this.verifyPayload = phase(VERIFY_PHASE, "payload");
+        this.verifyCrypto = phase(VERIFY_PHASE, "crypto");
+
+        this.signKey = phase(SIGN_PHASE, "key");
+        this.signPayload = phase(SIGN_PHASE, "payload");
+        this.signCrypto = phase(SIGN_PHASE, "crypto");
+        this.signFormat = phase(SIGN_PHASE, "format");
+    }
+
+    private Timer phase(String name, String phase) {
+        return Timer.builder(name)
+                .tags(tags)
+                .tag("phase", phase)
+                .register(registry);
+    }
+
+    private Timer timer(ConcurrentHashMap<String, Timer> timers, String name, String algorithm, String outcome) {
+        Timer timer = timers.get(algorithm);
+        if (timer == null) {
+            timer = timers.computeIfAbsent(algorithm, (a) -> Timer.builder(name)
+                    .tags(tags)
+                    .tag("algorithm", a)
+                    .tag("outcome", outcome)
+                    .register(registry));
+        }
+        return timer;
+    }
+
+    private static void record(Timer timer, long nanos) {
+        if (nanos > 0) {
+            timer.record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Up to and including the algorithm check, the algorithm is whatever the client sent
+    static String algorithmTag(String algorithm, FailureReason failure) {
+        if (algorithm == null || (failure != null && failure.compareTo(FailureReason.UNSUPPORTED_ALGORITHM) <= 0)) {
+            return UNKNOWN;
+        }
+        return algorithm;
+    }
+
+    @Override
+    public void onVerification(String algorithm, String keyId, FailureReason failure,
+                               long parseNanos, long keyNanos, long payloadNanos, long verifyNanos) {
+        String tag = algorithmTag(algorithm, failure);
+        long total = parseNanos + keyNanos + payloadNanos + verifyNanos;
+        if (failure == null) {
+            timer(verified, VERIFY, tag, "success").record(total, TimeUnit.NANOSECONDS);
+        } else {
+            timer(rejected, VERIFY, tag, "failure").record(total, TimeUnit.NANOSECONDS);
+            failures[failure.ordinal()].increment();
+        }
+
+        record(parse, parseNanos);
+        record(verifyKey, keyNanos);
+        record(verifyPayload, payloadNanos);
+        record(verifyCrypto, verifyNanos);
+    }
+
+    @Override
+    public void onSigning(String algorithm, String keyId, boolean success,
+                          long keyNanos, long payloadNanos, long signNanos, long formatNanos) {
+        long total = keyNanos + payloadNanos + signNanos + formatNanos;
+        String tag = (algorithm == null) ? UNKNOWN : algorithm;
+        if (success) {
+            timer(signed, SIGN, tag, "success").record(total, TimeUnit.NANOSECONDS);
+        } else {
+            timer(signingFailed, SIGN, tag, "failure").record(total, TimeUnit.NANOSECONDS);
+        }
+
+        record(signKey, keyNanos);
+        record(signPayload, payloadNanos);
+        record(signCrypto, signNanos);
+        record(signFormat, formatNanos);
+    }
+
+}
@@ -0,0 +1,92 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.micrometer;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import threeguys.http.signing.Signatures;
+import threeguys.http.signing.algorithms.SignaturePool;
+
+import java.util.Map;
+
+// One set of meters per algorithm pool. A steadily climbing created count means the pool is
+// too small for the concurrency it sees; dropped means it is bigger than it needs to be.
+public class SignaturePoolMetrics implements MeterBinder {
+
+    public static final String SIZE = "http.signatures.pool.size";
+    public static final String IDLE = "http.signatures.pool.idle";
+    public static final String UTILIZATION = "http.signatures.pool.utilization";
+    public static final String CREATED = "http.signatures.pool.created";
+    public static final String DROPPED = "http.signatures.pool.dropped";
+
+    private final Signatures signatures;
+    private final Tags tags;
+
+    public SignaturePoolMetrics(Signatures signatures) {
+        this(signatures, Tags.empty());
+    }
+
+    public SignaturePoolMetrics(Signatures signatures, Iterable<Tag> tags) {
+        this.signatures = signatures;
+        this.tags = Tags.of(tags);
+    }
+
+    static double utilization(SignaturePool pool) {
+        return 1.0 - ((double) pool.getIdle() / pool.getSize());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (!signatures.isPooling()) {
+            return;
+        }
+
+        for (Map.Entry<String, SignaturePool> e : signatures.getPools().entrySet()) {
+            Tags poolTags = tags.and("algorithm", e.getKey());
+            SignaturePool pool = e.getValue();
+
+            Gauge.builder(SIZE, pool, SignaturePool::getSize)
+                    .description("Signature instances the pool can hold")
+                    .tags(poolTags)
+                    .register(registry);
+
+            Gauge.builder(IDLE, pool, SignaturePool::getIdle)
+                    .description("Signature instances waiting in the pool")
+                    .tags(poolTags)
+                    .register(registry);
+
+            Gauge.builder(UTILIZATION, pool, SignaturePoolMetrics::utilization)
+                    .description("Fraction of the pool that is checked out or was never filled")
+                    .tags(poolTags)
+                    .register(registry);
+
+            FunctionCounter.builder(CREATED, pool, SignaturePool::getCreated)
+                    .description("Acquires that found the pool empty")
+                    .tags(poolTags)
+                    .register(registry);
+
+            FunctionCounter.builder(DROPPED, pool, SignaturePool::getDropped)
+                    .description("Releases that found the pool full")
+                    .tags(poolTags)
+                    .register(registry);
+        }
+    }
+
+}
@@ -0,0 +1,89 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.micrometer;
+
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import threeguys.http.signing.exceptions.KeyNotFoundException;
+import threeguys.http.signing.providers.cache.CacheEntry;
+import threeguys.http.signing.providers.cache.CachingKeyProvider;
+import threeguys.http.signing.providers.cache.CachingKeyProviderBuilder;
+import threeguys.http.signing.providers.cache.ConcurrentInMemoryLruKeyCache;
+import threeguys.http.signing.providers.cache.ConcurrentKeyCache;
+
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestCachingKeyProviderMetrics {
+
+    @Test
+    public void hitsMissesAndLoads() throws Exception {
+        PublicKey key = KeyPairGenerator.getInstance("EC").generateKeyPair().getPublic();
+        CachingKeyProvider<PublicKey> provider = new CachingKeyProviderBuilder<PublicKey>()
+                .withCache(new ConcurrentKeyCache<>(Clock.systemUTC(), 1))
+                .withLoader((id) -> {
+                    if (id.startsWith("missing")) {
+                        throw new KeyNotFoundException(id);
+                    }
+                    return new CacheEntry<>(id, key, System.currentTimeMillis() + 60000);
+                })
+                .build();
+
+        MeterRegistry registry = new SimpleMeterRegistry();
+        new CachingKeyProviderMetrics(provider, "public-keys").bindTo(registry);
+
+        provider.get("a");
+        provider.get("a");
+        provider.get("b");
+        assertThrows(KeyNotFoundException.class, () -> provider.get("missing"));
+
+        assertEquals(1.0, registry.get(CachingKeyProviderMetrics.GETS).tags("cache", "public-keys", "result", "hit").functionCounter().count());
+        assertEquals(3.0, registry.get(CachingKeyProviderMetrics.GETS).tags("result", "miss").functionCounter().count());
+        assertEquals(2.0, registry.get(CachingKeyProviderMetrics.LOADS).tags("result", "success").functionCounter().count());
+
+        FunctionTimer loadTime = registry.get(CachingKeyProviderMetrics.LOAD_TIME).functionTimer();
+        assertEquals(3.0, loadTime.count());
+        assertTrue(loadTime.totalTime(TimeUnit.NANOSECONDS) > 0);
+
+        // A one entry cache, so b pushed a out
+        assertEquals(1.0, registry.get(KeyCacheMetrics.EVICTIONS).tag("cache", "public-keys").functionCounter().count());
+        assertEquals(1.0, registry.get(KeyCacheMetrics.SIZE).gauge().value());
+    }
+
+    @Test
+    public void lruEvictions() throws Exception {
+        PublicKey key = KeyPairGenerator.getInstance("EC").generateKeyPair().getPublic();
+        ConcurrentInMemoryLruKeyCache<PublicKey> cache = new ConcurrentInMemoryLruKeyCache<>(2);
+        MeterRegistry registry = new SimpleMeterRegistry();
+        new KeyCacheMetrics(cache, "lru").bindTo(registry);
+
+        for (int i=0; i<5; i++) {
+            cache.putEntry(new CacheEntry<>("key-" + i, key, System.currentTimeMillis() + 60000));
+        }
+
+        assertEquals(3.0, registry.get(KeyCacheMetrics.EVICTIONS).tag("cache", "lru").functionCounter().count());
+        assertEquals(2.0, registry.get(KeyCacheMetrics.SIZE).tag("cache", "lru").gauge().value());
+    }
+
+}
@@ -0,0 +1,116 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.micrometer;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import threeguys.http.signing.FailureReason;
+import threeguys.http.signing.HttpSignerImpl;
+import threeguys.http.signing.HttpVerifier;
+import threeguys.http.signing.HttpVerifierBuilder;
+import threeguys.http.signing.Signatures;
+import threeguys.http.signing.exceptions.SignatureException;
+import threeguys.http.signing.providers.HeaderProvider;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.time.Clock;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static threeguys.http.signing.Signatures.HEADER;
+
+public class TestMicrometerSignatureListener {
+
+    private static KeyPair pair;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        pair = generator.generateKeyPair();
+    }
+
+    private static HeaderProvider headers(Map<String, String> values) {
+        return (name) -> {
+            String value = values.get(name.toLowerCase());
+            return (value == null) ? null : new String[] { value };
+        };
+    }
+
+    @Test
+    public void signAndVerify() throws Exception {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        MicrometerSignatureListener listener = new MicrometerSignatureListener(registry, Tags.of("service", "unit-test"));
+
+        HttpSignerImpl signer = new HttpSignerImpl(Clock.systemUTC(), "rsa-sha256", "unit-test",
+                (n) -> pair.getPrivate(), new Signatures(), 100, listener);
+        HttpVerifier verifier = new HttpVerifierBuilder()
+                .withKeyProvider((n) -> pair.getPublic())
+                .withListener(listener)
+                .build();
+
+        Map<String, String> values = new HashMap<>();
+        values.put("content-type", "application/json");
+        values.put(HEADER.toLowerCase(), signer.sign("POST", "/something", headers(values)));
+
+        verifier.verify("POST", "/something", headers(values));
+        assertThrows(SignatureException.class, () -> verifier.verify("POST", "/other", headers(values)));
+
+        values.put(HEADER.toLowerCase(), "keyId=\"unit-test\", algorithm=\"made-up\", created=1, headers=\"(created)\", signature=\"abc\"");
+        assertThrows(SignatureException.class, () -> verifier.verify("POST", "/something", headers(values)));
+
+        Timer verified = registry.get(MicrometerSignatureListener.VERIFY)
+                .tags("algorithm", "rsa-sha256", "outcome", "success", "service", "unit-test").timer();
+        assertEquals(1, verified.count());
+        assertEquals(1, registry.get(MicrometerSignatureListener.VERIFY)
+                .tags("algorithm", "rsa-sha256", "outcome", "failure").timer().count());
+
+        // The made up algorithm never becomes a tag
+        assertEquals(1, registry.get(MicrometerSignatureListener.VERIFY)
+                .tags("algorithm", MicrometerSignatureListener.UNKNOWN, "outcome", "failure").timer().count());
+        assertNull(registry.find(MicrometerSignatureListener.VERIFY).tag("algorithm", "made-up").timer());
+
+        assertEquals(1.0, registry.get(MicrometerSignatureListener.VERIFY_FAILURES).tag("reason", "bad_signature").counter().count());
+        assertEquals(1.0, registry.get(MicrometerSignatureListener.VERIFY_FAILURES).tag("reason", "expired").counter().count());
+        assertEquals(0.0, registry.get(MicrometerSignatureListener.VERIFY_FAILURES).tag("reason", "replayed").counter().count());
+
+        assertEquals(2, registry.get(MicrometerSignatureListener.VERIFY_PHASE).tag("phase", "crypto").timer().count());
+        assertTrue(registry.get(MicrometerSignatureListener.VERIFY_PHASE).tag("phase", "parse").timer().count() >= 2);
+
+        assertEquals(1, registry.get(MicrometerSignatureListener.SIGN)
+                .tags("algorithm", "rsa-sha256", "outcome", "success").timer().count());
+        assertEquals(1, registry.get(MicrometerSignatureListener.SIGN_PHASE).tag("phase", "crypto").timer().count());
+    }
+
+    @Test
+    public void algorithmTag() {
+        assertEquals("rsa-sha256", MicrometerSignatureListener.algorithmTag("rsa-sha256", null));
+        assertEquals("rsa-sha256", MicrometerSignatureListener.algorithmTag("rsa-sha256", FailureReason.KEY_NOT_FOUND));
+        assertEquals("unknown", MicrometerSignatureListener.algorithmTag("whatever", FailureReason.UNSUPPORTED_ALGORITHM));
+        assertEquals("unknown", MicrometerSignatureListener.algorithmTag("whatever", FailureReason.EXPIRED));
+        assertEquals("unknown", MicrometerSignatureListener.algorithmTag(null, null));
+    }
+
+}
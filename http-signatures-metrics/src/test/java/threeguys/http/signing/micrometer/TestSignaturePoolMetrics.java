@@ -0,0 +1,57 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.micrometer;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import threeguys.http.signing.Signatures;
+import threeguys.http.signing.algorithms.SigningAlgorithms;
+
+import java.security.Signature;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestSignaturePoolMetrics {
+
+    @Test
+    public void poolMeters() throws Exception {
+        Signatures signatures = new Signatures(Signatures.DEFAULT_ALGORITHM, SigningAlgorithms.defaultAlgorithms(),
+                Signatures.defaultFields(), Signatures.defaultHeadersToInclude(), 2);
+        MeterRegistry registry = new SimpleMeterRegistry();
+        new SignaturePoolMetrics(signatures).bindTo(registry);
+
+        Signature first = signatures.acquireSignature("rsa-sha256");
+        Signature second = signatures.acquireSignature("rsa-sha256");
+        signatures.releaseSignature("rsa-sha256", first);
+
+        assertEquals(2.0, registry.get(SignaturePoolMetrics.SIZE).tag("algorithm", "rsa-sha256").gauge().value());
+        assertEquals(1.0, registry.get(SignaturePoolMetrics.IDLE).tag("algorithm", "rsa-sha256").gauge().value());
+        assertEquals(0.5, registry.get(SignaturePoolMetrics.UTILIZATION).tag("algorithm", "rsa-sha256").gauge().value());
+        assertEquals(2.0, registry.get(SignaturePoolMetrics.CREATED).tag("algorithm", "rsa-sha256").functionCounter().count());
+        assertEquals(0.0, registry.get(SignaturePoolMetrics.DROPPED).tag("algorithm", "rsa-sha256").functionCounter().count());
+        assertTrue(second != null);
+    }
+
+    @Test
+    public void noPools() {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        new SignaturePoolMetrics(new Signatures()).bindTo(registry);
+        assertEquals(0, registry.getMeters().size());
+    }
+
+}
@@ -16,9 +16,16 @@
 package threeguys.http.signing.netty;
 
 import io.netty.handler.codec.http.HttpHeaders;
-import threeguys.http.signing.providers.HeaderProvider;
+import threeguys.http.signing.providers.HeaderValuesProvider;
 
-public class NettyHeaderProvider implements HeaderProvider {
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+// Values come straight out of Netty's header storage (usually AsciiString), nothing is
+// copied to build the signing string. Netty's value iterator walks repeated headers newest
+// first, so those go through getAll() which keeps the order they arrived in.
+public class NettyHeaderProvider implements HeaderValuesProvider {
 
     private HttpHeaders headers;
 
@@ -26,9 +33,24 @@ public class NettyHeaderProvider implements HeaderProvider {
         this.headers = headers;
     }
 
+    @Override
+    public Iterator<? extends CharSequence> values(String name) {
+        Iterator<? extends CharSequence> it = headers.valueCharSequenceIterator(name);
+        if (!it.hasNext()) {
+            return null;
+        }
+
+        CharSequence first = it.next();
+        if (!it.hasNext()) {
+            return Collections.singletonList(first).iterator();
+        }
+        return headers.getAll(name).iterator();
+    }
+
     @Override
     public String[] get(String name) throws Exception {
-        return headers.getAll(name).toArray(new String[]{});
+        List<String> values = headers.getAll(name);
+        return values.isEmpty() ? null : values.toArray(new String[]{});
     }
 
 }
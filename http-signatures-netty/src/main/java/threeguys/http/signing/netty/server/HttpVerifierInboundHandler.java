@@ -22,7 +22,9 @@ import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.ReferenceCountUtil;
 import threeguys.http.signing.HttpVerifier;
+import threeguys.http.signing.VerificationOutcome;
 import threeguys.http.signing.exceptions.SignatureException;
 import threeguys.http.signing.netty.NettyHeaderProvider;
 
@@ -48,18 +50,31 @@ public class HttpVerifierInboundHandler extends ChannelInboundHandlerAdapter {
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
         if (msg instanceof HttpRequest) {
             HttpRequest req = (HttpRequest) msg;
-            verifier.verify(req.method().toString(), req.uri(), new NettyHeaderProvider(req.headers()));
+            VerificationOutcome outcome = verifier.tryVerify(req.method().toString(), req.uri(), new NettyHeaderProvider(req.headers()));
+            if (outcome.isError()) {
+                throw outcome.toException();
+
+            } else if (!outcome.isVerified()) {
+                // Turned away without building an exception
+                ReferenceCountUtil.release(msg);
+                unauthorized(ctx);
+                return;
+            }
         }
         super.channelRead(ctx, msg);
     }
 
+    private void unauthorized(ChannelHandlerContext ctx) {
+        ctx.writeAndFlush(new DefaultFullHttpResponse(
+                HttpVersion.HTTP_1_1,
+                HttpResponseStatus.UNAUTHORIZED,
+                Unpooled.wrappedBuffer(message)));
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
         if (cause instanceof SignatureException) {
-            ctx.writeAndFlush(new DefaultFullHttpResponse(
-                    HttpVersion.HTTP_1_1,
-                    HttpResponseStatus.UNAUTHORIZED,
-                    Unpooled.wrappedBuffer(message)));
+            unauthorized(ctx);
         } else{
             super.exceptionCaught(ctx, cause);
         }
@@ -0,0 +1,264 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.netty.server;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+import threeguys.http.signing.AsyncHttpVerifier;
+import threeguys.http.signing.HttpVerifier;
+import threeguys.http.signing.VerificationOutcome;
+import threeguys.http.signing.VerificationResult;
+import threeguys.http.signing.exceptions.SignatureException;
+import threeguys.http.signing.netty.NettyHeaderProvider;
+import threeguys.http.signing.providers.HeaderProvider;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+// Like HttpVerifierInboundHandler, but verification runs off the event loop. Requests (and the
+// content that follows them) are held until their verification finishes and are then passed
+// on strictly in the order they arrived, so pipelined HTTP/1.1 requests stay in order. Once
+// maxPending verifications are outstanding autoRead is switched off until half of them are
+// done. Content of a rejected request that is still arriving after the rejection is dropped up
+// to its LastHttpContent. One instance per channel, this handler is not sharable.
+public class OffloadingHttpVerifierInboundHandler extends ChannelInboundHandlerAdapter {
+
+    public static final int DEFAULT_MAX_PENDING = 16;
+
+    private static final class Slot {
+
+        final List<Object> messages = new ArrayList<>(2);
+        boolean ended;
+        boolean done;
+        VerificationOutcome outcome;
+        Throwable failure;
+
+    }
+
+    private final AsyncHttpVerifier verifier;
+    private final int maxPending;
+    private final byte [] message;
+
+    // Only touched from the channel's event loop
+    private final ArrayDeque<Slot> queue = new ArrayDeque<>();
+    private int pending;
+    private boolean pausedReads;
+    private boolean discarding;
+
+    public OffloadingHttpVerifierInboundHandler(AsyncHttpVerifier verifier) {
+        this(verifier, DEFAULT_MAX_PENDING);
+    }
+
+    public OffloadingHttpVerifierInboundHandler(AsyncHttpVerifier verifier, int maxPending) {
+        this(verifier, maxPending, HttpVerifierInboundHandler.DEFAULT_UNAUTHORIZED_MESSAGE);
+    }
+
+    public OffloadingHttpVerifierInboundHandler(AsyncHttpVerifier verifier, int maxPending, String message) {
+        if (maxPending <= 0) {
+            throw new IllegalArgumentException("maxPending must be positive: " + maxPending);
+        }
+        this.verifier = verifier;
+        this.maxPending = maxPending;
+        this.message = message.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Runs a synchronous verifier on executor, e.g. an EventExecutorGroup set aside for it
+    public OffloadingHttpVerifierInboundHandler(HttpVerifier verifier, Executor executor, int maxPending) {
+        this(offload(verifier, executor), maxPending);
+    }
+
+    static AsyncHttpVerifier offload(HttpVerifier verifier, Executor executor) {
+        return new AsyncHttpVerifier() {
+
+            @Override
+            public CompletableFuture<VerificationResult> verifyAsync(String method, String url, HeaderProvider provider) {
+                return CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return verifier.verify(method, url, provider);
+                    } catch (SignatureException e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor);
+            }
+
+            @Override
+            public CompletableFuture<VerificationOutcome> tryVerifyAsync(String method, String url, HeaderProvider provider) {
+                return CompletableFuture.supplyAsync(() -> verifier.tryVerify(method, url, provider), executor);
+            }
+
+        };
+    }
+
+    public int getPending() {
+        return pending;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof HttpRequest) {
+            HttpRequest req = (HttpRequest) msg;
+            Slot slot = new Slot();
+            slot.messages.add(msg);
+            slot.ended = msg instanceof LastHttpContent;
+            queue.add(slot);
+            discarding = false;
+
+            pending++;
+            if (pending >= maxPending && !pausedReads) {
+                pausedReads = true;
+                ctx.channel().config().setAutoRead(false);
+            }
+
+            CompletableFuture<VerificationOutcome> result;
+            try {
+                result = verifier.tryVerifyAsync(req.method().toString(), req.uri(), new NettyHeaderProvider(req.headers()));
+            } catch (RuntimeException e) {
+                result = new CompletableFuture<>();
+                result.completeExceptionally(e);
+            }
+
+            result.whenComplete((o, t) -> {
+                if (ctx.executor().inEventLoop()) {
+                    complete(ctx, slot, o, t);
+                } else {
+                    ctx.executor().execute(() -> complete(ctx, slot, o, t));
+                }
+            });
+
+        } else if (queue.isEmpty()) {
+            if (discarding) {
+                // The rest of a request that was already turned away
+                discarding = !(msg instanceof LastHttpContent);
+                ReferenceCountUtil.release(msg);
+            } else {
+                super.channelRead(ctx, msg);
+            }
+
+        } else {
+            // Content belongs to the request ahead of it and has to wait with it
+            Slot last = queue.peekLast();
+            last.messages.add(msg);
+            last.ended |= msg instanceof LastHttpContent;
+        }
+    }
+
+    private static Throwable unwrap(Throwable t) {
+        while ((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null) {
+            t = t.getCause();
+        }
+        return t;
+    }
+
+    private void complete(ChannelHandlerContext ctx, Slot slot, VerificationOutcome outcome, Throwable failure) {
+        if (slot.done) {
+            return;
+        }
+        slot.done = true;
+        slot.outcome = outcome;
+        slot.failure = (failure == null) ? null : unwrap(failure);
+        pending--;
+
+        while (!queue.isEmpty() && queue.peekFirst().done) {
+            Slot head = queue.pollFirst();
+            if (head.failure == null && head.outcome.isVerified()) {
+                for (Object m : head.messages) {
+                    ctx.fireChannelRead(m);
+                }
+            } else {
+                for (Object m : head.messages) {
+                    ReferenceCountUtil.release(m);
+                }
+                // Only the newest request can still be receiving its body
+                discarding = !head.ended;
+
+                if (head.failure != null) {
+                    reject(ctx, head.failure);
+                } else if (head.outcome.isError()) {
+                    reject(ctx, head.outcome.toException());
+                } else {
+                    unauthorized(ctx);
+                }
+            }
+        }
+
+        if (pausedReads && pending <= maxPending / 2) {
+            pausedReads = false;
+            ctx.channel().config().setAutoRead(true);
+        }
+    }
+
+    private void unauthorized(ChannelHandlerContext ctx) {
+        ctx.writeAndFlush(new DefaultFullHttpResponse(
+                HttpVersion.HTTP_1_1,
+                HttpResponseStatus.UNAUTHORIZED,
+                Unpooled.wrappedBuffer(message)));
+    }
+
+    private void reject(ChannelHandlerContext ctx, Throwable cause) {
+        if (cause instanceof SignatureException) {
+            unauthorized(ctx);
+        } else {
+            ctx.fireExceptionCaught(cause);
+        }
+    }
+
+    private void releaseQueued() {
+        while (!queue.isEmpty()) {
+            Slot slot = queue.pollFirst();
+            slot.done = true;
+            for (Object m : slot.messages) {
+                ReferenceCountUtil.release(m);
+            }
+        }
+        pending = 0;
+        discarding = false;
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        releaseQueued();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        releaseQueued();
+        super.handlerRemoved(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        if (cause instanceof SignatureException) {
+            reject(ctx, cause);
+        } else {
+            super.exceptionCaught(ctx, cause);
+        }
+    }
+
+}
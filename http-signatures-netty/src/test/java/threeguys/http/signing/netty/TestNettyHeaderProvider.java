@@ -0,0 +1,80 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.netty;
+
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.util.AsciiString;
+import org.junit.jupiter.api.Test;
+import threeguys.http.signing.Payload;
+import threeguys.http.signing.Signatures;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static threeguys.http.signing.Signatures.DEFAULT_ALGORITHM;
+import static threeguys.http.signing.Signatures.HEADER_CREATED;
+import static threeguys.http.signing.Signatures.HEADER_REQUEST_TARGET;
+import static threeguys.http.signing.Signatures.defaultFields;
+import static threeguys.http.signing.algorithms.SigningAlgorithms.defaultAlgorithms;
+
+public class TestNettyHeaderProvider {
+
+    private static HttpHeaders headers() {
+        AsciiString digest = AsciiString.of("SHA-256=X48E9qOokqqrvdts8nOJRJN3OWDUoyWxBf7kbu9DBPE=");
+        return new DefaultHttpHeaders()
+                .add("Content-Type", "application/json")
+                .add(AsciiString.of("Digest"), digest)
+                .add("X-Multi", "one")
+                .add("x-multi", "two")
+                .add("Host", "example.com");
+    }
+
+    @Test
+    public void values_noCopy() throws Exception {
+        HttpHeaders headers = headers();
+        NettyHeaderProvider provider = new NettyHeaderProvider(headers);
+
+        Iterator<? extends CharSequence> values = provider.values("digest");
+        assertSame(AsciiString.class, values.next().getClass());
+        assertFalse(values.hasNext());
+        assertNull(provider.values("missing"));
+        assertNull(provider.get("missing"));
+    }
+
+    @Test
+    public void payloadParity() throws Exception {
+        List<String> include = Arrays.asList(HEADER_REQUEST_TARGET, HEADER_CREATED,
+                "host", "content-type", "digest", "x-multi", "missing");
+        Signatures signing = new Signatures(DEFAULT_ALGORITHM, defaultAlgorithms(), defaultFields(), include);
+        HttpHeaders headers = headers();
+
+        // The String [] path the provider used to be limited to
+        NettyHeaderProvider provider = new NettyHeaderProvider(headers);
+        Payload expected = signing.assemblePayload("POST", "/foo", provider::get, 1402170695L, 1402171695L);
+        Payload actual = signing.assemblePayload("POST", "/foo", provider, 1402170695L, 1402171695L);
+
+        assertEquals(expected.getHeaders(), actual.getHeaders());
+        assertArrayEquals(expected.getPlaintext(), actual.getPlaintext());
+    }
+
+}
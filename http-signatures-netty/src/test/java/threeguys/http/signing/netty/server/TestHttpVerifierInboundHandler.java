@@ -25,8 +25,11 @@ import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
+import threeguys.http.signing.FailureReason;
 import threeguys.http.signing.HttpVerifier;
+import threeguys.http.signing.VerificationOutcome;
 import threeguys.http.signing.exceptions.KeyNotFoundException;
+import threeguys.http.signing.exceptions.SignatureException;
 import threeguys.http.signing.providers.HeaderProvider;
 
 import java.nio.charset.StandardCharsets;
@@ -47,6 +50,7 @@ public class TestHttpVerifierInboundHandler {
     @Test
     public void channelRead_happyCase() throws Exception {
         HttpVerifier verifier = mock(HttpVerifier.class);
+        when(verifier.tryVerify(anyString(), anyString(), any())).thenReturn(VerificationOutcome.verified(null));
         HttpVerifierInboundHandler handler = new HttpVerifierInboundHandler(verifier);
         ChannelHandlerContext context = mock(ChannelHandlerContext.class);
         DefaultFullHttpRequest msg = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/unit/test");
@@ -60,8 +64,9 @@ public class TestHttpVerifierInboundHandler {
         ArgumentCaptor<String> uriCaptor = ArgumentCaptor.forClass(String.class);
         ArgumentCaptor<HeaderProvider> providerCaptor = ArgumentCaptor.forClass(HeaderProvider.class);
 
-        verify(verifier, times(1)).verify(
+        verify(verifier, times(1)).tryVerify(
                 methodCaptor.capture(), uriCaptor.capture(), providerCaptor.capture());
+        verify(context, times(1)).fireChannelRead(msg);
 
         assertEquals("GET", methodCaptor.getValue());
         assertEquals("/unit/test", uriCaptor.getValue());
@@ -75,11 +80,30 @@ public class TestHttpVerifierInboundHandler {
     @Test
     public void channelRead_verifyFailed() throws Exception {
         HttpVerifier verifier = mock(HttpVerifier.class);
-        when(verifier.verify(anyString(), anyString(), any())).thenThrow(new KeyNotFoundException("unit-test"));
+        when(verifier.tryVerify(anyString(), anyString(), any()))
+                .thenReturn(VerificationOutcome.failed(FailureReason.KEY_NOT_FOUND, () -> "unit-test"));
         HttpVerifierInboundHandler handler = new HttpVerifierInboundHandler(verifier);
         ChannelHandlerContext context = mock(ChannelHandlerContext.class);
         DefaultFullHttpRequest msg = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/unit/test");
-        assertThrows(KeyNotFoundException.class, () -> handler.channelRead(context, msg));
+        handler.channelRead(context, msg);
+
+        ArgumentCaptor<Object> objCaptor = ArgumentCaptor.forClass(Object.class);
+        verify(context, times(1)).writeAndFlush(objCaptor.capture());
+        assertEquals(HttpResponseStatus.UNAUTHORIZED, ((DefaultFullHttpResponse) objCaptor.getValue()).status());
+        verify(context, times(0)).fireChannelRead(any());
+        assertEquals(0, msg.refCnt());
+    }
+
+    @Test
+    public void channelRead_verifyError() throws Exception {
+        HttpVerifier verifier = mock(HttpVerifier.class);
+        when(verifier.tryVerify(anyString(), anyString(), any()))
+                .thenReturn(VerificationOutcome.failed(FailureReason.ERROR, new IllegalStateException("unit-test")));
+        HttpVerifierInboundHandler handler = new HttpVerifierInboundHandler(verifier);
+        ChannelHandlerContext context = mock(ChannelHandlerContext.class);
+        DefaultFullHttpRequest msg = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/unit/test");
+        SignatureException e = assertThrows(SignatureException.class, () -> handler.channelRead(context, msg));
+        assertEquals(IllegalStateException.class, e.getCause().getClass());
     }
 
     @Test
@@ -89,7 +113,7 @@ public class TestHttpVerifierInboundHandler {
         ChannelHandlerContext context = mock(ChannelHandlerContext.class);
         handler.channelRead(context, new DefaultHttpContent(Unpooled.wrappedBuffer(new byte[]{ 42 })));
 
-        verify(verifier, times(0)).verify(anyString(), anyString(), any());
+        verify(verifier, times(0)).tryVerify(anyString(), anyString(), any());
     }
 
     @Test
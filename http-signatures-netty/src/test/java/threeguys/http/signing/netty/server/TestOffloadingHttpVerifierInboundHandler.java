@@ -0,0 +1,303 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.netty.server;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import org.junit.jupiter.api.Test;
+import threeguys.http.signing.AsyncHttpVerifier;
+import threeguys.http.signing.FailureReason;
+import threeguys.http.signing.HttpVerifier;
+import threeguys.http.signing.VerificationOutcome;
+import threeguys.http.signing.VerificationResult;
+import threeguys.http.signing.exceptions.KeyNotFoundException;
+import threeguys.http.signing.providers.HeaderProvider;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TestOffloadingHttpVerifierInboundHandler {
+
+    // Hands out futures the test completes by hand, in whatever order it likes
+    private static class ManualVerifier implements AsyncHttpVerifier {
+
+        final List<CompletableFuture<VerificationResult>> futures = new ArrayList<>();
+
+        @Override
+        public CompletableFuture<VerificationResult> verifyAsync(String method, String url, HeaderProvider provider) {
+            CompletableFuture<VerificationResult> f = new CompletableFuture<>();
+            futures.add(f);
+            return f;
+        }
+
+    }
+
+    private static VerificationResult result() {
+        return mock(VerificationResult.class);
+    }
+
+    private static HttpRequest request(String uri) {
+        return new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, uri);
+    }
+
+    private static HttpContent content(int b) {
+        return new DefaultHttpContent(Unpooled.wrappedBuffer(new byte[]{ (byte) b }));
+    }
+
+    @Test
+    public void pipelined_keepsOrder() {
+        ManualVerifier verifier = new ManualVerifier();
+        EmbeddedChannel channel = new EmbeddedChannel(new OffloadingHttpVerifierInboundHandler(verifier));
+
+        HttpRequest first = request("/first");
+        HttpContent firstBody = content(1);
+        HttpRequest second = request("/second");
+        HttpContent secondBody = content(2);
+        channel.writeInbound(first, firstBody, second, secondBody);
+        assertNull(channel.readInbound());
+        assertEquals(2, verifier.futures.size());
+
+        // Second finishes first but has to wait its turn
+        verifier.futures.get(1).complete(result());
+        channel.runPendingTasks();
+        assertNull(channel.readInbound());
+
+        verifier.futures.get(0).complete(result());
+        channel.runPendingTasks();
+        assertSame(first, channel.readInbound());
+        assertSame(firstBody, channel.readInbound());
+        assertSame(second, channel.readInbound());
+        assertSame(secondBody, channel.readInbound());
+        assertNull(channel.readInbound());
+
+        // Nothing in flight, content passes straight through
+        HttpContent trailing = content(3);
+        channel.writeInbound(trailing);
+        assertSame(trailing, channel.readInbound());
+        assertFalse(channel.finish());
+    }
+
+    @Test
+    public void verifyFailed_unauthorized() {
+        ManualVerifier verifier = new ManualVerifier();
+        EmbeddedChannel channel = new EmbeddedChannel(new OffloadingHttpVerifierInboundHandler(verifier));
+
+        HttpRequest bad = request("/bad");
+        HttpContent badBody = content(1);
+        HttpRequest good = request("/good");
+        channel.writeInbound(bad, badBody, good);
+
+        verifier.futures.get(0).completeExceptionally(new KeyNotFoundException("unit-test"));
+        verifier.futures.get(1).complete(result());
+        channel.runPendingTasks();
+
+        assertEquals(0, badBody.refCnt());
+        assertSame(good, channel.readInbound());
+        assertNull(channel.readInbound());
+
+        FullHttpResponse response = channel.readOutbound();
+        assertEquals(HttpResponseStatus.UNAUTHORIZED, response.status());
+        assertEquals("Unauthorized", response.content().toString(StandardCharsets.UTF_8));
+        response.release();
+        assertFalse(channel.finish());
+    }
+
+    @Test
+    public void rejectedBeforeBody_dropsLateContent() {
+        ManualVerifier verifier = new ManualVerifier();
+        EmbeddedChannel channel = new EmbeddedChannel(new OffloadingHttpVerifierInboundHandler(verifier));
+
+        // Turned away before any of its body has arrived
+        channel.writeInbound(request("/bad"));
+        verifier.futures.get(0).completeExceptionally(new KeyNotFoundException("unit-test"));
+        channel.runPendingTasks();
+        FullHttpResponse response = channel.readOutbound();
+        assertEquals(HttpResponseStatus.UNAUTHORIZED, response.status());
+        response.release();
+
+        HttpContent chunk = content(1);
+        LastHttpContent last = new DefaultLastHttpContent(Unpooled.wrappedBuffer(new byte[]{ 2 }));
+        channel.writeInbound(chunk, last);
+        assertNull(channel.readInbound());
+        assertEquals(0, chunk.refCnt());
+        assertEquals(0, last.refCnt());
+
+        // The next request and its body go through as usual
+        HttpRequest good = request("/good");
+        HttpContent goodBody = content(3);
+        channel.writeInbound(good);
+        verifier.futures.get(1).complete(result());
+        channel.runPendingTasks();
+        channel.writeInbound(goodBody);
+        assertSame(good, channel.readInbound());
+        assertSame(goodBody, channel.readInbound());
+        assertFalse(channel.finish());
+    }
+
+    @Test
+    public void rejectedAfterBody_nothingDropped() {
+        ManualVerifier verifier = new ManualVerifier();
+        EmbeddedChannel channel = new EmbeddedChannel(new OffloadingHttpVerifierInboundHandler(verifier));
+
+        channel.writeInbound(request("/bad"), new DefaultLastHttpContent());
+        verifier.futures.get(0).completeExceptionally(new KeyNotFoundException("unit-test"));
+        channel.runPendingTasks();
+        ((FullHttpResponse) channel.readOutbound()).release();
+
+        // The rejected request had ended, this isn't part of it
+        HttpContent stray = content(1);
+        channel.writeInbound(stray);
+        assertSame(stray, channel.readInbound());
+        stray.release();
+        assertFalse(channel.finish());
+    }
+
+    @Test
+    public void notSignatureException_propagates() {
+        ManualVerifier verifier = new ManualVerifier();
+        EmbeddedChannel channel = new EmbeddedChannel(new OffloadingHttpVerifierInboundHandler(verifier));
+
+        channel.writeInbound(request("/boom"));
+        verifier.futures.get(0).completeExceptionally(new IllegalStateException("unit-test"));
+        channel.runPendingTasks();
+
+        assertThrows(IllegalStateException.class, channel::checkException);
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void tooManyPending_pausesAutoRead() {
+        ManualVerifier verifier = new ManualVerifier();
+        OffloadingHttpVerifierInboundHandler handler = new OffloadingHttpVerifierInboundHandler(verifier, 4);
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+        for (int i=0; i<3; i++) {
+            channel.writeInbound(request("/" + i));
+        }
+        assertTrue(channel.config().isAutoRead());
+
+        channel.writeInbound(request("/3"));
+        assertEquals(4, handler.getPending());
+        assertFalse(channel.config().isAutoRead());
+
+        verifier.futures.get(0).complete(result());
+        channel.runPendingTasks();
+        assertFalse(channel.config().isAutoRead());
+
+        verifier.futures.get(1).complete(result());
+        channel.runPendingTasks();
+        assertEquals(2, handler.getPending());
+        assertTrue(channel.config().isAutoRead());
+
+        verifier.futures.get(2).complete(result());
+        verifier.futures.get(3).complete(result());
+        channel.runPendingTasks();
+        assertEquals(0, handler.getPending());
+        for (int i=0; i<4; i++) {
+            assertEquals("/" + i, ((HttpRequest) channel.readInbound()).uri());
+        }
+        assertFalse(channel.finish());
+    }
+
+    @Test
+    public void channelClosed_releasesQueued() {
+        ManualVerifier verifier = new ManualVerifier();
+        OffloadingHttpVerifierInboundHandler handler = new OffloadingHttpVerifierInboundHandler(verifier);
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+        DefaultFullHttpRequest req = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/closed",
+                Unpooled.wrappedBuffer(new byte[]{ 42 }));
+        channel.writeInbound(req);
+        channel.close();
+        assertEquals(0, req.refCnt());
+        assertEquals(0, handler.getPending());
+
+        // A late completion must not resurrect anything
+        verifier.futures.get(0).complete(result());
+        channel.runPendingTasks();
+        assertNull(channel.readInbound());
+    }
+
+    @Test
+    public void syncVerifier_runsOnExecutor() throws Exception {
+        HttpVerifier verifier = mock(HttpVerifier.class);
+        VerificationResult expected = result();
+        when(verifier.tryVerify(anyString(), anyString(), any())).thenReturn(VerificationOutcome.verified(expected));
+
+        List<Runnable> tasks = new ArrayList<>();
+        Executor executor = tasks::add;
+        EmbeddedChannel channel = new EmbeddedChannel(new OffloadingHttpVerifierInboundHandler(verifier, executor, 8));
+
+        HttpRequest req = request("/sync");
+        channel.writeInbound(req);
+        assertNull(channel.readInbound());
+        assertEquals(1, tasks.size());
+
+        tasks.get(0).run();
+        channel.runPendingTasks();
+        assertSame(req, channel.readInbound());
+        assertFalse(channel.finish());
+    }
+
+    @Test
+    public void syncVerifier_failedOutcome() throws Exception {
+        HttpVerifier verifier = mock(HttpVerifier.class);
+        when(verifier.tryVerify(anyString(), anyString(), any()))
+                .thenReturn(VerificationOutcome.failed(FailureReason.EXPIRED, () -> "unit-test"));
+
+        EmbeddedChannel channel = new EmbeddedChannel(new OffloadingHttpVerifierInboundHandler(verifier, Runnable::run, 8));
+        channel.writeInbound(request("/expired"));
+        channel.runPendingTasks();
+        assertNull(channel.readInbound());
+
+        FullHttpResponse response = channel.readOutbound();
+        assertEquals(HttpResponseStatus.UNAUTHORIZED, response.status());
+        response.release();
+        assertFalse(channel.finish());
+    }
+
+    @Test
+    public void invalidMaxPending() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new OffloadingHttpVerifierInboundHandler(new ManualVerifier(), 0));
+    }
+
+}
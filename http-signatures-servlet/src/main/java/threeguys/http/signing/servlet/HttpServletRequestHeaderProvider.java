@@ -16,52 +16,130 @@
 package threeguys.http.signing.servlet;
 
 import threeguys.http.signing.Signatures;
-import threeguys.http.signing.providers.HeaderProvider;
+import threeguys.http.signing.providers.HeaderValuesProvider;
 
 import javax.servlet.http.HttpServletRequest;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
-public class HttpServletRequestHeaderProvider implements HeaderProvider {
+// Header names are case insensitive for getHeaders(), so lookups go straight to the request.
+// The canonical name index is only built if a header can't be found that way, for containers
+// that don't follow the spec.
+public class HttpServletRequestHeaderProvider implements HeaderValuesProvider {
 
     private final HttpServletRequest request;
-    private final Map<String, String> nameMappings;
+    private Map<String, String> nameMappings;
 
     public static final String NAME_CONTENT_LENGTH = "content-length";
 
     public HttpServletRequestHeaderProvider(HttpServletRequest request) {
         this.request = request;
-        this.nameMappings = Collections.unmodifiableMap(Collections.list(this.request.getHeaderNames()).stream()
-                .collect(Collectors.toMap(Signatures::canonicalizeName, (n) -> n)));
     }
 
     public static boolean isContentMethod(String method) {
         return "post".equals(method.toLowerCase());
     }
 
-    @Override
-    public String[] get(String name) {
-        String canonicalName = Signatures.canonicalizeName(name);
-        String mappedName = nameMappings.get(canonicalName);
-
-        if (mappedName == null) {
-            switch (canonicalName) {
-                case NAME_CONTENT_LENGTH:
-                    return isContentMethod(request.getMethod())
-                            ? new String[] { Integer.toString(request.getContentLength()) }
-                            : null;
-                default:
-                    break;
+    private static final class EnumerationIterator implements Iterator<String> {
+
+        private final Enumeration<String> values;
+
+        EnumerationIterator(Enumeration<String> values) {
+            this.values = values;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return values.hasMoreElements();
+        }
+
+        @Override
+        public String next() {
+            return values.nextElement();
+        }
+
+    }
+
+    private String mappedName(String canonicalName) {
+        if (nameMappings == null) {
+            Map<String, String> mappings = new HashMap<>();
+            Enumeration<String> names = request.getHeaderNames();
+            while (names != null && names.hasMoreElements()) {
+                String n = names.nextElement();
+                mappings.put(Signatures.canonicalizeName(n), n);
             }
+            nameMappings = mappings;
+        }
+        return nameMappings.get(canonicalName);
+    }
+
+    private Enumeration<String> headers(String name) {
+        Enumeration<String> values = request.getHeaders(name);
+        if (values != null && values.hasMoreElements()) {
+            return values;
+        }
+
+        // Answered by fallback() from getContentLength(), no need to build the index for it
+        String canonicalName = Signatures.canonicalizeName(name);
+        if (NAME_CONTENT_LENGTH.equals(canonicalName)) {
             return null;
         }
 
-        List<String> headers = Collections.list(request.getHeaders(name));
-        return (headers.size() == 0) ? null : headers.toArray(new String[] {});
+        String mappedName = mappedName(canonicalName);
+        if (mappedName == null || mappedName.equals(name)) {
+            return null;
+        }
+
+        values = request.getHeaders(mappedName);
+        return (values != null && values.hasMoreElements()) ? values : null;
+    }
+
+    private String fallback(String name) {
+        switch (Signatures.canonicalizeName(name)) {
+            case NAME_CONTENT_LENGTH:
+                return isContentMethod(request.getMethod())
+                        ? Integer.toString(request.getContentLength())
+                        : null;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public Iterator<String> values(String name) {
+        Enumeration<String> values = headers(name);
+        if (values != null) {
+            return new EnumerationIterator(values);
+        }
+
+        String value = fallback(name);
+        return (value == null) ? null : Collections.singletonList(value).iterator();
+    }
+
+    @Override
+    public String[] get(String name) {
+        Enumeration<String> values = headers(name);
+        if (values == null) {
+            String value = fallback(name);
+            return (value == null) ? null : new String[] { value };
+        }
+
+        String first = values.nextElement();
+        if (!values.hasMoreElements()) {
+            return new String[] { first };
+        }
+
+        List<String> result = new ArrayList<>();
+        result.add(first);
+        while (values.hasMoreElements()) {
+            result.add(values.nextElement());
+        }
+        return result.toArray(new String[0]);
     }
 
 }
@@ -17,8 +17,7 @@ package threeguys.http.signing.servlet;
 
 import threeguys.http.signing.HttpVerifier;
 import threeguys.http.signing.HttpVerifierBuilder;
-import threeguys.http.signing.exceptions.InvalidSignatureException;
-import threeguys.http.signing.exceptions.KeyNotFoundException;
+import threeguys.http.signing.VerificationOutcome;
 import threeguys.http.signing.exceptions.SignatureException;
 
 import javax.servlet.Filter;
@@ -42,6 +41,10 @@ public class HttpSignatureVerifierFilter implements Filter {
     public static final String PARAM_ALGORITHMS = "algorithms";
     public static final String PARAM_FIELDS = "fields";
     public static final String PARAM_MAX_AGE = "maxAgeSec";
+    public static final String PARAM_VERIFIED_CACHE_SIZE = "verifiedCacheSize";
+    public static final String PARAM_SIGNATURE_CACHE_SIZE = "signatureCacheSize";
+    public static final String PARAM_REPLAY_PROTECTION = "replayProtection";
+    public static final String PARAM_REPLAY_REQUESTS_PER_SEC = "replayRequestsPerSec";
 
     private HttpVerifier verifier;
 
@@ -77,6 +80,22 @@ public class HttpSignatureVerifierFilter implements Filter {
                 builder.withMaxAge(params.get(PARAM_MAX_AGE));
             }
 
+            if (params.containsKey(PARAM_VERIFIED_CACHE_SIZE)) {
+                builder.withVerifiedCacheSize(params.get(PARAM_VERIFIED_CACHE_SIZE));
+            }
+
+            if (params.containsKey(PARAM_SIGNATURE_CACHE_SIZE)) {
+                builder.withSignatureCacheSize(params.get(PARAM_SIGNATURE_CACHE_SIZE));
+            }
+
+            if (params.containsKey(PARAM_REPLAY_PROTECTION)) {
+                builder.withReplayProtection(params.get(PARAM_REPLAY_PROTECTION));
+            }
+
+            if (params.containsKey(PARAM_REPLAY_REQUESTS_PER_SEC)) {
+                builder.withReplayRequestsPerSec(params.get(PARAM_REPLAY_REQUESTS_PER_SEC));
+            }
+
             // TODO Need to come up with a way to pull public keystores
             builder.withKeyProvider((n) -> null);
 
@@ -93,21 +112,15 @@ public class HttpSignatureVerifierFilter implements Filter {
             HttpServletRequest request = (HttpServletRequest) servletRequest;
 
             HttpServletRequestHeaderProvider provider = new HttpServletRequestHeaderProvider(request);
-            try {
-                verifier.verify(request.getMethod(), request.getRequestURI(), provider);
-
-            } catch (InvalidSignatureException | KeyNotFoundException e) {
-                return false;
-
-            } catch (SignatureException e) {
-                throw new ServletException(e);
+            VerificationOutcome outcome = verifier.tryVerify(request.getMethod(), request.getRequestURI(), provider);
+            if (outcome.isError()) {
+                throw new ServletException(outcome.toException());
             }
+            return outcome.isVerified();
 
         } else {
             throw new ServletException("Invalid request, cannot process " + servletRequest.getClass().getName());
         }
-
-        return true;
     }
 
     @Override
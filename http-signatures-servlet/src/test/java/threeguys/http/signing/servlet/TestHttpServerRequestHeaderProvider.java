@@ -19,6 +19,11 @@ import org.junit.jupiter.api.Test;
 import org.springframework.mock.web.MockHttpServletRequest;
 import threeguys.http.signing.providers.HeaderProvider;
 
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static threeguys.http.signing.Signatures.*;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -38,4 +43,74 @@ public class TestHttpServerRequestHeaderProvider {
         assertArrayEquals(new String[] { "example-signature" }, provider.get(HEADER));
     }
 
+    @Test
+    public void caseInsensitiveAndMissing() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setMethod("GET");
+        request.addHeader("X-Multi", "one");
+        request.addHeader("X-Multi", "two");
+
+        HttpServletRequestHeaderProvider provider = new HttpServletRequestHeaderProvider(request);
+        assertArrayEquals(new String[] { "one", "two" }, provider.get("x-multi"));
+        assertArrayEquals(new String[] { "one", "two" }, provider.get("X-MULTI"));
+        assertNull(provider.get("Missing"));
+        assertNull(provider.values("Missing"));
+        assertNull(provider.get("Content-Length"));
+
+        Iterator<String> values = provider.values("x-multi");
+        assertEquals("one", values.next());
+        assertEquals("two", values.next());
+        assertFalse(values.hasNext());
+    }
+
+    @Test
+    public void contentLengthFallback() throws Exception {
+        AtomicInteger indexed = new AtomicInteger();
+        MockHttpServletRequest request = new MockHttpServletRequest() {
+            @Override
+            public Enumeration<String> getHeaderNames() {
+                indexed.incrementAndGet();
+                return super.getHeaderNames();
+            }
+        };
+        request.setMethod("POST");
+        request.setContent(new byte[18]);
+
+        HttpServletRequestHeaderProvider provider = new HttpServletRequestHeaderProvider(request);
+        assertArrayEquals(new String[] { "18" }, provider.get("content-length"));
+        assertEquals("18", provider.values("Content-Length").next());
+
+        // Comes from getContentLength(), without building the name index
+        assertEquals(0, indexed.get());
+    }
+
+    @Test
+    public void manyValues() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        String [] expected = new String[1000];
+        for (int i=0; i<expected.length; i++) {
+            expected[i] = "value-" + i;
+            request.addHeader("X-Repeated", expected[i]);
+        }
+
+        HttpServletRequestHeaderProvider provider = new HttpServletRequestHeaderProvider(request);
+        assertArrayEquals(expected, provider.get("x-repeated"));
+    }
+
+    @Test
+    public void caseSensitiveContainer() throws Exception {
+        // Not what the spec says, but the name index still finds these
+        MockHttpServletRequest request = new MockHttpServletRequest() {
+            @Override
+            public Enumeration<String> getHeaders(String name) {
+                return "Digest".equals(name) ? super.getHeaders(name) : Collections.emptyEnumeration();
+            }
+        };
+        request.addHeader("Digest", "SHA-256=abc");
+
+        HttpServletRequestHeaderProvider provider = new HttpServletRequestHeaderProvider(request);
+        assertArrayEquals(new String[] { "SHA-256=abc" }, provider.get("digest"));
+        assertNull(provider.get("missing"));
+    }
+
 }
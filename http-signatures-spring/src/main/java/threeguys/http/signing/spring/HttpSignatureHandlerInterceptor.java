@@ -19,9 +19,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
 import threeguys.http.signing.HttpVerifier;
-import threeguys.http.signing.exceptions.InvalidSignatureException;
-import threeguys.http.signing.exceptions.KeyNotFoundException;
-import threeguys.http.signing.exceptions.SignatureException;
+import threeguys.http.signing.VerificationOutcome;
 import threeguys.http.signing.servlet.HttpServletRequestHeaderProvider;
 
 import javax.servlet.http.HttpServletRequest;
@@ -40,19 +38,23 @@ public class HttpSignatureHandlerInterceptor extends HandlerInterceptorAdapter {
     @Override
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
 
-        try {
-            verifier.verify(request.getMethod(), request.getRequestURI(), new HttpServletRequestHeaderProvider(request));
-        } catch (InvalidSignatureException | KeyNotFoundException e) {
-            log.warn("Unauthorized request: " + request.getSession().getId(), e);
-            response.sendError(401, "Not Authorized");
-            return false;
-
-        } catch (SignatureException e) {
-            log.error("Error verifying request", e);
-            return false;
+        VerificationOutcome outcome = verifier.tryVerify(request.getMethod(), request.getRequestURI(),
+                new HttpServletRequestHeaderProvider(request));
+        if (outcome.isVerified()) {
+            return true;
         }
 
-        return true;
+        if (outcome.isError()) {
+            log.error("Error verifying request", outcome.toException());
+
+        } else {
+            // No stack trace, these are expected and can come in floods
+            if (log.isWarnEnabled()) {
+                log.warn("Unauthorized request " + request.getRequestURI() + ": " + outcome.getMessage());
+            }
+            response.sendError(401, "Not Authorized");
+        }
+        return false;
     }
 
 }
@@ -15,6 +15,7 @@
  */
 package threeguys.http.signing.spring.config.client;
 
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -22,17 +23,21 @@ import org.springframework.context.annotation.Import;
 import threeguys.http.signing.HttpSigner;
 import threeguys.http.signing.HttpSignerImpl;
 import threeguys.http.signing.Signatures;
+import threeguys.http.signing.SigningListener;
 import threeguys.http.signing.algorithms.SigningAlgorithm;
 import threeguys.http.signing.algorithms.SigningAlgorithms;
 import threeguys.http.signing.exceptions.InvalidSignatureException;
 import threeguys.http.signing.providers.KeyProvider;
 import threeguys.http.signing.spring.SigningClientHttpRequestInterceptor;
 import threeguys.http.signing.spring.config.SignaturesConfiguration;
+import threeguys.http.signing.spring.config.metrics.MetricsImportSelector;
 
 import java.security.PrivateKey;
+import java.time.Clock;
 import java.util.List;
 
 @Configuration
+@Import(MetricsImportSelector.class)
 public class HttpSignerConfiguration {
 
     @Value("${signer.expirationSec:60}")
@@ -45,8 +50,10 @@ public class HttpSignerConfiguration {
     private String defaultAlgorithm;
 
     @Bean
-    public HttpSigner signer(KeyProvider<PrivateKey> keyProvider, Signatures signatures) throws InvalidSignatureException {
-        return new HttpSignerImpl(defaultAlgorithm, keyId, keyProvider, signatures, expirationSec);
+    public HttpSigner signer(KeyProvider<PrivateKey> keyProvider, Signatures signatures,
+                             ObjectProvider<SigningListener> listener) throws InvalidSignatureException {
+        return new HttpSignerImpl(Clock.systemUTC(), defaultAlgorithm, keyId, keyProvider, signatures, expirationSec,
+                listener.getIfUnique());
     }
 
     @Bean
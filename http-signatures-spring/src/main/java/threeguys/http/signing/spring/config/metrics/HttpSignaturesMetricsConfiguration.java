@@ -0,0 +1,77 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.spring.config.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import threeguys.http.signing.Signatures;
+import threeguys.http.signing.micrometer.CachingKeyProviderMetrics;
+import threeguys.http.signing.micrometer.KeyCacheMetrics;
+import threeguys.http.signing.micrometer.MicrometerSignatureListener;
+import threeguys.http.signing.micrometer.SignaturePoolMetrics;
+import threeguys.http.signing.providers.cache.CachingKeyProvider;
+import threeguys.http.signing.providers.cache.KeyCache;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+// Imported by the signer and verifier configurations through MetricsImportSelector. Uses the
+// application's MeterRegistry if there is one and Micrometer's global registry if not.
+@Configuration
+public class HttpSignaturesMetricsConfiguration {
+
+    private static MeterRegistry registry(ObjectProvider<MeterRegistry> registry) {
+        return registry.getIfUnique(() -> Metrics.globalRegistry);
+    }
+
+    @Bean
+    public MicrometerSignatureListener signatureListener(ObjectProvider<MeterRegistry> registry) {
+        return new MicrometerSignatureListener(registry(registry));
+    }
+
+    @Bean
+    public SignaturePoolMetrics signaturePoolMetrics(Signatures signatures, ObjectProvider<MeterRegistry> registry) {
+        SignaturePoolMetrics metrics = new SignaturePoolMetrics(signatures);
+        metrics.bindTo(registry(registry));
+        return metrics;
+    }
+
+    // Every caching key provider and key cache in the context, tagged with its bean name. A cache
+    // that is also a provider's cache is already covered by that provider's metrics.
+    @Bean
+    public SmartInitializingSingleton keyCacheMetrics(ListableBeanFactory beans, ObjectProvider<MeterRegistry> registry) {
+        return () -> {
+            MeterRegistry meters = registry(registry);
+            Set<KeyCache> bound = Collections.newSetFromMap(new IdentityHashMap<>());
+            beans.getBeansOfType(CachingKeyProvider.class).forEach((name, provider) -> {
+                new CachingKeyProviderMetrics(provider, name).bindTo(meters);
+                bound.add(provider.getCache());
+            });
+            beans.getBeansOfType(KeyCache.class).forEach((name, cache) -> {
+                if (!bound.contains(cache)) {
+                    new KeyCacheMetrics(cache, name).bindTo(meters);
+                }
+            });
+        };
+    }
+
+}
@@ -0,0 +1,39 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.spring.config.metrics;
+
+import org.springframework.context.annotation.ImportSelector;
+import org.springframework.core.type.AnnotationMetadata;
+import org.springframework.util.ClassUtils;
+
+// Brings in HttpSignaturesMetricsConfiguration only when Micrometer and http-signatures-metrics
+// are both on the classpath. Goes by name so nothing touches the Micrometer classes otherwise.
+public class MetricsImportSelector implements ImportSelector {
+
+    static final String METER_REGISTRY = "io.micrometer.core.instrument.MeterRegistry";
+    static final String LISTENER = "threeguys.http.signing.micrometer.MicrometerSignatureListener";
+    static final String CONFIGURATION = "threeguys.http.signing.spring.config.metrics.HttpSignaturesMetricsConfiguration";
+
+    @Override
+    public String[] selectImports(AnnotationMetadata metadata) {
+        ClassLoader loader = MetricsImportSelector.class.getClassLoader();
+        if (ClassUtils.isPresent(METER_REGISTRY, loader) && ClassUtils.isPresent(LISTENER, loader)) {
+            return new String[] { CONFIGURATION };
+        }
+        return new String[0];
+    }
+
+}
@@ -15,27 +15,34 @@
  */
 package threeguys.http.signing.spring.config.server;
 
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
 import threeguys.http.signing.HttpVerifier;
 import threeguys.http.signing.HttpVerifierImpl;
 import threeguys.http.signing.Signatures;
+import threeguys.http.signing.VerificationListener;
 import threeguys.http.signing.providers.KeyProvider;
 import threeguys.http.signing.spring.HttpSignatureHandlerInterceptor;
+import threeguys.http.signing.spring.config.metrics.MetricsImportSelector;
 
 import java.security.PublicKey;
 import java.time.Clock;
 
 @Configuration
+@Import(MetricsImportSelector.class)
 public class HttpVerifierConfiguration {
 
     @Value("${verifier.maxAgeSec:60}")
     protected int maxAgeSecs;
 
     @Bean
-    public HttpVerifier verifier(Signatures signatures, KeyProvider<PublicKey> keyProvider) {
-        return new HttpVerifierImpl(Clock.systemUTC(), signatures, keyProvider, maxAgeSecs);
+    public HttpVerifier verifier(Signatures signatures, KeyProvider<PublicKey> keyProvider,
+                                 ObjectProvider<VerificationListener> listener) {
+        return new HttpVerifierImpl(Clock.systemUTC(), signatures, keyProvider, maxAgeSecs, null, null,
+                listener.getIfUnique());
     }
 
     @Bean
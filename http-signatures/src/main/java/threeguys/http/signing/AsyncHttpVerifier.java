@@ -0,0 +1,46 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing;
+
+import threeguys.http.signing.exceptions.SignatureException;
+import threeguys.http.signing.providers.HeaderProvider;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+// Failures complete the future exceptionally with the same SignatureException verify would
+// have thrown. The provider has to stay readable until the future completes.
+public interface AsyncHttpVerifier {
+
+    CompletableFuture<VerificationResult> verifyAsync(String method, String url, HeaderProvider provider);
+
+    // A rejected request completes normally with a failed outcome, only things that aren't a
+    // SignatureException still complete the future exceptionally
+    default CompletableFuture<VerificationOutcome> tryVerifyAsync(String method, String url, HeaderProvider provider) {
+        return verifyAsync(method, url, provider).handle((result, t) -> {
+            if (t == null) {
+                return VerificationOutcome.verified(result);
+            }
+
+            VerificationOutcome outcome = VerificationOutcome.of(t);
+            if (outcome.getCause() instanceof SignatureException) {
+                return outcome;
+            }
+            throw (t instanceof CompletionException) ? (CompletionException) t : new CompletionException(t);
+        });
+    }
+
+}
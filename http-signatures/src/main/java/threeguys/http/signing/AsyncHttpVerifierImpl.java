@@ -0,0 +1,139 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing;
+
+import threeguys.http.signing.exceptions.SignatureException;
+import threeguys.http.signing.providers.AsyncKeyProvider;
+import threeguys.http.signing.providers.HeaderProvider;
+
+import java.security.PublicKey;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+// Parses the header and checks the timestamps on the calling thread (cheap, no I/O), looks the
+// key up through the AsyncKeyProvider and then does the crypto on the executor, so the caller
+// never blocks on either.
+public class AsyncHttpVerifierImpl implements HttpVerifier, AsyncHttpVerifier {
+
+    private final HttpVerifierImpl verifier;
+    private final AsyncKeyProvider<PublicKey> keyProvider;
+    private final Executor executor;
+
+    public AsyncHttpVerifierImpl(HttpVerifierImpl verifier, AsyncKeyProvider<PublicKey> keyProvider, Executor executor) {
+        this.verifier = verifier;
+        this.keyProvider = keyProvider;
+        this.executor = executor;
+    }
+
+    public HttpVerifierImpl getVerifier() {
+        return verifier;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public VerificationResult verify(String method, String url, HeaderProvider provider) throws SignatureException {
+        return verifier.verify(method, url, provider);
+    }
+
+    @Override
+    public VerificationOutcome tryVerify(String method, String url, HeaderProvider provider) {
+        return verifier.tryVerify(method, url, provider);
+    }
+
+    private static Throwable unwrap(Throwable t) {
+        return (t instanceof CompletionException && t.getCause() != null) ? t.getCause() : t;
+    }
+
+    private static <R> CompletableFuture<R> failed(Throwable t) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        future.completeExceptionally(t);
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<VerificationResult> verifyAsync(String method, String url, HeaderProvider provider) {
+        return tryVerifyAsync(method, url, provider).thenCompose((outcome) -> {
+            try {
+                return CompletableFuture.completedFuture(outcome.getResult());
+            } catch (SignatureException e) {
+                return failed(e);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<VerificationOutcome> tryVerifyAsync(String method, String url, HeaderProvider provider) {
+        HttpVerifierImpl.Pending pending = new HttpVerifierImpl.Pending();
+        VerificationOutcome failure = verifier.prepare(provider, pending);
+        if (failure != null) {
+            return CompletableFuture.completedFuture(failure);
+        }
+
+        if (pending.mac) {
+            // Secret keys come from a plain KeyProvider, looked up on the executor with the MAC
+            try {
+                return CompletableFuture.supplyAsync(() -> verifier.lookupAndComplete(pending, method, url, provider), executor)
+                        .exceptionally((t) -> VerificationOutcome.failed(FailureReason.ERROR, unwrap(t)));
+
+            } catch (RejectedExecutionException e) {
+                return CompletableFuture.completedFuture(VerificationOutcome.failed(FailureReason.ERROR, e));
+            }
+        }
+
+        long start = verifier.isTimed() ? System.nanoTime() : 0L;
+        CompletableFuture<PublicKey> key;
+        try {
+            key = keyProvider.getAsync(pending.keyId);
+        } catch (RuntimeException e) {
+            if (verifier.isTimed()) {
+                pending.keyNanos = System.nanoTime() - start;
+            }
+            return CompletableFuture.completedFuture(verifier.keyFailed(pending, e));
+        }
+
+        if (verifier.isTimed()) {
+            // Dependent stage, so the time is on the pending before complete() reads it
+            key = key.whenComplete((k, t) -> pending.keyNanos = System.nanoTime() - start);
+        }
+
+        // Hands off to the executor by hand rather than with handleAsync, which on Java 8 leaves the
+        // future incomplete forever if the executor turns the task down after the key arrives
+        CompletableFuture<VerificationOutcome> outcome = new CompletableFuture<>();
+        key.whenComplete((k, t) -> {
+            try {
+                executor.execute(() -> {
+                    try {
+                        outcome.complete((t == null)
+                                ? verifier.complete(pending, k, method, url, provider)
+                                : verifier.keyFailed(pending, unwrap(t)));
+                    } catch (RuntimeException e) {
+                        outcome.complete(VerificationOutcome.failed(FailureReason.ERROR, e));
+                    }
+                });
+
+            } catch (RejectedExecutionException e) {
+                outcome.complete(VerificationOutcome.failed(FailureReason.ERROR, e));
+            }
+        });
+        return outcome;
+    }
+
+}
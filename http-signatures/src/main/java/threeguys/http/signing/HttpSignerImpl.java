@@ -15,123 +15,145 @@
  */
 package threeguys.http.signing;
 
-import threeguys.http.signing.exceptions.InvalidFieldException;
 import threeguys.http.signing.exceptions.InvalidSignatureException;
-import threeguys.http.signing.exceptions.MissingHeadersException;
 import threeguys.http.signing.providers.HeaderProvider;
 import threeguys.http.signing.providers.KeyProvider;
 
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.Key;
 import java.security.PrivateKey;
 import java.security.Signature;
 import java.time.Clock;
-import java.util.ArrayList;
-import java.util.Base64;
-import java.util.List;
-
-import static threeguys.http.signing.Signatures.FIELD_ALGORITHM;
-import static threeguys.http.signing.Signatures.FIELD_CREATED;
-import static threeguys.http.signing.Signatures.FIELD_EXPIRES;
-import static threeguys.http.signing.Signatures.FIELD_HEADERS;
-import static threeguys.http.signing.Signatures.FIELD_KEY_ID;
-import static threeguys.http.signing.Signatures.FIELD_SIGNATURE;
 
 public class HttpSignerImpl implements HttpSigner {
 
     private final Clock clock;
     private final String algorithm;
     private String keyId;
-    private final KeyProvider<PrivateKey> privateKey;
+    // PrivateKeys, or SecretKeys for the hmac algorithms
+    private final KeyProvider<? extends Key> keys;
     private final Signatures signing;
     private final int expirationSec;
+    private final boolean mac;
+
+    private final SignatureTemplate template;
+    private final SigningListener listener;
+    private final boolean timed;
 
-    private String algorithmValue;
+    public HttpSignerImpl(String algorithm, String keyId, KeyProvider<? extends Key> keys, Signatures signing, int expirationSec) throws InvalidSignatureException {
+        this(Clock.systemUTC(), algorithm, keyId, keys, signing, expirationSec);
+    }
 
-    public HttpSignerImpl(String algorithm, String keyId, KeyProvider<PrivateKey> privateKey, Signatures signing, int expirationSec) throws InvalidSignatureException {
-        this(Clock.systemUTC(), algorithm, keyId, privateKey, signing, expirationSec);
+    public HttpSignerImpl(Clock clock, String algorithm, String keyId, KeyProvider<? extends Key> keys, Signatures signing, int expirationSec) throws InvalidSignatureException {
+        this(clock, algorithm, keyId, keys, signing, expirationSec, null);
     }
 
-    public HttpSignerImpl(Clock clock, String algorithm, String keyId, KeyProvider<PrivateKey> privateKey, Signatures signing, int expirationSec) throws InvalidSignatureException {
+    public HttpSignerImpl(Clock clock, String algorithm, String keyId, KeyProvider<? extends Key> keys, Signatures signing,
+                          int expirationSec, SigningListener listener) throws InvalidSignatureException {
         this.clock = clock;
         this.algorithm = algorithm;
         this.keyId = keyId;
-        this.privateKey = privateKey;
+        this.keys = keys;
         this.signing = signing;
         this.expirationSec = expirationSec;
+        this.mac = signing.isMac(algorithm);
 
-        // These are just optimizations
-        this.algorithmValue = makeValue(algorithm);
-    }
+        // The field layout can't change after this, so work the header format out up front
+        this.template = new SignatureTemplate(signing.getFields(), algorithm);
 
-    private String makeValue(String value) throws InvalidSignatureException {
-        if (value.contains("\"")) {
-            throw new InvalidSignatureException("Values cannot contain '\"'");
-        }
+        this.listener = (listener == null) ? SigningListener.NOOP : listener;
+        this.timed = this.listener != SigningListener.NOOP;
+    }
 
-        return "\"" + value + "\"";
+    public SigningListener getListener() {
+        return listener;
     }
 
     public void setKeyId(String keyId) {
         this.keyId = keyId;
     }
 
+    private byte [] sign(Key key, PayloadBuffer payload) throws GeneralSecurityException {
+        if (!(key instanceof PrivateKey)) {
+            throw new InvalidKeyException(algorithm + " needs a PrivateKey");
+        }
+
+        Signature signature = signing.acquireSignature(algorithm);
+        try {
+            signature.initSign((PrivateKey) key);
+            payload.update(signature);
+            return signature.sign();
+        } finally {
+            signing.releaseSignature(algorithm, signature);
+        }
+    }
+
+    private byte [] mac(Key key, PayloadBuffer payload) throws GeneralSecurityException {
+        if (!(key instanceof SecretKey)) {
+            throw new InvalidKeyException(algorithm + " needs a SecretKey");
+        }
+
+        // Not handed back if anything throws, it could be half way through
+        SecretKey secret = (SecretKey) key;
+        Mac instance = signing.acquireMac(algorithm, secret);
+        payload.update(instance);
+        byte [] data = instance.doFinal();
+        signing.releaseMac(algorithm, secret, instance);
+        return data;
+    }
+
     @Override
     public String sign(String method, String url, HeaderProvider provider) throws InvalidSignatureException {
+        String reqKeyId = this.keyId; // just so it doesn't switch out while we're processing
+        long start = timed ? System.nanoTime() : 0L;
+        long keyNanos = 0L;
+        long payloadNanos = 0L;
+        long signNanos = 0L;
+        String value;
         try {
-            String reqKeyId = this.keyId; // just so it doesn't switch out while we're processing
-            PrivateKey key = privateKey.get(reqKeyId);
+            Key key = keys.get(reqKeyId);
+            if (timed) {
+                keyNanos = System.nanoTime() - start;
+            }
 
             long created = clock.instant().getEpochSecond();
             long expires = created + expirationSec;
-            Payload payload = signing.assemblePayload(method, url, provider, created, expires);
-
-            // Create the signature
-            Signature signature = signing.getSignature(algorithm);
-            signature.initSign(key);
-            signature.update(payload.getPlaintext());
-            byte [] data = signature.sign();
-            String encodedSig = Base64.getEncoder().encodeToString(data);
-
-            List<String> output = new ArrayList<>();
-            for (String f : signing.getFields()) {
-                String value;
-                switch(f) {
-                    case FIELD_ALGORITHM :
-                        value = algorithmValue;
-                        break;
-                    case FIELD_KEY_ID:
-                        value = makeValue(reqKeyId);
-                        break;
-                    case FIELD_CREATED:
-                        value = Long.toString(created);
-                        break;
-                    case FIELD_EXPIRES:
-                        value = Long.toString(expires);
-                        break;
-                    case FIELD_HEADERS:
-                        value = makeValue(payload.getHeaders());
-                        break;
-                    case FIELD_SIGNATURE:
-                        value = makeValue(encodedSig);
-                        break;
-                    default:
-                        throw new InvalidFieldException("Unknown field: " + f);
-                }
-                output.add(f + "=" + value);
+            PayloadBuffer payload = signing.payloadBuffer();
+            StringBuilder headers = new StringBuilder();
+            signing.writePayload(method, url, provider, created, expires, payload, headers);
+            if (timed) {
+                payloadNanos = System.nanoTime() - start - keyNanos;
             }
 
-            if (output.size() == 0) {
-                throw new MissingHeadersException("No fields were found to include in the signature!");
+            // Create the signature
+            byte [] data = mac ? mac(key, payload) : sign(key, payload);
+            if (timed) {
+                signNanos = System.nanoTime() - start - keyNanos - payloadNanos;
             }
 
-            return String.join(", ", output);
+            value = template.render(reqKeyId, created, expires, headers, data);
 
         } catch (Exception e) {
+            // Only the phases that finished are reported
+            if (timed) {
+                listener.onSigning(algorithm, reqKeyId, false, keyNanos, payloadNanos, signNanos, 0L);
+            }
+
             if (e instanceof InvalidSignatureException) {
                 throw (InvalidSignatureException) e;
             } else {
                 throw new InvalidSignatureException(e);
             }
         }
+
+        if (timed) {
+            listener.onSigning(algorithm, reqKeyId, true, keyNanos, payloadNanos, signNanos,
+                    System.nanoTime() - start - keyNanos - payloadNanos - signNanos);
+        }
+        return value;
     }
 
 }
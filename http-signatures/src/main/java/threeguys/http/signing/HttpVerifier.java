@@ -22,4 +22,14 @@ public interface HttpVerifier {
 
     VerificationResult verify(String method, String url, HeaderProvider provider) throws SignatureException;
 
+    // Same checks without throwing for a rejected request. Verifiers that can avoid building
+    // the exception should override this, the default just catches it.
+    default VerificationOutcome tryVerify(String method, String url, HeaderProvider provider) {
+        try {
+            return VerificationOutcome.verified(verify(method, url, provider));
+        } catch (SignatureException e) {
+            return VerificationOutcome.of(e);
+        }
+    }
+
 }
@@ -15,30 +15,52 @@
  */
 package threeguys.http.signing;
 
+import threeguys.http.signing.algorithms.HmacAlgorithm;
 import threeguys.http.signing.algorithms.SigningAlgorithm;
 import threeguys.http.signing.algorithms.SigningAlgorithms;
 import threeguys.http.signing.exceptions.SignatureException;
+import threeguys.http.signing.exceptions.KeyNotFoundException;
+import threeguys.http.signing.providers.AsyncKeyProvider;
+import threeguys.http.signing.providers.ExecutorKeyProvider;
 import threeguys.http.signing.providers.KeyProvider;
 
+import javax.crypto.SecretKey;
 import java.security.PublicKey;
 import java.time.Clock;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 public class HttpVerifierBuilder {
 
     public static final int DEFAULT_MAX_AGE_SEC = 300;
 
+    // Replay protection keeps signatures around this much longer than maxAge, so clients whose
+    // clocks run a little ahead still get through
+    public static final int DEFAULT_REPLAY_CLOCK_SKEW_SEC = 60;
+
     private KeyProvider<PublicKey> keyProvider;
+    private AsyncKeyProvider<PublicKey> asyncKeyProvider;
+    private Executor executor;
     private Map<String, SigningAlgorithm> algorithms;
     private String algorithmList;
     private List<String> fields;
     private List<String> headersToInclude;
     private String fieldList;
     private int maxAge = -1;
+    private int signaturePoolSize = 0;
+    private VerifiedSignatureCache verifiedCache;
+    private boolean replayProtection = false;
+    private ReplayStore replayStore;
+    private int replayRequestsPerSec = ReplayStore.DEFAULT_REQUESTS_PER_SEC;
     private Clock clock;
+    private VerificationListener listener;
+    private KeyBoundSignatureCache signatureCache;
+    private KeyProvider<SecretKey> secretKeyProvider;
 
     public HttpVerifierBuilder withAlgorithms(Map<String, SigningAlgorithm> algorithms) {
         this.algorithms = algorithms;
@@ -79,11 +101,118 @@ public class HttpVerifierBuilder {
         return withMaxAge(Integer.parseInt(maxAge));
     }
 
+    public HttpVerifierBuilder withSignaturePooling(boolean enabled) {
+        return withSignaturePoolSize(enabled ? Signatures.defaultSignaturePoolSize() : 0);
+    }
+
+    public HttpVerifierBuilder withSignaturePoolSize(int signaturePoolSize) {
+        this.signaturePoolSize = signaturePoolSize;
+        return this;
+    }
+
+    public HttpVerifierBuilder withSignaturePoolSize(String signaturePoolSize) {
+        return withSignaturePoolSize(Integer.parseInt(signaturePoolSize));
+    }
+
+    public HttpVerifierBuilder withVerifiedCache(VerifiedSignatureCache verifiedCache) {
+        this.verifiedCache = verifiedCache;
+        return this;
+    }
+
+    public HttpVerifierBuilder withVerifiedCacheSize(int maxEntries) {
+        return withVerifiedCache((maxEntries > 0) ? new VerifiedSignatureCache(maxEntries) : null);
+    }
+
+    public HttpVerifierBuilder withVerifiedCacheSize(String maxEntries) {
+        return withVerifiedCacheSize(Integer.parseInt(maxEntries));
+    }
+
+    // Uses a ReplayStore with a window of maxAge plus DEFAULT_REPLAY_CLOCK_SKEW_SEC, sized for
+    // ReplayStore.DEFAULT_REQUESTS_PER_SEC (1000) unless withReplayRequestsPerSec says otherwise.
+    // It holds a fixed number of requests; once sustained traffic goes past what it was sized
+    // for, new requests fail with FailureReason.ERROR rather than go unchecked.
+    public HttpVerifierBuilder withReplayProtection(boolean enabled) {
+        this.replayProtection = enabled;
+        return this;
+    }
+
+    public HttpVerifierBuilder withReplayProtection(String enabled) {
+        return withReplayProtection(Boolean.parseBoolean(enabled));
+    }
+
+    // The peak rate of accepted requests the replay store has to keep track of
+    public HttpVerifierBuilder withReplayRequestsPerSec(int replayRequestsPerSec) {
+        this.replayRequestsPerSec = replayRequestsPerSec;
+        return this;
+    }
+
+    public HttpVerifierBuilder withReplayRequestsPerSec(String replayRequestsPerSec) {
+        return withReplayRequestsPerSec(Integer.parseInt(replayRequestsPerSec));
+    }
+
+    public HttpVerifierBuilder withReplayStore(ReplayStore replayStore) {
+        this.replayStore = replayStore;
+        return this;
+    }
+
+    // Keeps Signatures already initialized for each key, so repeat callers skip initVerify
+    public HttpVerifierBuilder withSignatureCache(KeyBoundSignatureCache signatureCache) {
+        this.signatureCache = signatureCache;
+        return this;
+    }
+
+    public HttpVerifierBuilder withSignatureCacheSize(int maxKeys) {
+        return withSignatureCache((maxKeys > 0) ? new KeyBoundSignatureCache(maxKeys) : null);
+    }
+
+    public HttpVerifierBuilder withSignatureCacheSize(String maxKeys) {
+        return withSignatureCacheSize(Integer.parseInt(maxKeys));
+    }
+
+    public HttpVerifierBuilder withListener(VerificationListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
     public HttpVerifierBuilder withKeyProvider(KeyProvider<PublicKey> keyProvider) {
         this.keyProvider = keyProvider;
         return this;
     }
 
+    // Shared secrets for the hmac algorithms, which are then added to the default algorithms
+    public HttpVerifierBuilder withSecretKeyProvider(KeyProvider<SecretKey> secretKeyProvider) {
+        this.secretKeyProvider = secretKeyProvider;
+        return this;
+    }
+
+    public HttpVerifierBuilder withAsyncKeyProvider(AsyncKeyProvider<PublicKey> asyncKeyProvider) {
+        this.asyncKeyProvider = asyncKeyProvider;
+        return this;
+    }
+
+    // Where buildAsync() runs the crypto and, without an AsyncKeyProvider, the key lookups
+    public HttpVerifierBuilder withExecutor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    // Blocking view of an AsyncKeyProvider for the synchronous verify path
+    private static KeyProvider<PublicKey> blocking(AsyncKeyProvider<PublicKey> asyncKeyProvider) {
+        return (name) -> {
+            try {
+                return asyncKeyProvider.getAsync(name).get();
+            } catch (ExecutionException | CompletionException e) {
+                if (e.getCause() instanceof KeyNotFoundException) {
+                    throw (KeyNotFoundException) e.getCause();
+                }
+                throw new KeyNotFoundException("Error loading key " + name, e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new KeyNotFoundException("Interrupted loading key " + name, e);
+            }
+        };
+    }
+
     public static List<String> parseFieldList(String entry) throws SignatureException {
         String [] entries = entry.split(",");
         List<String> output = new ArrayList<>(entries.length);
@@ -112,7 +241,8 @@ public class HttpVerifierBuilder {
 
     protected Map<String, SigningAlgorithm> parseAlgorithms(String entry) throws SignatureException {
         String [] algoEntries = entry.split(",");
-        Map<String, SigningAlgorithm> defaultAlgos = SigningAlgorithms.defaultAlgorithms();
+        Map<String, SigningAlgorithm> defaultAlgos = new HashMap<>(SigningAlgorithms.defaultAlgorithms());
+        defaultAlgos.putAll(SigningAlgorithms.hmacAlgorithms());
         Map<String, SigningAlgorithm> algos = new HashMap<>();
 
         for (String a : algoEntries) {
@@ -123,7 +253,8 @@ public class HttpVerifierBuilder {
                 }
 
                 // TODO Validate we can actually instantiate the cipher
-                algos.put(entries[0], new SigningAlgorithm(entries[0], entries[1]));
+                algos.put(entries[0], entries[1].startsWith("Hmac") ? new HmacAlgorithm(entries[0], entries[1])
+                        : new SigningAlgorithm(entries[0], entries[1]));
 
             } else if (defaultAlgos.containsKey(a)) {
                 algos.put(a, defaultAlgos.get(a));
@@ -136,9 +267,30 @@ public class HttpVerifierBuilder {
         return algos;
     }
 
+    public AsyncHttpVerifierImpl buildAsync() throws SignatureException {
+        if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+
+        // Fill in whichever provider is missing without touching the builder, so it can be reused
+        KeyProvider<PublicKey> keys = keyProvider;
+        AsyncKeyProvider<PublicKey> asyncKeys = asyncKeyProvider;
+        if (keys == null && asyncKeys != null) {
+            keys = blocking(asyncKeys);
+        } else if (asyncKeys == null && keys != null) {
+            asyncKeys = new ExecutorKeyProvider<>(keys, executor);
+        }
+
+        return new AsyncHttpVerifierImpl(buildImpl(keys), asyncKeys, executor);
+    }
+
     public HttpVerifier build() throws SignatureException {
+        return buildImpl(keyProvider);
+    }
+
+    private HttpVerifierImpl buildImpl(KeyProvider<PublicKey> keyProvider) throws SignatureException {
 
-        if (keyProvider == null) {
+        if (keyProvider == null && secretKeyProvider == null) {
             throw new NullPointerException("keyProvider");
         }
 
@@ -154,6 +306,10 @@ public class HttpVerifierBuilder {
             algorithms = parseAlgorithms(algorithmList);
         } else if (algorithms == null) {
             algorithms = SigningAlgorithms.defaultAlgorithms();
+            if (secretKeyProvider != null) {
+                algorithms = new HashMap<>(algorithms);
+                algorithms.putAll(SigningAlgorithms.hmacAlgorithms());
+            }
         }
 
         if (fieldList != null) {
@@ -174,9 +330,14 @@ public class HttpVerifierBuilder {
             clock = Clock.systemUTC();
         }
 
-        Signatures signing = new Signatures(Signatures.DEFAULT_ALGORITHM, algorithms, fields, headersToInclude);
+        if (replayProtection && replayStore == null) {
+            replayStore = new ReplayStore((long) maxAge + DEFAULT_REPLAY_CLOCK_SKEW_SEC, replayRequestsPerSec);
+        }
+
+        Signatures signing = new Signatures(Signatures.DEFAULT_ALGORITHM, algorithms, fields, headersToInclude, signaturePoolSize);
 
-        return new HttpVerifierImpl(clock, signing, keyProvider, maxAge);
+        return new HttpVerifierImpl(clock, signing, keyProvider, maxAge, verifiedCache, replayStore, listener, signatureCache,
+                secretKeyProvider);
     }
 
 }
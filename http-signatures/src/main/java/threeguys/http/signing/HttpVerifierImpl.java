@@ -16,24 +16,26 @@
 package threeguys.http.signing;
 
 import threeguys.http.signing.algorithms.SigningAlgorithm;
-import threeguys.http.signing.exceptions.ExpiredSignatureException;
+import threeguys.http.signing.algorithms.SigningAlgorithms;
 import threeguys.http.signing.exceptions.InvalidSignatureException;
+import threeguys.http.signing.exceptions.KeyNotFoundException;
 import threeguys.http.signing.exceptions.SignatureException;
 import threeguys.http.signing.providers.HeaderProvider;
+import threeguys.http.signing.providers.HeaderValuesProvider;
 import threeguys.http.signing.providers.KeyProvider;
 
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.MessageDigest;
 import java.security.PublicKey;
 import java.security.Signature;
 import java.time.Clock;
-import java.util.Arrays;
 import java.util.Base64;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Iterator;
 import java.util.function.Predicate;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.function.Supplier;
 
 import static threeguys.http.signing.Signatures.FIELD_ALGORITHM;
 import static threeguys.http.signing.Signatures.FIELD_CREATED;
@@ -49,16 +51,58 @@ public class HttpVerifierImpl implements HttpVerifier {
     private final Signatures signing;
     private final KeyProvider<PublicKey> keyProvider;
     private final int maxCreateAgeSec;
+    private final SignatureParser parser;
+    private final VerifiedSignatureCache verifiedCache;
+    private final ReplayStore replayStore;
+    private final VerificationListener listener;
+    private final boolean timed;
+    private final KeyBoundSignatureCache signatureCache;
+    private final KeyProvider<SecretKey> secretKeyProvider;
 
     public HttpVerifierImpl(Signatures signing, KeyProvider<PublicKey> keyProvider) {
         this(Clock.systemUTC(), signing, keyProvider, Integer.MAX_VALUE);
     }
 
     public HttpVerifierImpl(Clock clock, Signatures signing, KeyProvider<PublicKey> keyProvider, int maxCreateAgeSec) {
+        this(clock, signing, keyProvider, maxCreateAgeSec, null);
+    }
+
+    public HttpVerifierImpl(Clock clock, Signatures signing, KeyProvider<PublicKey> keyProvider, int maxCreateAgeSec,
+                            VerifiedSignatureCache verifiedCache) {
+        this(clock, signing, keyProvider, maxCreateAgeSec, verifiedCache, null);
+    }
+
+    public HttpVerifierImpl(Clock clock, Signatures signing, KeyProvider<PublicKey> keyProvider, int maxCreateAgeSec,
+                            VerifiedSignatureCache verifiedCache, ReplayStore replayStore) {
+        this(clock, signing, keyProvider, maxCreateAgeSec, verifiedCache, replayStore, null);
+    }
+
+    public HttpVerifierImpl(Clock clock, Signatures signing, KeyProvider<PublicKey> keyProvider, int maxCreateAgeSec,
+                            VerifiedSignatureCache verifiedCache, ReplayStore replayStore, VerificationListener listener) {
+        this(clock, signing, keyProvider, maxCreateAgeSec, verifiedCache, replayStore, listener, null);
+    }
+
+    public HttpVerifierImpl(Clock clock, Signatures signing, KeyProvider<PublicKey> keyProvider, int maxCreateAgeSec,
+                            VerifiedSignatureCache verifiedCache, ReplayStore replayStore, VerificationListener listener,
+                            KeyBoundSignatureCache signatureCache) {
+        this(clock, signing, keyProvider, maxCreateAgeSec, verifiedCache, replayStore, listener, signatureCache, null);
+    }
+
+    // Either key provider can be null, the algorithms that need it are then rejected as unsupported
+    public HttpVerifierImpl(Clock clock, Signatures signing, KeyProvider<PublicKey> keyProvider, int maxCreateAgeSec,
+                            VerifiedSignatureCache verifiedCache, ReplayStore replayStore, VerificationListener listener,
+                            KeyBoundSignatureCache signatureCache, KeyProvider<SecretKey> secretKeyProvider) {
         this.clock = clock;
         this.signing = signing;
         this.keyProvider = keyProvider;
         this.maxCreateAgeSec = maxCreateAgeSec;
+        this.parser = new SignatureParser(signing);
+        this.verifiedCache = verifiedCache;
+        this.replayStore = replayStore;
+        this.listener = (listener == null) ? VerificationListener.NOOP : listener;
+        this.timed = this.listener != VerificationListener.NOOP;
+        this.signatureCache = signatureCache;
+        this.secretKeyProvider = secretKeyProvider;
     }
 
     public Signatures getSigning() {
@@ -69,123 +113,403 @@ public class HttpVerifierImpl implements HttpVerifier {
         return maxCreateAgeSec;
     }
 
-    private void checkField(Map<String, String> fields, String field) throws SignatureException {
-        if (fields.containsKey(field)) {
-            throw new InvalidSignatureException(String.format("Field %s occurred more than once", field));
-        }
+    public VerifiedSignatureCache getVerifiedCache() {
+        return verifiedCache;
     }
 
-    private String fixQuotes(String value) {
-        if (value.startsWith("\"") && value.endsWith("\"")) {
-            return value.substring(1, value.length()-1);
-        }
-        return value;
+    public ReplayStore getReplayStore() {
+        return replayStore;
+    }
+
+    public VerificationListener getListener() {
+        return listener;
+    }
+
+    public KeyBoundSignatureCache getSignatureCache() {
+        return signatureCache;
+    }
+
+    public KeyProvider<SecretKey> getSecretKeyProvider() {
+        return secretKeyProvider;
     }
 
     public static <R> Predicate<R> not(Predicate<R> predicate) {
         return predicate.negate();
     }
 
-    private Map<String, String> parseFields(String signatureValue) throws SignatureException {
-        Pattern regex = Pattern.compile("([^=]+)=(\"[^\"]+\"|[0-9]+)(, ){0,1}(.*)");
+    // Everything verify can work out before it has the key, no I/O and no crypto. Filled in
+    // by prepare() as it goes, so a failure still knows whatever had been worked out.
+    static final class Pending {
 
-        // Parse fields from the header
-        Map<String, String> fields = new HashMap<>();
-        String working = signatureValue;
-        while(working.length() > 0) {
-            Matcher m = regex.matcher(working);
-            if (m.lookingAt()) {
-                String name = m.group(1);
-                String value = m.group(2);
+        SignatureFields fields;
+        long now;
+        long created;
+        long expires;
+        String algorithm;
+        SigningAlgorithm signingAlgo;
+        String keyId;
+        boolean mac;
 
-                if (!signing.validField(name)) {
-                    throw new InvalidSignatureException(String.format("Unknown field %s", name));
-                }
+        // Only filled in when somebody is listening
+        long parseNanos;
+        long keyNanos;
+
+    }
+
+    private static final Supplier<String> MISSING_SIGNATURE = () -> "Could not find header \"" + HEADER + "\"";
+    private static final Supplier<String> MISSING_HEADERS = () -> "Missing field " + FIELD_HEADERS;
+    private static final Supplier<String> HEADER_MISMATCH = () -> "Headers fields did not match";
+    private static final Supplier<String> NOT_VERIFIED = () -> "The signature was not verified";
+    private static final Supplier<String> REPLAYED = () -> "Signature has already been used";
+
+    private static long since(long start) {
+        return System.nanoTime() - start;
+    }
+
+    boolean isTimed() {
+        return timed;
+    }
+
+    public VerificationResult verify(String method, String url, HeaderProvider provider) throws SignatureException {
+        return tryVerify(method, url, provider).getResult();
+    }
 
-                checkField(fields, name);
-                fields.put(name, fixQuotes(value));
+    @Override
+    public VerificationOutcome tryVerify(String method, String url, HeaderProvider provider) {
+        Pending pending = new Pending();
+        VerificationOutcome failure = prepare(provider, pending);
+        if (failure != null) {
+            return failure;
+        }
+        return lookupAndComplete(pending, method, url, provider);
+    }
 
-                working = m.group(4);
-            } else {
-                throw new InvalidSignatureException("Invalid format: " + working);
+    // The rest of tryVerify() once prepare() has passed, looking the key up on this thread
+    VerificationOutcome lookupAndComplete(Pending pending, String method, String url, HeaderProvider provider) {
+        Key key;
+        long start = timed ? System.nanoTime() : 0L;
+        try {
+            key = pending.mac ? secretKeyProvider.get(pending.keyId) : keyProvider.get(pending.keyId);
+        } catch (Exception e) {
+            if (timed) {
+                pending.keyNanos = since(start);
             }
+            return keyFailed(pending, e);
         }
 
-        // Verify all of the fields are there
-        String missing = fields.keySet().stream().filter(not(signing::validField))
-                .collect(Collectors.joining(", "));
+        if (timed) {
+            pending.keyNanos = since(start);
+        }
+        return complete(pending, key, method, url, provider);
+    }
 
-        if (missing.length() > 0) {
-            throw new InvalidSignatureException(String.format("Field(s) %s missing", missing));
+    // The key lookup is the caller's business (sync or async), so it reports its own failures
+    VerificationOutcome keyFailed(Pending pending, Throwable cause) {
+        VerificationOutcome outcome = (cause instanceof KeyNotFoundException)
+                ? VerificationOutcome.failed(FailureReason.KEY_NOT_FOUND, cause)
+                : VerificationOutcome.failed(FailureReason.ERROR, cause);
+        if (timed) {
+            listener.onVerification(pending.algorithm, pending.keyId, outcome.getReason(),
+                    pending.parseNanos, pending.keyNanos, 0L, 0L);
         }
+        return outcome;
+    }
 
-        return fields;
+    private static String firstValue(HeaderProvider provider, String name) throws Exception {
+        if (provider instanceof HeaderValuesProvider) {
+            Iterator<? extends CharSequence> values = ((HeaderValuesProvider) provider).values(name);
+            return (values != null && values.hasNext()) ? values.next().toString() : null;
+        }
+
+        String [] values = provider.get(name);
+        return (values != null && values.length > 0) ? values[0] : null;
     }
 
-    public VerificationResult verify(String method, String url, HeaderProvider provider) throws SignatureException {
+    // Digits only, anything else is -1 rather than a NumberFormatException
+    static long parseTimestamp(SignatureFields fields, String name) {
+        int start = fields.start(name);
+        int end = fields.end(name);
+        if (start < 0 || end <= start || end - start > 18) {
+            return -1;
+        }
+
+        String header = fields.getHeader();
+        long value = 0;
+        for (int i=start; i<end; i++) {
+            char c = header.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = (value * 10) + (c - '0');
+        }
+        return value;
+    }
+
+    private static int base64Value(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return c - 'A';
+        } else if (c >= 'a' && c <= 'z') {
+            return c - 'a' + 26;
+        } else if (c >= '0' && c <= '9') {
+            return c - '0' + 52;
+        } else if (c == '+') {
+            return 62;
+        } else if (c == '/') {
+            return 63;
+        }
+        return -1;
+    }
+
+    // null for anything that isn't base64 the decoder would take, and for base64 that isn't the
+    // one way of writing those bytes: the decoder ignores the bits left over before the padding,
+    // so "AB==" and "AC==" are both [0]
+    static byte [] decodeSignature(String encoded) {
+        if (encoded == null || encoded.isEmpty() || (encoded.length() & 3) != 0) {
+            return null;
+        }
+
+        for (int i=0; i<encoded.length(); i++) {
+            char c = encoded.charAt(i);
+            if (c != '=' && base64Value(c) < 0) {
+                return null;
+            }
+        }
+
+        int last = encoded.length() - 1;
+        if (encoded.charAt(last) == '=') {
+            boolean two = encoded.charAt(last - 1) == '=';
+            int value = base64Value(encoded.charAt(two ? last - 2 : last - 1));
+            if (value < 0 || (value & (two ? 0x0f : 0x03)) != 0) {
+                return null;
+            }
+        }
+
         try {
-            String [] signatureValues = provider.get(HEADER);
-            if (signatureValues == null || signatureValues.length == 0) {
-                throw new InvalidSignatureException("Could not find header \"" + HEADER + "\"");
+            return Base64.getDecoder().decode(encoded);
+        } catch (IllegalArgumentException e) {
+            return null; // '=' somewhere other than the end
+        }
+    }
+
+    // null once the request is ready for its key, otherwise why it isn't
+    VerificationOutcome prepare(HeaderProvider provider, Pending pending) {
+        long start = timed ? System.nanoTime() : 0L;
+        VerificationOutcome failure = parse(provider, pending);
+        if (timed) {
+            pending.parseNanos = since(start);
+            if (failure != null) {
+                listener.onVerification(pending.algorithm, pending.keyId, failure.getReason(), pending.parseNanos, 0L, 0L, 0L);
             }
-            String signatureValue = signatureValues[0];
+        }
+        return failure;
+    }
 
-            Map<String, String> fields = parseFields(signatureValue);
+    private VerificationOutcome parse(HeaderProvider provider, Pending pending) {
+        String signatureValue;
+        try {
+            signatureValue = firstValue(provider, HEADER);
+        } catch (Exception e) {
+            return VerificationOutcome.failed(FailureReason.ERROR, e);
+        }
 
-            // Validate the timestamps in the signature
-            long created = Long.parseLong(fields.get(FIELD_CREATED));
+        if (signatureValue == null) {
+            return VerificationOutcome.failed(FailureReason.MISSING_SIGNATURE, MISSING_SIGNATURE);
+        }
+
+        SignatureFields fields = parser.tryParse(signatureValue);
+        if (fields == null) {
+            return VerificationOutcome.failed(FailureReason.MALFORMED, () -> parser.describe(signatureValue));
+        }
 
+        pending.fields = fields;
+        pending.keyId = fields.get(FIELD_KEY_ID);
+        pending.algorithm = fields.getOrDefault(FIELD_ALGORITHM, signing.getDefaultAlgorithm());
 
-            long now = clock.instant().getEpochSecond();
-            long checkCreate = now - maxCreateAgeSec;
+        // Validate the timestamps in the signature
+        long created = parseTimestamp(fields, FIELD_CREATED);
+        if (created < 0) {
+            return VerificationOutcome.failed(FailureReason.MALFORMED, () -> "Invalid " + FIELD_CREATED + ": " + fields.get(FIELD_CREATED));
+        }
+
+        long now = clock.instant().getEpochSecond();
+        long checkCreate = now - maxCreateAgeSec;
+
+        if (checkCreate > created) {
+            return VerificationOutcome.failed(FailureReason.EXPIRED,
+                    () -> String.format("Create time of %d is too far in the past, check = %d", created, checkCreate));
+        }
 
-            if (checkCreate > created) {
-                throw new ExpiredSignatureException(String.format("Create time of %d is too far in the past, check = %d", created, checkCreate));
+        long expires = Long.MAX_VALUE;
+        if (fields.contains(FIELD_EXPIRES)) {
+            long expiresAt = parseTimestamp(fields, FIELD_EXPIRES);
+            if (expiresAt < 0) {
+                return VerificationOutcome.failed(FailureReason.MALFORMED, () -> "Invalid " + FIELD_EXPIRES + ": " + fields.get(FIELD_EXPIRES));
             }
 
-            long expires = Long.MAX_VALUE;
-            if (fields.containsKey(FIELD_EXPIRES)) {
-                expires = Long.parseLong(fields.get(FIELD_EXPIRES));
-                if (now > expires) {
-                    throw new ExpiredSignatureException(String.format("Signature %d is expired, check = %d", expires, now));
-                }
+            if (now > expiresAt) {
+                return VerificationOutcome.failed(FailureReason.EXPIRED,
+                        () -> String.format("Signature %d is expired, check = %d", expiresAt, now));
             }
+            expires = expiresAt;
+        }
 
-            // Check the key parameters
-            // these will throw exceptions if the values are not found
-            String algorithm = fields.getOrDefault(FIELD_ALGORITHM, signing.getDefaultAlgorithm());
-            SigningAlgorithm signingAlgo = signing.getAlgorithm(algorithm);
-            Signature signature = signingAlgo.create();
+        // Check the key parameters
+        String algorithm = pending.algorithm;
+        SigningAlgorithm signingAlgo = signing.getAlgorithm(algorithm);
+        if (signingAlgo == null) {
+            return VerificationOutcome.failed(FailureReason.UNSUPPORTED_ALGORITHM, () -> "Unsupported algorithm: " + algorithm);
+        }
 
-            String keyId = fields.get(FIELD_KEY_ID);
-            PublicKey key = keyProvider.get(keyId);
+        // Secret keys and public keys never come from the same place, so a public key can't be
+        // passed off as an HMAC secret
+        boolean mac = SigningAlgorithms.isMac(signingAlgo);
+        if ((mac ? secretKeyProvider : keyProvider) == null) {
+            return VerificationOutcome.failed(FailureReason.UNSUPPORTED_ALGORITHM,
+                    () -> "No " + (mac ? "secret" : "public") + " keys for algorithm: " + algorithm);
+        }
 
-            // Verify the signature
-            signature.initVerify(key);
+        pending.now = now;
+        pending.created = created;
+        pending.expires = expires;
+        pending.signingAlgo = signingAlgo;
+        pending.mac = mac;
+        return null;
+    }
+
+    VerificationOutcome complete(Pending pending, Key key, String method, String url, HeaderProvider provider) {
+        long start = timed ? System.nanoTime() : 0L;
+        PayloadBuffer payload = signing.payloadBuffer();
+        VerificationOutcome outcome = writePayload(pending, method, url, provider, payload);
+
+        long payloadNanos = 0L;
+        if (timed) {
+            long mark = System.nanoTime();
+            payloadNanos = mark - start;
+            start = mark;
+        }
+
+        boolean payloadFailed = outcome != null;
+        if (!payloadFailed) {
+            outcome = check(pending, key, payload);
+        }
+
+        if (timed) {
+            listener.onVerification(pending.algorithm, pending.keyId, outcome.getReason(), pending.parseNanos,
+                    pending.keyNanos, payloadNanos, payloadFailed ? 0L : since(start));
+        }
+        return outcome;
+    }
 
-            List<String> headers = Arrays.asList(fields.get(FIELD_HEADERS).split(" "));
-            Payload payload = signing.assemblePayload(method, url, provider, created, expires, headers);
-            signature.update(payload.getPlaintext());
+    private VerificationOutcome writePayload(Pending pending, String method, String url, HeaderProvider provider, PayloadBuffer payload) {
+        SignatureFields fields = pending.fields;
+        if (!fields.contains(FIELD_HEADERS)) {
+            return VerificationOutcome.failed(FailureReason.MISSING_HEADERS, MISSING_HEADERS);
+        }
+
+        try {
+            boolean headersMatched = signing.writePayload(method, url, provider, pending.created, pending.expires,
+                    fields.getHeader(), fields.start(FIELD_HEADERS), fields.end(FIELD_HEADERS), payload);
+            return headersMatched ? null : VerificationOutcome.failed(FailureReason.HEADER_MISMATCH, HEADER_MISMATCH);
+
+        } catch (Exception e) {
+            return VerificationOutcome.failed(FailureReason.ERROR, e);
+        }
+    }
 
-            if (!payload.getHeaders().equals(fields.get(FIELD_HEADERS))) {
-                throw new InvalidSignatureException("Headers fields did not match");
+    private boolean verifySignature(Pending pending, PublicKey key, PayloadBuffer payload, byte [] data) throws GeneralSecurityException {
+        if (signatureCache == null) {
+            Signature signature = signing.acquireSignature(pending.algorithm);
+            try {
+                signature.initVerify(key);
+                payload.update(signature);
+                return signature.verify(data);
+            } finally {
+                signing.releaseSignature(pending.algorithm, signature);
             }
+        }
 
-            byte [] data = Base64.getDecoder().decode(fields.get(FIELD_SIGNATURE));
-            if (!signature.verify(data)) {
-                throw new InvalidSignatureException("The signature was not verified");
+        // Already initialized with this key, and verify() leaves it that way for the next one.
+        // If anything throws the instance is simply not handed back.
+        Signature signature = signatureCache.acquire(pending.signingAlgo, pending.keyId, key);
+        payload.update(signature);
+        boolean verified = signature.verify(data);
+        signatureCache.release(pending.signingAlgo, pending.keyId, key, signature);
+        return verified;
+    }
+
+    private boolean verifyMac(Pending pending, SecretKey key, PayloadBuffer payload, byte [] data) throws GeneralSecurityException {
+        Mac mac = signing.acquireMac(pending.algorithm, key);
+        payload.update(mac);
+        byte [] expected = mac.doFinal();
+        signing.releaseMac(pending.algorithm, key, mac);
+
+        // Constant time, how much of a forged MAC was right must not show in the timing
+        return MessageDigest.isEqual(expected, data);
+    }
+
+    private VerificationOutcome check(Pending pending, Key key, PayloadBuffer payload) {
+        String algorithm = pending.algorithm;
+        String keyId = pending.keyId;
+        long now = pending.now;
+
+        if (key == null) {
+            return VerificationOutcome.failed(FailureReason.KEY_NOT_FOUND, () -> "Key " + keyId);
+        }
+
+        // An identical request already verified with this key, no need to do the math again
+        String encodedSignature = pending.fields.get(FIELD_SIGNATURE);
+        long acceptableUntil = Math.min(pending.expires, pending.created + maxCreateAgeSec);
+        VerifiedSignatureCache.Fingerprint fingerprint = null;
+        boolean verified = false;
+        if (verifiedCache != null && encodedSignature != null && !pending.mac) {
+            fingerprint = verifiedCache.fingerprint(keyId, algorithm, encodedSignature, payload);
+            verified = verifiedCache.isVerified(fingerprint, (PublicKey) key, now);
+        }
+
+        if (!verified) {
+            byte [] data = decodeSignature(encodedSignature);
+            if (data == null) {
+                return VerificationOutcome.failed(FailureReason.BAD_SIGNATURE, NOT_VERIFIED);
             }
 
-            // Woot! we're good!
-            return new VerificationResult(key, signingAlgo.getIdentifier(), fields);
+            // Verify the signature
+            try {
+                boolean valid = pending.mac ? verifyMac(pending, (SecretKey) key, payload, data)
+                        : verifySignature(pending, (PublicKey) key, payload, data);
+                if (!valid) {
+                    return VerificationOutcome.failed(FailureReason.BAD_SIGNATURE, NOT_VERIFIED);
+                }
 
-        } catch (Exception e) {
-            if (e instanceof SignatureException) {
-                throw (SignatureException) e;
-            } else {
-                throw new SignatureException(e);
+            } catch (java.security.SignatureException e) {
+                // Signature bytes the algorithm can't even decode
+                return VerificationOutcome.failed(FailureReason.BAD_SIGNATURE, e);
+
+            } catch (Exception e) {
+                return VerificationOutcome.failed(FailureReason.ERROR, e);
+            }
+
+            if (fingerprint != null) {
+                verifiedCache.verified(fingerprint, (PublicKey) key, acceptableUntil, now);
             }
         }
+
+        // Only signatures that verified get remembered, so junk can't fill up the store
+        if (replayStore != null) {
+            try {
+                if (!replayStore.add(keyId, payload, acceptableUntil, now)) {
+                    return VerificationOutcome.failed(FailureReason.REPLAYED, REPLAYED);
+                }
+            } catch (InvalidSignatureException e) {
+                // Good for longer than the store can remember it
+                return VerificationOutcome.failed(FailureReason.BAD_SIGNATURE, e);
+            } catch (SignatureException e) {
+                // Store is full, nothing wrong with the request itself
+                return VerificationOutcome.failed(FailureReason.ERROR, e);
+            }
+        }
+
+        // Woot! we're good!
+        return VerificationOutcome.verified(new VerificationResult(key, pending.signingAlgo.getIdentifier(), pending.fields));
     }
 
 }
@@ -0,0 +1,253 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing;
+
+import threeguys.http.signing.algorithms.SigningAlgorithm;
+
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Signature instances that have already been through initVerify, kept per (algorithm, keyId).
+// verify() leaves a Signature initialized with the same key, so handing it to the next request
+// for that key skips the key setup entirely (for EC that is decoding the point and building
+// its precomputed tables). Each entry remembers the key it was made for; a provider returning
+// a different key for the keyId (rotation, reload) replaces the entry and the old instances are
+// dropped. Instances are only ever held by one request at a time, like SignaturePool.
+public class KeyBoundSignatureCache {
+
+    public static final int DEFAULT_MAX_KEYS = 1000;
+    public static final int DEFAULT_SIGNATURES_PER_KEY = 4;
+
+    static final class Id {
+
+        final String algorithm;
+        final String keyId;
+
+        Id(String algorithm, String keyId) {
+            this.algorithm = algorithm;
+            this.keyId = keyId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Id that = (Id) o;
+            return algorithm.equals(that.algorithm) && keyId.equals(that.keyId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * algorithm.hashCode() + keyId.hashCode();
+        }
+
+    }
+
+    static final class Bound {
+
+        final PublicKey key;
+        final AtomicReferenceArray<Signature> slots;
+
+        // Second chance bit for eviction
+        volatile boolean used = true;
+
+        Bound(PublicKey key, int size) {
+            this.key = key;
+            this.slots = new AtomicReferenceArray<>(size);
+        }
+
+        boolean isFor(PublicKey other) {
+            return key == other || key.equals(other);
+        }
+
+        Signature poll() {
+            for (int i=0; i<slots.length(); i++) {
+                Signature signature = slots.get(i);
+                if (signature != null && slots.compareAndSet(i, signature, null)) {
+                    return signature;
+                }
+            }
+            return null;
+        }
+
+        boolean offer(Signature signature) {
+            for (int i=0; i<slots.length(); i++) {
+                if (slots.get(i) == null && slots.compareAndSet(i, null, signature)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
+    private final int maxKeys;
+    private final int signaturesPerKey;
+    private final ConcurrentHashMap<Id, Bound> entries;
+    private final AtomicBoolean evicting;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder invalidations;
+
+    // Only touched by the thread holding evicting
+    private Iterator<Map.Entry<Id, Bound>> cursor;
+
+    public KeyBoundSignatureCache() {
+        this(DEFAULT_MAX_KEYS, DEFAULT_SIGNATURES_PER_KEY);
+    }
+
+    public KeyBoundSignatureCache(int maxKeys) {
+        this(maxKeys, DEFAULT_SIGNATURES_PER_KEY);
+    }
+
+    public KeyBoundSignatureCache(int maxKeys, int signaturesPerKey) {
+        this.maxKeys = (maxKeys > 0) ? maxKeys : DEFAULT_MAX_KEYS;
+        this.signaturesPerKey = (signaturesPerKey > 0) ? signaturesPerKey : DEFAULT_SIGNATURES_PER_KEY;
+        this.entries = new ConcurrentHashMap<>();
+        this.evicting = new AtomicBoolean(false);
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.invalidations = new LongAdder();
+    }
+
+    public int getMaxKeys() {
+        return maxKeys;
+    }
+
+    public int getSignaturesPerKey() {
+        return signaturesPerKey;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // Acquires handed an already initialized Signature
+    public long getHits() {
+        return hits.sum();
+    }
+
+    // Acquires that had to create a Signature and run initVerify
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    // Entries thrown away because the keyId came back with a different key
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    public void invalidate(String algorithm, String keyId) {
+        entries.remove(new Id(algorithm, keyId));
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    // Returns a Signature ready to update() and verify() with key
+    public Signature acquire(SigningAlgorithm algorithm, String keyId, PublicKey key) throws GeneralSecurityException {
+        Objects.requireNonNull(key);
+        Bound bound = (keyId == null) ? null : entries.get(new Id(algorithm.getIdentifier(), keyId));
+        if (bound != null && bound.isFor(key)) {
+            bound.used = true;
+            Signature signature = bound.poll();
+            if (signature != null) {
+                hits.increment();
+                return signature;
+            }
+        }
+
+        misses.increment();
+        Signature signature = algorithm.create();
+        signature.initVerify(key);
+        return signature;
+    }
+
+    // Only for signatures whose verify() returned, true or false. One that threw is in an
+    // unknown state and should just be dropped.
+    public void release(SigningAlgorithm algorithm, String keyId, PublicKey key, Signature signature) {
+        if (signature == null || keyId == null) {
+            return;
+        }
+
+        Id id = new Id(algorithm.getIdentifier(), keyId);
+        Bound bound = entries.get(id);
+        if (bound == null || !bound.isFor(key)) {
+            Bound replacement = new Bound(key, signaturesPerKey);
+            if (bound == null) {
+                Bound existing = entries.putIfAbsent(id, replacement);
+                bound = (existing == null) ? replacement : existing;
+            } else if (entries.replace(id, bound, replacement)) {
+                invalidations.increment();
+                bound = replacement;
+            } else {
+                bound = entries.get(id);
+            }
+
+            if (bound == null || !bound.isFor(key)) {
+                return;
+            }
+            if (bound == replacement && entries.size() > maxKeys) {
+                evict();
+            }
+        }
+
+        // A full entry means plenty of instances are already in circulation for this key
+        bound.offer(signature);
+    }
+
+    private void evict() {
+        while (entries.size() > maxKeys && evicting.compareAndSet(false, true)) {
+            try {
+                // CLOCK, anything used since the last pass gets another go round
+                int scanned = 0;
+                while (entries.size() > maxKeys && scanned < 4 * maxKeys) {
+                    Map.Entry<Id, Bound> candidate = next();
+                    if (candidate == null) {
+                        break;
+                    }
+                    scanned++;
+
+                    Bound bound = candidate.getValue();
+                    if (bound.used) {
+                        bound.used = false;
+                    } else {
+                        entries.remove(candidate.getKey(), bound);
+                    }
+                }
+            } finally {
+                evicting.set(false);
+            }
+        }
+    }
+
+    private Map.Entry<Id, Bound> next() {
+        if (cursor == null || !cursor.hasNext()) {
+            cursor = entries.entrySet().iterator();
+        }
+        return cursor.hasNext() ? cursor.next() : null;
+    }
+
+}
@@ -0,0 +1,226 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing;
+
+import javax.crypto.Mac;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.Arrays;
+
+// Reusable UTF-8 sink for the canonical signing string. ASCII is copied straight across,
+// everything else is encoded the same way String.getBytes(UTF_8) would encode it.
+public class PayloadBuffer {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    // Buffers that had to grow past this are not kept around between requests
+    public static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private byte [] data;
+    private int length;
+
+    public PayloadBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public PayloadBuffer(int capacity) {
+        this.data = new byte[capacity];
+        this.length = 0;
+    }
+
+    public PayloadBuffer reset() {
+        if (data.length > MAX_RETAINED_CAPACITY) {
+            data = new byte[DEFAULT_CAPACITY];
+        }
+        length = 0;
+        return this;
+    }
+
+    public PayloadBuffer truncate(int length) {
+        if (length < 0 || length > this.length) {
+            throw new IndexOutOfBoundsException("length " + length);
+        }
+        this.length = length;
+        return this;
+    }
+
+    public byte [] array() {
+        return data;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public int capacity() {
+        return data.length;
+    }
+
+    public byte [] toByteArray() {
+        return Arrays.copyOf(data, length);
+    }
+
+    public void update(Signature signature) throws SignatureException {
+        signature.update(data, 0, length);
+    }
+
+    public void update(MessageDigest digest) {
+        digest.update(data, 0, length);
+    }
+
+    public void update(Mac mac) {
+        mac.update(data, 0, length);
+    }
+
+    private void ensure(int extra) {
+        int required = length + extra;
+        if (required > data.length) {
+            data = Arrays.copyOf(data, Math.max(required, data.length << 1));
+        }
+    }
+
+    public PayloadBuffer write(char c) {
+        if (c < 0x80) {
+            ensure(1);
+            data[length++] = (byte) c;
+        } else {
+            writeNonAscii(c, null, 0, 0);
+        }
+        return this;
+    }
+
+    public PayloadBuffer write(CharSequence value) {
+        return write(value, 0, value.length());
+    }
+
+    public PayloadBuffer write(CharSequence value, int start, int end) {
+        ensure(end - start);
+        for (int i=start; i<end; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                data[length++] = (byte) c;
+            } else {
+                i = writeNonAscii(c, value, i, end);
+                ensure(end - i);
+            }
+        }
+        return this;
+    }
+
+    // Same as write() but with String.trim() applied to the region
+    public PayloadBuffer writeTrimmed(CharSequence value, int start, int end) {
+        while (start < end && value.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && value.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return write(value, start, end);
+    }
+
+    public PayloadBuffer writeTrimmed(CharSequence value) {
+        return writeTrimmed(value, 0, value.length());
+    }
+
+    // Trimmed and lower cased, locale independent
+    public PayloadBuffer writeCanonicalName(CharSequence value, int start, int end) {
+        while (start < end && value.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && value.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        ensure(end - start);
+        for (int i=start; i<end; i++) {
+            char c = value.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                data[length++] = (byte) (c + ('a' - 'A'));
+            } else if (c < 0x80) {
+                data[length++] = (byte) c;
+            } else {
+                char lower = Character.toLowerCase(c);
+                if (lower < 0x80) {
+                    data[length++] = (byte) lower;
+                } else {
+                    i = writeNonAscii(lower, value, i, end);
+                    ensure(end - i);
+                }
+            }
+        }
+        return this;
+    }
+
+    public PayloadBuffer writeCanonicalName(CharSequence value) {
+        return writeCanonicalName(value, 0, value.length());
+    }
+
+    public PayloadBuffer write(long value) {
+        if (value == Long.MIN_VALUE) {
+            return write(Long.toString(value));
+        }
+
+        if (value < 0) {
+            write('-');
+            value = -value;
+        }
+
+        int digits = 1;
+        for (long v = value / 10; v > 0; v /= 10) {
+            digits++;
+        }
+
+        ensure(digits);
+        for (int i=length + digits - 1; i>=length; i--) {
+            data[i] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+        length += digits;
+        return this;
+    }
+
+    // Encodes c (which may start a surrogate pair continuing in value) and returns the
+    // index of the last char consumed
+    private int writeNonAscii(char c, CharSequence value, int index, int end) {
+        ensure(4);
+        if (c < 0x800) {
+            data[length++] = (byte) (0xc0 | (c >> 6));
+            data[length++] = (byte) (0x80 | (c & 0x3f));
+
+        } else if (Character.isHighSurrogate(c)) {
+            if (value != null && index + 1 < end && Character.isLowSurrogate(value.charAt(index + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(index + 1));
+                data[length++] = (byte) (0xf0 | (cp >> 18));
+                data[length++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                data[length++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                data[length++] = (byte) (0x80 | (cp & 0x3f));
+                return index + 1;
+            }
+            data[length++] = (byte) '?';
+
+        } else if (Character.isLowSurrogate(c)) {
+            data[length++] = (byte) '?';
+
+        } else {
+            data[length++] = (byte) (0xe0 | (c >> 12));
+            data[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            data[length++] = (byte) (0x80 | (c & 0x3f));
+        }
+        return index;
+    }
+
+}
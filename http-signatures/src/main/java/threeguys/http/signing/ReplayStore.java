@@ -0,0 +1,206 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing;
+
+import threeguys.http.signing.exceptions.InvalidSignatureException;
+import threeguys.http.signing.exceptions.SignatureException;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+// Remembers every request accepted within the last windowSec seconds so the same one can't be
+// used twice. Requests are told apart by keyId and the canonical payload that was signed, not
+// by the signature text: the same bytes can be written in more than one base64 form and an
+// ECDSA signature has a second (r, n-s) form that verifies just as well. They are filed by
+// when they stop being acceptable into a ring of buckets bucketSec wide, so once a bucket's
+// signatures have all expired the slot is simply wiped and reused for a later bucket. Each
+// bucket is split into lock striped open addressing tables of 64 bit fingerprints, all
+// allocated up front: maxEntries is a hard memory ceiling, and a full stripe fails the
+// request rather than forgetting what it has seen. Size it from the rate it has to keep up
+// with, every accepted request stays in for up to bucketSec past windowSec; at 8 bytes an
+// entry (plus the tables' slack) the default of 1000 requests a second over a 360 second
+// window is about 10 MB.
+public class ReplayStore {
+
+    public static final int DEFAULT_BUCKETS = 8;
+    public static final int DEFAULT_STRIPES = 16;
+    public static final int DEFAULT_REQUESTS_PER_SEC = 1000;
+
+    // Bursts and stripes that get more than their share
+    private static final int HEADROOM = 2;
+
+    static final class Stripe {
+
+        private final long [] slots;
+        private final int capacity;
+        private int size;
+        private long period = Long.MIN_VALUE;
+
+        Stripe(int capacity) {
+            this.capacity = capacity;
+            int tableSize = Integer.highestOneBit(Math.max(2, capacity + (capacity / 3)) - 1) << 1;
+            this.slots = new long[tableSize];
+        }
+
+    }
+
+    private final long windowSec;
+    private final long bucketSec;
+    private final int stripesPerBucket;
+    private final Stripe [][] ring;
+
+    private final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(ReplayStore::newDigest);
+
+    public ReplayStore(long windowSec) {
+        this(windowSec, DEFAULT_REQUESTS_PER_SEC);
+    }
+
+    public ReplayStore(long windowSec, int requestsPerSec) {
+        this(windowSec, DEFAULT_BUCKETS, DEFAULT_STRIPES, capacityFor(windowSec, DEFAULT_BUCKETS, requestsPerSec));
+    }
+
+    public ReplayStore(long windowSec, int buckets, int stripesPerBucket, int maxEntries) {
+        if (windowSec <= 0 || buckets <= 0 || stripesPerBucket <= 0) {
+            throw new IllegalArgumentException("windowSec, buckets and stripesPerBucket must be positive");
+        }
+
+        this.windowSec = windowSec;
+        this.bucketSec = (windowSec + buckets - 1) / buckets;
+        this.stripesPerBucket = stripesPerBucket;
+
+        // One more bucket than the window needs, so a slot is never reused while it may still
+        // hold a signature that hasn't expired yet
+        this.ring = new Stripe[buckets + 1][stripesPerBucket];
+        int perStripe = Math.max(1, maxEntries / ((buckets + 1) * stripesPerBucket));
+        for (Stripe [] bucket : ring) {
+            for (int i=0; i<bucket.length; i++) {
+                bucket[i] = new Stripe(perStripe);
+            }
+        }
+    }
+
+    // Enough for requestsPerSec in every bucket of the ring, with room to spare
+    public static int capacityFor(long windowSec, int buckets, int requestsPerSec) {
+        if (windowSec <= 0 || buckets <= 0 || requestsPerSec <= 0) {
+            throw new IllegalArgumentException("windowSec, buckets and requestsPerSec must be positive");
+        }
+        long bucketSec = (windowSec + buckets - 1) / buckets;
+        long entries = bucketSec * requestsPerSec * HEADROOM * (buckets + 1);
+        return (int) Math.min(entries, Integer.MAX_VALUE / 2);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JRE is required to have it
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public long getWindowSec() {
+        return windowSec;
+    }
+
+    public long getBucketSec() {
+        return bucketSec;
+    }
+
+    public int getMaxEntries() {
+        int total = 0;
+        for (Stripe [] bucket : ring) {
+            for (Stripe s : bucket) {
+                total += s.capacity;
+            }
+        }
+        return total;
+    }
+
+    // First 64 bits of a SHA-256 over the keyId and the payload, so nobody can line a request
+    // up with somebody else's
+    long fingerprint(String keyId, byte [] payload, int offset, int length) {
+        MessageDigest digest = digests.get();
+        digest.reset();
+        byte [] id = keyId.getBytes(StandardCharsets.UTF_8);
+        digest.update((byte) (id.length >>> 8));
+        digest.update((byte) id.length);
+        digest.update(id);
+        digest.update(payload, offset, length);
+
+        byte [] hash = digest.digest();
+        long h = 0;
+        for (int i=0; i<8; i++) {
+            h = (h << 8) | (hash[i] & 0xff);
+        }
+        return (h == 0) ? 1 : h;
+    }
+
+    public boolean add(String keyId, PayloadBuffer payload, long expires, long currentTime) throws SignatureException {
+        return add(keyId, payload.array(), 0, payload.length(), expires, currentTime);
+    }
+
+    // Returns false if the payload has been seen before for this keyId. expires and currentTime
+    // are in epoch seconds. A signature still good after the window can't be remembered for long
+    // enough to catch its replays, so it is turned away with an InvalidSignatureException. A full
+    // store is the server's problem, not the client's, so that is a plain SignatureException.
+    public boolean add(String keyId, byte [] payload, int offset, int length, long expires, long currentTime) throws SignatureException {
+        if (currentTime > expires) {
+            return true;
+        }
+
+        if (expires - currentTime > windowSec) {
+            throw new InvalidSignatureException(String.format("Signature valid until %d is outside the replay window, check = %d", expires, currentTime));
+        }
+
+        long period = Math.floorDiv(expires, bucketSec);
+        long fp = fingerprint(keyId, payload, offset, length);
+
+        Stripe [] bucket = ring[(int) Math.floorMod(period, (long) ring.length)];
+        Stripe stripe = bucket[(int) ((fp >>> 32) & 0x7fffffff) % stripesPerBucket];
+
+        synchronized (stripe) {
+            if (stripe.period < period) {
+                // Everything in here expired, drop the lot
+                Arrays.fill(stripe.slots, 0);
+                stripe.size = 0;
+                stripe.period = period;
+            } else if (stripe.period > period) {
+                // Slot already moved on to a later bucket, which only happens once this
+                // signature has expired too
+                return true;
+            }
+
+            long [] slots = stripe.slots;
+            int mask = slots.length - 1;
+            for (int i=(int) fp & mask; ; i=(i + 1) & mask) {
+                long existing = slots[i];
+                if (existing == fp) {
+                    return false;
+                } else if (existing == 0) {
+                    if (stripe.size >= stripe.capacity) {
+                        throw new SignatureException("Replay store is full, it needs sizing for a higher request rate");
+                    }
+                    slots[i] = fp;
+                    stripe.size++;
+                    return true;
+                }
+            }
+        }
+    }
+
+}
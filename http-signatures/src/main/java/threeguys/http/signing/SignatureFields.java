@@ -0,0 +1,100 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Value offsets into a Signature header, one slot per configured field. Nothing is
+// copied out of the header until a value is actually asked for.
+public class SignatureFields {
+
+    private final String header;
+    private final List<String> names;
+    private final int [] starts;
+    private final int [] ends;
+
+    SignatureFields(String header, List<String> names) {
+        this.header = header;
+        this.names = names;
+        this.starts = new int[names.size()];
+        this.ends = new int[names.size()];
+        Arrays.fill(starts, -1);
+    }
+
+    void set(int index, int start, int end) {
+        starts[index] = start;
+        ends[index] = end;
+    }
+
+    boolean isSet(int index) {
+        return starts[index] >= 0;
+    }
+
+    int indexOf(String name) {
+        for (int i=0; i<names.size(); i++) {
+            if (names.get(i).equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public String getHeader() {
+        return header;
+    }
+
+    public boolean contains(String name) {
+        int index = indexOf(name);
+        return index >= 0 && isSet(index);
+    }
+
+    public int start(String name) {
+        int index = indexOf(name);
+        return (index >= 0) ? starts[index] : -1;
+    }
+
+    public int end(String name) {
+        int index = indexOf(name);
+        return (index >= 0 && isSet(index)) ? ends[index] : -1;
+    }
+
+    public String get(String name) {
+        int index = indexOf(name);
+        if (index < 0 || !isSet(index)) {
+            return null;
+        }
+        return header.substring(starts[index], ends[index]);
+    }
+
+    public String getOrDefault(String name, String defaultValue) {
+        String value = get(name);
+        return (value == null) ? defaultValue : value;
+    }
+
+    public Map<String, String> toMap() {
+        Map<String, String> fields = new HashMap<>();
+        for (int i=0; i<names.size(); i++) {
+            if (isSet(i)) {
+                fields.put(names.get(i), header.substring(starts[i], ends[i]));
+            }
+        }
+        return fields;
+    }
+
+}
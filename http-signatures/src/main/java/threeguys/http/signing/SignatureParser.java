@@ -0,0 +1,165 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing;
+
+import threeguys.http.signing.exceptions.InvalidSignatureException;
+
+import java.util.List;
+
+// Single pass tokenizer for the Signature header. It accepts exactly what the old
+// ([^=]+)=("[^"]+"|[0-9]+)(, ){0,1}(.*) regex loop accepted, including its quirks:
+// the ", " separator is optional and anything after a line terminator is ignored.
+public class SignatureParser {
+
+    private final List<String> fields;
+
+    public SignatureParser(List<String> fields) {
+        this.fields = fields;
+    }
+
+    public SignatureParser(Signatures signing) {
+        this(signing.getFields());
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private int fieldIndex(String header, int start, int end) {
+        int length = end - start;
+        for (int i=0; i<fields.size(); i++) {
+            String f = fields.get(i);
+            if (f.length() == length && header.regionMatches(start, f, 0, length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(String header, char c, int from, int end) {
+        for (int i=from; i<end; i++) {
+            if (header.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public SignatureFields parse(String header) throws InvalidSignatureException {
+        return parse(header, false);
+    }
+
+    // Same as parse(), but a malformed header comes back as null instead of an exception
+    public SignatureFields tryParse(String header) {
+        try {
+            return parse(header, true);
+        } catch (InvalidSignatureException e) {
+            return null; // not thrown when quiet
+        }
+    }
+
+    // What parse() would say is wrong with the header, null if nothing is
+    public String describe(String header) {
+        try {
+            parse(header, false);
+            return null;
+        } catch (InvalidSignatureException e) {
+            return e.getMessage();
+        }
+    }
+
+    private SignatureFields parse(String header, boolean quiet) throws InvalidSignatureException {
+        SignatureFields parsed = new SignatureFields(header, fields);
+
+        int pos = 0;
+        int end = header.length();
+        while (pos < end) {
+            int equals = indexOf(header, '=', pos, end);
+            if (equals <= pos || equals + 1 >= end) {
+                if (quiet) {
+                    return null;
+                }
+                throw new InvalidSignatureException("Invalid format: " + header.substring(pos, end));
+            }
+
+            int valueStart;
+            int valueEnd;
+            int next;
+            char first = header.charAt(equals + 1);
+            if (first == '"') {
+                int close = indexOf(header, '"', equals + 2, end);
+                if (close <= equals + 2) {
+                    if (quiet) {
+                        return null;
+                    }
+                    throw new InvalidSignatureException("Invalid format: " + header.substring(pos, end));
+                }
+                valueStart = equals + 2;
+                valueEnd = close;
+                next = close + 1;
+
+            } else if (isDigit(first)) {
+                next = equals + 2;
+                while (next < end && isDigit(header.charAt(next))) {
+                    next++;
+                }
+                valueStart = equals + 1;
+                valueEnd = next;
+
+            } else {
+                if (quiet) {
+                    return null;
+                }
+                throw new InvalidSignatureException("Invalid format: " + header.substring(pos, end));
+            }
+
+            int index = fieldIndex(header, pos, equals);
+            if (index < 0) {
+                if (quiet) {
+                    return null;
+                }
+                throw new InvalidSignatureException(String.format("Unknown field %s", header.substring(pos, equals)));
+            }
+
+            if (parsed.isSet(index)) {
+                if (quiet) {
+                    return null;
+                }
+                throw new InvalidSignatureException(String.format("Field %s occurred more than once", fields.get(index)));
+            }
+            parsed.set(index, valueStart, valueEnd);
+
+            if (next + 1 < end && header.charAt(next) == ',' && header.charAt(next + 1) == ' ') {
+                next += 2;
+            }
+
+            for (int i=next; i<end; i++) {
+                if (isLineTerminator(header.charAt(i))) {
+                    end = i;
+                    break;
+                }
+            }
+            pos = next;
+        }
+
+        return parsed;
+    }
+
+}
@@ -0,0 +1,223 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing;
+
+import threeguys.http.signing.exceptions.InvalidFieldException;
+import threeguys.http.signing.exceptions.InvalidSignatureException;
+import threeguys.http.signing.exceptions.MissingHeadersException;
+import threeguys.http.signing.exceptions.SignatureException;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static threeguys.http.signing.Signatures.FIELD_ALGORITHM;
+import static threeguys.http.signing.Signatures.FIELD_CREATED;
+import static threeguys.http.signing.Signatures.FIELD_EXPIRES;
+import static threeguys.http.signing.Signatures.FIELD_HEADERS;
+import static threeguys.http.signing.Signatures.FIELD_KEY_ID;
+import static threeguys.http.signing.Signatures.FIELD_SIGNATURE;
+
+// The Signature header layout for a fixed list of fields, worked out once per signer. Names,
+// separators, quotes and the algorithm (which never changes for a signer) are constant
+// segments, the rest are slots filled in per request into a buffer of exactly the right size.
+final class SignatureTemplate {
+
+    private static final int KEY_ID = 0;
+    private static final int CREATED = 1;
+    private static final int EXPIRES = 2;
+    private static final int HEADERS = 3;
+    private static final int SIGNATURE = 4;
+
+    // segments[i] comes before slots[i], the last segment comes after the last slot
+    private final char [][] segments;
+    private final int [] slots;
+    private final int constantLength;
+
+    SignatureTemplate(List<String> fields, String algorithm) throws InvalidSignatureException {
+        List<char []> segments = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+
+        StringBuilder constant = new StringBuilder();
+        for (String f : fields) {
+            if (constant.length() > 0 || !slots.isEmpty()) {
+                constant.append(", ");
+            }
+            constant.append(f).append('=');
+
+            int slot;
+            boolean quoted;
+            switch (f) {
+                case FIELD_ALGORITHM:
+                    constant.append(quote(algorithm));
+                    continue;
+                case FIELD_KEY_ID:
+                    slot = KEY_ID;
+                    quoted = true;
+                    break;
+                case FIELD_CREATED:
+                    slot = CREATED;
+                    quoted = false;
+                    break;
+                case FIELD_EXPIRES:
+                    slot = EXPIRES;
+                    quoted = false;
+                    break;
+                case FIELD_HEADERS:
+                    slot = HEADERS;
+                    quoted = true;
+                    break;
+                case FIELD_SIGNATURE:
+                    slot = SIGNATURE;
+                    quoted = true;
+                    break;
+                default:
+                    throw new InvalidFieldException("Unknown field: " + f);
+            }
+
+            if (quoted) {
+                constant.append('"');
+            }
+            segments.add(constant.toString().toCharArray());
+            slots.add(slot);
+
+            constant.setLength(0);
+            if (quoted) {
+                constant.append('"');
+            }
+        }
+        segments.add(constant.toString().toCharArray());
+
+        this.segments = segments.toArray(new char[0][]);
+        this.slots = new int[slots.size()];
+        int length = 0;
+        for (int i=0; i<this.slots.length; i++) {
+            this.slots[i] = slots.get(i);
+        }
+        for (char [] s : this.segments) {
+            length += s.length;
+        }
+        this.constantLength = length;
+    }
+
+    static String quote(String value) throws InvalidSignatureException {
+        checkValue(value);
+        return "\"" + value + "\"";
+    }
+
+    private static void checkValue(CharSequence value) throws InvalidSignatureException {
+        for (int i=0; i<value.length(); i++) {
+            if (value.charAt(i) == '"') {
+                throw new InvalidSignatureException("Values cannot contain '\"'");
+            }
+        }
+    }
+
+    private static int digits(long value) {
+        int digits = 1;
+        for (long v = value / 10; v > 0; v /= 10) {
+            digits++;
+        }
+        return digits;
+    }
+
+    private static int writeLong(long value, char [] out, int pos) {
+        if (value < 0) {
+            String s = Long.toString(value);
+            s.getChars(0, s.length(), out, pos);
+            return pos + s.length();
+        }
+
+        int end = pos + digits(value);
+        for (int i=end - 1; i>=pos; i--) {
+            out[i] = (char) ('0' + (value % 10));
+            value /= 10;
+        }
+        return end;
+    }
+
+    private static int longLength(long value) {
+        return (value < 0) ? Long.toString(value).length() : digits(value);
+    }
+
+    String render(String keyId, long created, long expires, CharSequence headers, byte [] signature) throws SignatureException {
+        if (segments.length == 1 && segments[0].length == 0) {
+            throw new MissingHeadersException("No fields were found to include in the signature!");
+        }
+
+        byte [] encoded = null;
+        int length = constantLength;
+        for (int slot : slots) {
+            switch (slot) {
+                case KEY_ID:
+                    checkValue(keyId);
+                    length += keyId.length();
+                    break;
+                case CREATED:
+                    length += longLength(created);
+                    break;
+                case EXPIRES:
+                    length += longLength(expires);
+                    break;
+                case HEADERS:
+                    checkValue(headers);
+                    length += headers.length();
+                    break;
+                default:
+                    if (encoded == null) {
+                        encoded = Base64.getEncoder().encode(signature);
+                    }
+                    length += encoded.length;
+                    break;
+            }
+        }
+
+        char [] out = new char[length];
+        int pos = 0;
+        for (int i=0; i<slots.length; i++) {
+            System.arraycopy(segments[i], 0, out, pos, segments[i].length);
+            pos += segments[i].length;
+
+            switch (slots[i]) {
+                case KEY_ID:
+                    keyId.getChars(0, keyId.length(), out, pos);
+                    pos += keyId.length();
+                    break;
+                case CREATED:
+                    pos = writeLong(created, out, pos);
+                    break;
+                case EXPIRES:
+                    pos = writeLong(expires, out, pos);
+                    break;
+                case HEADERS:
+                    for (int j=0; j<headers.length(); j++) {
+                        out[pos++] = headers.charAt(j);
+                    }
+                    break;
+                default:
+                    for (byte b : encoded) {
+                        out[pos++] = (char) b;
+                    }
+                    break;
+            }
+        }
+        char [] last = segments[segments.length - 1];
+        System.arraycopy(last, 0, out, pos, last.length);
+
+        return new String(out);
+    }
+
+}
@@ -15,21 +15,29 @@
  */
 package threeguys.http.signing;
 
+import threeguys.http.signing.algorithms.HmacAlgorithm;
+import threeguys.http.signing.algorithms.MacPool;
+import threeguys.http.signing.algorithms.SignaturePool;
 import threeguys.http.signing.algorithms.SigningAlgorithm;
 import threeguys.http.signing.algorithms.SigningAlgorithms;
 import threeguys.http.signing.exceptions.InvalidSignatureException;
 import threeguys.http.signing.exceptions.MissingHeadersException;
 import threeguys.http.signing.exceptions.SignatureException;
 import threeguys.http.signing.providers.HeaderProvider;
+import threeguys.http.signing.providers.HeaderValuesProvider;
 
-import java.nio.charset.StandardCharsets;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
 import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
 import java.security.Signature;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -51,22 +59,66 @@ public class Signatures {
     public static final String HEADER_CREATED = "(created)";
     public static final String HEADER_EXPIRES = "(expires)";
 
+    private static final String [] SPECIAL_HEADERS = { HEADER_REQUEST_TARGET, HEADER_CREATED, HEADER_EXPIRES };
+
     private final Map<String, SigningAlgorithm> algorithms;
     private final List<String> fields;
     private final Set<String> fieldIndex;
     private final List<String> headersToInclude;
+    private final List<String> lowerCaseHeaders;
     private final String defaultAlgorithm;
+    private final Map<String, SignaturePool> pools;
+    private final Map<String, MacPool> macPools;
+    private final ThreadLocal<PayloadBuffer> payloadBuffers = ThreadLocal.withInitial(PayloadBuffer::new);
 
     public Signatures() {
         this(DEFAULT_ALGORITHM, SigningAlgorithms.defaultAlgorithms(), defaultFields(), defaultHeadersToInclude());
     }
 
     public Signatures(String defaultAlgorithm, Map<String, SigningAlgorithm> algorithms, List<String> fields, List<String> headersToInclude) {
+        this(defaultAlgorithm, algorithms, fields, headersToInclude, 0);
+    }
+
+    public Signatures(String defaultAlgorithm, Map<String, SigningAlgorithm> algorithms, List<String> fields, List<String> headersToInclude, int signaturePoolSize) {
         this.defaultAlgorithm = defaultAlgorithm;
         this.algorithms = algorithms;
         this.fields = Collections.unmodifiableList(fields);
         this.headersToInclude = Collections.unmodifiableList(headersToInclude);
+        this.lowerCaseHeaders = Collections.unmodifiableList(headersToInclude.stream()
+                .map((h) -> h.toLowerCase(Locale.ROOT))
+                .collect(Collectors.toList()));
         this.fieldIndex = Collections.unmodifiableSet(new HashSet<>(fields));
+        this.pools = createPools(algorithms, signaturePoolSize);
+        this.macPools = createMacPools(algorithms, (signaturePoolSize > 0) ? signaturePoolSize : defaultSignaturePoolSize());
+    }
+
+    public static int defaultSignaturePoolSize() {
+        return Runtime.getRuntime().availableProcessors() * 2;
+    }
+
+    private static Map<String, SignaturePool> createPools(Map<String, SigningAlgorithm> algorithms, int size) {
+        if (size <= 0) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, SignaturePool> pools = new HashMap<>();
+        for (Map.Entry<String, SigningAlgorithm> e : algorithms.entrySet()) {
+            if (!SigningAlgorithms.isMac(e.getValue())) {
+                pools.put(e.getKey(), new SignaturePool(e.getValue(), size));
+            }
+        }
+        return Collections.unmodifiableMap(pools);
+    }
+
+    // Macs are always pooled, for a short payload init() costs about as much as the MAC itself
+    private static Map<String, MacPool> createMacPools(Map<String, SigningAlgorithm> algorithms, int size) {
+        Map<String, MacPool> pools = new HashMap<>();
+        for (Map.Entry<String, SigningAlgorithm> e : algorithms.entrySet()) {
+            if (SigningAlgorithms.isMac(e.getValue())) {
+                pools.put(e.getKey(), new MacPool((HmacAlgorithm) e.getValue(), size));
+            }
+        }
+        return pools.isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap(pools);
     }
 
     public static List<String> defaultFields() {
@@ -92,6 +144,53 @@ public class Signatures {
         return algoInstance.create();
     }
 
+    // Pooled counterpart of getSignature(), every acquired signature should be handed back
+    // with releaseSignature() once the caller is done with it
+    public Signature acquireSignature(String algorithm) throws GeneralSecurityException {
+        SignaturePool pool = pools.get(algorithm);
+        return (pool == null) ? getSignature(algorithm) : pool.acquire();
+    }
+
+    public void releaseSignature(String algorithm, Signature signature) {
+        SignaturePool pool = pools.get(algorithm);
+        if (pool != null) {
+            pool.release(signature);
+        }
+    }
+
+    public boolean isMac(String algorithm) {
+        return macPools.containsKey(algorithm);
+    }
+
+    // Initialized with key and ready for update()/doFinal(), hand it back with releaseMac()
+    // once doFinal() has returned
+    public Mac acquireMac(String algorithm, SecretKey key) throws GeneralSecurityException {
+        MacPool pool = macPools.get(algorithm);
+        if (pool == null) {
+            throw new NoSuchAlgorithmException("Not a MAC algorithm: " + algorithm);
+        }
+        return pool.acquire(key);
+    }
+
+    public void releaseMac(String algorithm, SecretKey key, Mac mac) {
+        MacPool pool = macPools.get(algorithm);
+        if (pool != null) {
+            pool.release(key, mac);
+        }
+    }
+
+    public Map<String, MacPool> getMacPools() {
+        return macPools;
+    }
+
+    public boolean isPooling() {
+        return !pools.isEmpty();
+    }
+
+    public Map<String, SignaturePool> getPools() {
+        return pools;
+    }
+
     public Map<String, SigningAlgorithm> getAlgorithms() {
         return algorithms;
     }
@@ -109,7 +208,7 @@ public class Signatures {
     }
 
     public static String canonicalizeName(String header) {
-        return header.toLowerCase().trim();
+        return header.toLowerCase(Locale.ROOT).trim();
     }
 
     public static String canonicalize(String header, String [] values) {
@@ -119,59 +218,172 @@ public class Signatures {
                         .collect(Collectors.joining(", ")));
     }
 
-    public Payload assemblePayload(String method, String url, HeaderProvider provider, long created, long expires, List<String> requiredHeaders) throws SignatureException {
-        try {
-            StringBuilder sb = new StringBuilder();
-            List<String> found = new LinkedList<>();
+    // Thread local buffer for writePayload(), only valid until the next call on this thread
+    public PayloadBuffer payloadBuffer() {
+        return payloadBuffers.get().reset();
+    }
 
-            for (String hdr : requiredHeaders) {
-                String value;
-                if (HEADER_CREATED.equals(hdr)) {
-                    value = String.format("%s: %d", HEADER_CREATED, created);
-                    found.add(HEADER_CREATED);
+    private String lowerCaseName(String header) {
+        for (int i=0; i<headersToInclude.size(); i++) {
+            if (headersToInclude.get(i).equals(header)) {
+                return lowerCaseHeaders.get(i);
+            }
+        }
+        return header.toLowerCase(Locale.ROOT);
+    }
+
+    // Resolves a header name from the signature's headers field, preferring the configured
+    // names so the common case doesn't need a substring
+    private String headerName(String source, int start, int end) {
+        int length = end - start;
+        for (String h : SPECIAL_HEADERS) {
+            if (h.length() == length && source.regionMatches(start, h, 0, length)) {
+                return h;
+            }
+        }
+        for (String h : lowerCaseHeaders) {
+            if (h.length() == length && source.regionMatches(start, h, 0, length)) {
+                return h;
+            }
+        }
+        return source.substring(start, end);
+    }
 
-                } else if (HEADER_REQUEST_TARGET.equals(hdr)) {
-                    String canonicalTarget = String.format("%s %s", method.toLowerCase().trim(), url.trim());
-                    value = String.format("%s: %s", HEADER_REQUEST_TARGET, canonicalTarget);
-                    found.add(HEADER_REQUEST_TARGET);
+    private static boolean isLowerCase(String name) {
+        for (int i=0; i<name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.toLowerCase(c) != c) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-                } else if (HEADER_EXPIRES.equals(hdr)) {
-                    value = String.format("%s: %d", HEADER_EXPIRES, expires);
-                    found.add(HEADER_EXPIRES);
+    // Writes one line of the signing string, returns false if the header was not present
+    private boolean writeLine(String method, String url, HeaderProvider provider, long created, long expires,
+                              String hdr, PayloadBuffer out) throws Exception {
 
-                } else {
-                    String [] values = provider.get(hdr);
+        int mark = out.length();
+        if (mark > 0) {
+            out.write('\n');
+        }
 
-                    if (values != null) {
-                        value = canonicalize(hdr, values);
-                        found.add(hdr);
-                    } else {
-                        value = null;
-                    }
+        if (HEADER_CREATED.equals(hdr)) {
+            out.write(HEADER_CREATED).write(": ").write(created);
+
+        } else if (HEADER_REQUEST_TARGET.equals(hdr)) {
+            out.write(HEADER_REQUEST_TARGET).write(": ")
+                    .writeCanonicalName(method).write(' ')
+                    .writeTrimmed(url);
+
+        } else if (HEADER_EXPIRES.equals(hdr)) {
+            out.write(HEADER_EXPIRES).write(": ").write(expires);
+
+        } else if (provider instanceof HeaderValuesProvider) {
+            Iterator<? extends CharSequence> values = ((HeaderValuesProvider) provider).values(hdr);
+            if (values == null) {
+                out.truncate(mark);
+                return false;
+            }
+
+            out.writeCanonicalName(hdr).write(": ");
+            boolean first = true;
+            while (values.hasNext()) {
+                if (!first) {
+                    out.write(", ");
                 }
+                out.writeTrimmed(values.next());
+                first = false;
+            }
 
-                if (value != null) {
-                    if (sb.length() > 0) {
-                        sb.append("\n");
-                    }
-                    sb.append(value);
+        } else {
+            String [] values = provider.get(hdr);
+            if (values == null) {
+                out.truncate(mark);
+                return false;
+            }
+
+            out.writeCanonicalName(hdr).write(": ");
+            for (int i=0; i<values.length; i++) {
+                if (i > 0) {
+                    out.write(", ");
                 }
+                out.writeTrimmed(values[i]);
             }
+        }
 
-            String headersFound = found.stream()
-                    .map(String::toLowerCase)
-                    .collect(Collectors.joining(" "));
-            return new Payload(headersFound, sb.toString().getBytes(StandardCharsets.UTF_8));
+        return true;
+    }
+
+    private static SignatureException wrapPayloadError(Exception e) {
+        if (e instanceof InvalidSignatureException) {
+            return (InvalidSignatureException) e;
+        }
+        return new MissingHeadersException(e);
+    }
 
+    // Streams the signing string for the given headers into out, appending the lower cased
+    // names of the headers that were actually found to headersFound
+    public void writePayload(String method, String url, HeaderProvider provider, long created, long expires,
+                             List<String> requiredHeaders, PayloadBuffer out, StringBuilder headersFound) throws SignatureException {
+        try {
+            for (String hdr : requiredHeaders) {
+                if (writeLine(method, url, provider, created, expires, hdr, out)) {
+                    if (headersFound.length() > 0) {
+                        headersFound.append(' ');
+                    }
+                    headersFound.append(lowerCaseName(hdr));
+                }
+            }
         } catch (Exception e) {
-            if (e instanceof InvalidSignatureException) {
-                throw (InvalidSignatureException) e;
-            } else {
-                throw new MissingHeadersException(e);
+            throw wrapPayloadError(e);
+        }
+    }
+
+    public void writePayload(String method, String url, HeaderProvider provider, long created, long expires,
+                             PayloadBuffer out, StringBuilder headersFound) throws SignatureException {
+        writePayload(method, url, provider, created, expires, headersToInclude, out, headersFound);
+    }
+
+    // Verifier side: streams the signing string for the space separated header names in
+    // headers[start, end). Returns true only if every header was found, i.e. the headers
+    // that went into the payload are exactly the ones the signature claims to cover.
+    public boolean writePayload(String method, String url, HeaderProvider provider, long created, long expires,
+                                String headers, int start, int end, PayloadBuffer out) throws SignatureException {
+        try {
+            boolean matched = true;
+            int pos = start;
+            while (pos <= end) {
+                int next = headers.indexOf(' ', pos);
+                if (next < 0 || next > end) {
+                    next = end;
+                }
+
+                if (next == pos) {
+                    // empty names (leading, trailing or double spaces) never match
+                    matched = false;
+                } else {
+                    String hdr = headerName(headers, pos, next);
+                    if (!writeLine(method, url, provider, created, expires, hdr, out) || !isLowerCase(hdr)) {
+                        matched = false;
+                    }
+                }
+                pos = next + 1;
             }
+            return matched;
+
+        } catch (Exception e) {
+            throw wrapPayloadError(e);
         }
     }
 
+    public Payload assemblePayload(String method, String url, HeaderProvider provider, long created, long expires, List<String> requiredHeaders) throws SignatureException {
+        PayloadBuffer out = new PayloadBuffer();
+        StringBuilder found = new StringBuilder();
+        writePayload(method, url, provider, created, expires, requiredHeaders, out, found);
+        return new Payload(found.toString(), out.toByteArray());
+    }
+
     public Payload assemblePayload(String method, String url, HeaderProvider provider, long created, long expires) throws SignatureException {
         return assemblePayload(method, url, provider, created, expires, headersToInclude);
     }
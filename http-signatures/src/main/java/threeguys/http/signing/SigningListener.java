@@ -0,0 +1,28 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing;
+
+// The signing side of VerificationListener: called once per sign() with the time spent
+// getting the key, building the payload, signing it and formatting the header, in nanoseconds.
+public interface SigningListener {
+
+    SigningListener NOOP = new SigningListener() { };
+
+    default void onSigning(String algorithm, String keyId, boolean success,
+                           long keyNanos, long payloadNanos, long signNanos, long formatNanos) {
+    }
+
+}
@@ -0,0 +1,31 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing;
+
+// Told about every verification once it is over, whichever way it went. Times are in
+// nanoseconds and a phase that never ran is reported as 0; failure is null when the signature
+// verified, and algorithm or keyId are null if the request failed before they were known.
+// The verifier only reads the clock when its listener isn't NOOP, so leaving it unset costs
+// a single well predicted branch per phase.
+public interface VerificationListener {
+
+    VerificationListener NOOP = new VerificationListener() { };
+
+    default void onVerification(String algorithm, String keyId, FailureReason failure,
+                                long parseNanos, long keyNanos, long payloadNanos, long verifyNanos) {
+    }
+
+}
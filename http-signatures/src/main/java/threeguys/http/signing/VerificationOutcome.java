@@ -0,0 +1,154 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing;
+
+import threeguys.http.signing.exceptions.ExpiredSignatureException;
+import threeguys.http.signing.exceptions.InvalidSignatureException;
+import threeguys.http.signing.exceptions.KeyNotFoundException;
+import threeguys.http.signing.exceptions.ReplayedSignatureException;
+import threeguys.http.signing.exceptions.SignatureException;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+// What a verification came to: the VerificationResult, or why the request was turned away.
+// Rejecting is the common case under attack, so a failed outcome costs no stack trace and no
+// formatting; the message is only put together when somebody asks for it. toException() gives
+// the same exception verify() has always thrown for that failure.
+public final class VerificationOutcome {
+
+    private final VerificationResult result;
+    private final FailureReason reason;
+    private final Supplier<String> details;
+    private final Throwable cause;
+    private String message;
+
+    private VerificationOutcome(VerificationResult result, FailureReason reason, Supplier<String> details, Throwable cause) {
+        this.result = result;
+        this.reason = reason;
+        this.details = details;
+        this.cause = cause;
+    }
+
+    public static VerificationOutcome verified(VerificationResult result) {
+        return new VerificationOutcome(result, null, null, null);
+    }
+
+    public static VerificationOutcome failed(FailureReason reason, Supplier<String> details) {
+        return new VerificationOutcome(null, reason, details, null);
+    }
+
+    public static VerificationOutcome failed(FailureReason reason, Throwable cause) {
+        return new VerificationOutcome(null, reason, null, cause);
+    }
+
+    // For verifiers that can only throw, works the reason out from what they threw
+    public static VerificationOutcome of(Throwable t) {
+        while ((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null) {
+            t = t.getCause();
+        }
+
+        FailureReason reason;
+        if (t instanceof ExpiredSignatureException) {
+            reason = FailureReason.EXPIRED;
+        } else if (t instanceof ReplayedSignatureException) {
+            reason = FailureReason.REPLAYED;
+        } else if (t instanceof KeyNotFoundException) {
+            reason = FailureReason.KEY_NOT_FOUND;
+        } else if (t instanceof InvalidSignatureException) {
+            reason = FailureReason.BAD_SIGNATURE;
+        } else {
+            reason = FailureReason.ERROR;
+        }
+        return failed(reason, t);
+    }
+
+    public boolean isVerified() {
+        return reason == null;
+    }
+
+    // Something went wrong on this side (a key store that is down, a broken algorithm) rather
+    // than with the request
+    public boolean isError() {
+        return reason == FailureReason.ERROR;
+    }
+
+    // null when verified
+    public FailureReason getReason() {
+        return reason;
+    }
+
+    public VerificationResult getResult() throws SignatureException {
+        if (reason != null) {
+            throw toException();
+        }
+        return result;
+    }
+
+    public Throwable getCause() {
+        return cause;
+    }
+
+    public String getMessage() {
+        if (message == null) {
+            if (reason == null) {
+                message = "Verified";
+            } else if (details != null) {
+                message = details.get();
+            } else if (cause != null) {
+                message = (cause.getMessage() != null) ? cause.getMessage() : cause.toString();
+            } else {
+                message = reason.name();
+            }
+        }
+        return message;
+    }
+
+    // null when verified
+    public SignatureException toException() {
+        if (reason == null) {
+            return null;
+        }
+
+        if (cause instanceof SignatureException) {
+            return (SignatureException) cause;
+        }
+
+        switch (reason) {
+            case EXPIRED:
+                return new ExpiredSignatureException(getMessage());
+            case REPLAYED:
+                return new ReplayedSignatureException(getMessage());
+            case KEY_NOT_FOUND:
+                return new KeyNotFoundException(getMessage(), cause);
+            case MISSING_SIGNATURE:
+            case MALFORMED:
+            case HEADER_MISMATCH:
+            case BAD_SIGNATURE:
+                return new InvalidSignatureException(getMessage(), cause);
+            default:
+                return new SignatureException(getMessage(), cause);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return (reason == null) ? "VerificationOutcome{verified}"
+                : "VerificationOutcome{reason=" + reason + ", message=" + getMessage() + "}";
+    }
+
+}
@@ -15,15 +15,19 @@
  */
 package threeguys.http.signing;
 
+import javax.crypto.SecretKey;
+import java.security.Key;
 import java.security.PublicKey;
+import java.util.Collections;
 import java.util.Map;
 
 import static threeguys.http.signing.Signatures.*;
 
 public class VerificationResult {
 
-    private final Map<String, String> fields;
-    private final PublicKey key;
+    private volatile Map<String, String> fields;
+    private final SignatureFields parsed;
+    private final Key key;
     private final String algorithm;
 
     public VerificationResult(PublicKey key, Map<String, String> fields) {
@@ -34,14 +38,33 @@ public class VerificationResult {
         this.key = key;
         this.algorithm = algorithm;
         this.fields = fields;
+        this.parsed = null;
     }
 
+    // The field map is only built if somebody asks for it. Racing callers may each build one,
+    // they're equal and read-only so whichever lands last is fine
+    VerificationResult(Key key, String algorithm, SignatureFields parsed) {
+        this.key = key;
+        this.algorithm = algorithm;
+        this.parsed = parsed;
+    }
+
+    // null when the request was signed with a shared secret, see getSecretKey()
     public PublicKey getKey() {
-        return key;
+        return (key instanceof PublicKey) ? (PublicKey) key : null;
+    }
+
+    public SecretKey getSecretKey() {
+        return (key instanceof SecretKey) ? (SecretKey) key : null;
     }
 
     public Map<String, String> getFields() {
-        return fields;
+        Map<String, String> map = fields;
+        if (map == null) {
+            map = Collections.unmodifiableMap(parsed.toMap());
+            fields = map;
+        }
+        return map;
     }
 
     public String getAlgorithm() {
@@ -49,7 +72,8 @@ public class VerificationResult {
     }
 
     public String getKeyId() {
-        return fields.get(FIELD_KEY_ID);
+        Map<String, String> map = fields;
+        return (map == null) ? parsed.get(FIELD_KEY_ID) : map.get(FIELD_KEY_ID);
     }
 
 }
@@ -0,0 +1,228 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Remembers signatures that already verified so an identical retry can skip the public key
+// operation. Entries are keyed on a SHA-256 of (keyId, algorithm, signature, canonical payload),
+// keep the key that verified them so a rotated key is a miss, and stop matching the second the
+// signature itself expires. The verifier still checks created/expires on every request.
+// Each entry costs roughly 150 bytes, so maxEntries is what bounds the memory used.
+public class VerifiedSignatureCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private static final int SAMPLE_SIZE = 8;
+
+    static final class Fingerprint {
+
+        private final long a;
+        private final long b;
+        private final long c;
+        private final long d;
+
+        Fingerprint(byte [] digest) {
+            this.a = readLong(digest, 0);
+            this.b = readLong(digest, 8);
+            this.c = readLong(digest, 16);
+            this.d = readLong(digest, 24);
+        }
+
+        private static long readLong(byte [] data, int offset) {
+            long value = 0;
+            for (int i=offset; i<offset + 8; i++) {
+                value = (value << 8) | (data[i] & 0xff);
+            }
+            return value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Fingerprint that = (Fingerprint) o;
+            return a == that.a && b == that.b && c == that.c && d == that.d;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (a ^ (a >>> 32));
+        }
+
+    }
+
+    static final class Entry {
+
+        final PublicKey key;
+        final long expires;
+
+        Entry(PublicKey key, long expires) {
+            this.key = key;
+            this.expires = expires;
+        }
+
+    }
+
+    private final int maxEntries;
+    private final ConcurrentHashMap<Fingerprint, Entry> entries;
+    private final ThreadLocal<MessageDigest> digests;
+    private final AtomicBoolean evicting;
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    // Only touched by the thread holding evicting
+    private Iterator<Map.Entry<Fingerprint, Entry>> cursor;
+
+    public VerifiedSignatureCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public VerifiedSignatureCache(int maxEntries) {
+        this.maxEntries = (maxEntries > 0) ? maxEntries : DEFAULT_MAX_ENTRIES;
+        this.entries = new ConcurrentHashMap<>();
+        this.digests = ThreadLocal.withInitial(VerifiedSignatureCache::newDigest);
+        this.evicting = new AtomicBoolean(false);
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JRE is required to have it
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    private static void updateLength(MessageDigest digest, int length) {
+        digest.update((byte) (length >>> 24));
+        digest.update((byte) (length >>> 16));
+        digest.update((byte) (length >>> 8));
+        digest.update((byte) length);
+    }
+
+    private static void updateString(MessageDigest digest, String value) {
+        byte [] data = value.getBytes(StandardCharsets.UTF_8);
+        updateLength(digest, data.length);
+        digest.update(data);
+    }
+
+    Fingerprint fingerprint(String keyId, String algorithm, String signature, PayloadBuffer payload) {
+        MessageDigest digest = digests.get();
+        digest.reset();
+        updateString(digest, keyId);
+        updateString(digest, algorithm);
+        updateString(digest, signature);
+        updateLength(digest, payload.length());
+        payload.update(digest);
+        return new Fingerprint(digest.digest());
+    }
+
+    // currentTime and expires are in epoch seconds, like the signature fields
+    boolean isVerified(Fingerprint fingerprint, PublicKey key, long currentTime) {
+        Entry entry = entries.get(fingerprint);
+        if (entry != null) {
+            if (currentTime > entry.expires) {
+                entries.remove(fingerprint, entry);
+            } else if (entry.key.equals(key)) {
+                hits.increment();
+                return true;
+            }
+        }
+        misses.increment();
+        return false;
+    }
+
+    void verified(Fingerprint fingerprint, PublicKey key, long expires, long currentTime) {
+        if (currentTime > expires) {
+            return;
+        }
+
+        entries.put(fingerprint, new Entry(key, expires));
+        if (entries.size() > maxEntries) {
+            evict(currentTime);
+        }
+    }
+
+    private void evict(long currentTime) {
+        while (entries.size() > maxEntries && evicting.compareAndSet(false, true)) {
+            try {
+                while (entries.size() > maxEntries) {
+                    Map.Entry<Fingerprint, Entry> victim = null;
+                    for (int i=0; i<SAMPLE_SIZE; i++) {
+                        Map.Entry<Fingerprint, Entry> candidate = next();
+                        if (candidate == null) {
+                            break;
+                        }
+
+                        // Expired or closest to it goes first
+                        if (currentTime > candidate.getValue().expires) {
+                            victim = candidate;
+                            break;
+                        } else if (victim == null || candidate.getValue().expires < victim.getValue().expires) {
+                            victim = candidate;
+                        }
+                    }
+
+                    if (victim == null) {
+                        break;
+                    }
+                    entries.remove(victim.getKey(), victim.getValue());
+                }
+            } finally {
+                evicting.set(false);
+            }
+        }
+    }
+
+    private Map.Entry<Fingerprint, Entry> next() {
+        if (cursor == null || !cursor.hasNext()) {
+            cursor = entries.entrySet().iterator();
+        }
+        return cursor.hasNext() ? cursor.next() : null;
+    }
+
+}
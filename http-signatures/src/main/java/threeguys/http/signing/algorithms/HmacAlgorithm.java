@@ -0,0 +1,31 @@
+package threeguys.http.signing.algorithms;
+
+import javax.crypto.Mac;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+
+// Shared secret algorithms (hmac-sha256 and friends). There is no java.security.Signature for
+// these, so create() refuses and the signer and verifier go through createMac() and the MacPools
+// in Signatures instead, with keys from a KeyProvider<SecretKey>.
+public class HmacAlgorithm extends SigningAlgorithm {
+
+    public HmacAlgorithm(String identifier, String algorithm) {
+        super(identifier, algorithm);
+    }
+
+    public HmacAlgorithm(String identifier, String algorithm, String provider) {
+        super(identifier, algorithm, provider);
+    }
+
+    public Mac createMac() throws GeneralSecurityException {
+        return (getProvider() == null) ? Mac.getInstance(getAlgorithm())
+                : Mac.getInstance(getAlgorithm(), getProvider());
+    }
+
+    @Override
+    public Signature create() throws GeneralSecurityException {
+        throw new NoSuchAlgorithmException(getIdentifier() + " is a MAC, use createMac()");
+    }
+
+}
@@ -0,0 +1,154 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.algorithms;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Bounded, lock-free pool of Mac instances for a single HmacAlgorithm, each one remembering the
+// key it was initialized with. acquire() prefers a Mac already set up for the key it is asked
+// for, so with a handful of shared secrets init() is hardly ever called. doFinal() leaves a Mac
+// initialized with the same key, which is what makes handing it back safe. An empty pool falls
+// back to createMac(), a full pool drops the instance.
+public class MacPool {
+
+    private static final class Bound {
+
+        final SecretKey key;
+        final Mac mac;
+
+        Bound(SecretKey key, Mac mac) {
+            this.key = key;
+            this.mac = mac;
+        }
+
+        boolean isFor(SecretKey other) {
+            return key == other || key.equals(other);
+        }
+
+    }
+
+    private final HmacAlgorithm algorithm;
+    private final AtomicReferenceArray<Bound> slots;
+    private final LongAdder created = new LongAdder();
+    private final LongAdder initialized = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public MacPool(HmacAlgorithm algorithm, int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive: " + size);
+        }
+        this.algorithm = algorithm;
+        this.slots = new AtomicReferenceArray<>(size);
+    }
+
+    public HmacAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getSize() {
+        return slots.length();
+    }
+
+    public int getIdle() {
+        int idle = 0;
+        for (int i=0; i<slots.length(); i++) {
+            if (slots.get(i) != null) {
+                idle++;
+            }
+        }
+        return idle;
+    }
+
+    // Acquires that found the pool empty and had to create a Mac
+    public long getCreated() {
+        return created.sum();
+    }
+
+    // Acquires that had to init() a Mac, new ones included
+    public long getInitialized() {
+        return initialized.sum();
+    }
+
+    // Releases that found the pool full, so the Mac was left for the GC
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    private int firstSlot() {
+        return (int) (Thread.currentThread().getId() % slots.length());
+    }
+
+    public Mac acquire(SecretKey key) throws GeneralSecurityException {
+        int length = slots.length();
+        int first = firstSlot();
+        int other = -1;
+        for (int i=0; i<length; i++) {
+            int slot = (first + i) % length;
+            Bound bound = slots.get(slot);
+            if (bound == null) {
+                continue;
+            }
+
+            if (bound.isFor(key)) {
+                if (slots.compareAndSet(slot, bound, null)) {
+                    return bound.mac;
+                }
+            } else if (other < 0) {
+                other = slot;
+            }
+        }
+
+        // Nothing for this key, take whatever there is and switch it over
+        Mac mac = null;
+        if (other >= 0) {
+            Bound bound = slots.get(other);
+            if (bound != null && slots.compareAndSet(other, bound, null)) {
+                mac = bound.mac;
+            }
+        }
+
+        if (mac == null) {
+            created.increment();
+            mac = algorithm.createMac();
+        }
+
+        initialized.increment();
+        mac.init(key);
+        return mac;
+    }
+
+    // Only hand back a Mac that is initialized with key and finished its last doFinal()
+    public void release(SecretKey key, Mac mac) {
+        if (key == null || mac == null) {
+            return;
+        }
+
+        int length = slots.length();
+        int first = firstSlot();
+        for (int i=0; i<length; i++) {
+            int slot = (first + i) % length;
+            if (slots.get(slot) == null && slots.compareAndSet(slot, null, new Bound(key, mac))) {
+                return;
+            }
+        }
+        dropped.increment();
+    }
+
+}
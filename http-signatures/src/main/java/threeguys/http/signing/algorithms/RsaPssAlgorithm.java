@@ -12,20 +12,19 @@ public class RsaPssAlgorithm extends SigningAlgorithm {
     public static final int SALT_LENGTH = 32;
     public static final int TRAILER_FIELD = 1;
 
-    private final String hashName;
-    private final AlgorithmParameterSpec hashSpec;
+    private final PSSParameterSpec pssSpec;
 
     @Override
     public Signature create() throws GeneralSecurityException {
         Signature signature = super.create();
-        signature.setParameter(new PSSParameterSpec(hashName, MASK_FUNCTION, hashSpec, SALT_LENGTH, TRAILER_FIELD));
+        signature.setParameter(pssSpec);
         return signature;
     }
 
     public RsaPssAlgorithm(String identifier, String hashName, AlgorithmParameterSpec hashSpec) {
         super(identifier, ALGORITHM);
-        this.hashName = hashName;
-        this.hashSpec = hashSpec;
+        // The spec is immutable, no need to build a new one for every signature
+        this.pssSpec = new PSSParameterSpec(hashName, MASK_FUNCTION, hashSpec, SALT_LENGTH, TRAILER_FIELD);
     }
 
 }
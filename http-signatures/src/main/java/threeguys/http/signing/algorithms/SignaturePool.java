@@ -0,0 +1,104 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.algorithms;
+
+import java.security.GeneralSecurityException;
+import java.security.Signature;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Bounded, lock-free pool of Signature instances for a single algorithm. Callers must
+// always initSign/initVerify what they acquire, which resets any state left behind by
+// the previous user. An empty pool falls back to create(), a full pool drops the instance.
+public class SignaturePool {
+
+    private final SigningAlgorithm algorithm;
+    private final AtomicReferenceArray<Signature> slots;
+    private final LongAdder created = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public SignaturePool(SigningAlgorithm algorithm, int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive: " + size);
+        }
+        this.algorithm = algorithm;
+        this.slots = new AtomicReferenceArray<>(size);
+    }
+
+    public SigningAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getSize() {
+        return slots.length();
+    }
+
+    public int getIdle() {
+        int idle = 0;
+        for (int i=0; i<slots.length(); i++) {
+            if (slots.get(i) != null) {
+                idle++;
+            }
+        }
+        return idle;
+    }
+
+    // Acquires that found the pool empty and had to create a Signature
+    public long getCreated() {
+        return created.sum();
+    }
+
+    // Releases that found the pool full, so the Signature was left for the GC
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    // Start each thread at a different slot so they don't all fight over slot 0
+    private int firstSlot() {
+        return (int) (Thread.currentThread().getId() % slots.length());
+    }
+
+    public Signature acquire() throws GeneralSecurityException {
+        int length = slots.length();
+        int first = firstSlot();
+        for (int i=0; i<length; i++) {
+            int slot = (first + i) % length;
+            Signature signature = slots.get(slot);
+            if (signature != null && slots.compareAndSet(slot, signature, null)) {
+                return signature;
+            }
+        }
+        created.increment();
+        return algorithm.create();
+    }
+
+    public void release(Signature signature) {
+        if (signature == null) {
+            return;
+        }
+
+        int length = slots.length();
+        int first = firstSlot();
+        for (int i=0; i<length; i++) {
+            int slot = (first + i) % length;
+            if (slots.get(slot) == null && slots.compareAndSet(slot, null, signature)) {
+                return;
+            }
+        }
+        dropped.increment();
+    }
+
+}
@@ -1,5 +1,7 @@
 package threeguys.http.signing.algorithms;
 
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
 import java.security.spec.MGF1ParameterSpec;
 import java.util.Collections;
 import java.util.HashMap;
@@ -22,6 +24,26 @@ public class SigningAlgorithms {
                                                                                 new MGF1ParameterSpec("SHA-512/224"));
     public static final SigningAlgorithm RSAPSS_SHA512_256 = new RsaPssAlgorithm("rsapss-sha512-256", "SHA-512/256",
                                                                                 new MGF1ParameterSpec("SHA-512/256"));
+    public static final SigningAlgorithm ED25519 = new SigningAlgorithm("ed25519", "Ed25519");
+    public static final HmacAlgorithm HMAC_SHA256 = new HmacAlgorithm("hmac-sha256", "HmacSHA256");
+    public static final HmacAlgorithm HMAC_SHA384 = new HmacAlgorithm("hmac-sha384", "HmacSHA384");
+    public static final HmacAlgorithm HMAC_SHA512 = new HmacAlgorithm("hmac-sha512", "HmacSHA512");
+
+    // EdDSA is built into Java 15 and up, older ones need http-signatures-bouncycastle for it
+    private static final boolean NATIVE_ED25519 = isSupported(ED25519.getAlgorithm());
+
+    public static boolean isSupported(String algorithm) {
+        try {
+            Signature.getInstance(algorithm);
+            return true;
+        } catch (NoSuchAlgorithmException e) {
+            return false;
+        }
+    }
+
+    public static boolean isNativeEd25519() {
+        return NATIVE_ED25519;
+    }
 
     public static Map<String, SigningAlgorithm> defaultAlgorithms() {
         Map<String, SigningAlgorithm> algos = new HashMap<>();
@@ -35,7 +57,23 @@ public class SigningAlgorithms {
         algos.put("rsapss-sha512", RSAPSS_SHA512);
         algos.put("rsapss-sha512-224", RSAPSS_SHA512_224);
         algos.put("rsapss-sha512-256", RSAPSS_SHA512_256);
+        if (NATIVE_ED25519) {
+            algos.put("ed25519", ED25519);
+        }
         return Collections.unmodifiableMap(algos);
     }
 
+    // Not part of defaultAlgorithms(), a verifier only takes these when it is given secret keys
+    public static Map<String, SigningAlgorithm> hmacAlgorithms() {
+        Map<String, SigningAlgorithm> algos = new HashMap<>();
+        algos.put("hmac-sha256", HMAC_SHA256);
+        algos.put("hmac-sha384", HMAC_SHA384);
+        algos.put("hmac-sha512", HMAC_SHA512);
+        return Collections.unmodifiableMap(algos);
+    }
+
+    public static boolean isMac(SigningAlgorithm algorithm) {
+        return algorithm instanceof HmacAlgorithm;
+    }
+
 }
@@ -0,0 +1,123 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.metrics;
+
+import threeguys.http.signing.FailureReason;
+import threeguys.http.signing.SigningListener;
+import threeguys.http.signing.VerificationListener;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Built in listener for both sides: one LatencyHistogram per phase plus outcome counters, all
+// lock free so it can sit on the request path. Phases reported as 0 didn't run and are skipped.
+public class HistogramListener implements VerificationListener, SigningListener {
+
+    public enum Phase {
+        PARSE,
+        KEY,
+        PAYLOAD,
+        CRYPTO,
+        FORMAT,
+        TOTAL
+    }
+
+    private final LatencyHistogram [] verification = histograms();
+    private final LatencyHistogram [] signing = histograms();
+    private final LongAdder verified = new LongAdder();
+    private final AtomicLongArray failures = new AtomicLongArray(FailureReason.values().length);
+    private final LongAdder signed = new LongAdder();
+    private final LongAdder signingFailures = new LongAdder();
+
+    private static LatencyHistogram [] histograms() {
+        LatencyHistogram [] histograms = new LatencyHistogram[Phase.values().length];
+        for (int i=0; i<histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        return histograms;
+    }
+
+    private static void record(LatencyHistogram [] histograms, Phase phase, long nanos) {
+        if (nanos > 0) {
+            histograms[phase.ordinal()].record(nanos);
+        }
+    }
+
+    @Override
+    public void onVerification(String algorithm, String keyId, FailureReason failure,
+                               long parseNanos, long keyNanos, long payloadNanos, long verifyNanos) {
+        if (failure == null) {
+            verified.increment();
+        } else {
+            failures.incrementAndGet(failure.ordinal());
+        }
+
+        record(verification, Phase.PARSE, parseNanos);
+        record(verification, Phase.KEY, keyNanos);
+        record(verification, Phase.PAYLOAD, payloadNanos);
+        record(verification, Phase.CRYPTO, verifyNanos);
+        verification[Phase.TOTAL.ordinal()].record(parseNanos + keyNanos + payloadNanos + verifyNanos);
+    }
+
+    @Override
+    public void onSigning(String algorithm, String keyId, boolean success,
+                          long keyNanos, long payloadNanos, long signNanos, long formatNanos) {
+        if (success) {
+            signed.increment();
+        } else {
+            signingFailures.increment();
+        }
+
+        record(signing, Phase.KEY, keyNanos);
+        record(signing, Phase.PAYLOAD, payloadNanos);
+        record(signing, Phase.CRYPTO, signNanos);
+        record(signing, Phase.FORMAT, formatNanos);
+        signing[Phase.TOTAL.ordinal()].record(keyNanos + payloadNanos + signNanos + formatNanos);
+    }
+
+    public LatencyHistogram getVerification(Phase phase) {
+        return verification[phase.ordinal()];
+    }
+
+    public LatencyHistogram getSigning(Phase phase) {
+        return signing[phase.ordinal()];
+    }
+
+    public long getVerified() {
+        return verified.sum();
+    }
+
+    public long getFailures(FailureReason reason) {
+        return failures.get(reason.ordinal());
+    }
+
+    public long getFailures() {
+        long total = 0;
+        for (int i=0; i<failures.length(); i++) {
+            total += failures.get(i);
+        }
+        return total;
+    }
+
+    public long getSigned() {
+        return signed.sum();
+    }
+
+    public long getSigningFailures() {
+        return signingFailures.sum();
+    }
+
+}
@@ -0,0 +1,220 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.providers;
+
+import threeguys.http.signing.exceptions.KeyNotFoundException;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// KeyStoreKeyProvider decrypts the key on every get(), which for PKCS#12 is a PBE round per
+// request. This one decrypts every private key once into a snapshot that is swapped in whole,
+// so get() is a map lookup and never touches the KeyStore. When built from a file it can
+// check the file for changes on a schedule; a reload that fails leaves the old keys in place.
+// An alias whose key can't be recovered (say it has its own password) is left out and listed
+// in getSkippedAliases() and getLastError(), unless no key could be recovered at all, which
+// fails the load.
+public class CachingKeyStoreKeyProvider implements KeyProvider<PrivateKey>, Closeable {
+
+    public static final long DEFAULT_CHECK_INTERVAL_MS = 30000;
+
+    private static final class Snapshot {
+
+        final Map<String, PrivateKey> keys;
+        final Map<String, Exception> skipped;
+        final FileTime modified;
+        final long size;
+
+        Snapshot(Map<String, PrivateKey> keys, Map<String, Exception> skipped, FileTime modified, long size) {
+            this.keys = keys;
+            this.skipped = skipped;
+            this.modified = modified;
+            this.size = size;
+        }
+
+    }
+
+    private final Path path;
+    private final String type;
+    private final char [] password;
+    private final ScheduledFuture<?> watcher;
+
+    private volatile Snapshot snapshot;
+    private volatile Exception lastError;
+
+    public CachingKeyStoreKeyProvider(KeyStore store, char [] password) throws GeneralSecurityException {
+        this.path = null;
+        this.type = store.getType();
+        this.password = password.clone();
+        this.watcher = null;
+        this.snapshot = decrypt(store, this.password, null, -1);
+        this.lastError = skippedError(snapshot);
+    }
+
+    public CachingKeyStoreKeyProvider(Path path, String type, char [] password) throws IOException, GeneralSecurityException {
+        this(path, type, password, null, DEFAULT_CHECK_INTERVAL_MS);
+    }
+
+    public CachingKeyStoreKeyProvider(Path path, String type, char [] password, ScheduledExecutorService scheduler,
+                                      long checkIntervalMs) throws IOException, GeneralSecurityException {
+        this.path = path;
+        this.type = type;
+        this.password = password.clone();
+        this.snapshot = load();
+        this.lastError = skippedError(snapshot);
+
+        if (scheduler != null) {
+            this.watcher = scheduler.scheduleWithFixedDelay(this::checkQuietly, checkIntervalMs, checkIntervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            this.watcher = null;
+        }
+    }
+
+    private static Snapshot decrypt(KeyStore store, char [] password, FileTime modified, long size) throws GeneralSecurityException {
+        Map<String, PrivateKey> keys = new HashMap<>();
+        Map<String, Exception> skipped = new HashMap<>();
+        GeneralSecurityException first = null;
+
+        Enumeration<String> aliases = store.aliases();
+        while (aliases.hasMoreElements()) {
+            String alias = aliases.nextElement();
+            if (store.isKeyEntry(alias)) {
+                try {
+                    Key key = store.getKey(alias, password);
+                    if (key instanceof PrivateKey) {
+                        keys.put(alias, (PrivateKey) key);
+                    }
+                } catch (GeneralSecurityException e) {
+                    skipped.put(alias, e);
+                    if (first == null) {
+                        first = e;
+                    }
+                }
+            }
+        }
+
+        // Most likely the wrong password for the whole store rather than one odd entry
+        if (keys.isEmpty() && first != null) {
+            throw first;
+        }
+        return new Snapshot(Collections.unmodifiableMap(keys), Collections.unmodifiableMap(skipped), modified, size);
+    }
+
+    private static Exception skippedError(Snapshot snapshot) {
+        if (snapshot.skipped.isEmpty()) {
+            return null;
+        }
+        Exception cause = snapshot.skipped.values().iterator().next();
+        return new GeneralSecurityException("Could not recover keys for " + new TreeSet<>(snapshot.skipped.keySet()), cause);
+    }
+
+    private Snapshot load() throws IOException, GeneralSecurityException {
+        // Stat first, if the file changes while it's being read the next check picks it up again
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        byte [] data = Files.readAllBytes(path);
+
+        KeyStore store = KeyStore.getInstance(type);
+        store.load(new ByteArrayInputStream(data), password);
+        return decrypt(store, password, attributes.lastModifiedTime(), attributes.size());
+    }
+
+    public void reload() throws IOException, GeneralSecurityException {
+        if (path == null) {
+            throw new IllegalStateException("Not loaded from a file");
+        }
+
+        try {
+            snapshot = load();
+            lastError = skippedError(snapshot);
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            lastError = e;
+            throw e;
+        }
+    }
+
+    // Returns true if the file had changed and was reloaded
+    public boolean reloadIfChanged() throws IOException, GeneralSecurityException {
+        if (path == null) {
+            return false;
+        }
+
+        Snapshot current = snapshot;
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        if (attributes.lastModifiedTime().equals(current.modified) && attributes.size() == current.size) {
+            return false;
+        }
+
+        reload();
+        return true;
+    }
+
+    private void checkQuietly() {
+        try {
+            reloadIfChanged();
+        } catch (Exception e) {
+            // Keep serving the keys we have, the failure is available from getLastError()
+            lastError = e;
+        }
+    }
+
+    public Exception getLastError() {
+        return lastError;
+    }
+
+    public Set<String> getAliases() {
+        return snapshot.keys.keySet();
+    }
+
+    // Aliases left out of the current keys, with why
+    public Map<String, Exception> getSkippedAliases() {
+        return snapshot.skipped;
+    }
+
+    @Override
+    public PrivateKey get(String name) throws KeyNotFoundException {
+        PrivateKey key = snapshot.keys.get(name);
+        if (key == null) {
+            throw new KeyNotFoundException("Could not find key " + name);
+        }
+        return key;
+    }
+
+    @Override
+    public void close() {
+        if (watcher != null) {
+            watcher.cancel(false);
+        }
+    }
+
+}
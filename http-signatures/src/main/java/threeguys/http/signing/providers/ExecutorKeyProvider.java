@@ -0,0 +1,60 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.providers;
+
+import threeguys.http.signing.exceptions.KeyNotFoundException;
+
+import java.security.Key;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+// Runs a (possibly blocking) KeyProvider on an executor so callers never wait on key I/O
+public class ExecutorKeyProvider<T extends Key> implements KeyProvider<T>, AsyncKeyProvider<T> {
+
+    private final KeyProvider<T> keyProvider;
+    private final Executor executor;
+
+    public ExecutorKeyProvider(KeyProvider<T> keyProvider, Executor executor) {
+        this.keyProvider = keyProvider;
+        this.executor = executor;
+    }
+
+    @Override
+    public T get(String name) throws KeyNotFoundException {
+        return keyProvider.get(name);
+    }
+
+    @Override
+    public CompletableFuture<T> getAsync(String name) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return keyProvider.get(name);
+                } catch (KeyNotFoundException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new KeyNotFoundException("Could not schedule lookup of key " + name, e));
+            return failed;
+        }
+    }
+
+}
@@ -0,0 +1,43 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.providers;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+// A HeaderProvider that can hand out header values as they are stored, without copying
+// them into a String []. values() returns null if the header isn't there at all, any
+// iterator it returns is consumed straight away and never kept.
+public interface HeaderValuesProvider extends HeaderProvider {
+
+    Iterator<? extends CharSequence> values(String name) throws Exception;
+
+    @Override
+    default String [] get(String name) throws Exception {
+        Iterator<? extends CharSequence> it = values(name);
+        if (it == null) {
+            return null;
+        }
+
+        List<String> values = new ArrayList<>();
+        while (it.hasNext()) {
+            values.add(it.next().toString());
+        }
+        return values.toArray(new String[0]);
+    }
+
+}
@@ -9,10 +9,18 @@ import java.time.Clock;
 public abstract class AbstractCacheLoader<T extends Key> implements CacheLoader<String, T> {
 
     private final Clock clock;
+    private final long refreshMs;
     private final long timeoutMs;
 
     public AbstractCacheLoader(Clock clock, long timeoutSecs) {
+        this(clock, timeoutSecs, timeoutSecs);
+    }
+
+    // refreshSecs is the soft TTL, after which CachingKeyProvider reloads the key in the
+    // background while still serving the cached one, timeoutSecs is the hard TTL
+    public AbstractCacheLoader(Clock clock, long refreshSecs, long timeoutSecs) {
         this.clock = clock;
+        this.refreshMs = Math.min(refreshSecs, timeoutSecs) * 1000;
         this.timeoutMs = timeoutSecs * 1000;
     }
 
@@ -20,10 +28,19 @@ public abstract class AbstractCacheLoader<T extends Key> implements CacheLoader<
         return clock;
     }
 
+    public long nextRefresh() {
+        return clock.millis() + refreshMs;
+    }
+
     public long nextExpires() {
         return clock.millis() + timeoutMs;
     }
 
+    protected CacheEntry<T> newEntry(String keyId, T key) {
+        long now = clock.millis();
+        return new CacheEntry<>(keyId, key, now + refreshMs, now + timeoutMs);
+    }
+
     protected abstract ByteBuffer loadResource(String keyId) throws KeyNotFoundException;
     protected abstract CacheEntry<T> convertToEntry(String keyId, ByteBuffer buffer) throws KeyNotFoundException;
 
@@ -22,11 +22,19 @@ public class CacheEntry<T extends Key> {
 
     private final String id;
     private final T key;
+    private final long refreshAt;
     private final long expires;
 
     public CacheEntry(String id, T key, long expires) {
+        this(id, key, expires, expires);
+    }
+
+    // Past refreshAt (the soft TTL) the key is still good but should be reloaded,
+    // past expires (the hard TTL) it must not be used
+    public CacheEntry(String id, T key, long refreshAt, long expires) {
         this.id = Objects.requireNonNull(id);
         this.key = Objects.requireNonNull(key);
+        this.refreshAt = Math.min(refreshAt, expires);
         this.expires = expires;
     }
 
@@ -38,10 +46,18 @@ public class CacheEntry<T extends Key> {
         return key;
     }
 
+    public long getRefreshAt() {
+        return refreshAt;
+    }
+
     public long getExpires() {
         return expires;
     }
 
+    public boolean needsRefresh(long currentTime) {
+        return currentTime > getRefreshAt();
+    }
+
     public boolean isExpired(long currentTime) {
         return currentTime > getExpires();
     }
@@ -51,14 +67,15 @@ public class CacheEntry<T extends Key> {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         CacheEntry that = (CacheEntry) o;
-        return expires == that.expires &&
+        return refreshAt == that.refreshAt &&
+                expires == that.expires &&
                 id.equals(that.id) &&
                 key.equals(that.key);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, key, expires);
+        return Objects.hash(id, key, refreshAt, expires);
     }
 
 }
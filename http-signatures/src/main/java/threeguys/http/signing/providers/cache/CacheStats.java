@@ -0,0 +1,105 @@
+package threeguys.http.signing.providers.cache;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters kept by CachingKeyProvider, cheap enough to update on every request
+public class CacheStats {
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder loadSuccesses = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+
+    void hit() {
+        hits.increment();
+    }
+
+    void miss() {
+        misses.increment();
+    }
+
+    void negativeHit() {
+        negativeHits.increment();
+    }
+
+    void staleHit() {
+        staleHits.increment();
+    }
+
+    void refresh() {
+        refreshes.increment();
+    }
+
+    void loadSuccess() {
+        loadSuccesses.increment();
+    }
+
+    void loadFailure() {
+        loadFailures.increment();
+    }
+
+    void loadTime(long nanos) {
+        loads.increment();
+        loadNanos.add(nanos);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    // Requests turned away by the NegativeCache without calling the loader
+    public long getNegativeHits() {
+        return negativeHits.sum();
+    }
+
+    // Requests answered with an expired key because the loader failed
+    public long getStaleHits() {
+        return staleHits.sum();
+    }
+
+    public long getRefreshes() {
+        return refreshes.sum();
+    }
+
+    public long getLoadSuccesses() {
+        return loadSuccesses.sum();
+    }
+
+    public long getLoadFailures() {
+        return loadFailures.sum();
+    }
+
+    // Every call to the loader, including the ones that didn't find the key
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    public long getTotalLoadNanos() {
+        return loadNanos.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{" +
+                "hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", negativeHits=" + getNegativeHits() +
+                ", staleHits=" + getStaleHits() +
+                ", refreshes=" + getRefreshes() +
+                ", loadSuccesses=" + getLoadSuccesses() +
+                ", loadFailures=" + getLoadFailures() +
+                ", loads=" + getLoads() +
+                ", totalLoadNanos=" + getTotalLoadNanos() +
+                '}';
+    }
+
+}
@@ -20,39 +20,244 @@ import threeguys.http.signing.providers.KeyProvider;
 
 import java.security.Key;
 import java.time.Clock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class CachingKeyProvider<T extends Key> implements KeyProvider<T> {
 
+    public static final long DEFAULT_LOAD_TIMEOUT_MS = 10000;
+
     private final Clock clock;
     private final KeyCache<T> cache;
     private final CacheLoader<String, T> loader;
+    private final long loadTimeoutMs;
+    private final Executor refreshExecutor;
+    private final long staleIfErrorMs;
+    private final NegativeCache negativeCache;
+    private final CacheStats stats;
+
+    // One load per keyId at a time, anyone else missing on the same key waits for its result
+    private final ConcurrentHashMap<String, CompletableFuture<CacheEntry<T>>> loading;
 
     public CachingKeyProvider(Clock clock, KeyCache<T> cache, CacheLoader<String, T> loader) {
+        this(clock, cache, loader, DEFAULT_LOAD_TIMEOUT_MS);
+    }
+
+    // A loadTimeoutMs <= 0 waits on an in flight load for as long as it takes
+    public CachingKeyProvider(Clock clock, KeyCache<T> cache, CacheLoader<String, T> loader, long loadTimeoutMs) {
+        this(clock, cache, loader, loadTimeoutMs, null, 0);
+    }
+
+    // Entries past their refreshAt are reloaded on refreshExecutor while the cached key keeps
+    // being served. Without an executor the first caller to notice reloads inline and everyone
+    // else keeps getting the cached key. If a load fails, an entry up to staleIfErrorMs past
+    // its hard expiry is served instead of the error.
+    public CachingKeyProvider(Clock clock, KeyCache<T> cache, CacheLoader<String, T> loader, long loadTimeoutMs,
+                              Executor refreshExecutor, long staleIfErrorMs) {
+        this(clock, cache, loader, loadTimeoutMs, refreshExecutor, staleIfErrorMs, null);
+    }
+
+    // keyIds the loader couldn't find are remembered in negativeCache and rejected without
+    // calling the loader again until they age out of it
+    public CachingKeyProvider(Clock clock, KeyCache<T> cache, CacheLoader<String, T> loader, long loadTimeoutMs,
+                              Executor refreshExecutor, long staleIfErrorMs, NegativeCache negativeCache) {
         this.clock = clock;
         this.cache = cache;
         this.loader = loader;
+        this.loadTimeoutMs = loadTimeoutMs;
+        this.refreshExecutor = refreshExecutor;
+        this.staleIfErrorMs = Math.max(0, staleIfErrorMs);
+        this.negativeCache = negativeCache;
+        this.stats = new CacheStats();
+        this.loading = new ConcurrentHashMap<>();
+    }
+
+    public long getLoadTimeoutMs() {
+        return loadTimeoutMs;
+    }
+
+    public long getStaleIfErrorMs() {
+        return staleIfErrorMs;
+    }
+
+    public KeyCache<T> getCache() {
+        return cache;
+    }
+
+    public NegativeCache getNegativeCache() {
+        return negativeCache;
+    }
+
+    public CacheStats getStats() {
+        return stats;
     }
 
     @Override
     public T get(String keyId) throws KeyNotFoundException {
+        long now = clock.millis();
         CacheEntry<T> ce = cache.getEntry(keyId);
-        if (ce != null && !ce.isExpired(clock.millis())) {
+        if (ce != null && !ce.isExpired(now)) {
+            if (loader != null && ce.needsRefresh(now)) {
+                refresh(keyId);
+            }
+            stats.hit();
             return ce.getKey();
         }
 
+        stats.miss();
+
+        CacheEntry<T> stale = null;
         if (ce != null) {
-            cache.invalidate(ce);
+            if (loader != null && now <= ce.getExpires() + staleIfErrorMs) {
+                stale = ce;
+            } else {
+                cache.invalidate(ce);
+            }
+        }
+
+        if (negativeCache != null && negativeCache.contains(keyId, now)) {
+            stats.negativeHit();
+            return serveStale(keyId, stale);
         }
 
         if (loader != null) {
-            ce = loader.load(keyId);
+            try {
+                ce = load(keyId);
+                if (ce != null) {
+                    return ce.getKey();
+                }
+            } catch (KeyNotFoundException | RuntimeException e) {
+                if (stale != null) {
+                    stats.staleHit();
+                    return stale.getKey();
+                }
+                throw e;
+            }
+        }
+
+        return serveStale(keyId, stale);
+    }
+
+    private T serveStale(String keyId, CacheEntry<T> stale) throws KeyNotFoundException {
+        if (stale != null) {
+            stats.staleHit();
+            return stale.getKey();
+        }
+
+        throw new KeyNotFoundException("Key " + keyId);
+    }
+
+    private void refresh(String keyId) {
+        CompletableFuture<CacheEntry<T>> pending = new CompletableFuture<>();
+        if (loading.putIfAbsent(keyId, pending) != null) {
+            return;
+        }
+        stats.refresh();
+
+        Runnable reload = () -> {
+            try {
+                load(keyId, pending);
+            } catch (KeyNotFoundException | RuntimeException e) {
+                // Keep serving what we have, the next request past refreshAt tries again
+            }
+        };
+
+        if (refreshExecutor == null) {
+            reload.run();
+            return;
+        }
+
+        try {
+            refreshExecutor.execute(reload);
+        } catch (RejectedExecutionException e) {
+            pending.completeExceptionally(e);
+            loading.remove(keyId, pending);
+        }
+    }
+
+    private CacheEntry<T> load(String keyId) throws KeyNotFoundException {
+        CompletableFuture<CacheEntry<T>> pending = new CompletableFuture<>();
+        CompletableFuture<CacheEntry<T>> inFlight = loading.putIfAbsent(keyId, pending);
+        if (inFlight != null) {
+            return await(keyId, inFlight);
+        }
+
+        // Another load may have finished between our miss and claiming the slot, don't repeat it
+        CacheEntry<T> loaded = cache.getEntry(keyId);
+        if (loaded != null && !loaded.isExpired(clock.millis())) {
+            pending.complete(loaded);
+            loading.remove(keyId, pending);
+            return loaded;
+        }
+        return load(keyId, pending);
+    }
+
+    private CacheEntry<T> load(String keyId, CompletableFuture<CacheEntry<T>> pending) throws KeyNotFoundException {
+        long start = System.nanoTime();
+        try {
+            CacheEntry<T> ce = loader.load(keyId);
             if (ce != null) {
                 cache.putEntry(ce);
-                return ce.getKey();
+                stats.loadSuccess();
+                if (negativeCache != null) {
+                    negativeCache.remove(keyId);
+                }
+            } else {
+                notFound(keyId);
             }
+            pending.complete(ce);
+            return ce;
+
+        } catch (KeyNotFoundException e) {
+            notFound(keyId);
+            pending.completeExceptionally(e);
+            throw e;
+
+        } catch (Throwable t) {
+            stats.loadFailure();
+            pending.completeExceptionally(t);
+            throw t;
+
+        } finally {
+            stats.loadTime(System.nanoTime() - start);
+            loading.remove(keyId, pending);
         }
+    }
 
-        throw new KeyNotFoundException("Key " + keyId);
+    private void notFound(String keyId) {
+        stats.loadFailure();
+        if (negativeCache != null) {
+            negativeCache.add(keyId, clock.millis());
+        }
+    }
+
+    private CacheEntry<T> await(String keyId, CompletableFuture<CacheEntry<T>> inFlight) throws KeyNotFoundException {
+        try {
+            return (loadTimeoutMs > 0) ? inFlight.get(loadTimeoutMs, TimeUnit.MILLISECONDS) : inFlight.get();
+
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof KeyNotFoundException) {
+                throw new KeyNotFoundException(cause.getMessage(), cause);
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new KeyNotFoundException("Error loading key " + keyId, cause);
+
+        } catch (TimeoutException e) {
+            throw new KeyNotFoundException("Timed out waiting for key " + keyId, e);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KeyNotFoundException("Interrupted waiting for key " + keyId, e);
+        }
     }
 
 }
@@ -0,0 +1,68 @@
+package threeguys.http.signing.providers.cache;
+
+import java.security.Key;
+import java.time.Clock;
+import java.util.concurrent.Executor;
+
+public class CachingKeyProviderBuilder<T extends Key> {
+
+    private Clock clock;
+    private KeyCache<T> cache;
+    private CacheLoader<String, T> loader;
+    private long loadTimeoutMs = CachingKeyProvider.DEFAULT_LOAD_TIMEOUT_MS;
+    private Executor refreshExecutor;
+    private long staleIfErrorMs = 0;
+    private NegativeCache negativeCache;
+
+    public CachingKeyProviderBuilder<T> withClock(Clock clock) {
+        this.clock = clock;
+        return this;
+    }
+
+    public CachingKeyProviderBuilder<T> withCache(KeyCache<T> cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    public CachingKeyProviderBuilder<T> withLoader(CacheLoader<String, T> loader) {
+        this.loader = loader;
+        return this;
+    }
+
+    public CachingKeyProviderBuilder<T> withLoadTimeoutMs(long loadTimeoutMs) {
+        this.loadTimeoutMs = loadTimeoutMs;
+        return this;
+    }
+
+    public CachingKeyProviderBuilder<T> withRefreshExecutor(Executor refreshExecutor) {
+        this.refreshExecutor = refreshExecutor;
+        return this;
+    }
+
+    public CachingKeyProviderBuilder<T> withStaleIfErrorMs(long staleIfErrorMs) {
+        this.staleIfErrorMs = staleIfErrorMs;
+        return this;
+    }
+
+    public CachingKeyProviderBuilder<T> withNegativeCache(NegativeCache negativeCache) {
+        this.negativeCache = negativeCache;
+        return this;
+    }
+
+    public CachingKeyProviderBuilder<T> withNegativeCaching(long ttlMs, int maxEntries) {
+        return withNegativeCache(new NegativeCache(ttlMs, maxEntries));
+    }
+
+    public CachingKeyProvider<T> build() {
+        if (clock == null) {
+            clock = Clock.systemUTC();
+        }
+
+        if (cache == null) {
+            cache = new ConcurrentKeyCache<>(clock, ConcurrentKeyCache.DEFAULT_MAX_ENTRIES);
+        }
+
+        return new CachingKeyProvider<>(clock, cache, loader, loadTimeoutMs, refreshExecutor, staleIfErrorMs, negativeCache);
+    }
+
+}
@@ -21,6 +21,18 @@ public class ConcurrentInMemoryLruKeyCache<T extends Key> implements KeyProvider
         this.lock = lock;
     }
 
+    @Override
+    public int size() {
+        try (CacheLock.Lock l = lock.reading()) {
+            return cache.size();
+        }
+    }
+
+    @Override
+    public long getEvictions() {
+        return cache.getEvictions();
+    }
+
     @Override
     public T get(String name) {
         CacheEntry<T> entry;
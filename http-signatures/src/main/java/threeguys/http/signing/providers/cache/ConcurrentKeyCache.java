@@ -0,0 +1,200 @@
+package threeguys.http.signing.providers.cache;
+
+import threeguys.http.signing.providers.KeyProvider;
+
+import java.security.Key;
+import java.time.Clock;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// KeyCache with no global lock. Entries live in a ConcurrentHashMap and a read only stamps the
+// entry with the current write epoch, so the most a read writes is that one field of its own
+// entry, and only when the epoch has moved since. Once the cache is over capacity a single
+// thread evicts by sampling a few entries with a rotating cursor, dropping an expired one if
+// it finds one and otherwise the one read least recently. Writers that find eviction already
+// running just carry on.
+public class ConcurrentKeyCache<T extends Key> implements KeyProvider<T>, KeyCache<T> {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    public static final int DEFAULT_SAMPLE_SIZE = 8;
+
+    static final class Node<T extends Key> {
+
+        final CacheEntry<T> entry;
+        volatile long accessed;
+
+        Node(CacheEntry<T> entry, long accessed) {
+            this.entry = entry;
+            this.accessed = accessed;
+        }
+
+    }
+
+    private final Clock clock;
+    private final int maxEntries;
+    private final int sampleSize;
+    private final ConcurrentHashMap<String, Node<T>> cache;
+    private final AtomicLong epoch;
+    private final AtomicBoolean evicting;
+    private final LongAdder evictions;
+
+    // Only touched by the thread holding evicting
+    private Iterator<Map.Entry<String, Node<T>>> cursor;
+
+    public ConcurrentKeyCache(int maxEntries) {
+        this(Clock.systemUTC(), maxEntries);
+    }
+
+    public ConcurrentKeyCache(Clock clock, int maxEntries) {
+        this(clock, maxEntries, DEFAULT_SAMPLE_SIZE);
+    }
+
+    public ConcurrentKeyCache(Clock clock, int maxEntries, int sampleSize) {
+        if (sampleSize <= 0) {
+            throw new IllegalArgumentException("sampleSize must be positive: " + sampleSize);
+        }
+        this.clock = clock;
+        this.maxEntries = (maxEntries > 0) ? maxEntries : DEFAULT_MAX_ENTRIES;
+        this.sampleSize = sampleSize;
+        this.cache = new ConcurrentHashMap<>((this.maxEntries >> 1) + 1);
+        this.epoch = new AtomicLong();
+        this.evicting = new AtomicBoolean(false);
+        this.evictions = new LongAdder();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    @Override
+    public int size() {
+        return cache.size();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private void touch(Node<T> node) {
+        long current = epoch.get();
+        if (node.accessed != current) {
+            node.accessed = current;
+        }
+    }
+
+    @Override
+    public T get(String name) {
+        Node<T> node = cache.get(name);
+        while (node != null) {
+            if (!node.entry.isExpired(clock.millis())) {
+                touch(node);
+                return node.entry.getKey();
+            }
+
+            if (cache.remove(name, node)) {
+                return null;
+            }
+            node = cache.get(name);
+        }
+        return null;
+    }
+
+    @Override
+    public CacheEntry<T> getEntry(String keyId) {
+        Node<T> node = cache.get(keyId);
+        if (node == null) {
+            return null;
+        }
+        touch(node);
+        return node.entry;
+    }
+
+    @Override
+    public CacheEntry<T> putEntry(CacheEntry<T> entry) {
+        Node<T> previous = cache.put(entry.getId(), new Node<>(entry, epoch.incrementAndGet()));
+        if (cache.size() > maxEntries) {
+            cleanUp();
+        }
+        return (previous == null) ? null : previous.entry;
+    }
+
+    // Only stores entry if nothing is cached for its id, otherwise returns what is
+    public CacheEntry<T> putEntryIfAbsent(CacheEntry<T> entry) {
+        Node<T> existing = cache.putIfAbsent(entry.getId(), new Node<>(entry, epoch.incrementAndGet()));
+        if (existing != null) {
+            touch(existing);
+            return existing.entry;
+        }
+
+        if (cache.size() > maxEntries) {
+            cleanUp();
+        }
+        return null;
+    }
+
+    @Override
+    public CacheEntry<T> invalidate(CacheEntry<T> entry) {
+        String id = entry.getId();
+        Node<T> current = cache.get(id);
+        while (current != null && entry.equals(current.entry)) {
+            if (cache.remove(id, current)) {
+                return null;
+            }
+            current = cache.get(id);
+        }
+        return (current == null) ? null : current.entry;
+    }
+
+    // Evicts until the cache is back under maxEntries, unless another thread is already on it
+    public void cleanUp() {
+        while (cache.size() > maxEntries && evicting.compareAndSet(false, true)) {
+            try {
+                long now = clock.millis();
+                while (cache.size() > maxEntries) {
+                    Map.Entry<String, Node<T>> victim = sample(now);
+                    if (victim == null) {
+                        break;
+                    }
+                    if (cache.remove(victim.getKey(), victim.getValue())) {
+                        evictions.increment();
+                    }
+                }
+            } finally {
+                evicting.set(false);
+            }
+        }
+    }
+
+    private Map.Entry<String, Node<T>> sample(long now) {
+        Map.Entry<String, Node<T>> victim = null;
+        for (int i=0; i<sampleSize; i++) {
+            Map.Entry<String, Node<T>> candidate = next();
+            if (candidate == null) {
+                break;
+            }
+
+            Node<T> node = candidate.getValue();
+            if (node.entry.isExpired(now)) {
+                return candidate;
+            }
+
+            if (victim == null || node.accessed < victim.getValue().accessed) {
+                victim = candidate;
+            }
+        }
+        return victim;
+    }
+
+    private Map.Entry<String, Node<T>> next() {
+        if (cursor == null || !cursor.hasNext()) {
+            cursor = cache.entrySet().iterator();
+        }
+        return cursor.hasNext() ? cursor.next() : null;
+    }
+
+}
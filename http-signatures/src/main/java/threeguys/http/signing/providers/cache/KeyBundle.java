@@ -0,0 +1,169 @@
+package threeguys.http.signing.providers.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Read only view of a key bundle, normally a file mapped into memory. The bundle is an open
+// addressing table of keyId hash -> record offset followed by the records. A lookup reads one
+// or two table slots and compares the keyId in place, nothing is copied onto the heap.
+//
+//   header   int magic, int version, int slot count (a power of two), int entry count
+//   slots    one long per slot, (keyId hash << 32) | record offset, 0 if empty
+//   records  short keyId length, keyId (UTF-8), byte algorithm length, algorithm (ASCII),
+//            int encoded length, encoded public key (X.509 SubjectPublicKeyInfo DER)
+//
+// Offsets are ints, so a bundle is limited to 2GB.
+public class KeyBundle {
+
+    public static final int MAGIC = 0x48534b42; // HSKB
+    public static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 16;
+    static final int SLOT_SIZE = 8;
+
+    private final ByteBuffer buffer;
+    private final int slotCount;
+    private final int entryCount;
+
+    public KeyBundle(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        if (this.buffer.limit() < HEADER_SIZE || this.buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a key bundle");
+        }
+        if (this.buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported key bundle version " + this.buffer.getInt(4));
+        }
+
+        this.slotCount = this.buffer.getInt(8);
+        this.entryCount = this.buffer.getInt(12);
+        if (slotCount <= 0 || Integer.bitCount(slotCount) != 1 || entryCount < 0 || entryCount >= slotCount
+                || HEADER_SIZE + (long) slotCount * SLOT_SIZE > this.buffer.limit()) {
+            throw new IOException("Corrupt key bundle header");
+        }
+    }
+
+    public static KeyBundle open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Key bundle is too large to map: " + size);
+            }
+            // The mapping stays valid after the channel is closed
+            return new KeyBundle(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    public int size() {
+        return entryCount;
+    }
+
+    // FNV-1a over the UTF-8 bytes of the keyId
+    static int hash(byte [] data, int offset, int length) {
+        int h = 0x811c9dc5;
+        for (int i=offset; i<offset + length; i++) {
+            h ^= data[i] & 0xff;
+            h *= 0x01000193;
+        }
+        return h;
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i=0; i<s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Compares the UTF-8 keyId stored at offset with an ASCII keyId, without encoding it
+    private boolean matchesAscii(int offset, int length, String keyId) {
+        if (length != keyId.length()) {
+            return false;
+        }
+        for (int i=0; i<length; i++) {
+            if (buffer.get(offset + i) != (byte) keyId.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean matches(int offset, int length, byte [] keyId) {
+        if (length != keyId.length) {
+            return false;
+        }
+        for (int i=0; i<length; i++) {
+            if (buffer.get(offset + i) != keyId[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Returns the record for keyId, positioned at the algorithm (just past the keyId), or null
+    public ByteBuffer find(String keyId) {
+        byte [] encoded = null;
+        int hash;
+        if (isAscii(keyId)) {
+            hash = 0x811c9dc5;
+            for (int i=0; i<keyId.length(); i++) {
+                hash ^= keyId.charAt(i);
+                hash *= 0x01000193;
+            }
+        } else {
+            encoded = keyId.getBytes(StandardCharsets.UTF_8);
+            hash = hash(encoded, 0, encoded.length);
+        }
+
+        int mask = slotCount - 1;
+        for (int i=0, slot = hash & mask; i<slotCount; i++, slot = (slot + 1) & mask) {
+            long value = buffer.getLong(HEADER_SIZE + slot * SLOT_SIZE);
+            if (value == 0) {
+                return null;
+            }
+            if ((int) (value >>> 32) != hash) {
+                continue;
+            }
+
+            int offset = (int) value;
+            int length = buffer.getShort(offset) & 0xffff;
+            boolean found = (encoded == null)
+                    ? matchesAscii(offset + 2, length, keyId)
+                    : matches(offset + 2, length, encoded);
+            if (found) {
+                ByteBuffer record = buffer.duplicate();
+                record.position(offset + 2 + length);
+                return record.slice();
+            }
+        }
+        return null;
+    }
+
+    // Readers for a record returned by find()
+    public static String algorithm(ByteBuffer record) {
+        int length = record.get(0) & 0xff;
+        char [] chars = new char[length];
+        for (int i=0; i<length; i++) {
+            chars[i] = (char) (record.get(1 + i) & 0xff);
+        }
+        return new String(chars);
+    }
+
+    public static ByteBuffer encoded(ByteBuffer record) {
+        int algorithmLength = record.get(0) & 0xff;
+        int position = 1 + algorithmLength;
+        int length = record.getInt(position);
+
+        ByteBuffer encoded = record.duplicate();
+        encoded.position(position + 4);
+        encoded.limit(position + 4 + length);
+        return encoded.slice();
+    }
+
+}
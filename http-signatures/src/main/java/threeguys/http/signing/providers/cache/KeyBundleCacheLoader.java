@@ -0,0 +1,56 @@
+package threeguys.http.signing.providers.cache;
+
+import threeguys.http.signing.exceptions.KeyNotFoundException;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.Clock;
+
+// Resolves cache misses from a KeyBundle. The lookup works on the mapped file in place, the
+// only heap allocations are the DER bytes KeyFactory needs and the decoded key itself.
+public class KeyBundleCacheLoader extends AbstractCacheLoader<PublicKey> {
+
+    private final KeyBundle bundle;
+
+    public KeyBundleCacheLoader(KeyBundle bundle, Clock clock, long timeoutSecs) {
+        this(bundle, clock, timeoutSecs, timeoutSecs);
+    }
+
+    public KeyBundleCacheLoader(KeyBundle bundle, Clock clock, long refreshSecs, long timeoutSecs) {
+        super(clock, refreshSecs, timeoutSecs);
+        this.bundle = bundle;
+    }
+
+    public KeyBundle getBundle() {
+        return bundle;
+    }
+
+    @Override
+    protected ByteBuffer loadResource(String keyId) {
+        return bundle.find(keyId);
+    }
+
+    static PublicKey decode(String algorithm, byte [] der) throws GeneralSecurityException {
+        return KeyFactory.getInstance(algorithm).generatePublic(new X509EncodedKeySpec(der));
+    }
+
+    static PublicKey decode(ByteBuffer record) throws GeneralSecurityException {
+        ByteBuffer encoded = KeyBundle.encoded(record);
+        byte [] der = new byte[encoded.remaining()];
+        encoded.get(der);
+        return decode(KeyBundle.algorithm(record), der);
+    }
+
+    @Override
+    protected CacheEntry<PublicKey> convertToEntry(String keyId, ByteBuffer buffer) throws KeyNotFoundException {
+        try {
+            return newEntry(keyId, decode(buffer));
+        } catch (GeneralSecurityException | RuntimeException e) {
+            throw new KeyNotFoundException("Could not decode key " + keyId, e);
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+package threeguys.http.signing.providers.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.cert.CertificateFactory;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+// Builds a KeyBundle from a directory of PEM files, one key per file. The keyId is the file
+// name without its .pem (or .public.pem) extension. Files may hold a PUBLIC KEY or a
+// CERTIFICATE, in which case the certificate's public key is used.
+//
+//   java -cp http-signatures.jar threeguys.http.signing.providers.cache.KeyBundleTool <pem dir> <bundle file>
+public class KeyBundleTool {
+
+    private static final String [] KEY_ALGORITHMS = { "RSA", "EC", "DSA", "Ed25519", "Ed448", "EdDSA" };
+
+    public static String keyId(Path file) {
+        String name = file.getFileName().toString();
+        for (String suffix : new String[] { ".public.pem", ".pem" }) {
+            if (name.endsWith(suffix)) {
+                return name.substring(0, name.length() - suffix.length());
+            }
+        }
+        return name;
+    }
+
+    private static byte [] pemBody(String pem, String type) {
+        String begin = "-----BEGIN " + type + "-----";
+        String end = "-----END " + type + "-----";
+        int start = pem.indexOf(begin);
+        if (start < 0) {
+            return null;
+        }
+        int stop = pem.indexOf(end, start);
+        if (stop < 0) {
+            return null;
+        }
+        return Base64.getMimeDecoder().decode(pem.substring(start + begin.length(), stop));
+    }
+
+    // Decodes with the first standard KeyFactory that accepts the key, so the algorithm stored
+    // in the bundle is one KeyFactory.getInstance() knows
+    private static PublicKey decode(byte [] der) throws GeneralSecurityException {
+        X509EncodedKeySpec spec = new X509EncodedKeySpec(der);
+        for (String algorithm : KEY_ALGORITHMS) {
+            try {
+                return KeyFactory.getInstance(algorithm).generatePublic(spec);
+            } catch (GeneralSecurityException e) {
+                // Not this one, or not available on this JVM
+            }
+        }
+        throw new GeneralSecurityException("Unsupported public key algorithm");
+    }
+
+    public static PublicKey parsePem(String pem) throws GeneralSecurityException {
+        byte [] der = pemBody(pem, "PUBLIC KEY");
+        if (der != null) {
+            return decode(der);
+        }
+
+        byte [] cert = pemBody(pem, "CERTIFICATE");
+        if (cert != null) {
+            return decode(CertificateFactory.getInstance("X.509")
+                    .generateCertificate(new ByteArrayInputStream(cert))
+                    .getPublicKey()
+                    .getEncoded());
+        }
+
+        throw new GeneralSecurityException("No PUBLIC KEY or CERTIFICATE found");
+    }
+
+    public static int build(Path pemDirectory, Path bundle) throws IOException, GeneralSecurityException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(pemDirectory, "*.pem")) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+
+        try (KeyBundleWriter writer = new KeyBundleWriter(bundle, files.size())) {
+            for (Path file : files) {
+                String pem = new String(Files.readAllBytes(file), StandardCharsets.US_ASCII);
+                try {
+                    writer.add(keyId(file), parsePem(pem));
+                } catch (GeneralSecurityException e) {
+                    throw new GeneralSecurityException(file + ": " + e.getMessage(), e);
+                }
+            }
+
+            // Any failure above closes without committing, so the previous bundle stays put
+            writer.commit();
+            return writer.size();
+        }
+    }
+
+    public static void main(String [] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("usage: KeyBundleTool <pem directory> <bundle file>");
+            System.exit(1);
+        }
+
+        int count = build(Paths.get(args[0]), Paths.get(args[1]));
+        System.out.println("Wrote " + count + " keys to " + args[1]);
+    }
+
+}
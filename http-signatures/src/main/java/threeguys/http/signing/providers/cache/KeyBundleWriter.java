@@ -0,0 +1,185 @@
+package threeguys.http.signing.providers.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.PublicKey;
+
+// Writes a KeyBundle. Records are streamed to the file as they are added and only the slot
+// table is held in memory, so the number of entries has to be known up front. Everything goes
+// to a temporary file next to the target, and only commit() moves it over the target, so a
+// bundle that's still mapped by a reader is never touched and a build that fails part way
+// leaves the previous bundle where it was. Closing without commit() throws the work away.
+public class KeyBundleWriter implements Closeable {
+
+    private final Path target;
+    private final Path temp;
+    private final FileChannel channel;
+    private final long [] slots;
+    private final int maxEntries;
+    private int entryCount;
+    private long position;
+    private boolean broken;
+    private boolean committed;
+    private boolean closed;
+
+    public KeyBundleWriter(Path path, int maxEntries) throws IOException {
+        if (maxEntries < 0 || maxEntries > (1 << 26)) {
+            throw new IllegalArgumentException("maxEntries out of range: " + maxEntries);
+        }
+
+        // At most half full, so probes stay short
+        int slotCount = 2;
+        while (slotCount < maxEntries * 2) {
+            slotCount <<= 1;
+        }
+
+        this.maxEntries = maxEntries;
+        this.slots = new long[slotCount];
+        this.target = path.toAbsolutePath();
+        this.temp = Files.createTempFile(target.getParent(), target.getFileName().toString() + ".", ".tmp");
+        try {
+            this.channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        this.position = KeyBundle.HEADER_SIZE + (long) slotCount * KeyBundle.SLOT_SIZE;
+    }
+
+    public int size() {
+        return entryCount;
+    }
+
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    public KeyBundleWriter add(String keyId, PublicKey key) throws IOException {
+        return add(keyId, key.getAlgorithm(), key.getEncoded());
+    }
+
+    public KeyBundleWriter add(String keyId, String algorithm, byte [] encoded) throws IOException {
+        byte [] id = keyId.getBytes(StandardCharsets.UTF_8);
+        byte [] alg = algorithm.getBytes(StandardCharsets.US_ASCII);
+        if (id.length > 0xffff || alg.length > 0xff) {
+            throw new IllegalArgumentException("keyId or algorithm too long: " + keyId);
+        }
+        if (closed) {
+            throw new IllegalStateException("Bundle writer is closed");
+        }
+        if (entryCount >= maxEntries) {
+            throw new IllegalStateException("Bundle already holds " + maxEntries + " entries");
+        }
+
+        int recordSize = 2 + id.length + 1 + alg.length + 4 + encoded.length;
+        if (position + recordSize > Integer.MAX_VALUE) {
+            throw new IOException("Key bundle would be larger than 2GB");
+        }
+
+        int hash = KeyBundle.hash(id, 0, id.length);
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            if ((int) (slots[slot] >>> 32) == hash && sameKeyId((int) slots[slot], id)) {
+                throw new IllegalArgumentException("Duplicate keyId: " + keyId);
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(recordSize);
+        record.putShort((short) id.length).put(id)
+                .put((byte) alg.length).put(alg)
+                .putInt(encoded.length).put(encoded)
+                .flip();
+        try {
+            writeFully(record, position);
+        } catch (IOException | RuntimeException e) {
+            // Part of a record may be on disk, nothing after this can be trusted
+            broken = true;
+            throw e;
+        }
+
+        slots[slot] = ((long) hash << 32) | position;
+        position += recordSize;
+        entryCount++;
+        return this;
+    }
+
+    private boolean sameKeyId(int offset, byte [] id) throws IOException {
+        ByteBuffer existing = ByteBuffer.allocate(2 + id.length);
+        channel.read(existing, offset);
+        existing.flip();
+        if (existing.remaining() < 2 || (existing.getShort() & 0xffff) != id.length) {
+            return false;
+        }
+        for (byte b : id) {
+            if (!existing.hasRemaining() || existing.get() != b) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeFully(ByteBuffer data, long at) throws IOException {
+        while (data.hasRemaining()) {
+            at += channel.write(data, at);
+        }
+    }
+
+    // Writes the header and slot table and moves the finished bundle over the target in one
+    // step. Refuses if an add failed while writing its record.
+    public void commit() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Bundle writer is closed");
+        }
+        if (broken) {
+            abort();
+            throw new IOException("A record failed to write, not replacing " + target);
+        }
+
+        try {
+            ByteBuffer table = ByteBuffer.allocate(KeyBundle.HEADER_SIZE + slots.length * KeyBundle.SLOT_SIZE);
+            table.putInt(KeyBundle.MAGIC).putInt(KeyBundle.VERSION).putInt(slots.length).putInt(entryCount);
+            for (long s : slots) {
+                table.putLong(s);
+            }
+            table.flip();
+            writeFully(table, 0);
+            channel.force(true);
+            channel.close();
+            closed = true;
+
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        } finally {
+            if (!committed) {
+                abort();
+            }
+        }
+    }
+
+    // Drops everything written so far, the target is left as it was
+    public void abort() throws IOException {
+        closed = true;
+        try {
+            channel.close();
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!committed) {
+            abort();
+        }
+    }
+
+}
@@ -8,4 +8,13 @@ public interface KeyCache<T extends Key> {
     CacheEntry<T> putEntry(CacheEntry<T> entry);
     CacheEntry<T> invalidate(CacheEntry<T> entry);
 
+    // Both are -1 for caches that don't keep track
+    default int size() {
+        return -1;
+    }
+
+    default long getEvictions() {
+        return -1;
+    }
+
 }
@@ -3,10 +3,12 @@ package threeguys.http.signing.providers.cache;
 import java.security.Key;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 public class LruKeyHashMap<T extends Key>  extends LinkedHashMap<String, CacheEntry<T>> {
 
     private final int maxEntries;
+    private final LongAdder evictions = new LongAdder();
 
     public LruKeyHashMap(int maxEntries) {
         super((maxEntries >> 1) + 1, 0.75f, true);
@@ -15,7 +17,15 @@ public class LruKeyHashMap<T extends Key>  extends LinkedHashMap<String, CacheEn
 
     @Override
     protected boolean removeEldestEntry(Map.Entry<String, CacheEntry<T>> eldest) {
-        return size() > maxEntries;
+        if (size() > maxEntries) {
+            evictions.increment();
+            return true;
+        }
+        return false;
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
     }
 
     public CacheEntry<T> removeIfExpired(String id, long currentTime) {
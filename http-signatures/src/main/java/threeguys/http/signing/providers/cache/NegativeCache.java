@@ -0,0 +1,123 @@
+package threeguys.http.signing.providers.cache;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Remembers keyIds the loader couldn't find so repeated requests for them are turned away
+// without another trip to the key backend. Entries live for ttlMs and the number remembered
+// is capped at maxEntries. Eviction samples a few entries with a rotating cursor like
+// ConcurrentKeyCache does and drops an expired one, or else the one closest to expiring. Unlike
+// there, an add that goes over capacity waits its turn to evict rather than carrying on, so
+// the cache is never over by more than the number of threads adding at that moment.
+public class NegativeCache {
+
+    public static final long DEFAULT_TTL_MS = 30000;
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    public static final int DEFAULT_SAMPLE_SIZE = 8;
+
+    private final long ttlMs;
+    private final int maxEntries;
+    private final int sampleSize;
+    private final ConcurrentHashMap<String, Long> misses;
+    private final Object evicting;
+
+    // Only touched while holding evicting
+    private Iterator<Map.Entry<String, Long>> cursor;
+
+    public NegativeCache() {
+        this(DEFAULT_TTL_MS, DEFAULT_MAX_ENTRIES);
+    }
+
+    public NegativeCache(long ttlMs, int maxEntries) {
+        this(ttlMs, maxEntries, DEFAULT_SAMPLE_SIZE);
+    }
+
+    public NegativeCache(long ttlMs, int maxEntries, int sampleSize) {
+        if (ttlMs <= 0) {
+            throw new IllegalArgumentException("ttlMs must be positive: " + ttlMs);
+        }
+        if (sampleSize <= 0) {
+            throw new IllegalArgumentException("sampleSize must be positive: " + sampleSize);
+        }
+        this.ttlMs = ttlMs;
+        this.maxEntries = (maxEntries > 0) ? maxEntries : DEFAULT_MAX_ENTRIES;
+        this.sampleSize = sampleSize;
+        this.misses = new ConcurrentHashMap<>();
+        this.evicting = new Object();
+    }
+
+    public long getTtlMs() {
+        return ttlMs;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public int size() {
+        return misses.size();
+    }
+
+    public boolean contains(String keyId, long currentTime) {
+        Long expires = misses.get(keyId);
+        if (expires == null) {
+            return false;
+        }
+
+        if (currentTime > expires) {
+            misses.remove(keyId, expires);
+            return false;
+        }
+        return true;
+    }
+
+    public void add(String keyId, long currentTime) {
+        if (misses.put(keyId, currentTime + ttlMs) == null && misses.size() > maxEntries) {
+            cleanUp(currentTime);
+        }
+    }
+
+    public void remove(String keyId) {
+        misses.remove(keyId);
+    }
+
+    private void cleanUp(long currentTime) {
+        synchronized (evicting) {
+            while (misses.size() > maxEntries) {
+                Map.Entry<String, Long> victim = sample(currentTime);
+                if (victim == null) {
+                    break;
+                }
+                misses.remove(victim.getKey(), victim.getValue());
+            }
+        }
+    }
+
+    private Map.Entry<String, Long> sample(long currentTime) {
+        Map.Entry<String, Long> victim = null;
+        for (int i=0; i<sampleSize; i++) {
+            Map.Entry<String, Long> candidate = next();
+            if (candidate == null) {
+                break;
+            }
+
+            if (currentTime > candidate.getValue()) {
+                return candidate;
+            }
+
+            if (victim == null || candidate.getValue() < victim.getValue()) {
+                victim = candidate;
+            }
+        }
+        return victim;
+    }
+
+    private Map.Entry<String, Long> next() {
+        if (cursor == null || !cursor.hasNext()) {
+            cursor = misses.entrySet().iterator();
+        }
+        return cursor.hasNext() ? cursor.next() : null;
+    }
+
+}
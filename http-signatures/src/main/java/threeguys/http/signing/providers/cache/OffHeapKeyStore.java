@@ -0,0 +1,299 @@
+package threeguys.http.signing.providers.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+
+// Encoded public keys kept in direct memory. The store is split into stripes, each a ring
+// buffer of records plus a fixed table of (hash, position) slots, so the heap footprint is
+// set when the store is created and doesn't grow with the number of keys. Records are
+// appended and the oldest are overwritten once a ring is full; a slot whose record has
+// been overwritten is simply treated as empty. A key can only live in one of MAX_PROBES
+// slots from its hash, when all of them are taken the oldest is replaced.
+//
+//   record   int length, long refreshAt, long expires, short keyId length, keyId (UTF-8),
+//            byte algorithm length, algorithm (ASCII), int encoded length, encoded key (X.509)
+public class OffHeapKeyStore {
+
+    public static final int DEFAULT_STRIPES = 16;
+    static final int MAX_PROBES = 16;
+
+    private static final int RECORD_HEADER = 4 + 8 + 8 + 2;
+
+    // What get() hands back, decoded outside the stripe lock
+    static final class Record {
+
+        final long refreshAt;
+        final long expires;
+        final String algorithm;
+        final byte [] encoded;
+
+        Record(long refreshAt, long expires, String algorithm, byte [] encoded) {
+            this.refreshAt = refreshAt;
+            this.expires = expires;
+            this.algorithm = algorithm;
+            this.encoded = encoded;
+        }
+
+    }
+
+    private static final class Stripe {
+
+        final ByteBuffer data;
+        final int capacity;
+
+        // Two longs per slot: hash, then record position + 1 (0 means empty). Positions are
+        // logical, they only ever grow and map onto the ring modulo capacity.
+        final long [] slots;
+        final int mask;
+
+        long head;
+
+        Stripe(int capacity, int slotCount) {
+            this.data = ByteBuffer.allocateDirect(capacity);
+            this.capacity = capacity;
+            this.slots = new long[slotCount * 2];
+            this.mask = slotCount - 1;
+        }
+
+        // A record is intact as long as less than a full ring has been written since
+        boolean isLive(long position) {
+            return position >= head - capacity;
+        }
+
+        int physical(long position) {
+            return (int) (position % capacity);
+        }
+
+        boolean matches(long position, byte [] keyId) {
+            int offset = physical(position) + RECORD_HEADER - 2;
+            if ((data.getShort(offset) & 0xffff) != keyId.length) {
+                return false;
+            }
+            offset += 2;
+            for (int i=0; i<keyId.length; i++) {
+                if (data.get(offset + i) != keyId[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Slot index holding keyId, or -1
+        int find(int hash, byte [] keyId) {
+            for (int i=0; i<MAX_PROBES; i++) {
+                int slot = (hash + i) & mask;
+                long stored = slots[slot * 2 + 1];
+                if (stored != 0 && (int) slots[slot * 2] == hash && isLive(stored - 1) && matches(stored - 1, keyId)) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        boolean put(int hash, byte [] keyId, byte [] algorithm, byte [] encoded, long refreshAt, long expires) {
+            int length = RECORD_HEADER + keyId.length + 1 + algorithm.length + 4 + encoded.length;
+            if (length > capacity) {
+                return false;
+            }
+
+            // Records never wrap around the end of the ring
+            int start = physical(head);
+            if (start + length > capacity) {
+                head += capacity - start;
+                start = 0;
+            }
+
+            long position = head;
+            data.putInt(start, length);
+            data.putLong(start + 4, refreshAt);
+            data.putLong(start + 12, expires);
+            data.putShort(start + 20, (short) keyId.length);
+            int offset = start + RECORD_HEADER;
+            for (byte b : keyId) {
+                data.put(offset++, b);
+            }
+            data.put(offset++, (byte) algorithm.length);
+            for (byte b : algorithm) {
+                data.put(offset++, b);
+            }
+            data.putInt(offset, encoded.length);
+            offset += 4;
+            for (byte b : encoded) {
+                data.put(offset++, b);
+            }
+            head += length;
+
+            int slot = find(hash, keyId);
+            if (slot < 0) {
+                long oldest = Long.MAX_VALUE;
+                for (int i=0; i<MAX_PROBES; i++) {
+                    int candidate = (hash + i) & mask;
+                    long stored = slots[candidate * 2 + 1];
+                    if (stored == 0 || !isLive(stored - 1)) {
+                        slot = candidate;
+                        break;
+                    }
+                    if (stored < oldest) {
+                        oldest = stored;
+                        slot = candidate;
+                    }
+                }
+            }
+
+            slots[slot * 2] = hash;
+            slots[slot * 2 + 1] = position + 1;
+            return true;
+        }
+
+        Record read(int slot) {
+            int offset = physical(slots[slot * 2 + 1] - 1);
+            long refreshAt = data.getLong(offset + 4);
+            long expires = data.getLong(offset + 12);
+            offset += RECORD_HEADER + (data.getShort(offset + 20) & 0xffff);
+
+            int algorithmLength = data.get(offset++) & 0xff;
+            char [] algorithm = new char[algorithmLength];
+            for (int i=0; i<algorithmLength; i++) {
+                algorithm[i] = (char) (data.get(offset++) & 0xff);
+            }
+
+            byte [] encoded = new byte[data.getInt(offset)];
+            offset += 4;
+            for (int i=0; i<encoded.length; i++) {
+                encoded[i] = data.get(offset + i);
+            }
+            return new Record(refreshAt, expires, new String(algorithm), encoded);
+        }
+
+        void clear(int slot) {
+            slots[slot * 2] = 0;
+            slots[slot * 2 + 1] = 0;
+        }
+
+        int size() {
+            int size = 0;
+            for (int i=1; i<slots.length; i+=2) {
+                if (slots[i] != 0 && isLive(slots[i] - 1)) {
+                    size++;
+                }
+            }
+            return size;
+        }
+
+    }
+
+    private final Stripe [] stripes;
+    private final long capacityBytes;
+
+    public OffHeapKeyStore(long capacityBytes, int maxEntries) {
+        this(capacityBytes, maxEntries, DEFAULT_STRIPES);
+    }
+
+    public OffHeapKeyStore(long capacityBytes, int maxEntries, int stripes) {
+        if (stripes <= 0 || Integer.bitCount(stripes) != 1) {
+            throw new IllegalArgumentException("stripes must be a power of two: " + stripes);
+        }
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+
+        long perStripe = capacityBytes / stripes;
+        if (perStripe <= 0 || perStripe > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("capacityBytes out of range: " + capacityBytes);
+        }
+
+        // Half full at maxEntries, and never fewer slots than a probe window
+        int slotCount = MAX_PROBES;
+        while ((long) slotCount * stripes < (long) maxEntries * 2) {
+            slotCount <<= 1;
+        }
+
+        this.stripes = new Stripe[stripes];
+        for (int i=0; i<stripes; i++) {
+            this.stripes[i] = new Stripe((int) perStripe, slotCount);
+        }
+        this.capacityBytes = perStripe * stripes;
+    }
+
+    public long getCapacityBytes() {
+        return capacityBytes;
+    }
+
+    private static int hash(String keyId) {
+        int h = keyId.hashCode() * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    private Stripe stripe(int hash) {
+        return stripes[(hash >>> 24) & (stripes.length - 1)];
+    }
+
+    // False if the key can't be stored here, e.g. it has no X.509 encoding
+    public boolean put(CacheEntry<PublicKey> entry) {
+        PublicKey key = entry.getKey();
+        byte [] encoded = "X.509".equals(key.getFormat()) ? key.getEncoded() : null;
+        if (encoded == null || key.getAlgorithm().length() > 0xff) {
+            return false;
+        }
+
+        byte [] keyId = entry.getId().getBytes(StandardCharsets.UTF_8);
+        if (keyId.length > 0xffff) {
+            return false;
+        }
+
+        int hash = hash(entry.getId());
+        Stripe stripe = stripe(hash);
+        synchronized (stripe) {
+            return stripe.put(hash, keyId, key.getAlgorithm().getBytes(StandardCharsets.US_ASCII), encoded,
+                    entry.getRefreshAt(), entry.getExpires());
+        }
+    }
+
+    Record getRecord(String keyId) {
+        byte [] id = keyId.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(keyId);
+        Stripe stripe = stripe(hash);
+        synchronized (stripe) {
+            int slot = stripe.find(hash, id);
+            return (slot < 0) ? null : stripe.read(slot);
+        }
+    }
+
+    // Decodes the key on the calling thread, null if it isn't here (any more)
+    public CacheEntry<PublicKey> get(String keyId) throws GeneralSecurityException {
+        Record record = getRecord(keyId);
+        if (record == null) {
+            return null;
+        }
+        PublicKey key = KeyBundleCacheLoader.decode(record.algorithm, record.encoded);
+        return new CacheEntry<>(keyId, key, record.refreshAt, record.expires);
+    }
+
+    public boolean remove(String keyId) {
+        byte [] id = keyId.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(keyId);
+        Stripe stripe = stripe(hash);
+        synchronized (stripe) {
+            int slot = stripe.find(hash, id);
+            if (slot < 0) {
+                return false;
+            }
+            stripe.clear(slot);
+            return true;
+        }
+    }
+
+    // Walks every slot, meant for tests and monitoring rather than the request path
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+}
@@ -0,0 +1,116 @@
+package threeguys.http.signing.providers.cache;
+
+import threeguys.http.signing.providers.KeyProvider;
+
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.time.Clock;
+import java.util.concurrent.atomic.LongAdder;
+
+// Two tier KeyCache for very large key sets: a small ConcurrentKeyCache of decoded keys in
+// front of an OffHeapKeyStore holding every key in encoded form. A miss on the heap tier
+// decodes the key from direct memory and promotes it, so the heap holds only the keys that
+// are actually in use while the off heap tier covers the rest.
+public class TieredKeyCache implements KeyProvider<PublicKey>, KeyCache<PublicKey> {
+
+    public static final int DEFAULT_HEAP_ENTRIES = ConcurrentKeyCache.DEFAULT_MAX_ENTRIES;
+
+    private final Clock clock;
+    private final ConcurrentKeyCache<PublicKey> heap;
+    private final OffHeapKeyStore offHeap;
+
+    private final LongAdder heapHits = new LongAdder();
+    private final LongAdder promotions = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public TieredKeyCache(long offHeapBytes, int offHeapEntries) {
+        this(Clock.systemUTC(), DEFAULT_HEAP_ENTRIES, new OffHeapKeyStore(offHeapBytes, offHeapEntries));
+    }
+
+    public TieredKeyCache(Clock clock, int heapEntries, OffHeapKeyStore offHeap) {
+        this(clock, new ConcurrentKeyCache<>(clock, heapEntries), offHeap);
+    }
+
+    public TieredKeyCache(Clock clock, ConcurrentKeyCache<PublicKey> heap, OffHeapKeyStore offHeap) {
+        this.clock = clock;
+        this.heap = heap;
+        this.offHeap = offHeap;
+    }
+
+    public ConcurrentKeyCache<PublicKey> getHeap() {
+        return heap;
+    }
+
+    public OffHeapKeyStore getOffHeap() {
+        return offHeap;
+    }
+
+    public long getHeapHits() {
+        return heapHits.sum();
+    }
+
+    public long getPromotions() {
+        return promotions.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public PublicKey get(String name) {
+        CacheEntry<PublicKey> entry = getEntry(name);
+        return (entry == null || entry.isExpired(clock.millis())) ? null : entry.getKey();
+    }
+
+    @Override
+    public CacheEntry<PublicKey> getEntry(String keyId) {
+        CacheEntry<PublicKey> entry = heap.getEntry(keyId);
+        if (entry != null) {
+            heapHits.increment();
+            return entry;
+        }
+
+        try {
+            entry = offHeap.get(keyId);
+        } catch (GeneralSecurityException e) {
+            // Couldn't decode what we stored, treat it as gone
+            offHeap.remove(keyId);
+            entry = null;
+        }
+
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        // A putEntry may have landed on the heap since we looked, and it beats what was off heap
+        CacheEntry<PublicKey> current = heap.putEntryIfAbsent(entry);
+        if (current != null) {
+            return current;
+        }
+
+        promotions.increment();
+        return entry;
+    }
+
+    @Override
+    public CacheEntry<PublicKey> putEntry(CacheEntry<PublicKey> entry) {
+        offHeap.put(entry);
+        return heap.putEntry(entry);
+    }
+
+    @Override
+    public CacheEntry<PublicKey> invalidate(CacheEntry<PublicKey> entry) {
+        CacheEntry<PublicKey> current = heap.invalidate(entry);
+        if (current == null) {
+            OffHeapKeyStore.Record stored = offHeap.getRecord(entry.getId());
+            // Off heap only keeps the encoding, so match on the timestamps the entry was stored with
+            if (stored != null && stored.expires == entry.getExpires() && stored.refreshAt == entry.getRefreshAt()) {
+                offHeap.remove(entry.getId());
+            }
+        }
+        return current;
+    }
+
+}
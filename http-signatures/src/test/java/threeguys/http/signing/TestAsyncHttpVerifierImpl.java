@@ -0,0 +1,301 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import threeguys.http.signing.algorithms.SigningAlgorithm;
+import threeguys.http.signing.algorithms.SigningAlgorithms;
+import threeguys.http.signing.exceptions.InvalidSignatureException;
+import threeguys.http.signing.exceptions.KeyNotFoundException;
+import threeguys.http.signing.providers.MockHeaderProvider;
+import threeguys.http.signing.providers.MockKeys;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.security.Security;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static threeguys.http.signing.Signatures.HEADER;
+
+public class TestAsyncHttpVerifierImpl {
+
+    private static KeyPair pair;
+
+    private ExecutorService executor;
+    private AtomicInteger tasks;
+    private MockHeaderProvider signed;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+        pair = MockKeys.newKeyPair();
+    }
+
+    @BeforeEach
+    public void before() throws Exception {
+        executor = Executors.newSingleThreadExecutor((r) -> new Thread(r, "verify-offload"));
+        tasks = new AtomicInteger();
+
+        HttpSignerImpl signer = new HttpSignerImpl("rsa-sha256", "unit-test", (n) -> pair.getPrivate(), new Signatures(), 100);
+        signed = new MockHeaderProvider().add("Content-Type", "application/json");
+        signed.add(HEADER, signer.sign("POST", "/something", signed));
+    }
+
+    @AfterEach
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    private AsyncHttpVerifierImpl verifier(HttpVerifierBuilder builder) throws Exception {
+        return builder.withExecutor((r) -> {
+            tasks.incrementAndGet();
+            executor.execute(r);
+        }).buildAsync();
+    }
+
+    private static Throwable cause(CompletableFuture<?> future) {
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+        return e.getCause();
+    }
+
+    @Test
+    public void happyCase() throws Exception {
+        List<String> lookups = new CopyOnWriteArrayList<>();
+        AsyncHttpVerifierImpl verifier = verifier(new HttpVerifierBuilder().withKeyProvider((n) -> {
+            lookups.add(Thread.currentThread().getName());
+            return pair.getPublic();
+        }));
+
+        VerificationResult result = verifier.verifyAsync("POST", "/something", signed).get(10, TimeUnit.SECONDS);
+        assertEquals("unit-test", result.getKeyId());
+        assertEquals(pair.getPublic(), result.getKey());
+
+        // One hop for the key lookup, one for the crypto
+        assertEquals(Collections.singletonList("verify-offload"), lookups);
+        assertEquals(2, tasks.get());
+
+        // The synchronous path still works and doesn't use the executor
+        assertEquals("unit-test", verifier.verify("POST", "/something", signed).getKeyId());
+        assertEquals(2, tasks.get());
+    }
+
+    @Test
+    public void asyncKeyProvider() throws Exception {
+        AsyncHttpVerifierImpl verifier = verifier(new HttpVerifierBuilder()
+                .withAsyncKeyProvider((n) -> CompletableFuture.completedFuture(pair.getPublic())));
+
+        assertEquals("unit-test", verifier.verifyAsync("POST", "/something", signed).get(10, TimeUnit.SECONDS).getKeyId());
+        assertEquals(1, tasks.get());
+        assertEquals("unit-test", verifier.verify("POST", "/something", signed).getKeyId());
+    }
+
+    @Test
+    public void badHeaderFailsWithoutOffloading() throws Exception {
+        AsyncHttpVerifierImpl verifier = verifier(new HttpVerifierBuilder().withKeyProvider((n) -> pair.getPublic()));
+        MockHeaderProvider hp = new MockHeaderProvider().add(HEADER, "bogus");
+
+        CompletableFuture<VerificationResult> future = verifier.verifyAsync("POST", "/something", hp);
+        assertTrue(future.isCompletedExceptionally());
+        assertTrue(cause(future) instanceof InvalidSignatureException);
+        assertEquals(0, tasks.get());
+    }
+
+    @Test
+    public void keyNotFound() throws Exception {
+        AsyncHttpVerifierImpl verifier = verifier(new HttpVerifierBuilder().withKeyProvider((n) -> {
+            throw new KeyNotFoundException("Key " + n);
+        }));
+        assertTrue(cause(verifier.verifyAsync("POST", "/something", signed)) instanceof KeyNotFoundException);
+
+        AsyncHttpVerifierImpl asyncOnly = verifier(new HttpVerifierBuilder().withAsyncKeyProvider((n) -> {
+            CompletableFuture<PublicKey> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new KeyNotFoundException("Key " + n));
+            return failed;
+        }));
+        assertThrows(KeyNotFoundException.class, () -> asyncOnly.verify("POST", "/something", signed));
+    }
+
+    @Test
+    public void notVerified() throws Exception {
+        KeyPair other = MockKeys.newKeyPair();
+        AsyncHttpVerifierImpl verifier = verifier(new HttpVerifierBuilder().withKeyProvider((n) -> other.getPublic()));
+        assertTrue(cause(verifier.verifyAsync("POST", "/something", signed)) instanceof InvalidSignatureException);
+        assertTrue(cause(verifier.verifyAsync("POST", "/other", signed)) instanceof InvalidSignatureException);
+    }
+
+    @Test
+    public void listenerSeesKeyPhase() throws Exception {
+        List<String> reports = new CopyOnWriteArrayList<>();
+        VerificationListener listener = new VerificationListener() {
+            @Override
+            public void onVerification(String algorithm, String keyId, FailureReason failure,
+                                       long parseNanos, long keyNanos, long payloadNanos, long verifyNanos) {
+                reports.add(keyId + ":" + failure + ":" + (keyNanos > 0) + ":" + (verifyNanos > 0));
+            }
+        };
+
+        AsyncHttpVerifierImpl verifier = verifier(new HttpVerifierBuilder()
+                .withListener(listener)
+                .withAsyncKeyProvider((n) -> CompletableFuture.supplyAsync(pair::getPublic, executor)));
+        verifier.verifyAsync("POST", "/something", signed).get(10, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonList("unit-test:null:true:true"), reports);
+
+        reports.clear();
+        AsyncHttpVerifierImpl missing = verifier(new HttpVerifierBuilder()
+                .withListener(listener)
+                .withAsyncKeyProvider((n) -> {
+                    CompletableFuture<PublicKey> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(new KeyNotFoundException("Key " + n));
+                    return failed;
+                }));
+        assertTrue(cause(missing.verifyAsync("POST", "/something", signed)) instanceof KeyNotFoundException);
+        assertEquals(Collections.singletonList("unit-test:KEY_NOT_FOUND:true:false"), reports);
+    }
+
+    @Test
+    public void tryVerifyAsync() throws Exception {
+        AsyncHttpVerifierImpl verifier = verifier(new HttpVerifierBuilder()
+                .withAsyncKeyProvider((n) -> CompletableFuture.completedFuture(pair.getPublic())));
+        assertTrue(verifier.tryVerifyAsync("POST", "/something", signed).get(10, TimeUnit.SECONDS).isVerified());
+
+        CompletableFuture<VerificationOutcome> bad = verifier.tryVerifyAsync("POST", "/something", new MockHeaderProvider().add(HEADER, "bogus"));
+        assertEquals(FailureReason.MALFORMED, bad.get().getReason());
+        assertEquals(FailureReason.BAD_SIGNATURE, verifier.tryVerifyAsync("POST", "/other", signed).get(10, TimeUnit.SECONDS).getReason());
+
+        AsyncHttpVerifierImpl missing = verifier(new HttpVerifierBuilder().withAsyncKeyProvider((n) -> {
+            CompletableFuture<PublicKey> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new KeyNotFoundException("Key " + n));
+            return failed;
+        }));
+        VerificationOutcome outcome = missing.tryVerifyAsync("POST", "/something", signed).get(10, TimeUnit.SECONDS);
+        assertEquals(FailureReason.KEY_NOT_FOUND, outcome.getReason());
+        assertEquals("Key unit-test", outcome.getMessage());
+
+        AsyncHttpVerifierImpl broken = verifier(new HttpVerifierBuilder().withAsyncKeyProvider((n) -> {
+            CompletableFuture<PublicKey> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalStateException("down"));
+            return failed;
+        }));
+        assertTrue(broken.tryVerifyAsync("POST", "/something", signed).get(10, TimeUnit.SECONDS).isError());
+    }
+
+    @Test
+    public void hmac() throws Exception {
+        SecretKey secret = new SecretKeySpec("east-west".getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+        Map<String, SigningAlgorithm> algorithms = new HashMap<>(SigningAlgorithms.defaultAlgorithms());
+        algorithms.putAll(SigningAlgorithms.hmacAlgorithms());
+        Signatures signatures = new Signatures(Signatures.DEFAULT_ALGORITHM, algorithms, Signatures.defaultFields(),
+                Signatures.defaultHeadersToInclude());
+
+        HttpSignerImpl signer = new HttpSignerImpl("hmac-sha256", "shared", (n) -> secret, signatures, 100);
+        MockHeaderProvider request = new MockHeaderProvider().add("Content-Type", "application/json");
+        request.add(HEADER, signer.sign("POST", "/something", request));
+
+        List<String> lookups = new CopyOnWriteArrayList<>();
+        AsyncHttpVerifierImpl verifier = verifier(new HttpVerifierBuilder().withSecretKeyProvider((n) -> {
+            lookups.add(Thread.currentThread().getName());
+            return secret;
+        }));
+
+        VerificationResult result = verifier.verifyAsync("POST", "/something", request).get(10, TimeUnit.SECONDS);
+        assertEquals("hmac-sha256", result.getAlgorithm());
+        assertEquals(secret, result.getSecretKey());
+
+        // Key and MAC in a single hop
+        assertEquals(Collections.singletonList("verify-offload"), lookups);
+        assertEquals(1, tasks.get());
+
+        // No public keys, so the rsa signed request doesn't get as far as the executor
+        assertEquals(FailureReason.UNSUPPORTED_ALGORITHM,
+                verifier.tryVerifyAsync("POST", "/something", signed).get(10, TimeUnit.SECONDS).getReason());
+        assertEquals(1, tasks.get());
+    }
+
+    @Test
+    public void rejectedAfterKeyArrives() throws Exception {
+        List<CompletableFuture<PublicKey>> lookups = new CopyOnWriteArrayList<>();
+        AsyncHttpVerifierImpl verifier = new HttpVerifierBuilder()
+                .withAsyncKeyProvider((n) -> {
+                    CompletableFuture<PublicKey> key = new CompletableFuture<>();
+                    lookups.add(key);
+                    return key;
+                })
+                .withExecutor((r) -> { throw new RejectedExecutionException("full"); })
+                .buildAsync();
+
+        CompletableFuture<VerificationOutcome> outcome = verifier.tryVerifyAsync("POST", "/something", signed);
+        CompletableFuture<VerificationResult> result = verifier.verifyAsync("POST", "/something", signed);
+        assertFalse(outcome.isDone());
+        assertFalse(result.isDone());
+
+        // The key shows up later, on some other thread, and the executor won't take the work
+        for (CompletableFuture<PublicKey> key : lookups) {
+            key.complete(pair.getPublic());
+        }
+
+        assertTrue(outcome.get(10, TimeUnit.SECONDS).isError());
+        assertEquals("full", outcome.get().getMessage());
+        cause(result);
+    }
+
+    @Test
+    public void builderReused_newExecutor() throws Exception {
+        HttpVerifierBuilder builder = new HttpVerifierBuilder().withKeyProvider((n) -> pair.getPublic());
+        verifier(builder);
+
+        // The key lookups of the second verifier go to its own executor, not the first one's
+        AtomicInteger other = new AtomicInteger();
+        AsyncHttpVerifierImpl verifier = builder.withExecutor((r) -> {
+            other.incrementAndGet();
+            executor.execute(r);
+        }).buildAsync();
+
+        assertEquals("unit-test", verifier.verifyAsync("POST", "/something", signed).get(10, TimeUnit.SECONDS).getKeyId());
+        assertEquals(2, other.get());
+        assertEquals(0, tasks.get());
+    }
+
+    @Test
+    public void executorRequired() {
+        assertThrows(NullPointerException.class,
+                () -> new HttpVerifierBuilder().withKeyProvider((n) -> pair.getPublic()).buildAsync());
+    }
+
+}
@@ -15,26 +15,55 @@
  */
 package threeguys.http.signing;
 
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+import threeguys.http.signing.algorithms.MacPool;
+import threeguys.http.signing.algorithms.SigningAlgorithm;
+import threeguys.http.signing.algorithms.SigningAlgorithms;
+import threeguys.http.signing.exceptions.InvalidSignatureException;
 import threeguys.http.signing.exceptions.SignatureException;
 
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.stream.Stream;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static threeguys.http.signing.Signatures.DEFAULT_ALGORITHM;
+import static threeguys.http.signing.Signatures.defaultFields;
+import static threeguys.http.signing.Signatures.defaultHeadersToInclude;
+import static threeguys.http.signing.algorithms.SigningAlgorithms.defaultAlgorithms;
 
 public class TestHttpVerifierAlgorithms {
 
+    // Only on a JDK that has ed25519 itself, which is 15 and later
+    private static Stream<Arguments> withEd25519(Arguments ... rows) {
+        Stream<Arguments> ed25519 = SigningAlgorithms.isNativeEd25519()
+                ? Stream.of(Arguments.of( "ed25519", "Ed25519", 255 ))
+                : Stream.empty();
+        return Stream.concat(Stream.of(rows), ed25519);
+    }
+
     public static Stream<Arguments> data() {
-        return Stream.of(
+        return withEd25519(
                 Arguments.of( "rsa-sha256", "RSA", 2048 ),
                 Arguments.of( "rsa-sha384", "RSA", 2048 ),
                 Arguments.of( "rsa-sha512", "RSA", 2048 ),
@@ -69,4 +98,153 @@ public class TestHttpVerifierAlgorithms {
         assertNotNull(result);
     }
 
+    public static Stream<Arguments> pooledData() {
+        return withEd25519(
+                Arguments.of( "rsa-sha256", "RSA", 2048 ),
+                Arguments.of( "ecdsa-sha256", "EC", 256 ),
+                Arguments.of( "rsapss-sha256", "RSA", 2048 ),
+                Arguments.of( "rsapss-sha512", "RSA", 2048 )
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("pooledData")
+    public void pooledSignatures(String algorithm, String keyGenerator, int keySize) throws NoSuchAlgorithmException, SignatureException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance(keyGenerator);
+        generator.initialize(keySize, new SecureRandom());
+        KeyPair pair = generator.generateKeyPair();
+
+        Signatures signing = new Signatures(DEFAULT_ALGORITHM, defaultAlgorithms(), defaultFields(), defaultHeadersToInclude(), 2);
+        HttpSigner signer = new HttpSignerImpl(algorithm, "test-key", (n) -> pair.getPrivate(), signing, 300);
+        HttpVerifier verifier = new HttpVerifierImpl(signing, (n) -> pair.getPublic());
+
+        for (int i=0; i<5; i++) {
+            Map<String, String[]> data = new HashMap<>();
+            data.put("foo", new String[] { "foo value " + i });
+            data.put(Signatures.HEADER, new String[] { signer.sign("POST", "/pooled/" + i, data::get) });
+
+            VerificationResult result = verifier.verify("POST", "/pooled/" + i, data::get);
+            assertEquals(algorithm, result.getAlgorithm());
+        }
+
+        assertEquals(1, signing.getPools().get(algorithm).getIdle());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "hmac-sha256", "hmac-sha384", "hmac-sha512" })
+    public void hmac(String algorithm) throws Exception {
+        SecretKey secret = new SecretKeySpec("the shared secret".getBytes(StandardCharsets.UTF_8), "Hmac");
+        SecretKey other = new SecretKeySpec("some other secret".getBytes(StandardCharsets.UTF_8), "Hmac");
+
+        Map<String, SigningAlgorithm> algorithms = new HashMap<>(defaultAlgorithms());
+        algorithms.putAll(SigningAlgorithms.hmacAlgorithms());
+        Signatures signing = new Signatures(DEFAULT_ALGORITHM, algorithms, defaultFields(), defaultHeadersToInclude(), 2);
+        HttpSigner signer = new HttpSignerImpl(algorithm, "shared", (n) -> secret, signing, 300);
+
+        HttpVerifier verifier = new HttpVerifierBuilder().withSecretKeyProvider((n) -> secret).build();
+        HttpVerifier wrongSecret = new HttpVerifierBuilder().withSecretKeyProvider((n) -> other).build();
+        for (int i=0; i<3; i++) {
+            Map<String, String[]> data = new HashMap<>();
+            data.put("foo", new String[] { "foo value " + i });
+            String sig = signer.sign("POST", "/hmac/" + i, data::get);
+            data.put(Signatures.HEADER, new String[] { sig });
+
+            VerificationResult result = verifier.verify("POST", "/hmac/" + i, data::get);
+            assertEquals(algorithm, result.getAlgorithm());
+            assertEquals(secret, result.getSecretKey());
+            assertNull(result.getKey());
+
+            assertEquals(FailureReason.BAD_SIGNATURE, wrongSecret.tryVerify("POST", "/hmac/" + i, data::get).getReason());
+            assertEquals(FailureReason.BAD_SIGNATURE, verifier.tryVerify("POST", "/other", data::get).getReason());
+
+            // A MAC with its last byte missing is just wrong, not an error
+            String truncated = sig.replaceAll("signature=\"([^\"]*)\"", "signature=\"" + truncate(sig) + "\"");
+            data.put(Signatures.HEADER, new String[] { truncated });
+            assertEquals(FailureReason.BAD_SIGNATURE, verifier.tryVerify("POST", "/hmac/" + i, data::get).getReason());
+        }
+
+        // One Mac each for signer and verifier, initialized once and reused after that
+        MacPool pool = signing.getMacPools().get(algorithm);
+        assertEquals(1, pool.getIdle());
+        assertEquals(1, pool.getInitialized());
+        assertFalse(signing.getPools().containsKey(algorithm));
+    }
+
+    private static String truncate(String header) {
+        int start = header.indexOf("signature=\"") + "signature=\"".length();
+        String encoded = header.substring(start, header.indexOf('"', start));
+        byte [] mac = Base64.getDecoder().decode(encoded);
+        return Base64.getEncoder().encodeToString(Arrays.copyOf(mac, mac.length - 1));
+    }
+
+    @Test
+    public void hmacKeysKeptApart() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair pair = generator.generateKeyPair();
+        SecretKey secret = new SecretKeySpec("the shared secret".getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+
+        Map<String, SigningAlgorithm> algorithms = new HashMap<>(defaultAlgorithms());
+        algorithms.putAll(SigningAlgorithms.hmacAlgorithms());
+        Signatures signing = new Signatures(DEFAULT_ALGORITHM, algorithms, defaultFields(), defaultHeadersToInclude());
+
+        // Each algorithm only signs with its own kind of key
+        assertThrows(InvalidSignatureException.class,
+                () -> new HttpSignerImpl("hmac-sha256", "k", (n) -> pair.getPrivate(), signing, 300).sign("GET", "/", (n) -> null));
+        assertThrows(InvalidSignatureException.class,
+                () -> new HttpSignerImpl("rsa-sha256", "k", (n) -> secret, signing, 300).sign("GET", "/", (n) -> null));
+
+        Map<String, String[]> hmac = new HashMap<>();
+        hmac.put(Signatures.HEADER, new String[] {
+                new HttpSignerImpl("hmac-sha256", "k", (n) -> secret, signing, 300).sign("GET", "/", hmac::get) });
+        Map<String, String[]> rsa = new HashMap<>();
+        rsa.put(Signatures.HEADER, new String[] {
+                new HttpSignerImpl("rsa-sha256", "k", (n) -> pair.getPrivate(), signing, 300).sign("GET", "/", rsa::get) });
+
+        // Without secret keys hmac isn't supported at all, even if it is in the algorithms
+        HttpVerifier publicOnly = new HttpVerifierBuilder().withAlgorithms(algorithms).withKeyProvider((n) -> pair.getPublic()).build();
+        assertEquals(FailureReason.UNSUPPORTED_ALGORITHM, publicOnly.tryVerify("GET", "/", hmac::get).getReason());
+        assertTrue(publicOnly.tryVerify("GET", "/", rsa::get).isVerified());
+
+        HttpVerifier secretOnly = new HttpVerifierBuilder().withSecretKeyProvider((n) -> secret).build();
+        assertEquals(FailureReason.UNSUPPORTED_ALGORITHM, secretOnly.tryVerify("GET", "/", rsa::get).getReason());
+        assertTrue(secretOnly.tryVerify("GET", "/", hmac::get).isVerified());
+
+        HttpVerifier both = new HttpVerifierBuilder()
+                .withKeyProvider((n) -> pair.getPublic())
+                .withSecretKeyProvider((n) -> secret)
+                .withVerifiedCacheSize(10)
+                .build();
+        for (int i=0; i<2; i++) {
+            assertTrue(both.tryVerify("GET", "/", hmac::get).isVerified());
+            assertTrue(both.tryVerify("GET", "/", rsa::get).isVerified());
+        }
+
+        // The algorithm list knows the hmac names too
+        HttpVerifier listed = new HttpVerifierBuilder().withAlgorithmList("hmac-sha256,custom=HmacSHA256")
+                .withSecretKeyProvider((n) -> secret).build();
+        assertTrue(listed.tryVerify("GET", "/", hmac::get).isVerified());
+    }
+
+    @Test
+    public void ed25519WrongKey() throws Exception {
+        assumeTrue(SigningAlgorithms.isNativeEd25519());
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("Ed25519");
+        KeyPair pair = generator.generateKeyPair();
+        KeyPair other = generator.generateKeyPair();
+
+        Signatures signing = new Signatures();
+        HttpSigner signer = new HttpSignerImpl("ed25519", "test-key", (n) -> pair.getPrivate(), signing, 300);
+
+        Map<String, String[]> data = new HashMap<>();
+        data.put(Signatures.HEADER, new String[] { signer.sign("GET", "/yo/mom", data::get) });
+
+        assertEquals("ed25519", new HttpVerifierImpl(signing, (n) -> pair.getPublic())
+                .verify("GET", "/yo/mom", data::get).getAlgorithm());
+        assertThrows(InvalidSignatureException.class,
+                () -> new HttpVerifierImpl(signing, (n) -> other.getPublic()).verify("GET", "/yo/mom", data::get));
+        assertThrows(InvalidSignatureException.class,
+                () -> new HttpVerifierImpl(signing, (n) -> pair.getPublic()).verify("GET", "/yo/dad", data::get));
+    }
+
 }
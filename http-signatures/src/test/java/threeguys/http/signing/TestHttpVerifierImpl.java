@@ -18,16 +18,22 @@ package threeguys.http.signing;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.BeforeAll;
+import threeguys.http.signing.exceptions.ExpiredSignatureException;
+import threeguys.http.signing.exceptions.InvalidSignatureException;
+import threeguys.http.signing.exceptions.ReplayedSignatureException;
+import threeguys.http.signing.exceptions.SignatureException;
 import threeguys.http.signing.providers.MockHeaderProvider;
 import threeguys.http.signing.providers.MockKeys;
 import threeguys.http.signing.providers.SimplePublicKeyProvider;
 
 import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
 import java.security.MessageDigest;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.Security;
 import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.util.ArrayList;
@@ -36,8 +42,16 @@ import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 import static threeguys.http.signing.Signatures.DEFAULT_ALGORITHM;
 import static threeguys.http.signing.Signatures.FIELD_CREATED;
 import static threeguys.http.signing.Signatures.FIELD_HEADERS;
@@ -172,4 +186,254 @@ public class TestHttpVerifierImpl {
         System.out.println("------------- END VERIFY ---------------------");
     }
 
+    @Test
+    public void verifiedCache() throws Exception {
+        KeyPair pair = MockKeys.newKeyPair();
+        KeyPair rotated = MockKeys.newKeyPair();
+        AtomicReference<PublicKey> currentKey = new AtomicReference<>(pair.getPublic());
+
+        AtomicLong now = new AtomicLong(1600000000);
+        Clock clock = mock(Clock.class);
+        when(clock.instant()).thenAnswer((i) -> Instant.ofEpochSecond(now.get()));
+
+        Signatures signatures = new Signatures();
+        HttpSignerImpl signer = new HttpSignerImpl(clock, "rsa-sha256", "unit-test", (n) -> pair.getPrivate(), signatures, 100);
+        MockHeaderProvider hp = new MockHeaderProvider().add("Content-Type", "application/json");
+        hp.add(HEADER, signer.sign("POST", "/something", hp));
+
+        VerifiedSignatureCache cache = new VerifiedSignatureCache(10);
+        HttpVerifierImpl verifier = new HttpVerifierImpl(clock, signatures, (n) -> currentKey.get(), 3600, cache);
+        assertEquals(cache, verifier.getVerifiedCache());
+
+        for (int i=0; i<3; i++) {
+            VerificationResult result = verifier.verify("POST", "/something", hp);
+            assertEquals("unit-test", result.getKeyId());
+            assertEquals(pair.getPublic(), result.getKey());
+        }
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.size());
+
+        // Anything that changes the signed content is a different entry
+        assertThrows(InvalidSignatureException.class, () -> verifier.verify("POST", "/something-else", hp));
+
+        // A rotated key doesn't get to ride on what the old key verified
+        currentKey.set(rotated.getPublic());
+        assertThrows(InvalidSignatureException.class, () -> verifier.verify("POST", "/something", hp));
+        currentKey.set(pair.getPublic());
+        verifier.verify("POST", "/something", hp);
+        assertEquals(3, cache.getHits());
+
+        // Cached or not, the timestamps are checked every time
+        now.addAndGet(101);
+        assertThrows(ExpiredSignatureException.class, () -> verifier.verify("POST", "/something", hp));
+        assertEquals(3, cache.getHits());
+    }
+
+    @Test
+    public void replayProtection() throws Exception {
+        KeyPair pair = MockKeys.newKeyPair();
+        Clock clock = Clock.fixed(Instant.ofEpochSecond(1600000000), ZoneId.of("UTC"));
+
+        HttpSignerImpl signer = new HttpSignerImpl(clock, "rsa-sha256", "unit-test", (n) -> pair.getPrivate(), new Signatures(), 100);
+        MockHeaderProvider hp = new MockHeaderProvider().add("Content-Type", "application/json");
+        hp.add(HEADER, signer.sign("POST", "/something", hp));
+
+        HttpVerifier verifier = new HttpVerifierBuilder()
+                .withClock(clock)
+                .withKeyProvider((n) -> pair.getPublic())
+                .withReplayProtection(true)
+                .withVerifiedCacheSize(10)
+                .build();
+
+        assertEquals("unit-test", verifier.verify("POST", "/something", hp).getKeyId());
+        assertThrows(ReplayedSignatureException.class, () -> verifier.verify("POST", "/something", hp));
+
+        // A signature that fails verification isn't remembered
+        MockHeaderProvider tampered = new MockHeaderProvider().add("Content-Type", "text/plain");
+        tampered.add(HEADER, hp.get(HEADER)[0]);
+        assertThrows(InvalidSignatureException.class, () -> verifier.verify("POST", "/other", tampered));
+        assertEquals(HttpVerifierImpl.class, verifier.getClass());
+        assertEquals(HttpVerifierBuilder.DEFAULT_MAX_AGE_SEC + HttpVerifierBuilder.DEFAULT_REPLAY_CLOCK_SKEW_SEC,
+                ((HttpVerifierImpl) verifier).getReplayStore().getWindowSec());
+    }
+
+    @Test
+    public void replayWithAlteredSignatureText() throws Exception {
+        KeyPair pair = MockKeys.newKeyPair("RSA", 2048);
+        Clock clock = Clock.fixed(Instant.ofEpochSecond(1600000000), ZoneId.of("UTC"));
+
+        HttpSignerImpl signer = new HttpSignerImpl(clock, "rsa-sha256", "unit-test", (n) -> pair.getPrivate(), new Signatures(), 100);
+        MockHeaderProvider hp = new MockHeaderProvider().add("Content-Type", "application/json");
+        String signature = signer.sign("POST", "/something", hp);
+        hp.add(HEADER, signature);
+
+        HttpVerifier verifier = new HttpVerifierBuilder()
+                .withClock(clock)
+                .withKeyProvider((n) -> pair.getPublic())
+                .withReplayProtection(true)
+                .build();
+        assertTrue(verifier.tryVerify("POST", "/something", hp).isVerified());
+
+        // A 256 byte signature ends in "==", and the decoder ignores the low bits of the character
+        // before it. Flipping one still decodes to the same bytes.
+        String encoded = value(signature);
+        int pad = encoded.indexOf('=');
+        assertTrue(pad > 0);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        char altered = alphabet.charAt(alphabet.indexOf(encoded.charAt(pad - 1)) ^ 1);
+        String alteredValue = encoded.substring(0, pad - 1) + altered + encoded.substring(pad);
+        String replayed = signature.replace(encoded, alteredValue);
+        assertTrue(Arrays.equals(Base64.getDecoder().decode(value(signature)), Base64.getDecoder().decode(value(replayed))));
+
+        assertReason(FailureReason.BAD_SIGNATURE, verifier.tryVerify("POST", "/something", withSignature(replayed)));
+        assertReason(FailureReason.REPLAYED, verifier.tryVerify("POST", "/something", hp));
+    }
+
+    @Test
+    public void replayWithAnotherValidSignature() throws Exception {
+        KeyPair pair = MockKeys.newKeyPair("EC", 256);
+        Clock clock = Clock.fixed(Instant.ofEpochSecond(1600000000), ZoneId.of("UTC"));
+
+        // ECDSA signs differently every time, and (r, n - s) verifies as well as (r, s) does, so
+        // the same request can come back with a different valid signature
+        HttpSignerImpl signer = new HttpSignerImpl(clock, "ecdsa-sha256", "unit-test", (n) -> pair.getPrivate(), new Signatures(), 100);
+        MockHeaderProvider first = new MockHeaderProvider().add("Content-Type", "application/json");
+        first.add(HEADER, signer.sign("POST", "/something", first));
+        MockHeaderProvider second = new MockHeaderProvider().add("Content-Type", "application/json");
+        second.add(HEADER, signer.sign("POST", "/something", second));
+        assertFalse(first.get(HEADER)[0].equals(second.get(HEADER)[0]));
+
+        HttpVerifier verifier = new HttpVerifierBuilder()
+                .withClock(clock)
+                .withKeyProvider((n) -> pair.getPublic())
+                .withReplayProtection(true)
+                .build();
+        assertTrue(verifier.tryVerify("POST", "/something", first).isVerified());
+        assertReason(FailureReason.REPLAYED, verifier.tryVerify("POST", "/something", second));
+    }
+
+    @Test
+    public void replayStoreFull() throws Exception {
+        KeyPair pair = MockKeys.newKeyPair();
+        Clock clock = Clock.fixed(Instant.ofEpochSecond(1600000000), ZoneId.of("UTC"));
+        HttpSignerImpl signer = new HttpSignerImpl(clock, "rsa-sha256", "unit-test", (n) -> pair.getPrivate(), new Signatures(), 100);
+
+        HttpVerifier verifier = new HttpVerifierBuilder()
+                .withClock(clock)
+                .withKeyProvider((n) -> pair.getPublic())
+                .withReplayProtection(true)
+                .withReplayStore(new ReplayStore(HttpVerifierBuilder.DEFAULT_MAX_AGE_SEC + HttpVerifierBuilder.DEFAULT_REPLAY_CLOCK_SKEW_SEC, 1, 1, 1))
+                .build();
+
+        MockHeaderProvider hp = new MockHeaderProvider().add("Content-Type", "application/json");
+        hp.add(HEADER, signer.sign("POST", "/one", hp));
+        assertTrue(verifier.tryVerify("POST", "/one", hp).isVerified());
+
+        // Turning away a good request because the store is too small is an error, not a bad signature
+        hp = new MockHeaderProvider().add("Content-Type", "application/json");
+        hp.add(HEADER, signer.sign("POST", "/two", hp));
+        VerificationOutcome outcome = verifier.tryVerify("POST", "/two", hp);
+        assertReason(FailureReason.ERROR, outcome);
+        MockHeaderProvider full = hp;
+        SignatureException e = assertThrows(SignatureException.class, () -> verifier.verify("POST", "/two", full));
+        assertFalse(e instanceof InvalidSignatureException);
+    }
+
+    @Test
+    public void canonicalBase64() {
+        assertTrue(Arrays.equals(new byte[] { 0 }, HttpVerifierImpl.decodeSignature("AA==")));
+        assertTrue(Arrays.equals(new byte[] { 0, 0 }, HttpVerifierImpl.decodeSignature("AAA=")));
+        assertTrue(Arrays.equals(new byte[] { 0, 0, 0 }, HttpVerifierImpl.decodeSignature("AAAA")));
+
+        assertEquals(null, HttpVerifierImpl.decodeSignature("AB=="));
+        assertEquals(null, HttpVerifierImpl.decodeSignature("AC=="));
+        assertEquals(null, HttpVerifierImpl.decodeSignature("AAB="));
+        assertEquals(null, HttpVerifierImpl.decodeSignature("A==="));
+        assertEquals(null, HttpVerifierImpl.decodeSignature("AA=A"));
+        assertEquals(null, HttpVerifierImpl.decodeSignature("AAA"));
+        assertEquals(null, HttpVerifierImpl.decodeSignature("*!*="));
+        assertEquals(null, HttpVerifierImpl.decodeSignature(""));
+    }
+
+    private static String value(String signature) {
+        int start = signature.indexOf("signature=\"") + "signature=\"".length();
+        return signature.substring(start, signature.indexOf('"', start));
+    }
+
+    @Test
+    public void tryVerifyOutcomes() throws Exception {
+        KeyPair pair = MockKeys.newKeyPair();
+        Clock clock = Clock.fixed(Instant.ofEpochSecond(1600000000), ZoneId.of("UTC"));
+
+        HttpSignerImpl signer = new HttpSignerImpl(clock, "rsa-sha256", "unit-test", (n) -> pair.getPrivate(), new Signatures(), 100);
+        MockHeaderProvider hp = new MockHeaderProvider().add("Content-Type", "application/json");
+        String signature = signer.sign("POST", "/something", hp);
+        hp.add(HEADER, signature);
+
+        HttpVerifier verifier = new HttpVerifierImpl(clock, new Signatures(), (n) -> "unit-test".equals(n) ? pair.getPublic() : null, 120);
+
+        VerificationOutcome outcome = verifier.tryVerify("POST", "/something", hp);
+        assertTrue(outcome.isVerified());
+        assertEquals("unit-test", outcome.getResult().getKeyId());
+
+        assertReason(FailureReason.MISSING_SIGNATURE, verifier.tryVerify("POST", "/something", new MockHeaderProvider()));
+        assertReason(FailureReason.MALFORMED, verifier.tryVerify("POST", "/something", withSignature("bogus")));
+        assertReason(FailureReason.MALFORMED,
+                verifier.tryVerify("POST", "/something", withSignature(signature.replaceAll("created=\\d+", "created=12x"))));
+        assertReason(FailureReason.UNSUPPORTED_ALGORITHM,
+                verifier.tryVerify("POST", "/something", withSignature(signature.replace("rsa-sha256", "rsa-md2"))));
+        assertReason(FailureReason.KEY_NOT_FOUND,
+                verifier.tryVerify("POST", "/something", withSignature(signature.replace("unit-test", "other"))));
+        assertReason(FailureReason.HEADER_MISMATCH, verifier.tryVerify("POST", "/something", new MockHeaderProvider().add(HEADER, signature)));
+        assertReason(FailureReason.BAD_SIGNATURE, verifier.tryVerify("POST", "/other", hp));
+        assertReason(FailureReason.BAD_SIGNATURE,
+                verifier.tryVerify("POST", "/something", withSignature(signature.replaceAll("signature=\"[^\"]+\"", "signature=\"*!*\""))));
+
+        HttpVerifier expired = new HttpVerifierImpl(Clock.offset(clock, Duration.ofSeconds(200)), new Signatures(), (n) -> pair.getPublic(), 120);
+        outcome = expired.tryVerify("POST", "/something", hp);
+        assertReason(FailureReason.EXPIRED, outcome);
+        assertThrows(ExpiredSignatureException.class, outcome::getResult);
+
+        HttpVerifier broken = new HttpVerifierImpl(clock, new Signatures(), (n) -> { throw new IllegalStateException("down"); }, 120);
+        outcome = broken.tryVerify("POST", "/something", hp);
+        assertReason(FailureReason.ERROR, outcome);
+        assertEquals("down", outcome.getMessage());
+        assertThrows(SignatureException.class, () -> broken.verify("POST", "/something", hp));
+    }
+
+    @Test
+    public void badInputIsAnInvalidSignature() throws Exception {
+        KeyPair pair = MockKeys.newKeyPair();
+        Clock clock = Clock.fixed(Instant.ofEpochSecond(1600000000), ZoneId.of("UTC"));
+
+        HttpSignerImpl signer = new HttpSignerImpl(clock, "rsa-sha256", "unit-test", (n) -> pair.getPrivate(), new Signatures(), 100);
+        MockHeaderProvider hp = new MockHeaderProvider().add("Content-Type", "application/json");
+        String signature = signer.sign("POST", "/something", hp);
+        assertTrue(signature.contains("expires="));
+
+        HttpVerifier verifier = new HttpVerifierImpl(clock, new Signatures(), (n) -> pair.getPublic(), 120);
+
+        // These used to come out as a plain SignatureException wrapping a NumberFormatException
+        // or an IllegalArgumentException from the base64 decoder
+        assertThrows(InvalidSignatureException.class, () -> verifier.verify("POST", "/something",
+                withSignature(signature.replaceAll("created=\\d+", "created=12x"))));
+        assertThrows(InvalidSignatureException.class, () -> verifier.verify("POST", "/something",
+                withSignature(signature.replaceAll("expires=\\d+", "expires=12x"))));
+        assertThrows(InvalidSignatureException.class, () -> verifier.verify("POST", "/something",
+                withSignature(signature.replaceAll("signature=\"[^\"]+\"", "signature=\"*!*\""))));
+
+        assertReason(FailureReason.MALFORMED, verifier.tryVerify("POST", "/something",
+                withSignature(signature.replaceAll("expires=\\d+", "expires=12x"))));
+    }
+
+    private static MockHeaderProvider withSignature(String signature) {
+        return new MockHeaderProvider().add("Content-Type", "application/json").add(HEADER, signature);
+    }
+
+    private static void assertReason(FailureReason expected, VerificationOutcome outcome) {
+        assertFalse(outcome.isVerified());
+        assertEquals(expected, outcome.getReason());
+        assertNotNull(outcome.getMessage());
+    }
+
 }
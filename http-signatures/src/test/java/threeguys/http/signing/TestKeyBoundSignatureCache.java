@@ -0,0 +1,193 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import threeguys.http.signing.algorithms.SigningAlgorithm;
+import threeguys.http.signing.algorithms.SigningAlgorithms;
+import threeguys.http.signing.providers.MockHeaderProvider;
+import threeguys.http.signing.providers.MockKeys;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.security.Security;
+import java.security.Signature;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static threeguys.http.signing.Signatures.HEADER;
+
+public class TestKeyBoundSignatureCache {
+
+    private static final byte [] DATA = "(created): 1".getBytes(StandardCharsets.UTF_8);
+
+    private static KeyPair pair;
+    private static KeyPair rotated;
+    private static SigningAlgorithm algorithm;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+        pair = MockKeys.newKeyPair("EC", 256);
+        rotated = MockKeys.newKeyPair("EC", 256);
+        algorithm = SigningAlgorithms.defaultAlgorithms().get("ecdsa-sha256");
+    }
+
+    private static byte [] sign(KeyPair keys) throws Exception {
+        Signature signer = algorithm.create();
+        signer.initSign(keys.getPrivate());
+        signer.update(DATA);
+        return signer.sign();
+    }
+
+    private static boolean verify(Signature signature, byte [] data) throws Exception {
+        signature.update(DATA);
+        return signature.verify(data);
+    }
+
+    @Test
+    public void reusesInitializedSignatures() throws Exception {
+        KeyBoundSignatureCache cache = new KeyBoundSignatureCache(10, 2);
+        byte [] data = sign(pair);
+
+        Signature first = cache.acquire(algorithm, "unit-test", pair.getPublic());
+        assertTrue(verify(first, data));
+        cache.release(algorithm, "unit-test", pair.getPublic(), first);
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getMisses());
+
+        // Straight back out, no initVerify, still good for the next request
+        Signature second = cache.acquire(algorithm, "unit-test", pair.getPublic());
+        assertSame(first, second);
+        assertTrue(verify(second, data));
+        assertFalse(verify(second, sign(rotated)));
+        assertTrue(verify(second, data));
+        cache.release(algorithm, "unit-test", pair.getPublic(), second);
+        assertEquals(1, cache.getHits());
+
+        // Same keyId under a different algorithm is its own entry
+        assertNotSame(first, cache.acquire(SigningAlgorithms.defaultAlgorithms().get("ecdsa-sha512"), "unit-test", pair.getPublic()));
+    }
+
+    @Test
+    public void rotatedKeyInvalidates() throws Exception {
+        KeyBoundSignatureCache cache = new KeyBoundSignatureCache(10, 2);
+        Signature old = cache.acquire(algorithm, "unit-test", pair.getPublic());
+        cache.release(algorithm, "unit-test", pair.getPublic(), old);
+
+        // The keyId now maps to another key, the instance bound to the old one is never handed out
+        Signature fresh = cache.acquire(algorithm, "unit-test", rotated.getPublic());
+        assertNotSame(old, fresh);
+        assertTrue(verify(fresh, sign(rotated)));
+        cache.release(algorithm, "unit-test", rotated.getPublic(), fresh);
+        assertEquals(1, cache.getInvalidations());
+        assertEquals(1, cache.size());
+
+        assertSame(fresh, cache.acquire(algorithm, "unit-test", rotated.getPublic()));
+        assertNotSame(old, cache.acquire(algorithm, "unit-test", pair.getPublic()));
+
+        cache.invalidate("ecdsa-sha256", "unit-test");
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void bounded() throws Exception {
+        KeyBoundSignatureCache cache = new KeyBoundSignatureCache(4, 1);
+        for (int i=0; i<20; i++) {
+            String keyId = "key-" + i;
+            cache.release(algorithm, keyId, pair.getPublic(), cache.acquire(algorithm, keyId, pair.getPublic()));
+            assertTrue(cache.size() <= 4);
+        }
+    }
+
+    @Test
+    public void concurrentVerifiers() throws Exception {
+        KeyBoundSignatureCache cache = new KeyBoundSignatureCache(10, 2);
+        byte [] good = sign(pair);
+        byte [] bad = sign(rotated);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i=0; i<400; i++) {
+                boolean expected = (i % 3) != 0;
+                results.add(executor.submit(() -> {
+                    Signature signature = cache.acquire(algorithm, "unit-test", pair.getPublic());
+                    boolean verified = verify(signature, expected ? good : bad);
+                    cache.release(algorithm, "unit-test", pair.getPublic(), signature);
+                    return verified == expected;
+                }));
+            }
+
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(400, cache.getHits() + cache.getMisses());
+        assertTrue(cache.getHits() > 0);
+    }
+
+    @Test
+    public void verifierUsesCache() throws Exception {
+        Clock clock = Clock.fixed(Instant.ofEpochSecond(1600000000), ZoneId.of("UTC"));
+        AtomicReference<PublicKey> current = new AtomicReference<>(pair.getPublic());
+
+        HttpSignerImpl signer = new HttpSignerImpl(clock, "ecdsa-sha256", "unit-test", (n) -> pair.getPrivate(), new Signatures(), 100);
+        MockHeaderProvider hp = new MockHeaderProvider().add("Content-Type", "application/json");
+        hp.add(HEADER, signer.sign("POST", "/something", hp));
+
+        HttpVerifierImpl verifier = (HttpVerifierImpl) new HttpVerifierBuilder()
+                .withClock(clock)
+                .withKeyProvider((n) -> current.get())
+                .withSignatureCacheSize(10)
+                .build();
+        KeyBoundSignatureCache cache = verifier.getSignatureCache();
+
+        for (int i=0; i<3; i++) {
+            assertEquals("unit-test", verifier.verify("POST", "/something", hp).getKeyId());
+        }
+        assertEquals(1, cache.getMisses());
+        assertEquals(2, cache.getHits());
+        assertEquals(FailureReason.BAD_SIGNATURE, verifier.tryVerify("POST", "/other", hp).getReason());
+
+        current.set(rotated.getPublic());
+        assertEquals(FailureReason.BAD_SIGNATURE, verifier.tryVerify("POST", "/something", hp).getReason());
+        assertEquals(1, cache.getInvalidations());
+
+        assertThrows(IllegalArgumentException.class, () -> new HttpVerifierBuilder().withSignatureCacheSize("x"));
+    }
+
+}
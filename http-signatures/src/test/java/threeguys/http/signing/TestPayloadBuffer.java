@@ -0,0 +1,110 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TestPayloadBuffer {
+
+    private static void assertUtf8(String expected, PayloadBuffer buffer) {
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), buffer.toByteArray());
+    }
+
+    @Test
+    public void ascii() {
+        PayloadBuffer buffer = new PayloadBuffer(4);
+        buffer.write("content-type").write(':').write(' ').write("application/json");
+        assertUtf8("content-type: application/json", buffer);
+        assertEquals(30, buffer.length());
+    }
+
+    @Test
+    public void nonAscii() {
+        String[] values = {
+                "café", "€100", "emoji 😀 ok", "lone \ud83d high", "lone \ude00 low",
+                "trailing high \ud83d", "ÿࠀ￿"
+        };
+        for (String v : values) {
+            PayloadBuffer buffer = new PayloadBuffer(2);
+            buffer.write(v);
+            assertUtf8(v, buffer);
+        }
+    }
+
+    @Test
+    public void trimmed() {
+        PayloadBuffer buffer = new PayloadBuffer();
+        buffer.writeTrimmed("  \t value with spaces \r\n");
+        assertUtf8("value with spaces", buffer);
+
+        buffer.reset().writeTrimmed("   ");
+        assertEquals(0, buffer.length());
+    }
+
+    @Test
+    public void canonicalName() {
+        PayloadBuffer buffer = new PayloadBuffer();
+        buffer.writeCanonicalName(" Content-MD5 ");
+        assertUtf8("content-md5", buffer);
+
+        buffer.reset().writeCanonicalName("X-ÉTÉ");
+        assertUtf8("x-été", buffer);
+    }
+
+    @Test
+    public void numbers() {
+        long[] values = { 0, 7, 10, 1402170695L, -42, Long.MAX_VALUE, Long.MIN_VALUE };
+        for (long v : values) {
+            PayloadBuffer buffer = new PayloadBuffer(1);
+            buffer.write(v);
+            assertUtf8(Long.toString(v), buffer);
+        }
+    }
+
+    @Test
+    public void truncateAndReset() {
+        PayloadBuffer buffer = new PayloadBuffer();
+        buffer.write("abc\ndef");
+        buffer.truncate(3);
+        assertUtf8("abc", buffer);
+        assertThrows(IndexOutOfBoundsException.class, () -> buffer.truncate(4));
+
+        byte [] array = buffer.array();
+        assertSame(buffer, buffer.reset());
+        assertEquals(0, buffer.length());
+        assertSame(array, buffer.array());
+    }
+
+    @Test
+    public void largeBuffersAreNotRetained() {
+        PayloadBuffer buffer = new PayloadBuffer();
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<PayloadBuffer.MAX_RETAINED_CAPACITY + 10; i++) {
+            sb.append('x');
+        }
+        buffer.write(sb);
+        buffer.reset();
+        assertEquals(PayloadBuffer.DEFAULT_CAPACITY, buffer.capacity());
+    }
+
+}
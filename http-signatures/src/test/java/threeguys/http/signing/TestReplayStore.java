@@ -0,0 +1,168 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing;
+
+import org.junit.jupiter.api.Test;
+import threeguys.http.signing.exceptions.InvalidSignatureException;
+import threeguys.http.signing.exceptions.SignatureException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestReplayStore {
+
+    private static boolean add(ReplayStore store, String keyId, String payload, long expires, long currentTime) throws SignatureException {
+        byte [] data = payload.getBytes(StandardCharsets.UTF_8);
+        return store.add(keyId, data, 0, data.length, expires, currentTime);
+    }
+
+    private static long fingerprint(ReplayStore store, String keyId, String payload) {
+        byte [] data = payload.getBytes(StandardCharsets.UTF_8);
+        return store.fingerprint(keyId, data, 0, data.length);
+    }
+
+    @Test
+    public void detectsReplay() throws SignatureException {
+        ReplayStore store = new ReplayStore(300);
+        assertTrue(add(store, "key-a", "sig-1", 1100, 1000));
+        assertFalse(add(store, "key-a", "sig-1", 1100, 1050));
+        assertTrue(add(store, "key-b", "sig-1", 1100, 1050));
+        assertTrue(add(store, "key-a", "sig-2", 1100, 1050));
+        assertFalse(add(store, "key-a", "sig-2", 1100, 1100));
+
+        // Already expired, the verifier would have turned it away
+        assertTrue(add(store, "key-a", "sig-3", 1100, 1101));
+    }
+
+    @Test
+    public void fingerprints() {
+        ReplayStore store = new ReplayStore(10, 1, 1, 10);
+        assertEquals(fingerprint(store, "a", "bc"), fingerprint(store, "a", "bc"));
+        assertNotEquals(fingerprint(store, "a", "bc"), fingerprint(store, "ab", "c"));
+        assertNotEquals(0, fingerprint(store, "", ""));
+
+        PayloadBuffer payload = new PayloadBuffer().write("bc");
+        assertEquals(fingerprint(store, "a", "bc"), store.fingerprint("a", payload.array(), 0, payload.length()));
+    }
+
+    @Test
+    public void sizedForRate() {
+        // 360 second window, 45 second buckets, twice the rate in each of the 9
+        assertEquals(45 * 1000 * 2 * 9, ReplayStore.capacityFor(360, 8, 1000));
+        assertTrue(new ReplayStore(360).getMaxEntries() >= 45 * 1000 * 9);
+        assertTrue(new ReplayStore(360, 5000).getMaxEntries() >= 45 * 5000 * 9);
+        assertThrows(IllegalArgumentException.class, () -> ReplayStore.capacityFor(360, 8, 0));
+    }
+
+    @Test
+    public void keepsUpWithRate() throws SignatureException {
+        // A steady 2000 a second over the whole window, the same as the default is sized for
+        ReplayStore store = new ReplayStore(60, 2000);
+        int n = 0;
+        for (long now=1000; now<1200; now++) {
+            for (int i=0; i<2000; i++) {
+                assertTrue(add(store, "key", "payload-" + (n++), now + 60, now));
+            }
+        }
+    }
+
+    @Test
+    public void bucketsAreReused() throws SignatureException {
+        ReplayStore store = new ReplayStore(100, 4, 1, 6 * 5);
+        assertEquals(25, store.getBucketSec());
+        assertEquals(30, store.getMaxEntries());
+
+        // Run through many windows worth of time with a constant trickle of signatures,
+        // far more than fit at once
+        for (long now=0; now<10000; now+=5) {
+            assertTrue(add(store, "key", "sig-" + now, now + 100, now), "at " + now);
+            assertFalse(add(store, "key", "sig-" + now, now + 100, now));
+        }
+    }
+
+    @Test
+    public void outsideWindow() throws SignatureException {
+        ReplayStore store = new ReplayStore(100, 4, 1, 1000);
+        assertThrows(InvalidSignatureException.class, () -> add(store, "key", "sig", Long.MAX_VALUE, 0));
+        assertThrows(InvalidSignatureException.class, () -> add(store, "key", "sig", 101, 0));
+        assertTrue(add(store, "key", "sig", 101, 1));
+        assertFalse(add(store, "key", "sig", 101, 100));
+    }
+
+    @Test
+    public void fixedCeiling() throws SignatureException {
+        ReplayStore store = new ReplayStore(100, 1, 1, 2 * 3);
+        assertEquals(6, store.getMaxEntries());
+        for (int i=0; i<3; i++) {
+            assertTrue(add(store, "key", "sig-" + i, 100, 0));
+        }
+        // The server's problem, not an invalid signature
+        SignatureException full = assertThrows(SignatureException.class, () -> add(store, "key", "one-too-many", 100, 0));
+        assertFalse(full instanceof InvalidSignatureException);
+        assertFalse(add(store, "key", "sig-0", 100, 0));
+    }
+
+    @Test
+    public void invalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new ReplayStore(0));
+        assertThrows(IllegalArgumentException.class, () -> new ReplayStore(10, 0, 1, 10));
+        assertThrows(IllegalArgumentException.class, () -> new ReplayStore(10, 1, 0, 10));
+    }
+
+    @Test
+    public void concurrentReplays() throws Exception {
+        ReplayStore store = new ReplayStore(300);
+        int threads = 8;
+        int signatures = 2000;
+        AtomicInteger accepted = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t=0; t<threads; t++) {
+                results.add(executor.submit(() -> {
+                    for (int i=0; i<signatures; i++) {
+                        if (add(store, "key", "sig-" + i, 1300, 1000)) {
+                            accepted.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : results) {
+                f.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Every signature gets through exactly once no matter how many threads race on it
+        assertEquals(signatures, accepted.get());
+    }
+
+}
@@ -0,0 +1,205 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import threeguys.http.signing.exceptions.InvalidSignatureException;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static threeguys.http.signing.Signatures.FIELD_CREATED;
+import static threeguys.http.signing.Signatures.FIELD_EXPIRES;
+import static threeguys.http.signing.Signatures.FIELD_HEADERS;
+import static threeguys.http.signing.Signatures.FIELD_KEY_ID;
+import static threeguys.http.signing.Signatures.FIELD_SIGNATURE;
+import static threeguys.http.signing.Signatures.defaultFields;
+
+public class TestSignatureParser {
+
+    public static final String RFC_A311 = "keyId=\"test-key-a\", created=1402170695, " +
+            "headers=\"(created) (request-target)\", " +
+            "signature=\"e3y37nxAoeuXw2KbaIxE2d9jpE7Z9okgizg6QbD2Z7fUVUvog+ZTKK" +
+            "LRBnhNglVIY6fAaYlHwx7ZAXXdBVF8gjWBPL6U9zRrB4PFzjoLSxHaqsvS0ZK" +
+            "9FRxpenptgukaVQ1aeva3PE1aD6zZ93df2lFIFXGDefYCQ+M/SrDGQOFvaVyk" +
+            "Ekte5mO6zQZ/HpokjMKvilfSMJS+vbvC1GJItQpjs636Db+7zB2W1BurkGxtQ" +
+            "dCLDXuIDg4S8pPSDihkch/dUzL2BpML3PXGKVXwHOUkVG6Q2ge07IYdzya6N1" +
+            "fIVA9eKI1Y47HT35QliVAxZgE0EZLo8mxq19ReIVvuFg==\"";
+
+    public static final String RFC_A311_PSS = "keyId=\"test-key-a\", created=1402170695, " +
+            "headers=\"(created) (request-target)\", " +
+            "signature=\"fUwkSsSFiwzb2zFdPdzwp67TFGTR5jKA1aAd5Ytvw3sDkvBdDoW557rkX8BChuBGmEO0G7Q4hp+lRIoJ" +
+            "xwYUh/4Sv6JjW4/CSnNTd78Nb4ZfRtDS9DB5gymlRZ+XygZ9usSovvLR9zJO6ntXMTjhjnEAdQofZOzG" +
+            "eQgNVcxBVCMf0MjttW4tYmI5V/FOqG1qv/7TIaoBDurtvZJXuwsux3KuRV0JcV+Brv06t5caAgEP2YCd" +
+            "WocpdKzWyeXcQaYaq/u7TiduUeAQX/4+mCGRGCaGbSZp2NIRynmaOKsG/qy1x0afhFfUD7ql2CKDfpSx" +
+            "KS2+EoZ5HetKip2WQf4WSQ==\"";
+
+    // The parser HttpVerifierImpl used before SignatureParser, kept here as the reference
+    private static Map<String, String> regexParse(List<String> validFields, String signatureValue) throws InvalidSignatureException {
+        Pattern regex = Pattern.compile("([^=]+)=(\"[^\"]+\"|[0-9]+)(, ){0,1}(.*)");
+
+        Map<String, String> fields = new HashMap<>();
+        String working = signatureValue;
+        while(working.length() > 0) {
+            Matcher m = regex.matcher(working);
+            if (m.lookingAt()) {
+                String name = m.group(1);
+                String value = m.group(2);
+
+                if (!validFields.contains(name)) {
+                    throw new InvalidSignatureException(String.format("Unknown field %s", name));
+                }
+
+                if (fields.containsKey(name)) {
+                    throw new InvalidSignatureException(String.format("Field %s occurred more than once", name));
+                }
+
+                if (value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length()-1);
+                }
+                fields.put(name, value);
+
+                working = m.group(4);
+            } else {
+                throw new InvalidSignatureException("Invalid format: " + working);
+            }
+        }
+
+        return fields;
+    }
+
+    public static Stream<Arguments> data() {
+        return Stream.of(
+                Arguments.of(RFC_A311),
+                Arguments.of(RFC_A311_PSS),
+                Arguments.of("algorithm=\"rsa-sha256\", keyId=\"a\", created=1, expires=2, headers=\"(created)\", signature=\"abc=\""),
+                Arguments.of("created=12345"),
+                Arguments.of("created=\"12345\""),
+                Arguments.of(""),
+                Arguments.of("keyId=\"a\",created=1"),
+                Arguments.of("keyId=\"a\"created=1"),
+                Arguments.of("keyId=\"a\",  created=1"),
+                Arguments.of("keyId=\"a\", "),
+                Arguments.of("keyId=\"a\", , created=1"),
+                Arguments.of("created=1x"),
+                Arguments.of("created=12,34"),
+                Arguments.of("created=1, created=2"),
+                Arguments.of("keyId=\"a\", keyId=\"a\""),
+                Arguments.of("keyid=\"a\""),
+                Arguments.of("bogus=\"a\""),
+                Arguments.of(" keyId=\"a\""),
+                Arguments.of("keyId=\"\""),
+                Arguments.of("keyId=\"abc"),
+                Arguments.of("keyId=abc"),
+                Arguments.of("keyId="),
+                Arguments.of("=\"abc\""),
+                Arguments.of("keyId"),
+                Arguments.of("keyId=\"a=b\", created=1"),
+                Arguments.of("keyId=\"a\nb\", created=1"),
+                Arguments.of("keyId=\"a\", created=1\nbogus=\"x\""),
+                Arguments.of("keyId=\"a\", created=1\r\nexpires=2"),
+                Arguments.of("keyId=\"a\" created=1"),
+                Arguments.of("key\nId=\"a\""),
+                Arguments.of("headers=\"(request-target) host\", signature=\"x\"\u0085bogus")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("data")
+    public void parity(String header) {
+        List<String> fields = defaultFields();
+        SignatureParser parser = new SignatureParser(fields);
+
+        Map<String, String> expected = null;
+        InvalidSignatureException expectedError = null;
+        try {
+            expected = regexParse(fields, header);
+        } catch (InvalidSignatureException e) {
+            expectedError = e;
+        }
+
+        if (expectedError != null) {
+            InvalidSignatureException actual = assertThrows(InvalidSignatureException.class, () -> parser.parse(header));
+            assertEquals(expectedError.getMessage(), actual.getMessage());
+        } else {
+            SignatureFields actual = assertDoesNotThrowParse(parser, header);
+            assertEquals(expected, actual.toMap());
+        }
+    }
+
+    private SignatureFields assertDoesNotThrowParse(SignatureParser parser, String header) {
+        try {
+            return parser.parse(header);
+        } catch (InvalidSignatureException e) {
+            throw new AssertionError("Expected parse to succeed: " + e.getMessage(), e);
+        }
+    }
+
+    @Test
+    public void rfcExample_offsets() throws InvalidSignatureException {
+        List<String> fields = Arrays.asList(FIELD_KEY_ID, FIELD_CREATED, FIELD_HEADERS, FIELD_SIGNATURE);
+        SignatureFields parsed = new SignatureParser(fields).parse(RFC_A311);
+
+        assertEquals("test-key-a", parsed.get(FIELD_KEY_ID));
+        assertEquals("1402170695", parsed.get(FIELD_CREATED));
+        assertEquals("(created) (request-target)", parsed.get(FIELD_HEADERS));
+        assertTrue(parsed.contains(FIELD_SIGNATURE));
+        assertFalse(parsed.contains(FIELD_EXPIRES));
+        assertNull(parsed.get(FIELD_EXPIRES));
+        assertEquals("none", parsed.getOrDefault(FIELD_EXPIRES, "none"));
+
+        int start = parsed.start(FIELD_HEADERS);
+        int end = parsed.end(FIELD_HEADERS);
+        assertEquals("(created) (request-target)", RFC_A311.substring(start, end));
+        assertEquals(-1, parsed.end(FIELD_EXPIRES));
+    }
+
+    @Test
+    public void unknownFieldForConfiguration() {
+        List<String> fields = Arrays.asList(FIELD_KEY_ID, FIELD_CREATED, FIELD_HEADERS, FIELD_SIGNATURE);
+        SignatureParser parser = new SignatureParser(fields);
+        InvalidSignatureException e = assertThrows(InvalidSignatureException.class,
+                () -> parser.parse("algorithm=\"rsa-sha256\", " + RFC_A311));
+        assertEquals("Unknown field algorithm", e.getMessage());
+    }
+
+    @Test
+    public void tryParse_noException() throws InvalidSignatureException {
+        List<String> fields = Arrays.asList(FIELD_KEY_ID, FIELD_CREATED, FIELD_HEADERS, FIELD_SIGNATURE);
+        SignatureParser parser = new SignatureParser(fields);
+
+        assertEquals("test-key-a", parser.tryParse(RFC_A311).get(FIELD_KEY_ID));
+        assertNull(parser.describe(RFC_A311));
+
+        String bad = "algorithm=\"rsa-sha256\", " + RFC_A311;
+        assertNull(parser.tryParse(bad));
+        assertEquals("Unknown field algorithm", parser.describe(bad));
+    }
+
+}
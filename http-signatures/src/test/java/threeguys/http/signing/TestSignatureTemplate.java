@@ -0,0 +1,121 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import threeguys.http.signing.exceptions.InvalidFieldException;
+import threeguys.http.signing.exceptions.InvalidSignatureException;
+import threeguys.http.signing.exceptions.MissingHeadersException;
+import threeguys.http.signing.exceptions.SignatureException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static threeguys.http.signing.Signatures.FIELD_ALGORITHM;
+import static threeguys.http.signing.Signatures.FIELD_CREATED;
+import static threeguys.http.signing.Signatures.FIELD_EXPIRES;
+import static threeguys.http.signing.Signatures.FIELD_HEADERS;
+import static threeguys.http.signing.Signatures.FIELD_KEY_ID;
+import static threeguys.http.signing.Signatures.FIELD_SIGNATURE;
+import static threeguys.http.signing.Signatures.defaultFields;
+
+public class TestSignatureTemplate {
+
+    // How HttpSignerImpl put the header together before SignatureTemplate, kept as the reference
+    private static String reference(List<String> fields, String algorithm, String keyId, long created, long expires,
+                                    String headers, byte [] signature) {
+        List<String> output = new ArrayList<>();
+        for (String f : fields) {
+            String value;
+            switch (f) {
+                case FIELD_ALGORITHM:
+                    value = "\"" + algorithm + "\"";
+                    break;
+                case FIELD_KEY_ID:
+                    value = "\"" + keyId + "\"";
+                    break;
+                case FIELD_CREATED:
+                    value = Long.toString(created);
+                    break;
+                case FIELD_EXPIRES:
+                    value = Long.toString(expires);
+                    break;
+                case FIELD_HEADERS:
+                    value = "\"" + headers + "\"";
+                    break;
+                default:
+                    value = "\"" + Base64.getEncoder().encodeToString(signature) + "\"";
+                    break;
+            }
+            output.add(f + "=" + value);
+        }
+        return String.join(", ", output);
+    }
+
+    public static Stream<Arguments> data() {
+        return Stream.of(
+                Arguments.of(defaultFields()),
+                Arguments.of(Arrays.asList(FIELD_KEY_ID, FIELD_CREATED, FIELD_HEADERS, FIELD_SIGNATURE)),
+                Arguments.of(Arrays.asList(FIELD_SIGNATURE, FIELD_EXPIRES, FIELD_ALGORITHM, FIELD_CREATED)),
+                Arguments.of(Arrays.asList(FIELD_CREATED, FIELD_EXPIRES)),
+                Arguments.of(Collections.singletonList(FIELD_ALGORITHM)),
+                Arguments.of(Collections.singletonList(FIELD_SIGNATURE)),
+                Arguments.of(Arrays.asList(FIELD_SIGNATURE, FIELD_KEY_ID, FIELD_SIGNATURE))
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("data")
+    public void parity(List<String> fields) throws SignatureException {
+        SignatureTemplate template = new SignatureTemplate(fields, "rsa-sha256");
+        byte [] signature = new byte[] { 1, 2, 3, 4, 5, (byte) 0xfb, (byte) 0xff, 42, 7, 0 };
+        for (long created : new long[] { 0, 9, 10, 1402170695L, -5, Long.MAX_VALUE }) {
+            long expires = created + 300;
+            String headers = "(request-target) (created) content-type";
+            assertEquals(reference(fields, "rsa-sha256", "test-key-a", created, expires, headers, signature),
+                    template.render("test-key-a", created, expires, new StringBuilder(headers), signature));
+        }
+        assertEquals(reference(fields, "rsa-sha256", "", 1, 2, "", new byte[0]),
+                template.render("", 1, 2, "", new byte[0]));
+    }
+
+    @Test
+    public void invalidValues() throws InvalidSignatureException {
+        SignatureTemplate template = new SignatureTemplate(defaultFields(), "rsa-sha256");
+        assertThrows(InvalidSignatureException.class, () -> template.render("bad\"key", 1, 2, "", new byte[0]));
+        assertThrows(InvalidSignatureException.class, () -> template.render("key", 1, 2, "bad\"header", new byte[0]));
+        assertThrows(InvalidSignatureException.class, () -> new SignatureTemplate(defaultFields(), "rsa\"sha256"));
+    }
+
+    @Test
+    public void invalidLayouts() throws InvalidSignatureException {
+        assertThrows(InvalidFieldException.class,
+                () -> new SignatureTemplate(Arrays.asList(FIELD_KEY_ID, "bogus"), "rsa-sha256"));
+
+        SignatureTemplate empty = new SignatureTemplate(Collections.emptyList(), "rsa-sha256");
+        assertThrows(MissingHeadersException.class, () -> empty.render("key", 1, 2, "", new byte[0]));
+    }
+
+}
@@ -0,0 +1,229 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import threeguys.http.signing.exceptions.MissingHeadersException;
+import threeguys.http.signing.exceptions.SignatureException;
+import threeguys.http.signing.providers.HeaderProvider;
+import threeguys.http.signing.providers.HeaderValuesProvider;
+import threeguys.http.signing.providers.MockHeaderProvider;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static threeguys.http.signing.Signatures.DEFAULT_ALGORITHM;
+import static threeguys.http.signing.Signatures.HEADER_CREATED;
+import static threeguys.http.signing.Signatures.HEADER_EXPIRES;
+import static threeguys.http.signing.Signatures.HEADER_REQUEST_TARGET;
+import static threeguys.http.signing.Signatures.canonicalize;
+import static threeguys.http.signing.Signatures.defaultFields;
+import static threeguys.http.signing.Signatures.defaultHeadersToInclude;
+import static threeguys.http.signing.algorithms.SigningAlgorithms.defaultAlgorithms;
+
+public class TestSignatures {
+
+    // How the signing string was put together before PayloadBuffer, kept as the reference
+    private static Payload referencePayload(String method, String url, HeaderProvider provider, long created, long expires, List<String> requiredHeaders) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        List<String> found = new LinkedList<>();
+
+        for (String hdr : requiredHeaders) {
+            String value;
+            if (HEADER_CREATED.equals(hdr)) {
+                value = String.format("%s: %d", HEADER_CREATED, created);
+                found.add(HEADER_CREATED);
+            } else if (HEADER_REQUEST_TARGET.equals(hdr)) {
+                String canonicalTarget = String.format("%s %s", method.toLowerCase().trim(), url.trim());
+                value = String.format("%s: %s", HEADER_REQUEST_TARGET, canonicalTarget);
+                found.add(HEADER_REQUEST_TARGET);
+            } else if (HEADER_EXPIRES.equals(hdr)) {
+                value = String.format("%s: %d", HEADER_EXPIRES, expires);
+                found.add(HEADER_EXPIRES);
+            } else {
+                String [] values = provider.get(hdr);
+                if (values != null) {
+                    value = canonicalize(hdr, values);
+                    found.add(hdr);
+                } else {
+                    value = null;
+                }
+            }
+
+            if (value != null) {
+                if (sb.length() > 0) {
+                    sb.append("\n");
+                }
+                sb.append(value);
+            }
+        }
+
+        String headersFound = found.stream().map(String::toLowerCase).collect(Collectors.joining(" "));
+        return new Payload(headersFound, sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static MockHeaderProvider headers() {
+        return new MockHeaderProvider()
+                .add("Content-Type", "application/json")
+                .add("Content-Length", " 18 ")
+                .add("Digest", "SHA-256=X48E9qOokqqrvdts8nOJRJN3OWDUoyWxBf7kbu9DBPE=")
+                .add("X-Multi", "one", "  two", "three  ")
+                .add("X-Empty")
+                .add("X-Unicode", "café € 😀");
+    }
+
+    // Same headers, handed out as mutable CharSequences rather than Strings
+    private static HeaderValuesProvider charSequences(HeaderProvider provider) {
+        return (name) -> {
+            String [] values = provider.get(name);
+            if (values == null) {
+                return null;
+            }
+            List<CharSequence> copies = new ArrayList<>();
+            for (String v : values) {
+                copies.add(new StringBuilder(v));
+            }
+            return copies.iterator();
+        };
+    }
+
+    public static Stream<Arguments> data() {
+        List<String> custom = new ArrayList<>(Arrays.asList(HEADER_REQUEST_TARGET, HEADER_CREATED, HEADER_EXPIRES,
+                "Content-Type", "x-multi", "X-Empty", "X-Unicode", "Missing", "Digest"));
+        return Stream.of(
+                Arguments.of("POST", "/foo?param=value&pet=dog", defaultHeadersToInclude()),
+                Arguments.of(" GET ", " /with/spaces ", defaultHeadersToInclude()),
+                Arguments.of("put", "/café", custom),
+                Arguments.of("POST", "/", Arrays.asList("Missing", HEADER_CREATED)),
+                Arguments.of("POST", "/", Arrays.asList("Missing", "Also-Missing")),
+                Arguments.of("POST", "/", new ArrayList<String>())
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("data")
+    public void payloadParity(String method, String url, List<String> headersToInclude) throws Exception {
+        Signatures signing = new Signatures(DEFAULT_ALGORITHM, defaultAlgorithms(), defaultFields(), headersToInclude);
+        MockHeaderProvider hp = headers();
+
+        Payload expected = referencePayload(method, url, hp, 1402170695L, 1402171695L, headersToInclude);
+
+        Payload compat = signing.assemblePayload(method, url, hp, 1402170695L, 1402171695L);
+        assertEquals(expected.getHeaders(), compat.getHeaders());
+        assertArrayEquals(expected.getPlaintext(), compat.getPlaintext());
+
+        PayloadBuffer streamed = signing.payloadBuffer();
+        StringBuilder found = new StringBuilder();
+        signing.writePayload(method, url, hp, 1402170695L, 1402171695L, streamed, found);
+        assertEquals(expected.getHeaders(), found.toString());
+        assertArrayEquals(expected.getPlaintext(), streamed.toByteArray());
+
+        HeaderValuesProvider hvp = charSequences(hp);
+        PayloadBuffer fromValues = signing.payloadBuffer();
+        StringBuilder foundValues = new StringBuilder();
+        signing.writePayload(method, url, hvp, 1402170695L, 1402171695L, fromValues, foundValues);
+        assertEquals(expected.getHeaders(), foundValues.toString());
+        assertArrayEquals(expected.getPlaintext(), fromValues.toByteArray());
+
+        // Verifier side, driven by the headers list the signer produced
+        String headerList = "x=\"" + expected.getHeaders() + "\"";
+        if (expected.getHeaders().length() > 0) {
+            PayloadBuffer verified = signing.payloadBuffer();
+            assertTrue(signing.writePayload(method, url, hp, 1402170695L, 1402171695L,
+                    headerList, 3, headerList.length() - 1, verified));
+            assertArrayEquals(expected.getPlaintext(), verified.toByteArray());
+        }
+    }
+
+    @Test
+    public void localeIndependentNames() throws Exception {
+        // In Turkish "I".toLowerCase() is a dotless i, header names have to stay plain ASCII
+        Locale original = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            Signatures signing = new Signatures(DEFAULT_ALGORITHM, defaultAlgorithms(), defaultFields(),
+                    Arrays.asList(HEADER_CREATED, "X-Request-ID"));
+            MockHeaderProvider hp = new MockHeaderProvider().add("X-Request-ID", "42");
+
+            PayloadBuffer out = signing.payloadBuffer();
+            StringBuilder found = new StringBuilder();
+            signing.writePayload("POST", "/", hp, 1, 2, out, found);
+            assertEquals("(created) x-request-id", found.toString());
+            assertEquals("(created): 1\nx-request-id: 42", new String(out.toByteArray(), StandardCharsets.UTF_8));
+            assertEquals("x-request-id", Signatures.canonicalizeName("X-Request-ID"));
+        } finally {
+            Locale.setDefault(original);
+        }
+    }
+
+    public static Stream<Arguments> mismatches() {
+        return Stream.of(
+                Arguments.of("(created) missing"),
+                Arguments.of("(created) Content-Type"),
+                Arguments.of("(created)  content-type"),
+                Arguments.of(" (created)"),
+                Arguments.of("(created) "),
+                Arguments.of(" ")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("mismatches")
+    public void verifierHeaderMismatch(String headerList) throws SignatureException {
+        Signatures signing = new Signatures();
+        PayloadBuffer out = signing.payloadBuffer();
+        assertFalse(signing.writePayload("GET", "/", headers(), 1, 2, headerList, 0, headerList.length(), out));
+    }
+
+    @ParameterizedTest
+    @MethodSource("data")
+    public void providerErrors(String method, String url, List<String> headersToInclude) {
+        Signatures signing = new Signatures(DEFAULT_ALGORITHM, defaultAlgorithms(), defaultFields(), headersToInclude);
+        HeaderProvider broken = (n) -> { throw new IllegalStateException("unit-test"); };
+        boolean needsProvider = headersToInclude.stream().anyMatch(h -> !h.startsWith("("));
+        if (needsProvider) {
+            assertThrows(MissingHeadersException.class,
+                    () -> signing.assemblePayload(method, url, broken, 1, 2));
+            assertThrows(MissingHeadersException.class,
+                    () -> signing.writePayload(method, url, broken, 1, 2, "h=\"digest\"", 3, 9, signing.payloadBuffer()));
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("data")
+    public void headerValuesProvider_defaultGet(String method, String url, List<String> headersToInclude) throws Exception {
+        MockHeaderProvider hp = headers();
+        HeaderValuesProvider hvp = charSequences(hp);
+        for (String hdr : headersToInclude) {
+            assertArrayEquals(hp.get(hdr), hvp.get(hdr));
+        }
+    }
+
+}
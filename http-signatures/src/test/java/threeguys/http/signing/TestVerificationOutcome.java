@@ -0,0 +1,93 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing;
+
+import org.junit.jupiter.api.Test;
+import threeguys.http.signing.exceptions.ExpiredSignatureException;
+import threeguys.http.signing.exceptions.InvalidSignatureException;
+import threeguys.http.signing.exceptions.KeyNotFoundException;
+import threeguys.http.signing.exceptions.ReplayedSignatureException;
+import threeguys.http.signing.exceptions.SignatureException;
+
+import java.util.Collections;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestVerificationOutcome {
+
+    @Test
+    public void verified() throws Exception {
+        VerificationResult result = new VerificationResult(null, Collections.singletonMap("keyId", "unit-test"));
+        VerificationOutcome outcome = VerificationOutcome.verified(result);
+        assertTrue(outcome.isVerified());
+        assertFalse(outcome.isError());
+        assertNull(outcome.getReason());
+        assertNull(outcome.toException());
+        assertSame(result, outcome.getResult());
+    }
+
+    @Test
+    public void messageIsLazy() {
+        AtomicInteger calls = new AtomicInteger();
+        VerificationOutcome outcome = VerificationOutcome.failed(FailureReason.EXPIRED, () -> "expired-" + calls.incrementAndGet());
+        assertEquals(0, calls.get());
+
+        assertEquals("expired-1", outcome.getMessage());
+        assertEquals("expired-1", outcome.getMessage());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void toException() {
+        assertEquals(ExpiredSignatureException.class, VerificationOutcome.failed(FailureReason.EXPIRED, () -> "t").toException().getClass());
+        assertEquals(ReplayedSignatureException.class, VerificationOutcome.failed(FailureReason.REPLAYED, () -> "t").toException().getClass());
+        assertEquals(KeyNotFoundException.class, VerificationOutcome.failed(FailureReason.KEY_NOT_FOUND, () -> "t").toException().getClass());
+        assertEquals(InvalidSignatureException.class, VerificationOutcome.failed(FailureReason.MALFORMED, () -> "t").toException().getClass());
+        assertEquals(InvalidSignatureException.class, VerificationOutcome.failed(FailureReason.BAD_SIGNATURE, () -> "t").toException().getClass());
+        assertEquals(SignatureException.class, VerificationOutcome.failed(FailureReason.UNSUPPORTED_ALGORITHM, () -> "t").toException().getClass());
+
+        // What the verifier threw comes back out as is
+        KeyNotFoundException thrown = new KeyNotFoundException("unit-test");
+        assertSame(thrown, VerificationOutcome.failed(FailureReason.KEY_NOT_FOUND, thrown).toException());
+
+        IllegalStateException error = new IllegalStateException("down");
+        SignatureException wrapped = VerificationOutcome.failed(FailureReason.ERROR, error).toException();
+        assertEquals("down", wrapped.getMessage());
+        assertSame(error, wrapped.getCause());
+        assertThrows(SignatureException.class, () -> VerificationOutcome.failed(FailureReason.ERROR, error).getResult());
+    }
+
+    @Test
+    public void of() {
+        assertEquals(FailureReason.EXPIRED, VerificationOutcome.of(new ExpiredSignatureException("t")).getReason());
+        assertEquals(FailureReason.REPLAYED, VerificationOutcome.of(new ReplayedSignatureException("t")).getReason());
+        assertEquals(FailureReason.KEY_NOT_FOUND,
+                VerificationOutcome.of(new CompletionException(new KeyNotFoundException("t"))).getReason());
+        assertEquals(FailureReason.BAD_SIGNATURE, VerificationOutcome.of(new InvalidSignatureException("t")).getReason());
+
+        VerificationOutcome error = VerificationOutcome.of(new SignatureException("t"));
+        assertTrue(error.isError());
+        assertEquals("t", error.getMessage());
+    }
+
+}
@@ -18,6 +18,7 @@ package threeguys.http.signing;
 import org.junit.jupiter.api.Test;
 
 import java.security.PublicKey;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -56,4 +57,19 @@ public class TestVerificationResult {
         assertEquals(fields, r.getFields());
     }
 
+    @Test
+    public void parsedFields_builtOnceAndReadOnly() throws Exception {
+        SignatureFields parsed = new SignatureParser(Arrays.asList(Signatures.FIELD_KEY_ID, Signatures.FIELD_ALGORITHM))
+                .parse("keyId=\"test-key-id\", algorithm=\"test-algo\"");
+
+        VerificationResult r = new VerificationResult(null, "test-algo", parsed);
+        assertEquals("test-key-id", r.getKeyId());
+
+        Map<String, String> fields = r.getFields();
+        assertEquals("test-key-id", fields.get(Signatures.FIELD_KEY_ID));
+        assertSame(fields, r.getFields());
+        assertThrows(UnsupportedOperationException.class, () -> fields.put("extra", "value"));
+        assertEquals("test-key-id", r.getKeyId());
+    }
+
 }
@@ -0,0 +1,100 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import threeguys.http.signing.providers.MockKeys;
+
+import java.security.KeyPair;
+import java.security.Security;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestVerifiedSignatureCache {
+
+    private static KeyPair pair;
+    private static KeyPair other;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+        pair = MockKeys.newKeyPair();
+        other = MockKeys.newKeyPair();
+    }
+
+    private static PayloadBuffer payload(String value) {
+        return new PayloadBuffer().write(value);
+    }
+
+    @Test
+    public void fingerprints() {
+        VerifiedSignatureCache cache = new VerifiedSignatureCache();
+        VerifiedSignatureCache.Fingerprint fp = cache.fingerprint("key", "rsa-sha256", "abc=", payload("(created): 1"));
+
+        assertEquals(fp, cache.fingerprint("key", "rsa-sha256", "abc=", payload("(created): 1")));
+        assertEquals(fp.hashCode(), cache.fingerprint("key", "rsa-sha256", "abc=", payload("(created): 1")).hashCode());
+        assertNotEquals(fp, cache.fingerprint("key2", "rsa-sha256", "abc=", payload("(created): 1")));
+        assertNotEquals(fp, cache.fingerprint("key", "rsa-sha512", "abc=", payload("(created): 1")));
+        assertNotEquals(fp, cache.fingerprint("key", "rsa-sha256", "abd=", payload("(created): 1")));
+        assertNotEquals(fp, cache.fingerprint("key", "rsa-sha256", "abc=", payload("(created): 2")));
+
+        // Fields are length prefixed so moving bytes between them changes the fingerprint
+        assertNotEquals(cache.fingerprint("ab", "c", "d", payload("e")), cache.fingerprint("a", "bc", "d", payload("e")));
+    }
+
+    @Test
+    public void expiresWithSignature() {
+        VerifiedSignatureCache cache = new VerifiedSignatureCache();
+        VerifiedSignatureCache.Fingerprint fp = cache.fingerprint("key", "rsa-sha256", "abc=", payload("x"));
+
+        assertFalse(cache.isVerified(fp, pair.getPublic(), 100));
+        cache.verified(fp, pair.getPublic(), 200, 100);
+        assertTrue(cache.isVerified(fp, pair.getPublic(), 100));
+        assertTrue(cache.isVerified(fp, pair.getPublic(), 200));
+        assertFalse(cache.isVerified(fp, other.getPublic(), 200));
+        assertFalse(cache.isVerified(fp, pair.getPublic(), 201));
+        assertEquals(0, cache.size());
+
+        // Already expired, not worth keeping
+        cache.verified(fp, pair.getPublic(), 200, 201);
+        assertEquals(0, cache.size());
+
+        assertEquals(2, cache.getHits());
+        assertEquals(3, cache.getMisses());
+    }
+
+    @Test
+    public void bounded() {
+        VerifiedSignatureCache cache = new VerifiedSignatureCache(16);
+        for (int i=0; i<100; i++) {
+            VerifiedSignatureCache.Fingerprint fp = cache.fingerprint("key", "rsa-sha256", Integer.toString(i), payload("x"));
+            cache.verified(fp, pair.getPublic(), 1000 + i, 0);
+        }
+        assertEquals(16, cache.size());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(VerifiedSignatureCache.DEFAULT_MAX_ENTRIES, new VerifiedSignatureCache(0).getMaxEntries());
+    }
+
+}
@@ -0,0 +1,160 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.algorithms;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestMacPool {
+
+    private static final byte [] DATA = "mac-pool".getBytes(StandardCharsets.UTF_8);
+
+    private static SecretKey secret(String value) {
+        return new SecretKeySpec(value.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+    }
+
+    private static byte [] expected(SecretKey key) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(key);
+        return mac.doFinal(DATA);
+    }
+
+    @Test
+    public void invalidSize() {
+        assertThrows(IllegalArgumentException.class, () -> new MacPool(SigningAlgorithms.HMAC_SHA256, 0));
+    }
+
+    @Test
+    public void noSignature() {
+        assertThrows(NoSuchAlgorithmException.class, SigningAlgorithms.HMAC_SHA256::create);
+        assertTrue(SigningAlgorithms.isMac(SigningAlgorithms.HMAC_SHA512));
+        assertTrue(!SigningAlgorithms.isMac(SigningAlgorithms.RSA_SHA256));
+    }
+
+    @Test
+    public void keepsMacsInitialized() throws GeneralSecurityException {
+        SecretKey key = secret("first secret");
+        MacPool pool = new MacPool(SigningAlgorithms.HMAC_SHA256, 2);
+        assertEquals(2, pool.getSize());
+
+        Mac first = pool.acquire(key);
+        assertArrayEquals(expected(key), first.doFinal(DATA));
+        pool.release(key, first);
+        assertEquals(1, pool.getIdle());
+
+        // Same key, no init() this time, an equal key is as good as the same one
+        for (int i=0; i<3; i++) {
+            Mac again = pool.acquire(secret("first secret"));
+            assertSame(first, again);
+            assertArrayEquals(expected(key), again.doFinal(DATA));
+            pool.release(key, again);
+        }
+        assertEquals(1, pool.getCreated());
+        assertEquals(1, pool.getInitialized());
+    }
+
+    @Test
+    public void prefersMacForKey() throws GeneralSecurityException {
+        SecretKey one = secret("one");
+        SecretKey two = secret("two");
+        MacPool pool = new MacPool(SigningAlgorithms.HMAC_SHA256, 2);
+
+        Mac forOne = pool.acquire(one);
+        Mac forTwo = pool.acquire(two);
+        pool.release(one, forOne);
+        pool.release(two, forTwo);
+
+        assertSame(forTwo, pool.acquire(two));
+        assertSame(forOne, pool.acquire(one));
+        assertEquals(2, pool.getInitialized());
+
+        // Switched over to another key when nothing matches
+        pool.release(one, forOne);
+        SecretKey three = secret("three");
+        Mac switched = pool.acquire(three);
+        assertSame(forOne, switched);
+        assertArrayEquals(expected(three), switched.doFinal(DATA));
+        assertEquals(3, pool.getInitialized());
+        assertEquals(2, pool.getCreated());
+    }
+
+    @Test
+    public void dropsWhenFull() throws GeneralSecurityException {
+        SecretKey key = secret("full");
+        MacPool pool = new MacPool(SigningAlgorithms.HMAC_SHA256, 1);
+        Mac first = pool.acquire(key);
+        Mac second = pool.acquire(key);
+        assertNotSame(first, second);
+
+        pool.release(key, first);
+        pool.release(key, second);
+        pool.release(key, null);
+        assertEquals(1, pool.getIdle());
+        assertEquals(1, pool.getDropped());
+    }
+
+    @Test
+    public void concurrentUse() throws Exception {
+        SecretKey [] keys = { secret("a"), secret("b"), secret("c") };
+        byte [][] macs = { expected(keys[0]), expected(keys[1]), expected(keys[2]) };
+
+        MacPool pool = new MacPool(SigningAlgorithms.HMAC_SHA256, 4);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t=0; t<8; t++) {
+                int offset = t;
+                results.add(executor.submit(() -> {
+                    for (int i=0; i<300; i++) {
+                        int k = (i + offset) % keys.length;
+                        Mac mac = pool.acquire(keys[k]);
+                        mac.update(DATA);
+                        assertArrayEquals(macs[k], mac.doFinal());
+                        pool.release(keys[k], mac);
+                    }
+                    return null;
+                }));
+            }
+
+            for (Future<?> f : results) {
+                f.get();
+            }
+            assertTrue(pool.getIdle() <= pool.getSize());
+            assertTrue(pool.getInitialized() < 8 * 300);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,141 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.algorithms;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestSignaturePool {
+
+    @Test
+    public void invalidSize() {
+        assertThrows(IllegalArgumentException.class, () -> new SignaturePool(SigningAlgorithms.RSA_SHA256, 0));
+    }
+
+    @Test
+    public void reusesReleasedInstances() throws GeneralSecurityException {
+        SignaturePool pool = new SignaturePool(SigningAlgorithms.RSA_SHA256, 2);
+        assertEquals(2, pool.getSize());
+        assertEquals(0, pool.getIdle());
+
+        Signature first = pool.acquire();
+        Signature second = pool.acquire();
+        assertNotSame(first, second);
+
+        pool.release(first);
+        assertEquals(1, pool.getIdle());
+        assertSame(first, pool.acquire());
+        assertEquals(0, pool.getIdle());
+    }
+
+    @Test
+    public void dropsWhenFull() throws GeneralSecurityException {
+        SignaturePool pool = new SignaturePool(SigningAlgorithms.ECDSA_SHA256, 1);
+        Signature first = pool.acquire();
+        Signature second = pool.acquire();
+        pool.release(first);
+        pool.release(second);
+        pool.release(null);
+        assertEquals(1, pool.getIdle());
+        assertEquals(2, pool.getCreated());
+        assertEquals(1, pool.getDropped());
+        assertSame(first, pool.acquire());
+        assertNotSame(second, pool.acquire());
+    }
+
+    @Test
+    public void pssParametersSurviveReuse() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair pair = generator.generateKeyPair();
+        byte [] data = "pss-reuse".getBytes(StandardCharsets.UTF_8);
+
+        SignaturePool pool = new SignaturePool(SigningAlgorithms.RSAPSS_SHA256, 1);
+        for (int i=0; i<3; i++) {
+            Signature signer = pool.acquire();
+            signer.initSign(pair.getPrivate());
+            signer.update(data);
+            byte [] sig = signer.sign();
+            pool.release(signer);
+
+            Signature verifier = SigningAlgorithms.RSAPSS_SHA256.create();
+            verifier.initVerify(pair.getPublic());
+            verifier.update(data);
+            assertTrue(verifier.verify(sig));
+        }
+    }
+
+    @Test
+    public void concurrentUse() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(256);
+        KeyPair pair = generator.generateKeyPair();
+        byte [] data = "concurrent".getBytes(StandardCharsets.UTF_8);
+
+        Signature signer = SigningAlgorithms.ECDSA_SHA256.create();
+        signer.initSign(pair.getPrivate());
+        signer.update(data);
+        byte [] sig = signer.sign();
+
+        SignaturePool pool = new SignaturePool(SigningAlgorithms.ECDSA_SHA256, 4);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Set<Signature>>> results = new ArrayList<>();
+            for (int t=0; t<8; t++) {
+                results.add(executor.submit(() -> {
+                    Set<Signature> seen = new HashSet<>();
+                    for (int i=0; i<200; i++) {
+                        Signature verifier = pool.acquire();
+                        verifier.initVerify(pair.getPublic());
+                        verifier.update(data);
+                        assertTrue(verifier.verify(sig));
+                        seen.add(verifier);
+                        pool.release(verifier);
+                    }
+                    return seen;
+                }));
+            }
+
+            Set<Signature> all = new HashSet<>();
+            for (Future<Set<Signature>> f : results) {
+                all.addAll(f.get());
+            }
+            assertTrue(pool.getIdle() <= pool.getSize());
+            assertTrue(all.size() < 8 * 200);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
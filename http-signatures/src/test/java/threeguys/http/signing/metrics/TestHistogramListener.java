@@ -0,0 +1,129 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.metrics;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import threeguys.http.signing.FailureReason;
+import threeguys.http.signing.HttpSignerImpl;
+import threeguys.http.signing.HttpVerifier;
+import threeguys.http.signing.HttpVerifierBuilder;
+import threeguys.http.signing.Signatures;
+import threeguys.http.signing.VerificationListener;
+import threeguys.http.signing.exceptions.KeyNotFoundException;
+import threeguys.http.signing.exceptions.SignatureException;
+import threeguys.http.signing.providers.MockHeaderProvider;
+import threeguys.http.signing.providers.MockKeys;
+
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static threeguys.http.signing.Signatures.HEADER;
+
+public class TestHistogramListener {
+
+    private static KeyPair pair;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        pair = MockKeys.newKeyPair();
+    }
+
+    private static MockHeaderProvider signed(HttpSignerImpl signer) throws Exception {
+        MockHeaderProvider headers = new MockHeaderProvider().add("Content-Type", "application/json");
+        headers.add(HEADER, signer.sign("POST", "/something", headers));
+        return headers;
+    }
+
+    @Test
+    public void verificationPhases() throws Exception {
+        HistogramListener listener = new HistogramListener();
+        List<FailureReason> outcomes = new ArrayList<>();
+        VerificationListener recording = new VerificationListener() {
+            @Override
+            public void onVerification(String algorithm, String keyId, FailureReason failure,
+                                       long parseNanos, long keyNanos, long payloadNanos, long verifyNanos) {
+                outcomes.add(failure);
+                listener.onVerification(algorithm, keyId, failure, parseNanos, keyNanos, payloadNanos, verifyNanos);
+            }
+        };
+
+        HttpSignerImpl signer = new HttpSignerImpl("rsa-sha256", "unit-test", (n) -> pair.getPrivate(), new Signatures(), 100);
+        HttpVerifier verifier = new HttpVerifierBuilder()
+                .withKeyProvider((n) -> {
+                    if (!"unit-test".equals(n)) {
+                        throw new KeyNotFoundException(n);
+                    }
+                    return pair.getPublic();
+                })
+                .withListener(recording)
+                .build();
+
+        MockHeaderProvider good = signed(signer);
+        verifier.verify("POST", "/something", good);
+        assertNull(outcomes.get(0));
+        assertEquals(1, listener.getVerified());
+        assertEquals(1, listener.getVerification(HistogramListener.Phase.CRYPTO).getCount());
+        assertEquals(1, listener.getVerification(HistogramListener.Phase.TOTAL).getCount());
+        assertTrue(listener.getVerification(HistogramListener.Phase.CRYPTO).getMax() > 0);
+
+        assertThrows(SignatureException.class, () -> verifier.verify("POST", "/something", new MockHeaderProvider()));
+        assertThrows(SignatureException.class, () -> verifier.verify("POST", "/something",
+                new MockHeaderProvider().add(HEADER, "keyId=\"unit-test\",bogus")));
+        assertThrows(SignatureException.class, () -> verifier.verify("POST", "/other", good));
+
+        HttpSignerImpl stranger = new HttpSignerImpl("rsa-sha256", "stranger", (n) -> pair.getPrivate(), new Signatures(), 100);
+        assertThrows(SignatureException.class, () -> verifier.verify("POST", "/something", signed(stranger)));
+
+        MockHeaderProvider missing = signed(signer);
+        MockHeaderProvider withoutContentType = new MockHeaderProvider().add(HEADER, missing.get(HEADER));
+        assertThrows(SignatureException.class, () -> verifier.verify("POST", "/something", withoutContentType));
+
+        assertEquals(1, listener.getFailures(FailureReason.MISSING_SIGNATURE));
+        assertEquals(1, listener.getFailures(FailureReason.MALFORMED));
+        assertEquals(1, listener.getFailures(FailureReason.BAD_SIGNATURE));
+        assertEquals(1, listener.getFailures(FailureReason.KEY_NOT_FOUND));
+        assertEquals(1, listener.getFailures(FailureReason.HEADER_MISMATCH));
+        assertEquals(5, listener.getFailures());
+        assertEquals(6, outcomes.size());
+        assertEquals(6, listener.getVerification(HistogramListener.Phase.TOTAL).getCount());
+    }
+
+    @Test
+    public void signingPhases() throws Exception {
+        HistogramListener listener = new HistogramListener();
+        HttpSignerImpl signer = new HttpSignerImpl(java.time.Clock.systemUTC(), "rsa-sha256", "unit-test",
+                (n) -> pair.getPrivate(), new Signatures(), 100, listener);
+
+        signed(signer);
+        signed(signer);
+        assertEquals(2, listener.getSigned());
+        assertEquals(2, listener.getSigning(HistogramListener.Phase.CRYPTO).getCount());
+        assertEquals(2, listener.getSigning(HistogramListener.Phase.TOTAL).getCount());
+        assertEquals(0, listener.getSigning(HistogramListener.Phase.PARSE).getCount());
+
+        HttpSignerImpl broken = new HttpSignerImpl(java.time.Clock.systemUTC(), "rsa-sha256", "unit-test",
+                (n) -> { throw new KeyNotFoundException(n); }, new Signatures(), 100, listener);
+        assertThrows(SignatureException.class, () -> signed(broken));
+        assertEquals(1, listener.getSigningFailures());
+    }
+
+}
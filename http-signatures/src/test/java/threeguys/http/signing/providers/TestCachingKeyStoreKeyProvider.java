@@ -0,0 +1,154 @@
+/**
+ *    Copyright 2020 Ray Cole
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package threeguys.http.signing.providers;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import threeguys.http.signing.exceptions.KeyNotFoundException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestCachingKeyStoreKeyProvider {
+
+    private static final char [] PASSWORD = MockKeys.DEFAULT_PASSWORD.toCharArray();
+
+    @BeforeAll
+    public static void setup() {
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+
+    private static KeyStore store(String alias, KeyPair pair) throws Exception {
+        KeyStore keyStore = MockKeys.emptyStore();
+        keyStore.setKeyEntry(alias, pair.getPrivate(), PASSWORD, new Certificate[]{ MockKeys.newCertificate(pair) });
+        return keyStore;
+    }
+
+    // Writes the store and bumps the modified time so the change is seen whatever the file system resolution
+    private static void save(KeyStore keyStore, Path file, long modified) throws Exception {
+        MockKeys.saveStore(keyStore, file.toFile());
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modified));
+    }
+
+    @Test
+    public void fromKeyStore() throws Exception {
+        KeyPair pair = MockKeys.newKeyPair();
+        KeyStore keyStore = store("test-key-private", pair);
+        keyStore.setCertificateEntry("just-a-cert", MockKeys.newCertificate(MockKeys.newKeyPair()));
+
+        CachingKeyStoreKeyProvider provider = new CachingKeyStoreKeyProvider(keyStore, PASSWORD);
+        assertEquals(pair.getPrivate(), provider.get("test-key-private"));
+        assertSame(provider.get("test-key-private"), provider.get("test-key-private"));
+        assertEquals(new HashSet<>(Arrays.asList("test-key-private")), provider.getAliases());
+        assertThrows(KeyNotFoundException.class, () -> provider.get("just-a-cert"));
+        assertThrows(KeyNotFoundException.class, () -> provider.get("bar"));
+        assertFalse(provider.reloadIfChanged());
+        assertThrows(IllegalStateException.class, provider::reload);
+    }
+
+    @Test
+    public void wrongPassword() throws Exception {
+        KeyStore keyStore = store("test-key-private", MockKeys.newKeyPair());
+        assertThrows(GeneralSecurityException.class,
+                () -> new CachingKeyStoreKeyProvider(keyStore, "wrong".toCharArray()));
+    }
+
+    @Test
+    public void unrecoverableAliasSkipped() throws Exception {
+        KeyPair pair = MockKeys.newKeyPair();
+        KeyPair other = MockKeys.newKeyPair();
+        KeyStore keyStore = store("test-key-private", pair);
+        keyStore.setKeyEntry("own-password", other.getPrivate(), "different".toCharArray(),
+                new Certificate[]{ MockKeys.newCertificate(other) });
+
+        CachingKeyStoreKeyProvider provider = new CachingKeyStoreKeyProvider(keyStore, PASSWORD);
+        assertEquals(pair.getPrivate(), provider.get("test-key-private"));
+        assertThrows(KeyNotFoundException.class, () -> provider.get("own-password"));
+        assertEquals(new HashSet<>(Arrays.asList("own-password")), provider.getSkippedAliases().keySet());
+        assertTrue(provider.getLastError().getMessage().contains("own-password"));
+    }
+
+    @Test
+    public void reloadIfChanged(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("keys.p12");
+        KeyPair first = MockKeys.newKeyPair();
+        save(store("first", first), file, 1000000L);
+
+        CachingKeyStoreKeyProvider provider = new CachingKeyStoreKeyProvider(file, KeyStore.getDefaultType(), PASSWORD);
+        assertEquals(first.getPrivate(), provider.get("first"));
+        assertFalse(provider.reloadIfChanged());
+
+        KeyPair second = MockKeys.newKeyPair();
+        save(store("second", second), file, 2000000L);
+        assertTrue(provider.reloadIfChanged());
+        assertEquals(second.getPrivate(), provider.get("second"));
+        assertThrows(KeyNotFoundException.class, () -> provider.get("first"));
+        assertNull(provider.getLastError());
+        assertTrue(provider.getSkippedAliases().isEmpty());
+
+        // A broken file leaves the keys we had alone
+        Files.write(file, new byte[]{ 1, 2, 3 });
+        Files.setLastModifiedTime(file, FileTime.fromMillis(3000000L));
+        assertThrows(Exception.class, provider::reloadIfChanged);
+        assertNotNull(provider.getLastError());
+        assertEquals(second.getPrivate(), provider.get("second"));
+    }
+
+    @Test
+    public void backgroundReload(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("keys.p12");
+        save(store("first", MockKeys.newKeyPair()), file, 1000000L);
+
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try (CachingKeyStoreKeyProvider provider = new CachingKeyStoreKeyProvider(
+                file, KeyStore.getDefaultType(), PASSWORD, scheduler, 10)) {
+
+            KeyPair second = MockKeys.newKeyPair();
+            save(store("second", second), file, 2000000L);
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!provider.getAliases().contains("second") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(second.getPrivate(), provider.get("second"));
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+}
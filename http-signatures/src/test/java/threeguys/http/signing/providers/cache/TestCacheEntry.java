@@ -39,6 +39,21 @@ public class TestCacheEntry {
         assertFalse(ce.isExpired(999_999));
         assertFalse(ce.isExpired(1_000_000));
         assertTrue(ce.isExpired(1_000_001));
+        assertEquals(1_000_000, ce.getRefreshAt());
+        assertFalse(ce.needsRefresh(1_000_000));
+    }
+
+    @Test
+    public void softAndHardTtl() {
+        CacheEntry<PrivateKey> ce = new CacheEntry<>("test", pair.getPrivate(), 500_000, 1_000_000);
+        assertEquals(500_000, ce.getRefreshAt());
+        assertFalse(ce.needsRefresh(500_000));
+        assertTrue(ce.needsRefresh(500_001));
+        assertFalse(ce.isExpired(500_001));
+
+        // A refresh can't be due after the entry has already expired
+        assertEquals(1_000, new CacheEntry<>("test", pair.getPrivate(), 5_000, 1_000).getRefreshAt());
+        assertNotEquals(ce, new CacheEntry<>("test", pair.getPrivate(), 1_000_000));
     }
 
     @Test
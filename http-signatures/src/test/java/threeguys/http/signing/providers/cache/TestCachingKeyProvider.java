@@ -14,6 +14,19 @@ import java.security.PublicKey;
 import java.security.Security;
 import java.time.Clock;
 import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.any;
@@ -72,7 +85,8 @@ public class TestCachingKeyProvider {
 
         CachingKeyProvider<PublicKey> provider = new CachingKeyProvider<>(clock, cache, loader);
         assertThrows(KeyNotFoundException.class, () -> provider.get("d-key"));
-        verify(cache, times(1)).getEntry(eq("d-key"));
+        // Once on the way in, once more after claiming the load
+        verify(cache, times(2)).getEntry(eq("d-key"));
         verify(cache, times(1)).invalidate(any());
         verify(loader, times(1)).load(eq("d-key"));
     }
@@ -86,8 +100,327 @@ public class TestCachingKeyProvider {
 
         PublicKey gotten = provider.get("e-key");
         assertEquals(gotten, pair.getPublic());
-        verify(cache, times(1)).getEntry(eq("e-key"));
+        verify(cache, times(2)).getEntry(eq("e-key"));
         verify(loader, times(1)).load(eq("e-key"));
     }
 
+    @Test
+    public void loadedWhileMissing_NoSecondLoad() throws KeyNotFoundException {
+        // Somebody else's load lands between the miss and this caller claiming the slot
+        KeyCache<PublicKey> cache = mock(KeyCache.class);
+        when(cache.getEntry(any())).thenReturn(null, new CacheEntry<>("f-key", pair.getPublic(), clock.millis() + 2000));
+        CacheLoader<String, PublicKey> loader = mock(CacheLoader.class);
+        CachingKeyProvider<PublicKey> provider = new CachingKeyProvider<>(clock, cache, loader);
+
+        assertEquals(pair.getPublic(), provider.get("f-key"));
+        verify(loader, times(0)).load(any());
+        assertEquals(0, provider.getStats().getLoadSuccesses());
+    }
+
+    // Starts callers that all miss on the same key while the loader is held on a latch, then
+    // waits until every one of them is either loading or waiting on the load
+    private <T> List<Future<T>> missTogether(int callers, AtomicInteger loads, CountDownLatch release,
+                                             Callable<T> call) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        List<Future<T>> results = new ArrayList<>();
+        for (int i=0; i<callers; i++) {
+            results.add(executor.submit(call));
+        }
+        executor.shutdown();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (loads.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Thread.sleep(100);
+        release.countDown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        return results;
+    }
+
+    @Test
+    public void concurrentMisses_SingleLoad() throws Exception {
+        KeyCache<PublicKey> cache = new ConcurrentKeyCache<>(clock, 10);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        CacheLoader<String, PublicKey> loader = (id) -> {
+            loads.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new KeyNotFoundException(e);
+            }
+            return new CacheEntry<>(id, pair.getPublic(), clock.millis() + 1000);
+        };
+
+        CachingKeyProvider<PublicKey> provider = new CachingKeyProvider<>(clock, cache, loader, 0);
+        for (Future<PublicKey> f : missTogether(8, loads, release, () -> provider.get("hot-key"))) {
+            assertEquals(pair.getPublic(), f.get());
+        }
+        assertEquals(1, loads.get());
+        assertEquals(pair.getPublic(), provider.get("hot-key"));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void concurrentMisses_ErrorPropagates() throws Exception {
+        KeyCache<PublicKey> cache = new ConcurrentKeyCache<>(clock, 10);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        CacheLoader<String, PublicKey> loader = (id) -> {
+            loads.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new KeyNotFoundException(e);
+            }
+            throw new KeyNotFoundException("No data for key: " + id);
+        };
+
+        CachingKeyProvider<PublicKey> provider = new CachingKeyProvider<>(clock, cache, loader, 0);
+        for (Future<PublicKey> f : missTogether(8, loads, release, () -> provider.get("bad-key"))) {
+            ExecutionException e = assertThrows(ExecutionException.class, f::get);
+            assertTrue(e.getCause() instanceof KeyNotFoundException);
+            assertEquals("No data for key: bad-key", e.getCause().getMessage());
+        }
+        assertEquals(1, loads.get());
+
+        // Failures aren't remembered, the next miss loads again
+        assertThrows(KeyNotFoundException.class, () -> provider.get("bad-key"));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void concurrentMisses_RuntimeErrorPropagates() throws Exception {
+        KeyCache<PublicKey> cache = new ConcurrentKeyCache<>(clock, 10);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        CacheLoader<String, PublicKey> loader = (id) -> {
+            loads.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new KeyNotFoundException(e);
+            }
+            throw new IllegalStateException("unit-test");
+        };
+
+        CachingKeyProvider<PublicKey> provider = new CachingKeyProvider<>(clock, cache, loader, 0);
+        for (Future<PublicKey> f : missTogether(4, loads, release, () -> provider.get("broken-key"))) {
+            ExecutionException e = assertThrows(ExecutionException.class, f::get);
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void concurrentMisses_Timeout() throws Exception {
+        KeyCache<PublicKey> cache = new ConcurrentKeyCache<>(clock, 10);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CacheLoader<String, PublicKey> loader = (id) -> {
+            loading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new KeyNotFoundException(e);
+            }
+            return new CacheEntry<>(id, pair.getPublic(), clock.millis() + 1000);
+        };
+
+        CachingKeyProvider<PublicKey> provider = new CachingKeyProvider<>(clock, cache, loader, 50);
+        assertEquals(50, provider.getLoadTimeoutMs());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<PublicKey> leader = executor.submit(() -> provider.get("slow-key"));
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+            KeyNotFoundException e = assertThrows(KeyNotFoundException.class, () -> provider.get("slow-key"));
+            assertEquals("Timed out waiting for key slow-key", e.getMessage());
+
+            release.countDown();
+            assertEquals(pair.getPublic(), leader.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private CacheEntry<PublicKey> softExpired(String id, PublicKey key) {
+        return new CacheEntry<>(id, key, clock.millis() - 1, clock.millis() + 1000);
+    }
+
+    @Test
+    public void softExpired_RefreshesInBackground() throws Exception {
+        KeyPair next = MockKeys.newKeyPair();
+        KeyCache<PublicKey> cache = new ConcurrentKeyCache<>(clock, 10);
+        cache.putEntry(softExpired("soft-key", pair.getPublic()));
+
+        AtomicInteger loads = new AtomicInteger();
+        CacheLoader<String, PublicKey> loader = (id) -> {
+            loads.incrementAndGet();
+            return new CacheEntry<>(id, next.getPublic(), clock.millis() + 1000);
+        };
+
+        LinkedList<Runnable> tasks = new LinkedList<>();
+        CachingKeyProvider<PublicKey> provider = new CachingKeyProvider<>(clock, cache, loader, 0, tasks::add, 0);
+
+        assertEquals(pair.getPublic(), provider.get("soft-key"));
+        assertEquals(pair.getPublic(), provider.get("soft-key"));
+        assertEquals(1, tasks.size());
+        assertEquals(0, loads.get());
+
+        tasks.poll().run();
+        assertEquals(1, loads.get());
+        assertEquals(next.getPublic(), provider.get("soft-key"));
+        assertTrue(tasks.isEmpty());
+    }
+
+    @Test
+    public void softExpired_NoExecutor_RefreshesInline() throws Exception {
+        KeyPair next = MockKeys.newKeyPair();
+        KeyCache<PublicKey> cache = new ConcurrentKeyCache<>(clock, 10);
+        cache.putEntry(softExpired("soft-key", pair.getPublic()));
+
+        CacheLoader<String, PublicKey> loader = mock(CacheLoader.class);
+        when(loader.load(any())).thenReturn(new CacheEntry<>("soft-key", next.getPublic(), clock.millis() + 1000));
+
+        CachingKeyProvider<PublicKey> provider = new CachingKeyProvider<>(clock, cache, loader);
+        assertEquals(pair.getPublic(), provider.get("soft-key"));
+        assertEquals(next.getPublic(), provider.get("soft-key"));
+        verify(loader, times(1)).load(eq("soft-key"));
+    }
+
+    @Test
+    public void softExpired_RefreshFails_KeepsServing() throws Exception {
+        KeyCache<PublicKey> cache = new ConcurrentKeyCache<>(clock, 10);
+        cache.putEntry(softExpired("soft-key", pair.getPublic()));
+
+        CacheLoader<String, PublicKey> loader = mock(CacheLoader.class);
+        when(loader.load(any())).thenThrow(new KeyNotFoundException("unit-test"));
+
+        LinkedList<Runnable> tasks = new LinkedList<>();
+        CachingKeyProvider<PublicKey> provider = new CachingKeyProvider<>(clock, cache, loader, 0, tasks::add, 0);
+        assertEquals(pair.getPublic(), provider.get("soft-key"));
+        tasks.poll().run();
+
+        // The failed refresh isn't stuck in flight, the next request schedules another
+        assertEquals(pair.getPublic(), provider.get("soft-key"));
+        assertEquals(1, tasks.size());
+    }
+
+    @Test
+    public void softExpired_RejectedRefresh() throws Exception {
+        KeyCache<PublicKey> cache = new ConcurrentKeyCache<>(clock, 10);
+        cache.putEntry(softExpired("soft-key", pair.getPublic()));
+        CacheLoader<String, PublicKey> loader = mock(CacheLoader.class);
+
+        CachingKeyProvider<PublicKey> provider = new CachingKeyProvider<>(clock, cache, loader, 0,
+                (r) -> { throw new RejectedExecutionException("unit-test"); }, 0);
+        assertEquals(pair.getPublic(), provider.get("soft-key"));
+        assertEquals(pair.getPublic(), provider.get("soft-key"));
+        verify(loader, times(0)).load(any());
+    }
+
+    @Test
+    public void staleIfError() throws Exception {
+        KeyCache<PublicKey> cache = new ConcurrentKeyCache<>(clock, 10);
+        cache.putEntry(new CacheEntry<>("stale-key", pair.getPublic(), clock.millis() - 500));
+        cache.putEntry(new CacheEntry<>("too-stale", pair.getPublic(), clock.millis() - 5000));
+
+        CacheLoader<String, PublicKey> loader = mock(CacheLoader.class);
+        when(loader.load(eq("stale-key"))).thenThrow(new KeyNotFoundException("unit-test"));
+        when(loader.load(eq("too-stale"))).thenThrow(new IllegalStateException("unit-test"));
+
+        CachingKeyProvider<PublicKey> provider = new CachingKeyProvider<>(clock, cache, loader, 0, null, 1000);
+        assertEquals(1000, provider.getStaleIfErrorMs());
+        assertEquals(pair.getPublic(), provider.get("stale-key"));
+        assertEquals(pair.getPublic(), provider.get("stale-key"));
+        verify(loader, times(2)).load(eq("stale-key"));
+
+        assertThrows(IllegalStateException.class, () -> provider.get("too-stale"));
+        assertNull(cache.getEntry("too-stale"));
+    }
+
+    @Test
+    public void staleIfError_LoadSucceeds() throws Exception {
+        KeyPair next = MockKeys.newKeyPair();
+        KeyCache<PublicKey> cache = new ConcurrentKeyCache<>(clock, 10);
+        cache.putEntry(new CacheEntry<>("stale-key", pair.getPublic(), clock.millis() - 500));
+
+        CacheLoader<String, PublicKey> loader = mock(CacheLoader.class);
+        when(loader.load(any())).thenReturn(new CacheEntry<>("stale-key", next.getPublic(), clock.millis() + 1000));
+
+        CachingKeyProvider<PublicKey> provider = new CachingKeyProvider<>(clock, cache, loader, 0, null, 1000);
+        assertEquals(next.getPublic(), provider.get("stale-key"));
+        assertEquals(next.getPublic(), provider.get("stale-key"));
+        verify(loader, times(1)).load(eq("stale-key"));
+    }
+
+    @Test
+    public void negativeCache() throws Exception {
+        CacheLoader<String, PublicKey> loader = mock(CacheLoader.class);
+        when(loader.load(eq("unknown"))).thenThrow(new KeyNotFoundException("unit-test"));
+        when(loader.load(eq("nothing"))).thenReturn(null);
+        when(loader.load(eq("broken"))).thenThrow(new IllegalStateException("unit-test"));
+
+        CachingKeyProvider<PublicKey> provider = new CachingKeyProviderBuilder<PublicKey>()
+                .withClock(clock)
+                .withLoader(loader)
+                .withNegativeCaching(1000, 10)
+                .build();
+
+        for (int i=0; i<5; i++) {
+            assertThrows(KeyNotFoundException.class, () -> provider.get("unknown"));
+            assertThrows(KeyNotFoundException.class, () -> provider.get("nothing"));
+            assertThrows(IllegalStateException.class, () -> provider.get("broken"));
+        }
+
+        // Only real "not found" answers are remembered, other failures go back to the loader
+        verify(loader, times(1)).load(eq("unknown"));
+        verify(loader, times(1)).load(eq("nothing"));
+        verify(loader, times(5)).load(eq("broken"));
+
+        CacheStats stats = provider.getStats();
+        assertEquals(8, stats.getNegativeHits());
+        assertEquals(7, stats.getLoadFailures());
+        assertEquals(15, stats.getMisses());
+        assertEquals(0, stats.getHits());
+        assertEquals(2, provider.getNegativeCache().size());
+    }
+
+    @Test
+    public void negativeCache_Expires() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CacheLoader<String, PublicKey> loader = (id) -> {
+            if (loads.incrementAndGet() == 1) {
+                throw new KeyNotFoundException("unit-test");
+            }
+            return new CacheEntry<>(id, pair.getPublic(), Long.MAX_VALUE);
+        };
+
+        AtomicLong now = new AtomicLong(clock.millis());
+        Clock ticking = mock(Clock.class);
+        when(ticking.millis()).thenAnswer((i) -> now.get());
+
+        CachingKeyProvider<PublicKey> provider = new CachingKeyProviderBuilder<PublicKey>()
+                .withClock(ticking)
+                .withLoader(loader)
+                .withNegativeCache(new NegativeCache(1000, 10))
+                .build();
+
+        assertThrows(KeyNotFoundException.class, () -> provider.get("new-key"));
+        assertThrows(KeyNotFoundException.class, () -> provider.get("new-key"));
+        assertEquals(1, loads.get());
+
+        now.addAndGet(1001);
+        assertEquals(pair.getPublic(), provider.get("new-key"));
+        assertEquals(pair.getPublic(), provider.get("new-key"));
+        assertEquals(2, loads.get());
+        assertEquals(1, provider.getStats().getHits());
+        assertEquals(1, provider.getStats().getLoadSuccesses());
+        assertTrue(provider.getStats().getTotalLoadNanos() > 0);
+        assertEquals(0, provider.getNegativeCache().size());
+    }
+
 }
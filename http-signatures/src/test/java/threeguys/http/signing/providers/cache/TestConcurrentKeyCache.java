@@ -0,0 +1,184 @@
+package threeguys.http.signing.providers.cache;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.Test;
+import threeguys.http.signing.providers.MockKeys;
+
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.PublicKey;
+import java.security.Security;
+import java.time.Clock;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestConcurrentKeyCache {
+
+    private final Clock clock;
+    private final KeyPair [] pairs;
+
+    public TestConcurrentKeyCache() throws NoSuchProviderException, NoSuchAlgorithmException {
+        Security.addProvider(new BouncyCastleProvider());
+        this.clock = Clock.fixed(Clock.systemUTC().instant(), ZoneId.of("UTC"));
+        this.pairs = new KeyPair[4];
+        for (int i=0; i<pairs.length; i++) {
+            pairs[i] = MockKeys.newKeyPair();
+        }
+    }
+
+    private PublicKey keyFor(String id) {
+        return pairs[Math.abs(id.hashCode() % pairs.length)].getPublic();
+    }
+
+    private CacheEntry<PublicKey> entry(String id, long ttl) {
+        return new CacheEntry<>(id, keyFor(id), clock.millis() + ttl);
+    }
+
+    @Test
+    public void happyCase() {
+        ConcurrentKeyCache<PublicKey> cache = new ConcurrentKeyCache<>(clock, 5);
+        assertNull(cache.putEntry(entry("a", 1000)));
+        assertEquals(keyFor("a"), cache.get("a"));
+        assertEquals(entry("a", 1000), cache.getEntry("a"));
+
+        CacheEntry<PublicKey> replaced = entry("a", 2000);
+        assertEquals(entry("a", 1000), cache.putEntry(replaced));
+        assertEquals(replaced, cache.getEntry("a"));
+        assertNull(cache.get("missing"));
+        assertNull(cache.getEntry("missing"));
+    }
+
+    @Test
+    public void putEntryIfAbsent() {
+        ConcurrentKeyCache<PublicKey> cache = new ConcurrentKeyCache<>(clock, 5);
+        assertNull(cache.putEntryIfAbsent(entry("a", 1000)));
+        assertEquals(entry("a", 1000), cache.getEntry("a"));
+
+        assertEquals(entry("a", 1000), cache.putEntryIfAbsent(entry("a", 2000)));
+        assertEquals(entry("a", 1000), cache.getEntry("a"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void expiredEntry() {
+        ConcurrentKeyCache<PublicKey> cache = new ConcurrentKeyCache<>(clock, 5);
+        cache.putEntry(entry("old", -1000));
+        assertEquals(entry("old", -1000), cache.getEntry("old"));
+        assertNull(cache.get("old"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void invalidate() {
+        ConcurrentKeyCache<PublicKey> cache = new ConcurrentKeyCache<>(clock, 5);
+        cache.putEntry(entry("test", 10000));
+
+        CacheEntry<PublicKey> stale = entry("test", 0);
+        assertEquals(entry("test", 10000), cache.invalidate(stale));
+        assertEquals(1, cache.size());
+
+        assertNull(cache.invalidate(entry("test", 10000)));
+        assertEquals(0, cache.size());
+        assertNull(cache.invalidate(entry("test", 10000)));
+    }
+
+    @Test
+    public void evictsLeastRecentlyRead() {
+        ConcurrentKeyCache<PublicKey> cache = new ConcurrentKeyCache<>(clock, 4, 16);
+        for (String id : new String[] { "a", "b", "c", "d" }) {
+            cache.putEntry(entry(id, 10000));
+        }
+        assertNotNull(cache.get("a"));
+
+        assertEquals(0, cache.getEvictions());
+        cache.putEntry(entry("e", 10000));
+        assertEquals(4, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.getEntry("b"));
+        assertNotNull(cache.getEntry("a"));
+        assertNotNull(cache.getEntry("e"));
+    }
+
+    @Test
+    public void evictsExpiredFirst() {
+        ConcurrentKeyCache<PublicKey> cache = new ConcurrentKeyCache<>(clock, 3, 16);
+        cache.putEntry(entry("a", 10000));
+        cache.putEntry(entry("b", 10000));
+        cache.putEntry(entry("c", -1));
+        cache.get("a");
+        cache.get("b");
+
+        cache.putEntry(entry("d", 10000));
+        assertEquals(3, cache.size());
+        assertNull(cache.getEntry("c"));
+    }
+
+    @Test
+    public void defaults() {
+        assertEquals(ConcurrentKeyCache.DEFAULT_MAX_ENTRIES, new ConcurrentKeyCache<PublicKey>(0).getMaxEntries());
+        assertThrows(IllegalArgumentException.class, () -> new ConcurrentKeyCache<PublicKey>(clock, 10, 0));
+    }
+
+    @Test
+    public void stress() throws Exception {
+        int threads = 8;
+        int maxEntries = 64;
+        int ids = 256;
+        int operations = 50000;
+
+        ConcurrentKeyCache<PublicKey> cache = new ConcurrentKeyCache<>(clock, maxEntries);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t=0; t<threads; t++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i=0; i<operations; i++) {
+                        String id = Integer.toString(random.nextInt(ids));
+                        int op = random.nextInt(10);
+                        if (op == 0) {
+                            cache.putEntry(entry(id, random.nextInt(4) == 0 ? -1 : 10000));
+                        } else if (op == 1) {
+                            cache.invalidate(entry(id, 10000));
+                        } else {
+                            PublicKey found = (op < 6) ? cache.get(id) : null;
+                            CacheEntry<PublicKey> ce = (op >= 6) ? cache.getEntry(id) : null;
+                            if (found != null) {
+                                assertEquals(keyFor(id), found);
+                            }
+                            if (ce != null) {
+                                assertEquals(id, ce.getId());
+                                assertEquals(keyFor(id), ce.getKey());
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+
+            for (Future<?> f : results) {
+                f.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Writers don't wait on eviction, so the cache can briefly overshoot while it's busy
+        cache.cleanUp();
+        assertTrue(cache.size() <= maxEntries);
+    }
+
+}
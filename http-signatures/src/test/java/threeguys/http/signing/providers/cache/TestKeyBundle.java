@@ -0,0 +1,227 @@
+package threeguys.http.signing.providers.cache;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import threeguys.http.signing.exceptions.KeyNotFoundException;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.Security;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Base64;
+import java.util.Date;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestKeyBundle {
+
+    @BeforeAll
+    public static void setup() {
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+
+    private static PublicKey rsaKey() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        return generator.generateKeyPair().getPublic();
+    }
+
+    private static PublicKey ecKey() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        return generator.generateKeyPair().getPublic();
+    }
+
+    private static byte [] certificate(KeyPair pair) throws Exception {
+        X500Name name = new X500Name("CN=unit-test");
+        Date notBefore = new Date(System.currentTimeMillis() - 60000);
+        Date notAfter = new Date(System.currentTimeMillis() + 3600000);
+        return new JcaX509v3CertificateBuilder(name, BigInteger.ONE, notBefore, notAfter, name, pair.getPublic())
+                .build(new JcaContentSignerBuilder("SHA256WithRSA").build(pair.getPrivate()))
+                .getEncoded();
+    }
+
+    private static byte [] bytes(ByteBuffer buffer) {
+        byte [] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return data;
+    }
+
+    @Test
+    public void roundTrip(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("keys.bundle");
+        PublicKey rsa = rsaKey();
+        PublicKey ec = ecKey();
+
+        try (KeyBundleWriter writer = new KeyBundleWriter(file, 4)) {
+            writer.add("rsa-key", rsa).add("ec-key", ec).add("clé-ünïcode", "RSA", rsa.getEncoded());
+            assertThrows(IllegalArgumentException.class, () -> writer.add("rsa-key", ec));
+            writer.commit();
+        }
+
+        KeyBundle bundle = KeyBundle.open(file);
+        assertEquals(3, bundle.size());
+
+        ByteBuffer record = bundle.find("ec-key");
+        assertEquals("EC", KeyBundle.algorithm(record));
+        assertArrayEquals(ec.getEncoded(), bytes(KeyBundle.encoded(record)));
+        assertArrayEquals(rsa.getEncoded(), bytes(KeyBundle.encoded(bundle.find("clé-ünïcode"))));
+        assertNull(bundle.find("missing"));
+        assertNull(bundle.find("rsa-ke"));
+        assertNull(bundle.find("clé"));
+
+        Clock clock = Clock.fixed(Instant.ofEpochMilli(1000), ZoneId.of("UTC"));
+        KeyBundleCacheLoader loader = new KeyBundleCacheLoader(bundle, clock, 60, 300);
+        CacheEntry<PublicKey> entry = loader.load("rsa-key");
+        assertEquals(rsa, entry.getKey());
+        assertEquals(61000, entry.getRefreshAt());
+        assertEquals(301000, entry.getExpires());
+        assertEquals(ec, loader.load("ec-key").getKey());
+        assertThrows(KeyNotFoundException.class, () -> loader.load("missing"));
+    }
+
+    @Test
+    public void manyKeys(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("many.bundle");
+        int count = 5000;
+        try (KeyBundleWriter writer = new KeyBundleWriter(file, count)) {
+            for (int i=0; i<count; i++) {
+                writer.add("tenant-" + i, "RSA", ("key-" + i).getBytes(StandardCharsets.US_ASCII));
+            }
+            assertThrows(IllegalStateException.class, () -> writer.add("one-too-many", "RSA", new byte[1]));
+            writer.commit();
+        }
+
+        KeyBundle bundle = KeyBundle.open(file);
+        assertEquals(count, bundle.size());
+        for (int i=0; i<count; i++) {
+            ByteBuffer record = bundle.find("tenant-" + i);
+            assertNotNull(record, "tenant-" + i);
+            assertEquals("key-" + i, new String(bytes(KeyBundle.encoded(record)), StandardCharsets.US_ASCII));
+        }
+        assertNull(bundle.find("tenant-" + count));
+    }
+
+    @Test
+    public void undecodableKey(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("bad.bundle");
+        try (KeyBundleWriter writer = new KeyBundleWriter(file, 1)) {
+            writer.add("garbage", "RSA", new byte[] { 1, 2, 3 });
+            writer.commit();
+        }
+
+        KeyBundleCacheLoader loader = new KeyBundleCacheLoader(KeyBundle.open(file), Clock.systemUTC(), 300);
+        assertThrows(KeyNotFoundException.class, () -> loader.load("garbage"));
+    }
+
+    @Test
+    public void uncommittedLeavesTargetAlone(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("keys.bundle");
+        try (KeyBundleWriter writer = new KeyBundleWriter(file, 1)) {
+            writer.add("first", "RSA", new byte[] { 1 });
+            writer.commit();
+        }
+        byte [] original = Files.readAllBytes(file);
+
+        try (KeyBundleWriter writer = new KeyBundleWriter(file, 1)) {
+            writer.add("second", "RSA", new byte[] { 2 });
+        }
+        assertArrayEquals(original, Files.readAllBytes(file));
+
+        KeyBundleWriter aborted = new KeyBundleWriter(file, 1);
+        aborted.abort();
+        assertThrows(IllegalStateException.class, aborted::commit);
+        assertThrows(IllegalStateException.class, () -> aborted.add("late", "RSA", new byte[] { 3 }));
+
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void replacesMappedBundle(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("keys.bundle");
+        try (KeyBundleWriter writer = new KeyBundleWriter(file, 1)) {
+            writer.add("first", "RSA", new byte[] { 1 });
+            writer.commit();
+        }
+        KeyBundle mapped = KeyBundle.open(file);
+
+        try (KeyBundleWriter writer = new KeyBundleWriter(file, 2)) {
+            writer.add("second", "RSA", new byte[] { 2 }).add("third", "RSA", new byte[] { 3 });
+            writer.commit();
+        }
+
+        // The old mapping still reads what it had, the file now has the new bundle
+        assertArrayEquals(new byte[] { 1 }, bytes(KeyBundle.encoded(mapped.find("first"))));
+        KeyBundle reopened = KeyBundle.open(file);
+        assertEquals(2, reopened.size());
+        assertNull(reopened.find("first"));
+    }
+
+    @Test
+    public void notABundle() {
+        assertThrows(IOException.class, () -> new KeyBundle(ByteBuffer.wrap(new byte[64])));
+        assertThrows(IOException.class, () -> new KeyBundle(ByteBuffer.allocate(16)
+                .putInt(KeyBundle.MAGIC).putInt(KeyBundle.VERSION).putInt(3).putInt(1).flip()));
+    }
+
+    @Test
+    public void fromPemDirectory(@TempDir Path dir) throws Exception {
+        Path pems = Files.createDirectory(dir.resolve("pems"));
+        PublicKey rsa = rsaKey();
+        PublicKey ec = ecKey();
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        KeyPair certified = generator.generateKeyPair();
+
+        String body = Base64.getMimeEncoder(64, "\n".getBytes(StandardCharsets.US_ASCII)).encodeToString(rsa.getEncoded());
+        Files.write(pems.resolve("tenant-a.pem"),
+                ("-----BEGIN PUBLIC KEY-----\n" + body + "\n-----END PUBLIC KEY-----\n").getBytes(StandardCharsets.US_ASCII));
+        body = Base64.getMimeEncoder().encodeToString(ec.getEncoded());
+        Files.write(pems.resolve("tenant-b.public.pem"),
+                ("-----BEGIN PUBLIC KEY-----\r\n" + body + "\r\n-----END PUBLIC KEY-----\r\n").getBytes(StandardCharsets.US_ASCII));
+        body = Base64.getMimeEncoder().encodeToString(certificate(certified));
+        Files.write(pems.resolve("tenant-c.pem"),
+                ("-----BEGIN CERTIFICATE-----\n" + body + "\n-----END CERTIFICATE-----\n").getBytes(StandardCharsets.US_ASCII));
+        Files.write(pems.resolve("ignored.txt"), new byte[] { 1 });
+
+        Path file = dir.resolve("tenants.bundle");
+        assertEquals(3, KeyBundleTool.build(pems, file));
+
+        KeyBundleCacheLoader loader = new KeyBundleCacheLoader(KeyBundle.open(file), Clock.systemUTC(), 300);
+        assertEquals(rsa, loader.load("tenant-a").getKey());
+        assertEquals(ec, loader.load("tenant-b").getKey());
+        assertEquals(certified.getPublic(), loader.load("tenant-c").getKey());
+        assertThrows(KeyNotFoundException.class, () -> loader.load("ignored"));
+
+        // A bad file part way through fails the build and keeps the bundle that was there
+        byte [] good = Files.readAllBytes(file);
+        Files.write(pems.resolve("tenant-bb.pem"), "-----BEGIN PUBLIC KEY-----\nAAAA\n-----END PUBLIC KEY-----\n".getBytes(StandardCharsets.US_ASCII));
+        assertThrows(GeneralSecurityException.class, () -> KeyBundleTool.build(pems, file));
+        assertArrayEquals(good, Files.readAllBytes(file));
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(2, files.count());
+        }
+    }
+
+}
@@ -39,6 +39,7 @@ public class TestLruKeyHashMap {
         CacheEntry<PublicKey> tmp = new CacheEntry<>("yo", MockKeys.newKeyPair().getPublic(), clock.millis() + 10000);
         map.put("yo", new CacheEntry<>("yo", tmp.getKey(), clock.millis() + 10000));
         assertEquals(5, map.size());
+        assertEquals(1, map.getEvictions());
         assertEquals(tmp, map.get("yo"));
 
         map.invalidate(tmp);
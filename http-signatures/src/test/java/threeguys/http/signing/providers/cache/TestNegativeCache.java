@@ -0,0 +1,103 @@
+package threeguys.http.signing.providers.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestNegativeCache {
+
+    @Test
+    public void happyCase() {
+        NegativeCache negative = new NegativeCache(1000, 10);
+        assertFalse(negative.contains("a", 0));
+
+        negative.add("a", 0);
+        assertTrue(negative.contains("a", 0));
+        assertTrue(negative.contains("a", 1000));
+        assertFalse(negative.contains("a", 1001));
+        assertEquals(0, negative.size());
+
+        negative.add("b", 0);
+        negative.remove("b");
+        assertFalse(negative.contains("b", 0));
+    }
+
+    @Test
+    public void bounded() {
+        NegativeCache negative = new NegativeCache(1000, 3);
+        negative.add("a", 0);
+        negative.add("b", 10);
+        negative.add("c", 20);
+        negative.add("d", 30);
+        assertEquals(3, negative.size());
+        assertFalse(negative.contains("a", 30));
+        assertTrue(negative.contains("d", 30));
+
+        // Re-adding a known id doesn't push anything out
+        negative.add("d", 40);
+        assertEquals(3, negative.size());
+        assertTrue(negative.contains("b", 40));
+    }
+
+    @Test
+    public void expiredDroppedFirst() {
+        NegativeCache negative = new NegativeCache(100, 3);
+        negative.add("a", 500);
+        negative.add("b", 0);
+        negative.add("c", 500);
+        negative.add("d", 550);
+        assertEquals(3, negative.size());
+        assertTrue(negative.contains("a", 550));
+        assertFalse(negative.contains("b", 550));
+    }
+
+    @Test
+    public void staysBoundedWhenFull() {
+        NegativeCache negative = new NegativeCache(1000000, 100);
+        for (int i=0; i<10000; i++) {
+            negative.add("key-" + i, i);
+            assertTrue(negative.size() <= 100);
+        }
+        assertTrue(negative.contains("key-9999", 10000));
+    }
+
+    @Test
+    public void concurrentAddsStayBounded() throws Exception {
+        NegativeCache negative = new NegativeCache(1000000, 50);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t=0; t<8; t++) {
+            int thread = t;
+            results.add(executor.submit(() -> {
+                for (int i=0; i<5000; i++) {
+                    negative.add(thread + "-" + i, i);
+                    assertTrue(negative.size() <= 50 + 8);
+                }
+            }));
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        for (Future<?> f : results) {
+            f.get();
+        }
+        assertTrue(negative.size() <= 50);
+    }
+
+    @Test
+    public void defaults() {
+        NegativeCache negative = new NegativeCache();
+        assertEquals(NegativeCache.DEFAULT_TTL_MS, negative.getTtlMs());
+        assertEquals(NegativeCache.DEFAULT_MAX_ENTRIES, negative.getMaxEntries());
+        assertEquals(NegativeCache.DEFAULT_MAX_ENTRIES, new NegativeCache(10, 0).getMaxEntries());
+        assertThrows(IllegalArgumentException.class, () -> new NegativeCache(0, 10));
+        assertThrows(IllegalArgumentException.class, () -> new NegativeCache(10, 10, 0));
+    }
+
+}
@@ -0,0 +1,216 @@
+package threeguys.http.signing.providers.cache;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestTieredKeyCache {
+
+    private static final Clock CLOCK = Clock.fixed(Instant.ofEpochMilli(1000), ZoneId.of("UTC"));
+
+    private static PublicKey [] keys;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        KeyPairGenerator ec = KeyPairGenerator.getInstance("EC");
+        ec.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPairGenerator rsa = KeyPairGenerator.getInstance("RSA");
+        rsa.initialize(1024);
+        keys = new PublicKey[] {
+                ec.generateKeyPair().getPublic(),
+                rsa.generateKeyPair().getPublic(),
+                ec.generateKeyPair().getPublic()
+        };
+    }
+
+    private static PublicKey key(int i) {
+        return keys[i % keys.length];
+    }
+
+    private static CacheEntry<PublicKey> entry(int i) {
+        return new CacheEntry<>("tenant-" + i, key(i), 50000, 100000);
+    }
+
+    @Test
+    public void offHeap_roundTrip() throws Exception {
+        OffHeapKeyStore store = new OffHeapKeyStore(1 << 20, 100, 4);
+        assertTrue(store.put(entry(1)));
+        assertTrue(store.put(new CacheEntry<>("clé-ünïcode", key(2), 10, 20)));
+
+        CacheEntry<PublicKey> found = store.get("tenant-1");
+        assertEquals(key(1), found.getKey());
+        assertEquals(50000, found.getRefreshAt());
+        assertEquals(100000, found.getExpires());
+        assertEquals(key(2), store.get("clé-ünïcode").getKey());
+        assertNull(store.get("tenant-2"));
+
+        // Replacing keeps a single slot
+        assertTrue(store.put(new CacheEntry<>("tenant-1", key(0), 1, 2)));
+        assertEquals(key(0), store.get("tenant-1").getKey());
+        assertEquals(2, store.size());
+
+        assertTrue(store.remove("tenant-1"));
+        assertFalse(store.remove("tenant-1"));
+        assertNull(store.get("tenant-1"));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void offHeap_ringOverwritesOldest() throws Exception {
+        // Room for a couple of hundred EC/RSA records in a single stripe
+        OffHeapKeyStore store = new OffHeapKeyStore(64 * 1024, 10000, 1);
+        int count = 2000;
+        for (int i=0; i<count; i++) {
+            assertTrue(store.put(entry(i)));
+        }
+
+        assertTrue(store.size() < count);
+        assertNull(store.get("tenant-0"));
+        assertEquals(key(count - 1), store.get("tenant-" + (count - 1)).getKey());
+
+        int found = 0;
+        for (int i=0; i<count; i++) {
+            CacheEntry<PublicKey> e = store.get("tenant-" + i);
+            if (e != null) {
+                assertEquals(key(i), e.getKey());
+                found++;
+            }
+        }
+        assertEquals(store.size(), found);
+    }
+
+    @Test
+    public void offHeap_invalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new OffHeapKeyStore(1024, 10, 3));
+        assertThrows(IllegalArgumentException.class, () -> new OffHeapKeyStore(1024, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new OffHeapKeyStore(8, 10, 16));
+
+        OffHeapKeyStore tiny = new OffHeapKeyStore(64, 10, 1);
+        assertFalse(tiny.put(entry(1)));
+    }
+
+    @Test
+    public void promotesOnAccess() {
+        TieredKeyCache cache = new TieredKeyCache(CLOCK, 10, new OffHeapKeyStore(1 << 20, 1000));
+        for (int i=0; i<500; i++) {
+            cache.putEntry(entry(i));
+        }
+        cache.getHeap().cleanUp();
+        assertTrue(cache.getHeap().size() <= 10);
+        assertEquals(500, cache.getOffHeap().size());
+
+        for (int i=0; i<500; i++) {
+            assertEquals(key(i), cache.get("tenant-" + i));
+        }
+        assertTrue(cache.getPromotions() >= 490);
+        assertTrue(cache.getHeap().size() <= 10 + 1);
+
+        long heapHits = cache.getHeapHits();
+        assertEquals(key(499), cache.get("tenant-499"));
+        assertEquals(heapHits + 1, cache.getHeapHits());
+
+        assertNull(cache.get("missing"));
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void promotionDoesNotReplaceNewerEntry() {
+        CacheEntry<PublicKey> newer = new CacheEntry<>("tenant-1", key(0), 90000, 200000);
+        AtomicReference<TieredKeyCache> tiered = new AtomicReference<>();
+
+        // Somebody puts a newer key while this reader is busy decoding the old one
+        OffHeapKeyStore offHeap = new OffHeapKeyStore(1 << 20, 1000) {
+            @Override
+            public CacheEntry<PublicKey> get(String keyId) throws GeneralSecurityException {
+                CacheEntry<PublicKey> old = super.get(keyId);
+                tiered.get().getHeap().putEntry(newer);
+                return old;
+            }
+        };
+        TieredKeyCache cache = new TieredKeyCache(CLOCK, 10, offHeap);
+        tiered.set(cache);
+        offHeap.put(entry(1));
+
+        assertEquals(newer, cache.getEntry("tenant-1"));
+        assertEquals(newer, cache.getHeap().getEntry("tenant-1"));
+        assertEquals(0, cache.getPromotions());
+    }
+
+    @Test
+    public void invalidate() {
+        TieredKeyCache cache = new TieredKeyCache(CLOCK, 10, new OffHeapKeyStore(1 << 20, 1000));
+        CacheEntry<PublicKey> first = entry(1);
+        cache.putEntry(first);
+
+        CacheEntry<PublicKey> other = new CacheEntry<>("tenant-1", key(1), 1, 2);
+        assertEquals(first, cache.invalidate(other));
+        assertNotNull(cache.getOffHeap().getRecord("tenant-1"));
+
+        assertNull(cache.invalidate(first));
+        assertNull(cache.getEntry("tenant-1"));
+        assertNull(cache.getOffHeap().getRecord("tenant-1"));
+    }
+
+    @Test
+    public void expired() {
+        TieredKeyCache cache = new TieredKeyCache(CLOCK, 10, new OffHeapKeyStore(1 << 20, 1000));
+        cache.putEntry(new CacheEntry<>("old", key(0), 500));
+        assertNull(cache.get("old"));
+        assertNotNull(cache.getEntry("old"));
+    }
+
+    @Test
+    public void concurrentAccess() throws Exception {
+        TieredKeyCache cache = new TieredKeyCache(CLOCK, 16, new OffHeapKeyStore(1 << 20, 2000));
+        int ids = 1000;
+        for (int i=0; i<ids; i++) {
+            cache.putEntry(entry(i));
+        }
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t=0; t<4; t++) {
+            final long seed = t;
+            threads.add(new Thread(() -> {
+                Random random = new Random(seed);
+                try {
+                    for (int i=0; i<5000; i++) {
+                        int id = random.nextInt(ids);
+                        if (random.nextInt(10) == 0) {
+                            cache.putEntry(entry(id));
+                        } else {
+                            PublicKey found = cache.get("tenant-" + id);
+                            if (!key(id).equals(found)) {
+                                throw new AssertionError("tenant-" + id + " => " + found);
+                            }
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+}